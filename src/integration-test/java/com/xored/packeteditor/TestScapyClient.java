@@ -7,6 +7,7 @@ import com.xored.javafx.packeteditor.guice.GuiceModule;
 import com.xored.javafx.packeteditor.scapy.*;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import org.junit.*;
 import org.junit.rules.Timeout;
@@ -41,7 +42,7 @@ public class TestScapyClient {
                 ReconstructProtocol.pass("IP"),
                 ReconstructProtocol.modify("TCP", Arrays.asList(ReconstructField.setValue("sport", 888)))
         ));
-        assertNotNull(pd.binary);
+        assertTrue(pd.getPacketBytes().length > 0);
         assertEquals(pd.data.get(0).id, "Ether");
         assertEquals(pd.data.get(1).id, "IP");
         assertEquals(pd.data.get(2).id, "TCP");
@@ -59,7 +60,7 @@ public class TestScapyClient {
                 ReconstructProtocol.pass("Ether"),
                 ReconstructProtocol.modify("IP", Arrays.asList(ReconstructField.setHumanValue("len", "123")))
         ));
-        assertNotNull(pd.binary);
+        assertTrue(pd.getPacketBytes().length > 0);
         assertEquals(pd.data.get(1).id, "IP");
         assertEquals(pd.data.get(1).getFieldById("len").getIntValue(), 123);
     }
@@ -103,4 +104,29 @@ public class TestScapyClient {
         assertTrue(!etherPayload.contains("Ether"));
         assertTrue(!etherPayload.contains("TCO"));
     }
+
+    @Test
+    public void should_pipeline_async_requests() {
+        CompletableFuture<List<String>> etherPayload = scapy.get_payload_classes_async("Ether");
+        CompletableFuture<List<String>> ipPayload = scapy.get_payload_classes_async("IP");
+        CompletableFuture<PacketData> pkt = scapy.build_pkt_async(Arrays.asList(
+                ReconstructProtocol.pass("Ether"),
+                ReconstructProtocol.pass("IP")
+        ));
+
+        assertEquals(pkt.join().data.get(1).id, "IP");
+        assertTrue(ipPayload.join().contains("TCP"));
+        assertTrue(etherPayload.join().contains("IP"));
+    }
+
+    @Test
+    public void should_batch_async_requests() {
+        List<CompletableFuture<List<String>>> payloads = scapy.batch(() -> Arrays.asList(
+                scapy.get_payload_classes_async("Ether"),
+                scapy.get_payload_classes_async("IP")
+        ));
+
+        assertTrue(payloads.get(0).join().contains("IP"));
+        assertTrue(payloads.get(1).join().contains("TCP"));
+    }
 }
@@ -25,6 +25,9 @@ public class AppController {
     @Inject
     private FieldEngineController engineController;
 
+    @Inject
+    private CaptureListController captureListController;
+
     @Inject
     private EventBus eventBus;
 
@@ -45,6 +48,7 @@ public class AppController {
         registerEventBusHandler(metadataService);
         registerEventBusHandler(editorController);
         registerEventBusHandler(engineController);
+        registerEventBusHandler(captureListController);
         registerEventBusHandler(model);
     }
     
@@ -0,0 +1,133 @@
+package com.xored.javafx.packeteditor.controllers;
+
+import com.google.common.eventbus.Subscribe;
+import com.google.inject.Inject;
+import com.xored.javafx.packeteditor.controls.HexFormat;
+import com.xored.javafx.packeteditor.data.ModelCommandExecutor;
+import com.xored.javafx.packeteditor.data.PacketEditorModel;
+import com.xored.javafx.packeteditor.events.CaptureChangedEvent;
+import com.xored.javafx.packeteditor.pcap.PcapReader;
+import com.xored.javafx.packeteditor.service.CaptureService;
+import javafx.collections.FXCollections;
+import javafx.fxml.FXML;
+import javafx.fxml.Initializable;
+import javafx.scene.control.Label;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.ListView;
+import javafx.scene.layout.VBox;
+
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+import java.util.Collections;
+import java.util.ResourceBundle;
+
+/**
+ * List of packets of the opened capture. Summaries are computed from the mapped file for visible rows only,
+ * selected packet is dissected and loaded into the editor
+ */
+public class CaptureListController implements Initializable {
+    /** bytes shown in the packet summary */
+    static final int SUMMARY_BYTES = 8;
+    static final double CELL_HEIGHT = 20;
+
+    @FXML private VBox captureListPane;
+    @FXML private Label captureListTitle;
+    @FXML private ListView<Integer> captureList;
+
+    @Inject
+    private CaptureService captureService;
+
+    @Inject
+    private PacketEditorModel model;
+
+    @Inject
+    private FieldEditorController editorController;
+
+    private PcapReader reader;
+    /** true while the list is filled, selection doesn't load packets */
+    private boolean updating = false;
+
+    @Override
+    public void initialize(URL location, ResourceBundle resources) {
+        captureList.setFixedCellSize(CELL_HEIGHT);
+        captureList.setCellFactory(listView -> new PacketCell());
+        captureList.getSelectionModel().selectedItemProperty().addListener((observable, oldValue, newValue) -> {
+            if (!updating && newValue != null) {
+                loadPacket(newValue);
+            }
+        });
+    }
+
+    @Subscribe
+    public void handleCaptureChangedEvent(CaptureChangedEvent event) {
+        if (captureListPane == null) {
+            // embedded layout has no capture list
+            return;
+        }
+        reader = captureService.getReader();
+        int count = reader != null ? reader.getPacketCount() : 0;
+        // a single packet capture doesn't need a list
+        boolean visible = count > 1;
+        captureListPane.setVisible(visible);
+        captureListPane.setManaged(visible);
+
+        updating = true;
+        try {
+            captureList.setItems(FXCollections.observableList(visible ? indexes(count) : Collections.emptyList()));
+            if (visible) {
+                captureListTitle.setText(count + " packets - " + reader.getFile().getName());
+                captureList.getSelectionModel().select(0);
+                captureList.scrollTo(0);
+            }
+        } finally {
+            updating = false;
+        }
+    }
+
+    private void loadPacket(int idx) {
+        ModelCommandExecutor.onFxThread(model.loadCapturePacket(idx), (ignored, e) -> {
+            if (e != null) {
+                editorController.showError("Unable to load packet " + (idx + 1), e instanceof Exception ? (Exception) e : new RuntimeException(e));
+            }
+        });
+    }
+
+    /** list of 0..count-1 without storing the elements */
+    private static AbstractList<Integer> indexes(int count) {
+        return new AbstractList<Integer>() {
+            @Override
+            public Integer get(int index) {
+                return index;
+            }
+
+            @Override
+            public int size() {
+                return count;
+            }
+        };
+    }
+
+    /** "index  time  length  first bytes", time is relative to the first packet */
+    private class PacketCell extends ListCell<Integer> {
+        private final char[] bytesChars = new char[SUMMARY_BYTES * 3];
+
+        @Override
+        protected void updateItem(Integer idx, boolean empty) {
+            super.updateItem(idx, empty);
+            if (empty || idx == null || reader == null || idx >= reader.getPacketCount()) {
+                setText(null);
+                return;
+            }
+            long time = reader.getTimestampNanos(idx) - reader.getTimestampNanos(0);
+            ByteBuffer packet = reader.getPacket(idx);
+            int count = Math.min(SUMMARY_BYTES, packet.remaining());
+            int pos = 0;
+            for (int i = 0; i < count; i++) {
+                pos = HexFormat.hex(packet.get(i), bytesChars, pos);
+                bytesChars[pos++] = ' ';
+            }
+            setText(String.format("%-6d %12.6f %5d  %s", idx + 1, time / 1e9, packet.remaining(), new String(bytesChars, 0, pos)));
+        }
+    }
+}
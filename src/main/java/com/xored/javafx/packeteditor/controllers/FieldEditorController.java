@@ -2,15 +2,19 @@ package com.xored.javafx.packeteditor.controllers;
 
 import com.google.common.eventbus.EventBus;
 import com.google.common.eventbus.Subscribe;
-import com.google.common.io.Files;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonPrimitive;
 import com.google.inject.Inject;
 import com.google.inject.name.Named;
+import com.xored.javafx.packeteditor.controls.HexFormat;
+import com.xored.javafx.packeteditor.data.ModelCommandExecutor;
 import com.xored.javafx.packeteditor.data.PacketEditorModel;
 import com.xored.javafx.packeteditor.data.combined.CombinedField;
 import com.xored.javafx.packeteditor.data.user.DocumentFile;
 import com.xored.javafx.packeteditor.events.*;
+import com.xored.javafx.packeteditor.fieldengine.FieldEngineProgram;
+import com.xored.javafx.packeteditor.fieldengine.FieldEngineSimulator;
+import com.xored.javafx.packeteditor.pcap.PcapWriter;
 import com.xored.javafx.packeteditor.scapy.MethodNotFoundException;
 import com.xored.javafx.packeteditor.scapy.PacketData;
 import com.xored.javafx.packeteditor.scapy.ScapyServerClient;
@@ -23,13 +27,10 @@ import com.xored.javafx.packeteditor.view.FieldEngineView;
 import javafx.application.Platform;
 import javafx.fxml.FXML;
 import javafx.fxml.Initializable;
-import javafx.geometry.Insets;
 import javafx.geometry.Side;
+import javafx.scene.Cursor;
 import javafx.scene.Scene;
-import javafx.scene.SnapshotParameters;
 import javafx.scene.control.*;
-import javafx.scene.image.ImageView;
-import javafx.scene.image.WritableImage;
 import javafx.scene.input.*;
 import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.FlowPane;
@@ -42,18 +43,23 @@ import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.URL;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.ResourceBundle;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 
 public class FieldEditorController implements Initializable {
 
-    public static final int PCAP_MAX_FILESIZE = 1048576;
     static Logger logger = LoggerFactory.getLogger(FieldEditorController.class);
 
+    /** packets shown by the field engine preview */
+    static final int FIELD_ENGINE_PREVIEW_PACKETS = 100;
+    static final String FIELD_ENGINE_EXPORT_PACKETS = "1000";
+
     @FXML private BorderPane fieldEditorBorderPane;
     @FXML private FlowPane   fieldEditorTopPane;
     @FXML private StackPane  fieldEditorCenterPane;
@@ -114,6 +120,12 @@ public class FieldEditorController implements Initializable {
         fieldEditorView.setBreadCrumbPane(fieldEditorTopPane);
         fieldEditorView.setBottomPane(fieldEditorBottomPane);
 
+        if (fieldEditorBorderPane != null) {
+            // commands are applied in background. the editor stays responsive and shows that the packet is being built
+            model.getCommandExecutor().busyProperty().addListener((observable, wasBusy, busy) ->
+                    fieldEditorBorderPane.setCursor(busy ? Cursor.WAIT : Cursor.DEFAULT));
+        }
+
         if (packetController.isInitialized()) {
             if (configurationService.isStandaloneMode()) {
                 Platform.runLater(this::newPacket);
@@ -222,46 +234,31 @@ public class FieldEditorController implements Initializable {
         }
 
         if (viewOnly && packetController.isInitialized()) {
-            fieldEditorView.rebuild();
-            fieldEngineView.rebuild();
+            rebuildViews();
             return;
         }
         
+        // views update rendered nodes in place, so the scroll position is kept
         double val = fieldEditorScrollPane.getVvalue();
-
-        // Workaround for flickering and saving Vscroll:
-        // 1) take snapshot of top stackpane
-        // 2) create image view with paddings
-        // 3) add this image view to stackpane
-        //
-        // This image view hides scrollpane which is rebuilt
-        // Then call view rebuild
-        // And last, we set Vscroll and remove image view
-        WritableImage snapImage = fieldEditorBorderPane.snapshot(new SnapshotParameters(), null);
-        ImageView snapView = new ImageView();
-        snapView.setImage(snapImage);
-        Insets insets = fieldEditorBorderPane.getPadding();
-        snapView.setViewport(new javafx.geometry.Rectangle2D(insets.getLeft(),
-                insets.getTop(),
-                snapImage.getWidth() - insets.getLeft() - insets.getRight(),
-                snapImage.getHeight() - insets.getTop() - insets.getBottom()));
-        fieldEditorBorderPane.getChildren().add(snapView);
-
-        // Rebuild content
         if (packetController.isInitialized()) {
+            rebuildViews();
+        }
+        fieldEditorScrollPane.setVvalue(val);
+    }
+
+    /** scapy requests of both views are sent as one batch before the views are built */
+    private void rebuildViews() {
+        try {
+            model.prefetchViewData();
+        } catch (Exception e) {
+            logger.warn("Unable to prefetch view data: {}", e.getMessage());
+        }
+        try {
             fieldEditorView.rebuild();
             fieldEngineView.rebuild();
+        } finally {
+            model.clearViewDataPrefetch();
         }
-
-        Platform.runLater(()-> {
-            // Save scroll position workaround: runLater inside runLater :)
-            Platform.runLater(() -> {
-                Platform.runLater(() -> {
-                    fieldEditorScrollPane.setVvalue(val);
-                    fieldEditorBorderPane.getChildren().remove(snapView);
-                });
-            });
-        });
     }
 
     public String createNewTemplateDialog() {
@@ -292,36 +289,43 @@ public class FieldEditorController implements Initializable {
         fileChooser.setTitle(resourceBundle.getString("OPEN_DIALOG_TITLE"));
         File openFile = fileChooser.showOpenDialog(fieldEditorCenterPane.getScene().getWindow());
 
-        try {
-            if (openFile != null) {
-                if (openFile.getName().endsWith(".pcap")
-                    && openFile.length() > PCAP_MAX_FILESIZE) {
-                    showError("Pcap file size should be less than 1MB");
-                    return;
-                } else if (openFile.getName().endsWith(DocumentFile.FILE_EXTENSION)) {
-                    model.loadDocumentFromFile(openFile);
-                } else {
-                    loadPcapFile(openFile);
-                }
-            }
+        if (openFile == null) {
             refreshTitle();
-        } catch (Exception e) {
-            showError(resourceBundle.getString("LOAD_ERROR"), e);
+            return;
         }
+        CompletableFuture<Void> loaded;
+        if (openFile.getName().endsWith(DocumentFile.FILE_EXTENSION)) {
+            model.closeCapture();
+            loaded = model.loadDocumentFromFile(openFile);
+        } else {
+            loaded = loadPcapFile(openFile);
+        }
+        ModelCommandExecutor.onFxThread(loaded, (ignored, e) -> {
+            if (e != null) {
+                showError(resourceBundle.getString("LOAD_ERROR"), toException(e));
+            }
+            refreshTitle();
+        });
     }
 
-    public void loadPcapFile(File pcapfile) throws IOException {
-        byte[] bytes = Files.toByteArray(pcapfile);
-        model.setCurrentFile(pcapfile);
-        refreshTitle();
-        model.loadDocumentFromPcapData(packetController.read_pcap_packet(bytes));
-        // Set window width to scene width
-        fitSizeToScene();
+    /** file is read and parsed on the model writer thread */
+    public CompletableFuture<Void> loadPcapFile(File pcapfile) {
+        CompletableFuture<Void> loaded = model.loadDocumentFromPcapFile(pcapfile);
+        ModelCommandExecutor.onFxThread(loaded, (ignored, e) -> {
+            if (e == null) {
+                refreshTitle();
+                // Set window width to scene width
+                fitSizeToScene();
+            }
+        });
+        return loaded;
     }
 
+    /** used by the embedding application, waits for the packet. bytes are an Ethernet frame */
     public void loadPcapBinary(byte[] bytes) throws IOException {
         if (packetController.isInitialized()) {
-            model.loadDocumentFromPcapData(packetController.read_pcap_packet(writePcapPacket(bytes)));
+            ModelCommandExecutor.await(model.getCommandExecutor().execute(() ->
+                    model.loadDocumentFromPcapData(packetController.reconstructPacketFromBinary(bytes))));
         }
     }
 
@@ -338,10 +342,10 @@ public class FieldEditorController implements Initializable {
         writeToPcapFile(file, model.getPkt(), wantexception);
     }
 
+    /** pcapng is written for .pcapng files, pcap otherwise */
     public void writeToPcapFile(File file, PacketData pkt, boolean wantexception) throws Exception {
-        try {
-            byte[] pcap_bin = writePcapPacket(pkt.getPacketBytes());
-            Files.write(pcap_bin, file);
+        try (PcapWriter writer = PcapWriter.create(file)) {
+            writer.write(pkt.getPacketBytes(), System.currentTimeMillis() * 1_000_000L);
         } catch (Exception e) {
             if (wantexception) {
                 throw e;
@@ -352,8 +356,99 @@ public class FieldEditorController implements Initializable {
         }
     }
     
-    public byte[] writePcapPacket(byte[] binaryData) {
-        return packetController.write_pcap_packet(binaryData);
+    /** single packet pcap file content */
+    public byte[] writePcapPacket(byte[] binaryData) throws IOException {
+        return PcapWriter.toPcap(binaryData, System.currentTimeMillis() * 1_000_000L);
+    }
+
+    /** first packets of the field engine stream, generated locally. written bytes are shown for every packet */
+    public void showFieldEnginePreview() {
+        ModelCommandExecutor.onFxThread(model.compileFieldEngine(), (program, e) -> {
+            if (e != null) {
+                showError("Failed to simulate field engine", toException(e));
+                return;
+            }
+            int length = program.getPacketLength();
+            byte[] packets = new FieldEngineSimulator(program).generate(0, FIELD_ENGINE_PREVIEW_PACKETS);
+            StringBuilder text = new StringBuilder();
+            for (int i = 0; i < FIELD_ENGINE_PREVIEW_PACKETS; i++) {
+                text.append(String.format("%-5d", i + 1));
+                for (FieldEngineProgram.Write write : program.getWrites()) {
+                    text.append("  ").append(write.getLabel()).append('=');
+                    for (int b = 0; b < write.getSize(); b++) {
+                        text.append(HexFormat.hex(packets[i * length + write.getOffset() + b]));
+                    }
+                }
+                text.append('\n');
+            }
+            TextArea textArea = new TextArea(text.toString());
+            textArea.setEditable(false);
+            Alert alert = new Alert(Alert.AlertType.INFORMATION);
+            alert.setTitle("Field engine preview");
+            alert.setHeaderText("First " + FIELD_ENGINE_PREVIEW_PACKETS + " packets"
+                    + (program.getCacheSize() > 0 ? ", packets repeat after " + program.getCacheSize() : ""));
+            alert.initOwner(fieldEditorCenterPane.getScene().getWindow());
+            alert.getDialogPane().setContent(textArea);
+            alert.setResizable(true);
+            alert.showAndWait();
+        });
+    }
+
+    /** writes the first packets of the field engine stream to pcap file without the scapy server */
+    public void showFieldEngineExportDialog() {
+        TextInputDialog dialog = new TextInputDialog(FIELD_ENGINE_EXPORT_PACKETS);
+        dialog.setTitle("Export field engine packets");
+        dialog.setHeaderText("Please enter number of packets");
+        dialog.setContentText("");
+        Optional<String> result = dialog.showAndWait();
+        if (!result.isPresent()) {
+            return;
+        }
+        long count;
+        try {
+            count = Long.parseLong(result.get().trim());
+            if (count <= 0) {
+                throw new NumberFormatException("Number of packets must be positive: " + count);
+            }
+        } catch (NumberFormatException e) {
+            showError("Bad number of packets", e);
+            return;
+        }
+
+        FileChooser exportChooser = new FileChooser();
+        exportChooser.setTitle("Export field engine packets");
+        exportChooser.getExtensionFilters().addAll(
+                new FileChooser.ExtensionFilter("Pcap Files", "*.pcap", "*.pcapng"),
+                new FileChooser.ExtensionFilter("All Files", "*.*"));
+        File file = exportChooser.showSaveDialog(fieldEditorCenterPane.getScene().getWindow());
+        if (file == null) {
+            return;
+        }
+        CompletableFuture<Void> exported = model.compileFieldEngine().thenAcceptAsync(program -> {
+            try {
+                new FieldEngineSimulator(program).export(file, count);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        ModelCommandExecutor.onFxThread(exported, (ignored, e) -> {
+            if (e != null) {
+                showError(resourceBundle.getString("SAVE_ERROR"), toException(e));
+            }
+        });
+    }
+
+    private static Exception toException(Throwable e) {
+        return e instanceof Exception ? (Exception) e : new RuntimeException(e);
+    }
+
+    /** shows an error once the model command fails */
+    public void showErrorOnFailure(CompletableFuture<?> command, String title) {
+        ModelCommandExecutor.onFxThread(command, (ignored, e) -> {
+            if (e != null) {
+                showError(title, toException(e));
+            }
+        });
     }
 
     public void showError(String title) {
@@ -374,9 +469,9 @@ public class FieldEditorController implements Initializable {
     public void initFileChooser() {
         String docExt = "*"+DocumentFile.FILE_EXTENSION;
         fileChooser.getExtensionFilters().addAll(
-                new FileChooser.ExtensionFilter("TRex Packet editor Files", docExt, "*.pcap", "*.cap"),
+                new FileChooser.ExtensionFilter("TRex Packet editor Files", docExt, "*.pcap", "*.pcapng", "*.cap"),
                 new FileChooser.ExtensionFilter("Packet Editor Files", docExt),
-                new FileChooser.ExtensionFilter("Pcap Files", "*.pcap", "*.cap"),
+                new FileChooser.ExtensionFilter("Pcap Files", "*.pcap", "*.pcapng", "*.cap"),
                 new FileChooser.ExtensionFilter("All Files", "*.*"));
 
         File file = model.getCurrentFile();
@@ -391,14 +486,14 @@ public class FieldEditorController implements Initializable {
         fileChooser.setTitle(resourceBundle.getString("SAVE_DIALOG_TITLE"));
         java.io.File outFile = fileChooser.showSaveDialog(fieldEditorCenterPane.getScene().getWindow());
         if (outFile != null) {
-            try {
-                if (outFile.getName().endsWith(DocumentFile.FILE_EXTENSION)) {
-                    model.saveDocumentToFile(outFile);
-                } else {
-                    writeToPcapFile(outFile);
-                }
-            } catch (Exception e) {
-                showError("Failed to save file", e);
+            if (outFile.getName().endsWith(DocumentFile.FILE_EXTENSION)) {
+                ModelCommandExecutor.onFxThread(model.saveDocumentToFile(outFile), (ignored, e) -> {
+                    if (e != null) {
+                        showError("Failed to save file", toException(e));
+                    }
+                });
+            } else {
+                writeToPcapFile(outFile);
             }
         }
     }
@@ -412,9 +507,14 @@ public class FieldEditorController implements Initializable {
     }
 
     public void newPacket() {
-        model.newPacket();
-        // Set window width to scene width
-        fitSizeToScene();
+        model.closeCapture();
+        ModelCommandExecutor.onFxThread(model.newPacket(), (ignored, e) -> {
+            if (e != null) {
+                logger.error("Unable to create new packet: {}", e.getMessage());
+            }
+            // Set window width to scene width
+            fitSizeToScene();
+        });
     }
 
     public void connect() {
@@ -438,7 +538,7 @@ public class FieldEditorController implements Initializable {
     public void loadUserModel(String base64JSONUserModel) {
         reset();
         if (packetController.isInitialized()) {
-            model.loadDocumentFromJSON(base64JSONUserModel);
+            ModelCommandExecutor.await(model.loadDocumentFromJSON(base64JSONUserModel));
         }
     }
     /**
@@ -446,16 +546,17 @@ public class FieldEditorController implements Initializable {
      */
     public void loadSimpleUserModel(String json) {
         reset();
-        model.loadSimpleUserModel(json);
+        ModelCommandExecutor.await(model.loadSimpleUserModel(json));
     }
 
+    /** waits for the model, since the embedding application reads packet right after the call */
     public void reset() {
-        model.reset();
+        ModelCommandExecutor.await(model.reset());
         fieldEditorView.reset(packetController.isInitialized());
     }
 
     public String getBinaryPkt() {
-        return getModel().getPkt().binary;
+        return getModel().getPkt().getBinary();
     }
 
     public Map<String, Object> getPktVmInstructions() {
@@ -551,11 +652,16 @@ public class FieldEditorController implements Initializable {
         return model.getFieldEngineError();
     }
 
-    public void loadTemplateFromScapy(String templateId) {
+    public CompletableFuture<Void> loadTemplateFromScapy(String templateId) {
         JsonObject template = new JsonObject();
         template.add("id", new JsonPrimitive(templateId));
-        String templateBase64 = getTemplate(template);
-        model.loadDocumentFromJSON(templateBase64);
+        return model.getCommandExecutor().submit(() -> {
+            String templateJSON = getTemplate(template);
+            if (templateJSON == null) {
+                throw new IllegalStateException("Template " + templateId + " is not available");
+            }
+            return templateJSON;
+        }).thenCompose(model::loadDocumentFromJSON);
     }
 
     public void setFieldEditorScrollPane(ScrollPane fieldEditorScrollPane) {
@@ -6,6 +6,7 @@ import com.google.gson.JsonObject;
 import com.google.gson.JsonPrimitive;
 import com.google.inject.Inject;
 import com.google.inject.name.Named;
+import com.xored.javafx.packeteditor.data.ModelCommandExecutor;
 import com.xored.javafx.packeteditor.data.PacketEditorModel;
 import com.xored.javafx.packeteditor.data.user.DocumentFile;
 import com.xored.javafx.packeteditor.events.NeedToUpdateTemplateMenu;
@@ -109,6 +110,14 @@ public class MenuControllerEditor implements Initializable {
             menuItem = new MenuItem("Save as template...");
             menuItem.setOnAction(this::handleSaveTemplateAction);
             menu.add(menuItem);
+
+            menu.add(new SeparatorMenuItem());
+            menuItem = new MenuItem("Preview field engine packets...");
+            menuItem.setOnAction(this::handleFieldEnginePreviewAction);
+            menu.add(menuItem);
+            menuItem = new MenuItem("Export field engine packets...");
+            menuItem.setOnAction(this::handleFieldEngineExportAction);
+            menu.add(menuItem);
         }
     }
 
@@ -138,7 +147,7 @@ public class MenuControllerEditor implements Initializable {
 
     @FXML
     public void handleDeleteProtocolAction(ActionEvent actionEvent) {
-        getModel().removeLast();
+        controller.showErrorOnFailure(getModel().removeLast(), "Unable to delete the layer");
     }
 
     private PacketEditorModel getModel() { return controller.getModel(); }
@@ -158,6 +167,16 @@ public class MenuControllerEditor implements Initializable {
         controller.showSaveDialog();
     }
 
+    @FXML
+    void handleFieldEnginePreviewAction(ActionEvent event) {
+        controller.showFieldEnginePreview();
+    }
+
+    @FXML
+    void handleFieldEngineExportAction(ActionEvent event) {
+        controller.showFieldEngineExportDialog();
+    }
+
     @FXML
     void handleSaveTemplateAction(ActionEvent event) {
         if (controller.getModel().getUserModel().getProtocolStack().isEmpty()) {
@@ -185,8 +204,13 @@ public class MenuControllerEditor implements Initializable {
                             if (!dir.exists()) {
                                 dir.mkdirs();
                             }
-                            controller.getModel().saveDocumentToFile(file);
-                            eventBus.post(new NeedToUpdateTemplateMenu());
+                            ModelCommandExecutor.onFxThread(controller.getModel().saveDocumentToFile(file), (ignored, e) -> {
+                                if (e != null) {
+                                    logger.error(e.getMessage());
+                                } else {
+                                    eventBus.post(new NeedToUpdateTemplateMenu());
+                                }
+                            });
                             tryagain = false;
                         }
                     } else {
@@ -212,12 +236,12 @@ public class MenuControllerEditor implements Initializable {
 
     @FXML
     public void handleUndo(ActionEvent actionEvent) {
-        getModel().undo();
+        controller.showErrorOnFailure(getModel().undo(), "Unable to undo");
     }
 
     @FXML
     public void handleRedo(ActionEvent actionEvent){
-        getModel().redo();
+        controller.showErrorOnFailure(getModel().redo(), "Unable to redo");
     }
 
     @FXML
@@ -322,13 +346,8 @@ public class MenuControllerEditor implements Initializable {
                     menu.getItems().add(menuItem);
                 }
 
-                menuItem.setOnAction(event -> {
-                    try {
-                        controller.loadTemplateFromScapy(templateId);
-                    } catch (Exception e) {
-                        logger.error(e.getMessage());
-                    }
-                });
+                menuItem.setOnAction(event -> controller.showErrorOnFailure(
+                        controller.loadTemplateFromScapy(templateId), "Unable to load template " + templateId));
             }
         }
     }
@@ -405,7 +424,11 @@ public class MenuControllerEditor implements Initializable {
 
                     menuItem.setOnAction(event -> {
                         try {
-                            controller.getModel().loadDocumentFromFile(f.getCanonicalFile());
+                            ModelCommandExecutor.onFxThread(controller.getModel().loadDocumentFromFile(f.getCanonicalFile()), (ignored, e) -> {
+                                if (e != null) {
+                                    logger.error(e.getMessage());
+                                }
+                            });
                         } catch (IOException e) {
                             logger.error(e.getMessage());
                         }
@@ -4,6 +4,7 @@ import com.google.inject.Inject;
 import com.google.inject.Injector;
 import com.google.inject.name.Named;
 import com.xored.javafx.packeteditor.controllers.FieldEditorController;
+import com.xored.javafx.packeteditor.data.ModelCommandExecutor;
 import com.xored.javafx.packeteditor.view.ComboBoxItem;
 import com.xored.javafx.packeteditor.view.FieldEditorView;
 import javafx.scene.Node;
@@ -16,9 +17,11 @@ import org.controlsfx.control.textfield.TextFields;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.ResourceBundle;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
@@ -41,6 +44,7 @@ public abstract class EditableField extends FlowPane {
     protected boolean textChanged = false; // for text field onLostFocus
     protected boolean comboChanged = false; // for text field onLostFocus
     protected AutoCompletionBinding<String> comboAutoCompleter;
+    private boolean settingItems = false; // asynchronously loaded items are not a user selection
 
     Consumer<Void> focusControl = (v) -> editableControl.requestFocus();
 
@@ -86,8 +90,28 @@ public abstract class EditableField extends FlowPane {
             combo.getEditor().requestFocus();
             combo.getEditor().selectAll();
         };
-        List<ComboBoxItem> items = getComboBoxItems();
-        processDefaultAndSetItems(combo, items);
+        List<ComboBoxItem> items = new ArrayList<>();
+        CompletableFuture<List<ComboBoxItem>> loadingItems = loadComboBoxItems();
+        if (loadingItems.isDone() && !loadingItems.isCompletedExceptionally()) {
+            items.addAll(loadingItems.join());
+            processDefaultAndSetItems(combo, items);
+        } else {
+            // items requested from scapy are set when they arrive, the FX thread isn't blocked
+            ModelCommandExecutor.onFxThread(loadingItems, (loaded, e) -> {
+                if (e != null) {
+                    logger.error("Unable to load items of {}: {}", getUniqueViewId(), e.getMessage());
+                    return;
+                }
+                items.addAll(loaded);
+                settingItems = true;
+                try {
+                    processDefaultAndSetItems(combo, items);
+                } finally {
+                    settingItems = false;
+                }
+                comboChanged = false;
+            });
+        }
         
         combo.focusedProperty().addListener((observable, oldValue, newValue) -> {
             // On lost focus
@@ -156,7 +180,9 @@ public abstract class EditableField extends FlowPane {
 
         if(!isCheckBoxEditable()) {
             combo.setOnAction((event) -> {
-                onComboBoxSelectedAction(combo);
+                if (!settingItems) {
+                    onComboBoxSelectedAction(combo);
+                }
             });
         }
 
@@ -223,6 +249,11 @@ public abstract class EditableField extends FlowPane {
 
     protected abstract List<ComboBoxItem> getComboBoxItems();
 
+    /** items of the enum control, fields with items from scapy load them asynchronously */
+    protected CompletableFuture<List<ComboBoxItem>> loadComboBoxItems() {
+        return CompletableFuture.completedFuture(getComboBoxItems());
+    }
+
     protected abstract TextField getTextField();
 
     protected abstract void commitChanges(ComboBox<ComboBoxItem> combo);
@@ -4,6 +4,8 @@ import com.google.common.base.Strings;
 import com.google.gson.JsonPrimitive;
 import com.xored.javafx.packeteditor.data.FEInstructionParameter2;
 import com.xored.javafx.packeteditor.data.InstructionExpression;
+import com.xored.javafx.packeteditor.data.ModelCommandExecutor;
+import com.xored.javafx.packeteditor.data.PacketEditorModel;
 import com.xored.javafx.packeteditor.scapy.ScapyException;
 import com.xored.javafx.packeteditor.view.ComboBoxItem;
 import javafx.scene.Node;
@@ -18,6 +20,7 @@ import javafx.scene.text.Text;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 
 public class FEInstructionParameterField extends EditableField {
@@ -99,7 +102,17 @@ public class FEInstructionParameterField extends EditableField {
     
     @Override
     protected List<ComboBoxItem> getComboBoxItems() {
-        Map<String, String> parameterValues = controller.getModel().loadParameterValuesFromScapy(feInstructionParameter.getMeta());
+        return toComboBoxItems(Collections.emptyMap());
+    }
+
+    @Override
+    protected CompletableFuture<List<ComboBoxItem>> loadComboBoxItems() {
+        return controller.getModel().loadParameterValuesFromScapy(feInstructionParameter.getMeta())
+                .thenApply(this::toComboBoxItems);
+    }
+
+    /** values from scapy, the dictionary of the parameter if there are none */
+    private List<ComboBoxItem> toComboBoxItems(Map<String, String> parameterValues) {
         if (parameterValues.isEmpty()) {
             parameterValues = feInstructionParameter.getMeta().getDict() == null ? Collections.emptyMap() : feInstructionParameter.getMeta().getDict();
         }
@@ -131,12 +144,13 @@ public class FEInstructionParameterField extends EditableField {
     @Override
     protected void commitChanges(TextField textField) {
         String prevValue = feInstructionParameter.getValue().getAsString();
-        try {
-            controller.getModel().setVmInstructionParameter(feInstructionParameter, textField.getText());
-        } catch (ScapyException e) {
-            textField.getStyleClass().add("field-error");
-            controller.getModel().getUserModel().setFEInstructionParameter(feInstructionParameter, prevValue);
-        }
+        PacketEditorModel model = controller.getModel();
+        ModelCommandExecutor.onFxThread(model.setVmInstructionParameter(feInstructionParameter, textField.getText()), (ignored, e) -> {
+            if (e instanceof ScapyException) {
+                textField.getStyleClass().add("field-error");
+                model.getCommandExecutor().execute(() -> model.getUserModel().setFEInstructionParameter(feInstructionParameter, prevValue));
+            }
+        });
     }
 
     @Override
@@ -3,6 +3,7 @@ package com.xored.javafx.packeteditor.controls;
 import com.google.common.base.Strings;
 import com.google.gson.JsonPrimitive;
 import com.xored.javafx.packeteditor.data.FeParameter;
+import com.xored.javafx.packeteditor.data.ModelCommandExecutor;
 import com.xored.javafx.packeteditor.metatdata.FeParameterMeta;
 import com.xored.javafx.packeteditor.scapy.ScapyException;
 import com.xored.javafx.packeteditor.view.ComboBoxItem;
@@ -102,12 +103,12 @@ public class FeParameterField extends EditableField {
     @Override
     protected void commitChanges(TextField textField) {
         String prevValue = feParameter.getValue();
-        try {
-            controller.getModel().setFeParameterValue(feParameter.getId(), textField.getText());
-        } catch (ScapyException e) {
-            textField.getStyleClass().add("field-error");
-            controller.getModel().setFeParameterValue(feParameter.getId(), prevValue);
-        }
+        ModelCommandExecutor.onFxThread(controller.getModel().setFeParameterValue(feParameter.getId(), textField.getText()), (ignored, e) -> {
+            if (e instanceof ScapyException) {
+                textField.getStyleClass().add("field-error");
+                controller.getModel().setFeParameterValue(feParameter.getId(), prevValue);
+            }
+        });
     }
 
     @Override
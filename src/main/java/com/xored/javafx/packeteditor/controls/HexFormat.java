@@ -0,0 +1,154 @@
+package com.xored.javafx.packeteditor.controls;
+
+import com.xored.javafx.packeteditor.data.IBinaryData;
+
+/**
+ * Hex/ASCII formatting with precomputed tables.
+ * Methods write into caller's char buffers and read bytes directly from the source, so formatting doesn't allocate
+ */
+public final class HexFormat {
+    public static final int BYTES_PER_ROW = 16;
+
+    /** hex digits of the byte, high digit at 2*b, low one at 2*b+1 */
+    private static final char[] HEX = new char[512];
+    /** hex strings of the bytes */
+    private static final String[] HEX_STRINGS = new String[256];
+    private static final char[] ADDRESS_DIGITS = "0123456789abcdef".toCharArray();
+    /** displayed ascii char of the byte */
+    private static final char[] ASCII = new char[256];
+    /** true for bytes of a text: printable chars, tab, LF, FF and CR */
+    private static final boolean[] TEXT = new boolean[256];
+
+    static {
+        String digits = "0123456789ABCDEF";
+        for (int b = 0; b < 256; b++) {
+            HEX[2 * b] = digits.charAt(b >> 4);
+            HEX[2 * b + 1] = digits.charAt(b & 0xF);
+            boolean printable = b >= 0x20 && b <= 0x7E;
+            HEX_STRINGS[b] = new String(HEX, 2 * b, 2);
+            ASCII[b] = printable ? (char) b : '.';
+            TEXT[b] = printable || b == 0x09 || b == 0x0A || b == 0x0C || b == 0x0D;
+        }
+    }
+
+    private HexFormat() {
+    }
+
+    /** source of bytes without copying them */
+    public interface ByteSource {
+        byte get(int idx);
+    }
+
+    public static ByteSource of(byte[] bytes) {
+        return idx -> bytes[idx];
+    }
+
+    public static ByteSource of(IBinaryData data) {
+        return data::getByte;
+    }
+
+    /** writes two hex digits of the byte, returns position after them */
+    public static int hex(byte value, char[] out, int pos) {
+        int idx = (value & 0xFF) << 1;
+        out[pos] = HEX[idx];
+        out[pos + 1] = HEX[idx + 1];
+        return pos + 2;
+    }
+
+    /** cached two hex digits string of the byte */
+    public static String hex(byte value) {
+        return HEX_STRINGS[value & 0xFF];
+    }
+
+    public static char ascii(byte value) {
+        return ASCII[value & 0xFF];
+    }
+
+    public static boolean isText(byte value) {
+        return TEXT[value & 0xFF];
+    }
+
+    /** writes the value as lower-case hex of the given digits count, returns position after it */
+    public static int address(int value, int digits, char[] out, int pos) {
+        for (int i = digits - 1; i >= 0; i--) {
+            out[pos + i] = ADDRESS_DIGITS[value & 0xF];
+            value >>>= 4;
+        }
+        return pos + digits;
+    }
+
+    /** address digits enough for the data length */
+    public static int addressDigits(int length) {
+        return length > 0xFFFF ? 8 : 4;
+    }
+
+    /** writes ascii chars of the bytes range, returns position after them */
+    public static int ascii(ByteSource src, int offset, int count, char[] out, int pos) {
+        for (int i = 0; i < count; i++) {
+            out[pos++] = ASCII[src.get(offset + i) & 0xFF];
+        }
+        return pos;
+    }
+
+    /** length of a dump row produced by {@link #row} */
+    public static int rowLength(int addressDigits) {
+        // address, 2 spaces, 16 * "XX ", 3 extra gaps between 4-bytes series, space, ascii
+        return addressDigits + 2 + BYTES_PER_ROW * 3 + 3 + 1 + BYTES_PER_ROW;
+    }
+
+    /**
+     * writes a dump row "0000  00 01 02 03  04 ... 0F  ascii" of up to 16 bytes starting at the offset,
+     * short rows are padded so ascii column stays aligned. Returns row length
+     */
+    public static int row(ByteSource src, int offset, int count, int addressDigits, char[] out) {
+        int pos = address(offset, addressDigits, out, 0);
+        out[pos++] = ' ';
+        out[pos++] = ' ';
+        for (int i = 0; i < BYTES_PER_ROW; i++) {
+            if (i > 0 && i % 4 == 0) {
+                out[pos++] = ' ';
+            }
+            if (i < count) {
+                pos = hex(src.get(offset + i), out, pos);
+            } else {
+                out[pos++] = ' ';
+                out[pos++] = ' ';
+            }
+            out[pos++] = ' ';
+        }
+        out[pos++] = ' ';
+        return ascii(src, offset, count, out, pos);
+    }
+
+    /** multiline dump of the bytes range, used for clipboard export */
+    public static String dump(ByteSource src, int offset, int length) {
+        int digits = addressDigits(offset + length);
+        char[] line = new char[rowLength(digits)];
+        int rows = (length + BYTES_PER_ROW - 1) / BYTES_PER_ROW;
+        StringBuilder sb = new StringBuilder(rows * (line.length + 1));
+        for (int row = 0; row < rows; row++) {
+            int rowOffset = offset + row * BYTES_PER_ROW;
+            int count = Math.min(BYTES_PER_ROW, offset + length - rowOffset);
+            int len = row(src, rowOffset, count, digits, line);
+            sb.append(line, 0, len).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /** true if the bytes look like a text: no bytes below 0x09 or above 0x7F and at most 95% of other control chars */
+    public static boolean isTextData(byte[] data) {
+        int text = 0;
+        int other = 0;
+        for (byte b : data) {
+            if (b < 0x09) {
+                return false;
+            }
+            if (TEXT[b & 0xFF]) {
+                text++;
+            } else {
+                other++;
+            }
+        }
+        return other == 0 || 100 * other / (text + other) <= 95;
+    }
+}
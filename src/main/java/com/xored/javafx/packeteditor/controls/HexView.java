@@ -0,0 +1,317 @@
+package com.xored.javafx.packeteditor.controls;
+
+import com.xored.javafx.packeteditor.data.IBinaryData;
+import javafx.geometry.Orientation;
+import javafx.geometry.VPos;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.control.ScrollBar;
+import javafx.scene.input.ScrollEvent;
+import javafx.scene.layout.Region;
+import javafx.scene.paint.Color;
+import javafx.scene.text.Font;
+import javafx.scene.text.Text;
+
+/**
+ * Hex/ASCII dump of binary data drawn on a canvas.
+ * Only visible rows are drawn and the canvas is limited by the viewport, so memory doesn't depend on data length
+ */
+public class HexView extends Region {
+    public static final int BYTES_PER_ROW = HexFormat.BYTES_PER_ROW;
+    static final int PREF_ROWS = 16;
+
+    static final Color BACKGROUND = Color.WHITE;
+    static final Color ADDRESS_BACKGROUND = Color.WHITESMOKE;
+    static final Color ADDRESS_TEXT = Color.GREY;
+    static final Color TEXT = Color.web("#3b3b3b");
+    static final Color SELECTION = Color.web("#b7e1ff");
+    static final Color HIGHLIGHT = Color.web("#e6f4ff");
+
+    static final double PADDING = 5;
+    static final double BYTES_PADDING = 20;  // between address and bytes columns
+    static final double ASCII_PADDING = 30;  // between bytes and ascii columns
+    static final double WORD_GAP = 10;       // between 4-bytes series
+
+    private final Canvas canvas = new Canvas();
+    private final ScrollBar scrollBar = new ScrollBar();
+
+    private final Font font = Font.font("monospace", 12);
+    private final double charWidth;
+    private final double rowHeight;
+
+    private IBinaryData data;
+    private int selOffset = 0;
+    private int selLength = 0;
+    private int highlightOffset = 0;
+    private int highlightLength = 0;
+    private int editingIdx = -1;
+    /** width of the address column the rows are drawn with */
+    private int addressDigits = HexFormat.addressDigits(0);
+
+    private final char[] rowChars = new char[BYTES_PER_ROW];
+    private final char[] addressChars = new char[8];
+
+    public HexView() {
+        Text sample = new Text("0000000000");
+        sample.setFont(font);
+        charWidth = sample.getLayoutBounds().getWidth() / 10;
+        rowHeight = Math.ceil(sample.getLayoutBounds().getHeight() * 1.4);
+
+        getStyleClass().add("hex-view");
+        setFocusTraversable(true);
+        scrollBar.setOrientation(Orientation.VERTICAL);
+        scrollBar.valueProperty().addListener((observable, oldValue, newValue) -> redraw());
+        getChildren().addAll(canvas, scrollBar);
+
+        addEventHandler(ScrollEvent.SCROLL, e -> {
+            scrollBar.setValue(clamp(scrollBar.getValue() - e.getDeltaY(), scrollBar.getMin(), scrollBar.getMax()));
+            e.consume();
+        });
+    }
+
+    public void setData(IBinaryData data) {
+        this.data = data;
+        reload();
+    }
+
+    /** data was replaced */
+    public void reload() {
+        editingIdx = -1;
+        selOffset = 0;
+        selLength = 0;
+        highlightOffset = 0;
+        highlightLength = 0;
+        addressDigits = HexFormat.addressDigits(getLength());
+        requestLayout();
+        updateScrollRange();
+        redraw();
+    }
+
+    /** data length was changed starting from the offset */
+    public void resized(int offset) {
+        if (editingIdx >= getLength()) {
+            editingIdx = -1;
+        }
+        int digits = HexFormat.addressDigits(getLength());
+        if (digits != addressDigits) {
+            // wider address column shifts all columns and the preferred width
+            addressDigits = digits;
+            requestLayout();
+            updateScrollRange();
+            redraw();
+            return;
+        }
+        updateScrollRange();
+        redrawRows(offset / BYTES_PER_ROW, Integer.MAX_VALUE);
+    }
+
+    public void setSelection(int offset, int length) {
+        int oldOffset = selOffset;
+        int oldLength = selLength;
+        selOffset = offset;
+        selLength = length;
+        if (length > 0) {
+            scrollToByte(offset);
+        }
+        redrawBytes(oldOffset, oldLength);
+        redrawBytes(offset, length);
+    }
+
+    /** hovered range, drawn under the selection */
+    public void setHighlight(int offset, int length) {
+        if (offset == highlightOffset && length == highlightLength) {
+            return;
+        }
+        int oldOffset = highlightOffset;
+        int oldLength = highlightLength;
+        highlightOffset = offset;
+        highlightLength = length;
+        redrawBytes(oldOffset, oldLength);
+        redrawBytes(offset, length);
+    }
+
+    /** byte with editing frame or -1 */
+    public void setEditingIndex(int idx) {
+        int oldIdx = editingIdx;
+        editingIdx = idx;
+        redrawBytes(oldIdx, 1);
+        redrawBytes(idx, 1);
+    }
+
+    public int getEditingIndex() {
+        return editingIdx;
+    }
+
+    /** returns index of the byte at the point of the hex or ascii column or -1 */
+    public int getByteAt(double x, double y) {
+        int row = (int) Math.floor((y + scrollBar.getValue()) / rowHeight);
+        int column = -1;
+        for (int i = 0; i < BYTES_PER_ROW; i++) {
+            double hexX = getByteX(i);
+            double asciiX = getAsciiX() + i * charWidth;
+            if ((x >= hexX - charWidth / 2 && x < hexX + 2.5 * charWidth) || (x >= asciiX && x < asciiX + charWidth)) {
+                column = i;
+                break;
+            }
+        }
+        int idx = row * BYTES_PER_ROW + column;
+        return column < 0 || row < 0 || idx >= getLength() ? -1 : idx;
+    }
+
+    /** scrolls the view so the row of the byte is visible */
+    public void scrollToByte(int idx) {
+        double rowY = (idx / BYTES_PER_ROW) * rowHeight;
+        double top = scrollBar.getValue();
+        double height = getHeight();
+        if (rowY < top) {
+            scrollBar.setValue(clamp(rowY, scrollBar.getMin(), scrollBar.getMax()));
+        } else if (rowY + rowHeight > top + height) {
+            scrollBar.setValue(clamp(rowY + rowHeight - height, scrollBar.getMin(), scrollBar.getMax()));
+        }
+    }
+
+    /** redraws visible rows */
+    public void redraw() {
+        redrawRows(0, Integer.MAX_VALUE);
+    }
+
+    /** redraws visible rows of the byte range */
+    public void redrawBytes(int offset, int length) {
+        if (offset >= 0 && length > 0) {
+            redrawRows(offset / BYTES_PER_ROW, (offset + length - 1) / BYTES_PER_ROW);
+        }
+    }
+
+    private void redrawRows(int fromRow, int toRow) {
+        double width = canvas.getWidth();
+        double height = canvas.getHeight();
+        if (width <= 0 || height <= 0) {
+            return;
+        }
+        GraphicsContext gc = canvas.getGraphicsContext2D();
+        double scroll = scrollBar.getValue();
+        int firstVisible = (int) Math.floor(scroll / rowHeight);
+        int lastVisible = (int) Math.floor((scroll + height) / rowHeight);
+        int rows = getRowCount();
+        if (toRow == Integer.MAX_VALUE) {
+            // rows past the end of data are cleared
+            double top = Math.max(0, fromRow * rowHeight - scroll);
+            gc.setFill(BACKGROUND);
+            gc.fillRect(0, top, width, height - top);
+            gc.setFill(ADDRESS_BACKGROUND);
+            gc.fillRect(0, top, getAddressWidth(), height - top);
+        }
+        gc.setFont(font);
+        gc.setTextBaseline(VPos.CENTER);
+        for (int row = Math.max(firstVisible, fromRow); row <= Math.min(lastVisible, Math.min(toRow, rows - 1)); row++) {
+            drawRow(gc, row, row * rowHeight - scroll);
+        }
+    }
+
+    private void drawRow(GraphicsContext gc, int row, double y) {
+        int offset = row * BYTES_PER_ROW;
+        int count = Math.min(BYTES_PER_ROW, getLength() - offset);
+        double addressWidth = getAddressWidth();
+
+        gc.setFill(BACKGROUND);
+        gc.fillRect(addressWidth, y, canvas.getWidth() - addressWidth, rowHeight);
+        gc.setFill(ADDRESS_BACKGROUND);
+        gc.fillRect(0, y, addressWidth, rowHeight);
+
+        double textY = y + rowHeight / 2;
+        gc.setFill(ADDRESS_TEXT);
+        int digits = HexFormat.addressDigits(getLength());
+        HexFormat.address(offset, digits, addressChars, 0);
+        gc.fillText(new String(addressChars, 0, digits), PADDING, textY);
+
+        for (int i = 0; i < count; i++) {
+            int idx = offset + i;
+            boolean selected = idx >= selOffset && idx < selOffset + selLength;
+            if (selected || (idx >= highlightOffset && idx < highlightOffset + highlightLength)) {
+                gc.setFill(selected ? SELECTION : HIGHLIGHT);
+                gc.fillRect(getByteX(i) - charWidth / 2, y, 3 * charWidth, rowHeight);
+                gc.fillRect(getAsciiX() + i * charWidth, y, charWidth, rowHeight);
+            }
+            if (idx == editingIdx) {
+                gc.setFill(Color.WHITE);
+                gc.setStroke(Color.BLACK);
+                gc.fillRect(getByteX(i) - charWidth / 2, y, 3 * charWidth, rowHeight);
+                gc.strokeRect(getByteX(i) - charWidth / 2, y + 0.5, 3 * charWidth, rowHeight - 1);
+            }
+        }
+
+        gc.setFill(TEXT);
+        for (int i = 0; i < count; i++) {
+            byte value = data.getByte(offset + i);
+            gc.fillText(HexFormat.hex(value), getByteX(i), textY);
+            rowChars[i] = HexFormat.ascii(value);
+        }
+        gc.fillText(new String(rowChars, 0, count), getAsciiX(), textY);
+    }
+
+    private int getLength() {
+        return data != null ? data.getLength() : 0;
+    }
+
+    private int getRowCount() {
+        return (getLength() + BYTES_PER_ROW - 1) / BYTES_PER_ROW;
+    }
+
+    private double getAddressWidth() {
+        return HexFormat.addressDigits(getLength()) * charWidth + 2 * PADDING;
+    }
+
+    private double getByteX(int column) {
+        return getAddressWidth() + BYTES_PADDING + column * 3 * charWidth + (column / 4) * WORD_GAP;
+    }
+
+    private double getAsciiX() {
+        return getByteX(BYTES_PER_ROW - 1) + 2 * charWidth + ASCII_PADDING;
+    }
+
+    private double getContentWidth() {
+        return getAsciiX() + BYTES_PER_ROW * charWidth + PADDING;
+    }
+
+    private void updateScrollRange() {
+        double max = Math.max(0, getRowCount() * rowHeight - getHeight());
+        scrollBar.setMax(max);
+        scrollBar.setVisibleAmount(Math.min(getHeight(), max));
+        scrollBar.setUnitIncrement(rowHeight);
+        scrollBar.setBlockIncrement(Math.max(rowHeight, getHeight() - rowHeight));
+        scrollBar.setValue(clamp(scrollBar.getValue(), 0, max));
+        scrollBar.setVisible(max > 0);
+    }
+
+    private static double clamp(double value, double min, double max) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    @Override
+    protected double computePrefWidth(double height) {
+        return getContentWidth() + scrollBar.prefWidth(-1);
+    }
+
+    @Override
+    protected double computePrefHeight(double width) {
+        // rows over the preferred height are scrolled
+        return Math.max(1, Math.min(getRowCount(), PREF_ROWS)) * rowHeight;
+    }
+
+    @Override
+    protected double computeMinHeight(double width) {
+        return rowHeight;
+    }
+
+    @Override
+    protected void layoutChildren() {
+        double scrollBarWidth = scrollBar.prefWidth(-1);
+        double width = getWidth();
+        double height = getHeight();
+        canvas.setWidth(Math.max(0, width - scrollBarWidth));
+        canvas.setHeight(height);
+        scrollBar.resizeRelocate(width - scrollBarWidth, 0, scrollBarWidth, height);
+        updateScrollRange();
+        redraw();
+    }
+}
@@ -551,41 +551,17 @@ public class PayloadEditor extends VBox {
     }
 
     public static DataType getDataType(byte[] array) {
-        try {
-            InputStream in = new ByteArrayInputStream(array);
-            boolean res2 = isTextStream(in);
-            in.close();
-            if (res2) {
-                return DataType.TEXT;
-            }
-            return DataType.BINARY;
+        if (array == null) {
+            return DataType.UNKNOWN;
         }
-        catch (Exception e) {
-            logger.error(e.getMessage());
-        }
-        return DataType.UNKNOWN;
+        return HexFormat.isTextData(array) ? DataType.TEXT : DataType.BINARY;
     }
 
     public static boolean isTextStream(InputStream in) throws IOException {
         int size = in.available();
         byte[] data = new byte[size];
         in.read(data);
-
-        int ascii = 0;
-        int other = 0;
-
-        for (int i = 0; i < data.length; i++) {
-            byte b = data[i];
-
-            if( b < 0x09 ) return false;
-            else if( b == 0x09 || b == 0x0A || b == 0x0C || b == 0x0D ) ascii++;
-            else if( b >= 0x20  &&  b <= 0x7E ) ascii++;
-            else other++;
-        }
-
-        if( other == 0 ) return true;
-
-        return 100 * other / (ascii + other) <= 95;
+        return HexFormat.isTextData(data);
     }
 
     private void gridSetVisible(GridPane grid, int index) {
@@ -4,6 +4,7 @@ import com.google.common.base.Strings;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonPrimitive;
 import com.xored.javafx.packeteditor.data.FieldRules;
+import com.xored.javafx.packeteditor.data.ModelCommandExecutor;
 import com.xored.javafx.packeteditor.data.combined.CombinedField;
 import com.xored.javafx.packeteditor.metatdata.FieldMetadata;
 import com.xored.javafx.packeteditor.scapy.ConnectionException;
@@ -226,10 +227,11 @@ public class ProtocolField extends EditableField {
     }
 
     private void setModelValue(ReconstructField modify, Node valueNode) {
-        try {
-            logger.info("Committing changes to {}", view.getUniqueIdFor(combinedField));
-            controller.getModel().editField(combinedField, modify);
-        } catch (Exception e) {
+        logger.info("Committing changes to {}", view.getUniqueIdFor(combinedField));
+        ModelCommandExecutor.onFxThread(controller.getModel().editField(combinedField, modify), (ignored, e) -> {
+            if (e == null) {
+                return;
+            }
             logger.warn("Failed to build packet with new value of {}", combinedField.getId());
             if (e instanceof ConnectionException) {
                 controller.showConnectionErrorDialog();
@@ -242,7 +244,7 @@ public class ProtocolField extends EditableField {
                     ((PayloadEditor) valueNode).accessibleHelpProperty().setValue("ERROR: " + e.getMessage());
                 }
             }
-        }
+        });
     }
 
     private void clearFieldValue() {
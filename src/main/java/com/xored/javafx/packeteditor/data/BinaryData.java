@@ -3,33 +3,87 @@ package com.xored.javafx.packeteditor.data;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Observable;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
 
-public class BinaryData extends Observable implements IBinaryData {
+import static com.xored.javafx.packeteditor.data.BinaryDataChange.Type.*;
+
+public class BinaryData implements IBinaryData {
 
     private Logger logger= LoggerFactory.getLogger(BinaryData.class);
-    
-    public enum OP {
-        SET_BYTE, SET_BYTES, SELECTION, RELOAD
-    }
 
-    private byte[] bytes;
+    /** changed ranges separated by fewer equal bytes are merged */
+    static final int DIFF_MERGE_GAP = 4;
+    /** if there are more changed ranges, a single range covering them is reported */
+    static final int DIFF_MAX_RANGES = 16;
+
+    private byte[] bytes = new byte[0];
     private int selOffset;
     private int selLength;
 
+    private final List<Consumer<BinaryDataChange>> listeners = new CopyOnWriteArrayList<>();
+
     @Override
     public void clear() {
         setBytes(new byte[0]);
     }
-    
+
     @Override
     public void setBytes(byte[] payload) {
-        selOffset = 0;
-        selLength = 0;
+        if (payload == null) {
+            payload = new byte[0];
+        }
+        byte[] old = bytes;
         bytes = payload;
-        setChanged();
-        notifyObservers(OP.RELOAD);
+        setSelected(0, 0);
+        if (old.length != payload.length) {
+            int offset = commonPrefixLength(old, payload);
+            fireChange(new BinaryDataChange(RESIZE, offset, payload.length - offset));
+        } else {
+            diff(old, payload).forEach(this::fireChange);
+        }
+    }
+
+    /** ranges of equal-length arrays which differ */
+    static List<BinaryDataChange> diff(byte[] old, byte[] payload) {
+        List<BinaryDataChange> res = new ArrayList<>();
+        int start = -1;
+        int lastChanged = -1;
+        for (int i = 0; i < payload.length; i++) {
+            if (old[i] == payload[i]) {
+                continue;
+            }
+            if (start != -1 && i - lastChanged > DIFF_MERGE_GAP) {
+                res.add(new BinaryDataChange(BYTES, start, lastChanged - start + 1));
+                start = -1;
+            }
+            if (start == -1) {
+                start = i;
+            }
+            lastChanged = i;
+        }
+        if (start != -1) {
+            res.add(new BinaryDataChange(BYTES, start, lastChanged - start + 1));
+        }
+        if (res.size() > DIFF_MAX_RANGES) {
+            int first = res.get(0).getOffset();
+            BinaryDataChange last = res.get(res.size() - 1);
+            return Arrays.asList(new BinaryDataChange(BYTES, first, last.getOffset() + last.getLength() - first));
+        }
+        return res;
+    }
+
+    private static int commonPrefixLength(byte[] a, byte[] b) {
+        int len = Math.min(a.length, b.length);
+        for (int i = 0; i < len; i++) {
+            if (a[i] != b[i]) {
+                return i;
+            }
+        }
+        return len;
     }
 
     @Override
@@ -39,15 +93,14 @@ public class BinaryData extends Observable implements IBinaryData {
 
     @Override
     public int getLength() {
-        return bytes != null ? bytes.length: 0 ;
+        return bytes.length;
     }
 
     @Override
     public void setByte(int idx, byte value) {
         bytes[idx] = value;
         logger.info("Set bytes[{}] = {}", idx, (int) value);
-        setChanged();
-        notifyObservers(OP.SET_BYTE);
+        fireChange(new BinaryDataChange(BYTES, idx, 1));
     }
 
     public byte[] getBytes(int offset, int length) {
@@ -57,22 +110,31 @@ public class BinaryData extends Observable implements IBinaryData {
     @Override
     public void setBytes(int offset, int length, byte[] bytes) {
         System.arraycopy(bytes, 0, this.bytes, offset, length);
-        setChanged();
-        notifyObservers(OP.SET_BYTES);
+        fireChange(new BinaryDataChange(BYTES, offset, length));
     }
 
     @Override
-    public Observable getObservable() {
-        return this;
+    public void addChangeListener(Consumer<BinaryDataChange> listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void removeChangeListener(Consumer<BinaryDataChange> listener) {
+        listeners.remove(listener);
+    }
+
+    private void fireChange(BinaryDataChange change) {
+        listeners.forEach(listener -> listener.accept(change));
     }
 
     @Override
     public void setSelected(int offset, int length) {
+        if (selOffset == offset && selLength == length) {
+            return;
+        }
         selOffset = offset;
         selLength = length;
-
-        setChanged();
-        notifyObservers(OP.SELECTION);
+        fireChange(new BinaryDataChange(SELECTION, offset, length));
     }
 
     public int getSelOffset() {
@@ -0,0 +1,42 @@
+package com.xored.javafx.packeteditor.data;
+
+/**
+ * Change of {@link IBinaryData} with the affected byte range
+ */
+public class BinaryDataChange {
+    public enum Type {
+        /** bytes of the range were modified, the length is the same */
+        BYTES,
+        /** the length was changed. the range covers bytes from the first modified one to the end of new data */
+        RESIZE,
+        /** the range is the new selection */
+        SELECTION
+    }
+
+    private final Type type;
+    private final int offset;
+    private final int length;
+
+    public BinaryDataChange(Type type, int offset, int length) {
+        this.type = type;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    @Override
+    public String toString() {
+        return type + "[" + offset + ", " + length + "]";
+    }
+}
@@ -1,6 +1,6 @@
 package com.xored.javafx.packeteditor.data;
 
-import java.util.Observable;
+import java.util.function.Consumer;
 
 public interface IBinaryData {
     byte getByte(int idx);
@@ -8,10 +8,12 @@ public interface IBinaryData {
     void setByte(int idx, byte value);
     byte[] getBytes(int offset, int length);
 
+    /** replaces data. listeners are notified about changed ranges only */
     void setBytes(byte[] payload);
     void setBytes(int offset, int length, byte[] bytes);
 
-    Observable getObservable();
+    void addChangeListener(Consumer<BinaryDataChange> listener);
+    void removeChangeListener(Consumer<BinaryDataChange> listener);
     void setSelected(int offset, int length);
     int getSelOffset();
     int getSelLength();
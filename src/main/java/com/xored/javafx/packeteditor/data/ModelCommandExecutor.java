@@ -0,0 +1,244 @@
+package com.xored.javafx.packeteditor.data;
+
+import javafx.application.Platform;
+import javafx.beans.property.ReadOnlyBooleanProperty;
+import javafx.beans.property.ReadOnlyBooleanWrapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Single writer of the packet model.
+ * Model commands are applied in order on the "model-writer" thread, so scapy requests never block the FX thread.
+ * Results are published to the UI with {@link #publish}.
+ * Bursts of edits of the same target are coalesced with {@link #coalesce}, only the last state is applied.
+ */
+public class ModelCommandExecutor {
+    private static Logger logger = LoggerFactory.getLogger(ModelCommandExecutor.class);
+
+    /** model command. may throw checked exceptions, they are passed to the returned future */
+    public interface Command<T> {
+        T run() throws Exception;
+    }
+
+    public interface VoidCommand {
+        void run() throws Exception;
+    }
+
+    /** coalesced edit. superseded returns true once a newer edit of the same target was issued */
+    public interface CoalescedCommand<T> {
+        T run(BooleanSupplier superseded) throws Exception;
+    }
+
+    /** edits issued within this time after the previous one are merged */
+    public static final long COALESCE_WINDOW_MS = 100;
+
+    private volatile Thread writerThread;
+
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "model-writer");
+        thread.setDaemon(true);
+        writerThread = thread;
+        return thread;
+    });
+
+    private final ScheduledExecutorService coalesceTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "model-edit-coalescer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /** edits waiting for the end of their coalescing window, by edit target. guards the writer queue order */
+    private final Map<Object, PendingEdit<?>> pendingEdits = new LinkedHashMap<>();
+    /** number of edits issued for the target, used to detect superseded edits */
+    private final Map<Object, Long> editGenerations = new HashMap<>();
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    /** true while there are queued or running commands. updated on the FX thread */
+    private final ReadOnlyBooleanWrapper busy = new ReadOnlyBooleanWrapper(false);
+
+    public ReadOnlyBooleanProperty busyProperty() {
+        return busy.getReadOnlyProperty();
+    }
+
+    public boolean isWriterThread() {
+        return Thread.currentThread() == writerThread;
+    }
+
+    /**
+     * queues the command. Commands issued by another command run inline,
+     * their RuntimeExceptions are thrown to the calling command as before
+     */
+    public <T> CompletableFuture<T> submit(Command<T> command) {
+        if (isWriterThread()) {
+            try {
+                return CompletableFuture.completedFuture(command.run());
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        }
+        CompletableFuture<T> res = new CompletableFuture<>();
+        inFlight.incrementAndGet();
+        updateBusy();
+        synchronized (pendingEdits) {
+            // pending edits were issued before this command
+            flushPendingEdits();
+            enqueue(command, res);
+        }
+        return res;
+    }
+
+    /**
+     * issues an edit of the target which is applied after {@link #COALESCE_WINDOW_MS} of silence.
+     * A newer edit of the same target replaces a waiting one and both callers get the result of the newer edit.
+     * An edit which is already running can check superseded to drop its stale result (last writer wins).
+     * Other commands flush waiting edits first, so the order of commands is kept
+     */
+    public <T> CompletableFuture<T> coalesce(Object target, CoalescedCommand<T> command) {
+        if (isWriterThread()) {
+            return submit(() -> command.run(() -> false));
+        }
+        synchronized (pendingEdits) {
+            long generation = editGenerations.merge(target, 1L, Long::sum);
+            @SuppressWarnings("unchecked")
+            PendingEdit<T> edit = (PendingEdit<T>) pendingEdits.get(target);
+            if (edit == null) {
+                edit = new PendingEdit<>(target);
+                pendingEdits.put(target, edit);
+                inFlight.incrementAndGet();
+                updateBusy();
+            } else {
+                edit.timer.cancel(false);
+            }
+            edit.command = command;
+            edit.generation = generation;
+            PendingEdit<T> scheduled = edit;
+            edit.timer = coalesceTimer.schedule(() -> flushPendingEdit(scheduled), COALESCE_WINDOW_MS, TimeUnit.MILLISECONDS);
+            return edit.result;
+        }
+    }
+
+    private void flushPendingEdit(PendingEdit<?> edit) {
+        synchronized (pendingEdits) {
+            if (pendingEdits.get(edit.target) == edit) {
+                pendingEdits.remove(edit.target);
+                enqueue(edit);
+            }
+        }
+    }
+
+    private void flushPendingEdits() {
+        for (PendingEdit<?> edit : new ArrayList<>(pendingEdits.values())) {
+            edit.timer.cancel(false);
+            flushPendingEdit(edit);
+        }
+    }
+
+    private <T> void enqueue(PendingEdit<T> edit) {
+        Object target = edit.target;
+        long generation = edit.generation;
+        CoalescedCommand<T> command = edit.command;
+        enqueue(() -> command.run(() -> isSuperseded(target, generation)), edit.result);
+    }
+
+    private boolean isSuperseded(Object target, long generation) {
+        synchronized (pendingEdits) {
+            return editGenerations.getOrDefault(target, 0L) != generation;
+        }
+    }
+
+    /** the command is already counted as in flight */
+    private <T> void enqueue(Command<T> command, CompletableFuture<T> res) {
+        try {
+            writer.execute(() -> {
+                try {
+                    res.complete(command.run());
+                } catch (Throwable e) {
+                    logger.warn("Model command failed: {}", e.getMessage());
+                    res.completeExceptionally(e);
+                } finally {
+                    inFlight.decrementAndGet();
+                    updateBusy();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            inFlight.decrementAndGet();
+            updateBusy();
+            res.completeExceptionally(e);
+        }
+    }
+
+    public CompletableFuture<Void> execute(VoidCommand command) {
+        return submit(() -> {
+            command.run();
+            return null;
+        });
+    }
+
+    /** runs action on the FX thread. runs it in place if the toolkit is not started, e.g. in tests */
+    public static void publish(Runnable action) {
+        if (Platform.isFxApplicationThread()) {
+            action.run();
+            return;
+        }
+        try {
+            Platform.runLater(action);
+        } catch (IllegalStateException e) {
+            action.run();
+        }
+    }
+
+    /** handles command result on the FX thread. the error is unwrapped from CompletionException */
+    public static <T> void onFxThread(CompletableFuture<T> future, BiConsumer<T, Throwable> action) {
+        future.whenComplete((result, e) -> publish(() -> action.accept(result, unwrap(e))));
+    }
+
+    /** waits for the command. used by API which returns results synchronously to the embedding application */
+    public static <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = unwrap(e);
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw e;
+        }
+    }
+
+    public static Throwable unwrap(Throwable e) {
+        return e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+    }
+
+    public void shutdown() {
+        coalesceTimer.shutdownNow();
+        writer.shutdownNow();
+    }
+
+    private void updateBusy() {
+        publish(() -> busy.set(inFlight.get() > 0));
+    }
+
+    private static class PendingEdit<T> {
+        final Object target;
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        CoalescedCommand<T> command;
+        long generation;
+        ScheduledFuture<?> timer;
+
+        PendingEdit(Object target) {
+            this.target = target;
+        }
+    }
+}
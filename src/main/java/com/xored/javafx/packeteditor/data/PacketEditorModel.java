@@ -10,19 +10,28 @@ import com.google.gson.reflect.TypeToken;
 import com.google.inject.Inject;
 import com.xored.javafx.packeteditor.data.combined.CombinedField;
 import com.xored.javafx.packeteditor.data.combined.CombinedProtocolModel;
+import com.xored.javafx.packeteditor.data.combined.FieldOffsetIndex;
 import com.xored.javafx.packeteditor.data.user.Document;
 import com.xored.javafx.packeteditor.data.user.DocumentFile;
+import com.xored.javafx.packeteditor.data.user.DocumentSnapshot;
 import com.xored.javafx.packeteditor.data.user.UserProtocol;
+import com.xored.javafx.packeteditor.events.CaptureChangedEvent;
 import com.xored.javafx.packeteditor.events.InitPacketEditorEvent;
 import com.xored.javafx.packeteditor.events.RebuildViewEvent;
 import com.xored.javafx.packeteditor.events.UpdateEtherLayerEvent;
+import com.xored.javafx.packeteditor.fieldengine.FieldEngineProgram;
 import com.xored.javafx.packeteditor.metatdata.FEInstructionParameterMeta;
 import com.xored.javafx.packeteditor.metatdata.InstructionExpressionMeta;
 import com.xored.javafx.packeteditor.metatdata.ProtocolMetadata;
+import com.xored.javafx.packeteditor.pcap.PcapReader;
+import com.xored.javafx.packeteditor.service.CaptureService;
 import com.xored.javafx.packeteditor.scapy.FieldData;
 import com.xored.javafx.packeteditor.scapy.InstructionExpressionData;
 import com.xored.javafx.packeteditor.scapy.PacketData;
 import com.xored.javafx.packeteditor.scapy.ReconstructField;
+import com.xored.javafx.packeteditor.scapy.ReconstructProtocol;
+import com.xored.javafx.packeteditor.scapy.ScapyServerClient;
+import com.xored.javafx.packeteditor.service.ConfigurationService;
 import com.xored.javafx.packeteditor.service.IMetadataService;
 import com.xored.javafx.packeteditor.service.InstructionsTemplate;
 import com.xored.javafx.packeteditor.service.PacketDataService;
@@ -30,10 +39,11 @@ import com.xored.javafx.packeteditor.service.PacketUndoController;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.File;
-import java.io.IOException;
+import java.io.*;
+import java.nio.file.Files;
 import java.lang.reflect.Type;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 
 import static com.xored.javafx.packeteditor.data.user.DocumentFile.toPOJO;
@@ -43,6 +53,11 @@ import static com.xored.javafx.packeteditor.events.UpdateEtherLayerEvent.MacMode
 public class PacketEditorModel {
     private Logger logger = LoggerFactory.getLogger(PacketEditorModel.class);
 
+    /** coalescing targets of edits */
+    private static final String EDIT_FIELD = "field";
+    private static final String EDIT_PACKET_BYTES = "packet-bytes";
+    private static final String LOAD_CAPTURE_PACKET = "capture-packet";
+
     @Inject
     EventBus eventBus;
 
@@ -55,43 +70,71 @@ public class PacketEditorModel {
     @Inject
     IMetadataService metadataService;
 
-    /** abstract user model. contains field values */
-    Document userModel = new Document();
+    @Inject
+    ModelCommandExecutor commandExecutor;
+
+    @Inject
+    CaptureService captureService;
+
+    /** abstract user model. contains field values. modified by model commands only */
+    volatile Document userModel = new Document();
 
     /**
-     * Current packet representation in ScapyService format
+     * Current packet representation in ScapyService format. modified by model commands only
      */
-    PacketData packet = new PacketData();
+    volatile PacketData packet = new PacketData();
+
+    /** model, produced using userModel and information from Scapy. user for building UI structure. published on FX thread */
+    volatile CombinedProtocolModel model = new CombinedProtocolModel();
+
+    /** byte to field lookup for the published model. published on FX thread */
+    volatile FieldOffsetIndex fieldIndex = FieldOffsetIndex.EMPTY;
 
-    /** model, produced using userModel and information from Scapy. user for building UI structure */
-    CombinedProtocolModel model = new CombinedProtocolModel();
+    /** the latest model built on the writer thread. unchanged parts are reused by the next build */
+    private CombinedProtocolModel builtModel;
+
+    /** document state the published model was built from, read by prefetchViewData. published on FX thread */
+    volatile ViewDataInputs viewDataInputs;
+
+    /** instruction parameter values requested by prefetchViewData, by parameter id */
+    Map<String, CompletableFuture<Map<String, String>>> parameterValuesPrefetch = Collections.emptyMap();
 
     public CombinedProtocolModel getCombinedProtocolModel() {
         return model;
     }
 
-    public void reset() {
-        packet = new PacketData();
-        binary.clear();
-        deleteAllProtocols();
+    /** commands which modify the model run on the model writer thread, see {@link ModelCommandExecutor} */
+    public ModelCommandExecutor getCommandExecutor() {
+        return commandExecutor;
     }
 
-    public void addFEParameters(CombinedField combinedField) {
-        beforeContentReplace();
-        userModel.initFeParameters(metadataService.getFeParameters());
-        userModel.createFEFieldInstruction(combinedField);
-        PacketData newPkt = packetDataService.buildPacket(userModel.buildScapyModel(), userModel.getVmInstructionsModel());
-        setPktAndReload(newPkt);
+    public CompletableFuture<Void> reset() {
+        return commandExecutor.execute(() -> {
+            packet = new PacketData();
+            deleteAllProtocols();
+        });
     }
 
-    public void deleteFEParameters(CombinedField combinedField) {
-        beforeContentReplace();
-        userModel.deleteFEFieldInstruction(combinedField);
-        if (getVmInstructions().isEmpty()) {
-            userModel.clearFeParameters();
-        }
-        PacketData newPkt = packetDataService.buildPacket(userModel.buildScapyModel(), userModel.getVmInstructionsModel());
-        setPktAndReload(newPkt);
+    public CompletableFuture<Void> addFEParameters(CombinedField combinedField) {
+        return commandExecutor.execute(() -> {
+            beforeContentReplace();
+            userModel.initFeParameters(metadataService.getFeParameters());
+            userModel.createFEFieldInstruction(combinedField);
+            PacketData newPkt = packetDataService.buildPacket(userModel.buildScapyModel(), userModel.getVmInstructionsModel());
+            setPktAndReload(newPkt);
+        });
+    }
+
+    public CompletableFuture<Void> deleteFEParameters(CombinedField combinedField) {
+        return commandExecutor.execute(() -> {
+            beforeContentReplace();
+            userModel.deleteFEFieldInstruction(combinedField);
+            if (getVmInstructions().isEmpty()) {
+                userModel.clearFeParameters();
+            }
+            PacketData newPkt = packetDataService.buildPacket(userModel.buildScapyModel(), userModel.getVmInstructionsModel());
+            setPktAndReload(newPkt);
+        });
     }
 
     public List<String> getVmInstructions() {
@@ -102,43 +145,91 @@ public class PacketEditorModel {
         return userModel.getFeInstructions();
     }
 
-    public void addInstruction(InstructionExpressionMeta instructionMeta) {
+    public CompletableFuture<Void> addInstruction(InstructionExpressionMeta instructionMeta) {
         List<FEInstructionParameter2> parameters = instructionMeta.getParameterMetas().stream()
                 .map(meta -> new FEInstructionParameter2(meta, new JsonPrimitive(meta.getDefaultValue())))
                 .collect(Collectors.toList());
         InstructionExpression instruction = new InstructionExpression(instructionMeta, parameters);
 
-        beforeContentReplace();
-        
-        userModel.addInstruction(instruction);
+        return commandExecutor.execute(() -> {
+            beforeContentReplace();
 
-        setPktAndReload(packetDataService.buildPacket(userModel.buildScapyModel(), userModel.getVmInstructionsModel()));
+            userModel.addInstruction(instruction);
+
+            setPktAndReload(packetDataService.buildPacket(userModel.buildScapyModel(), userModel.getVmInstructionsModel()));
+        });
     }
-    public void addInstructions(List<InstructionExpression> instructions) {
-        beforeContentReplace();
-        
-        instructions.stream().forEach(userModel::addInstruction);
-        
-        setPktAndReload(packetDataService.buildPacket(userModel.buildScapyModel(), userModel.getVmInstructionsModel()));
+
+    public CompletableFuture<Void> addInstructions(List<InstructionExpression> instructions) {
+        return commandExecutor.execute(() -> {
+            beforeContentReplace();
+
+            instructions.stream().forEach(userModel::addInstruction);
+
+            setPktAndReload(packetDataService.buildPacket(userModel.buildScapyModel(), userModel.getVmInstructionsModel()));
+        });
     }
 
-    public void removeInstructionLayer(InstructionExpression instruction) {
-        beforeContentReplace();
+    /** field engine instructions compiled against the current packet for the local simulator */
+    public CompletableFuture<FieldEngineProgram> compileFieldEngine() {
+        return commandExecutor.submit(() ->
+                FieldEngineProgram.compile(getPkt(), userModel.getFeInstructions(), userModel.getFePrarameters()));
+    }
+
+    public CompletableFuture<Void> removeInstructionLayer(InstructionExpression instruction) {
+        return commandExecutor.execute(() -> {
+            beforeContentReplace();
 
-        userModel.deleteInstruction(instruction);
+            userModel.deleteInstruction(instruction);
 
-        setPktAndReload(packetDataService.buildPacket(userModel.buildScapyModel(), userModel.getVmInstructionsModel()));
+            setPktAndReload(packetDataService.buildPacket(userModel.buildScapyModel(), userModel.getVmInstructionsModel()));
+        });
     }
 
-    public Map<String, String> loadParameterValuesFromScapy(FEInstructionParameterMeta meta) {
-        return packetDataService.loadInstructionParameterValues(userModel.buildScapyModel(), userModel.getVmInstructionsModel(), meta.getId());
+    /** values of the enum instruction parameter. prefetched values are used if available, otherwise scapy is requested without blocking */
+    public CompletableFuture<Map<String, String>> loadParameterValuesFromScapy(FEInstructionParameterMeta meta) {
+        CompletableFuture<Map<String, String>> prefetched = parameterValuesPrefetch.get(meta.getId());
+        if (prefetched != null) {
+            return prefetched;
+        }
+        // the document is read on the writer thread, the request completes asynchronously
+        return commandExecutor.submit(() -> packetDataService.loadInstructionParameterValuesAsync(
+                userModel.buildScapyModel(), userModel.getVmInstructionsModel(), meta.getId()))
+                .thenCompose(values -> values);
+    }
+
+    /**
+     * issues scapy requests needed to rebuild views as a single batch:
+     * payload classes for the last protocol and values of all enum instruction parameters.
+     * Arguments are captured on the writer thread with the published model.
+     * Results are used by the views until {@link #clearViewDataPrefetch} is called
+     */
+    public void prefetchViewData() {
+        ViewDataInputs inputs = viewDataInputs;
+        if (inputs == null) {
+            return;
+        }
+        parameterValuesPrefetch = packetDataService.batch(() -> {
+            if (inputs.lastProtocolId != null) {
+                metadataService.getAllowedPayloadForProtocolAsync(inputs.lastProtocolId);
+            }
+            Map<String, CompletableFuture<Map<String, String>>> res = new HashMap<>();
+            inputs.enumParameterIds.forEach(id -> res.computeIfAbsent(id, ignored ->
+                    packetDataService.loadInstructionParameterValuesAsync(inputs.pktStructure, inputs.vmInstructionsModel, id)));
+            return res;
+        });
+    }
+
+    /** prefetched values depend on the packet, they are dropped once views are rebuilt */
+    public void clearViewDataPrefetch() {
+        parameterValuesPrefetch = Collections.emptyMap();
     }
 
     public void setFieldEngineError(String fieldEngineError) {
         this.packet.setFieldEngineError(fieldEngineError);
     }
 
-    public void addFEInstructionsTemplate(CombinedField field, InstructionsTemplate template) {
+    public CompletableFuture<Void> addFEInstructionsTemplate(CombinedField field, InstructionsTemplate template) {
         String initValue = field.getDisplayValue();
         int protocolIdx = field.getProtocol().getIdx();
         String pktIdx = "";
@@ -169,7 +260,7 @@ public class PacketEditorModel {
                 }).collect(Collectors.toList());
             return new InstructionExpression(instructionMeta, parameters);
         }).collect(Collectors.toList());
-        addInstructions(instructions);
+        return addInstructions(instructions);
     }
 
     /**
@@ -183,71 +274,132 @@ public class PacketEditorModel {
         return getPkt().getPacketBytes().length + 4;
     }
 
-    public void loadSimpleUserModel(String json) {
-        Gson gson = new Gson();
-
-        final Type jsonObjectListType = new TypeToken<List<JsonObject>>() {}.getType();
-        final Type jsonMapType = new TypeToken<Map<String, JsonElement>>() {}.getType();
-        JsonObject simpleModel = gson.fromJson(json, JsonObject.class);
-        List<JsonObject> protocols = gson.fromJson(simpleModel.getAsJsonArray("protocols"), jsonObjectListType);
-        protocols.stream().forEach(proto -> {
-            String protoId = proto.get("id").getAsString();
-            List<JsonObject> protoFields = gson.fromJson(proto.get("fields"), jsonObjectListType);
-            
-            Map<String, String> fieldsMap = protoFields.stream()
-                    .collect(Collectors.toMap(field -> field.get("id").getAsString(), field -> field.get("value").getAsString()));
-            
-            addProtocol(protoId, fieldsMap);
-        });
+    public CompletableFuture<Void> loadSimpleUserModel(String json) {
+        return commandExecutor.execute(() -> {
+            Gson gson = new Gson();
 
+            final Type jsonObjectListType = new TypeToken<List<JsonObject>>() {}.getType();
+            final Type jsonMapType = new TypeToken<Map<String, JsonElement>>() {}.getType();
+            JsonObject simpleModel = gson.fromJson(json, JsonObject.class);
+            List<JsonObject> protocols = gson.fromJson(simpleModel.getAsJsonArray("protocols"), jsonObjectListType);
+            protocols.stream().forEach(proto -> {
+                String protoId = proto.get("id").getAsString();
+                List<JsonObject> protoFields = gson.fromJson(proto.get("fields"), jsonObjectListType);
 
-        List<JsonObject> instructionsJson = gson.fromJson(simpleModel.getAsJsonObject("field_engine").getAsJsonArray("instructions"), jsonObjectListType);
-        List<InstructionExpression> instructions = instructionsJson.stream().map(instructionJson -> {
-            String instructionId = instructionJson.get("id").getAsString();
-            InstructionExpressionMeta instructionMeta = metadataService.getFeInstructions().get(instructionId);
+                Map<String, String> fieldsMap = protoFields.stream()
+                        .collect(Collectors.toMap(field -> field.get("id").getAsString(), field -> field.get("value").getAsString()));
 
-            Map<String, JsonElement> paramsMap = gson.fromJson(instructionJson.get("parameters"), jsonMapType);
+                addProtocol(protoId, fieldsMap);
+            });
 
-            List<FEInstructionParameter2> parameters = instructionMeta.getParameterMetas()
-                    .stream()
-                    .filter(meta -> paramsMap.get(meta.getId()) != null)
-                    .map(parameterMeta -> new FEInstructionParameter2(parameterMeta, paramsMap.get(parameterMeta.getId())))
-                    .collect(Collectors.toList());
 
-            List<String> specifiedParameters = parameters.stream().map(FEInstructionParameter2::getId).collect(Collectors.toList());
-            
-            // Add rest parameters with default values
-            instructionMeta.getParameterMetas().stream()
-                    .filter(parameterMeta -> !specifiedParameters.contains(parameterMeta.getId()))
-                    .forEach(parameterMeta -> {
-                        parameters.add(new FEInstructionParameter2(parameterMeta, new JsonPrimitive(parameterMeta.getDefaultValue())));
-                    });
+            List<JsonObject> instructionsJson = gson.fromJson(simpleModel.getAsJsonObject("field_engine").getAsJsonArray("instructions"), jsonObjectListType);
+            List<InstructionExpression> instructions = instructionsJson.stream().map(instructionJson -> {
+                String instructionId = instructionJson.get("id").getAsString();
+                InstructionExpressionMeta instructionMeta = metadataService.getFeInstructions().get(instructionId);
 
-            return new InstructionExpression(instructionMeta, parameters);
-        }).collect(Collectors.toList());
-        Map<String, JsonElement> globalParametersJson = gson.fromJson(simpleModel.getAsJsonObject("field_engine").getAsJsonObject("global_parameters"), jsonMapType);
-        userModel.setFePrarameterValue("cache_size", globalParametersJson.get("cache_size").getAsString());
-        addInstructions(instructions);
+                Map<String, JsonElement> paramsMap = gson.fromJson(instructionJson.get("parameters"), jsonMapType);
+
+                List<FEInstructionParameter2> parameters = instructionMeta.getParameterMetas()
+                        .stream()
+                        .filter(meta -> paramsMap.get(meta.getId()) != null)
+                        .map(parameterMeta -> new FEInstructionParameter2(parameterMeta, paramsMap.get(parameterMeta.getId())))
+                        .collect(Collectors.toList());
+
+                List<String> specifiedParameters = parameters.stream().map(FEInstructionParameter2::getId).collect(Collectors.toList());
+
+                // Add rest parameters with default values
+                instructionMeta.getParameterMetas().stream()
+                        .filter(parameterMeta -> !specifiedParameters.contains(parameterMeta.getId()))
+                        .forEach(parameterMeta -> {
+                            parameters.add(new FEInstructionParameter2(parameterMeta, new JsonPrimitive(parameterMeta.getDefaultValue())));
+                        });
+
+                return new InstructionExpression(instructionMeta, parameters);
+            }).collect(Collectors.toList());
+            Map<String, JsonElement> globalParametersJson = gson.fromJson(simpleModel.getAsJsonObject("field_engine").getAsJsonObject("global_parameters"), jsonMapType);
+            userModel.setFePrarameterValue("cache_size", globalParametersJson.get("cache_size").getAsString());
+            addInstructions(instructions);
+        });
     }
 
-    public class DocState {
-        public DocumentFile userModel;
-        public PacketData packet;
+    /**
+     * Undo record. The document shares unchanged protocols with the previous record.
+     * The packet is rebuilt from the document on undo, only binary mode keeps packet bytes
+     */
+    public static class DocState {
+        public final DocumentSnapshot userModel;
+        public final byte[] packetBytes;
+        /** built packet, it isn't changed after build and is shared by records. null for records read from disk */
+        final PacketData packet;
+
+        DocState(DocumentSnapshot userModel, byte[] packetBytes, PacketData packet) {
+            this.userModel = userModel;
+            this.packetBytes = packetBytes;
+            this.packet = packet;
+        }
     }
 
-    PacketUndoController<DocState> undoController = new PacketUndoController<>(this::loadUndoState);
+    static final PacketUndoController.RecordCodec<DocState> DOC_STATE_CODEC = new PacketUndoController.RecordCodec<DocState>() {
+        @Override
+        public long sizeOf(DocState record, DocState previous) {
+            long res = record.userModel.getSizeExcluding(previous != null ? previous.userModel : null);
+            if (record.packet != null && (previous == null || previous.packet != record.packet)) {
+                // packet bytes approximate the built packet, unchanged packets are shared
+                res += record.packet.getPacketBytes().length;
+            }
+            return record.packetBytes != null ? res + record.packetBytes.length : res;
+        }
+
+        @Override
+        public byte[] encode(DocState record) throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(record.packetBytes != null ? record.packetBytes.length : -1);
+            if (record.packetBytes != null) {
+                out.write(record.packetBytes);
+            }
+            record.userModel.write(out);
+            out.flush();
+            return bytes.toByteArray();
+        }
+
+        @Override
+        public DocState decode(byte[] data) throws IOException {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+            int packetLength = in.readInt();
+            byte[] packetBytes = null;
+            if (packetLength >= 0) {
+                packetBytes = new byte[packetLength];
+                in.readFully(packetBytes);
+            }
+            return new DocState(DocumentSnapshot.read(in), packetBytes, null);
+        }
+    };
+
+    PacketUndoController<DocState> undoController = new PacketUndoController<>(this::loadUndoState, DOC_STATE_CODEC);
+
+    /** the latest undo snapshot, unchanged protocols of the next one are shared with it */
+    private DocumentSnapshot lastSnapshot;
+
+    @Inject
+    void configureUndo(ConfigurationService configurationService) {
+        undoController.setMemoryBudget(configurationService.getUndoMemoryBudget());
+        undoController.setSpillToDisk(configurationService.isUndoSpillToDisk());
+    }
 
     /** compatibility flag. to be removed later */
-    boolean binaryMode = false;
+    volatile boolean binaryMode = false;
 
-    public void deleteAllProtocols() {
-        userModel.clear();
-        model = new CombinedProtocolModel();
-        fireUpdateViewEvent();
+    public CompletableFuture<Void> deleteAllProtocols() {
+        return commandExecutor.execute(() -> {
+            userModel.clear();
+            fireUpdateViewEvent();
+        });
     }
 
-    public void addProtocol(String protocolId) {
-        addProtocol(metadataService.getProtocolMetadataById(protocolId));
+    public CompletableFuture<Void> addProtocol(String protocolId) {
+        return commandExecutor.execute(() -> addProtocol(metadataService.getProtocolMetadataById(protocolId)));
     }
 
     /** if true, we rely on binary data and scapy model. Otherwise, userModel is used */
@@ -259,54 +411,64 @@ public class PacketEditorModel {
         this.binaryMode = binaryMode;
     }
 
-    public void addProtocol(String protoId, Map<String, String> fields) {
-        ProtocolMetadata meta = metadataService.getProtocolMetadataById(protoId);
-        try {
-            beforeContentReplace();
-            userModel.addProtocol(meta);
-            
-            UserProtocol protocol = userModel.getProtocolStack().peek();
-            fields.entrySet().forEach(entry -> protocol.addField(entry.getKey(), entry.getValue()));
-            
-            setPktAndReload(packetDataService.buildPacket(userModel.buildScapyModel(), userModel.getVmInstructionsModel()));
-        } catch (Exception e) {
-            undo();
-            logger.error("Unable to add protocol due to: {}", e);
-            throw e;
-        }
-        logger.info("UserProtocol {} added.", meta.getName());
-    }
-    
-    public void addProtocol(ProtocolMetadata meta) {
-        if (meta != null) {
-            try{
+    public CompletableFuture<Void> addProtocol(String protoId, Map<String, String> fields) {
+        return commandExecutor.execute(() -> {
+            ProtocolMetadata meta = metadataService.getProtocolMetadataById(protoId);
+            try {
                 beforeContentReplace();
                 userModel.addProtocol(meta);
-                Stack<UserProtocol> protocols = userModel.getProtocolStack();
-                protocols.forEach(p -> p.setCollapsed(p != protocols.peek())); // EXPAND_ONLY_LAST
-                if (isBinaryMode()) {
-                    setPktAndReload(packetDataService.appendProtocol(packet, meta.getId()));
-                } else {
-                    setPktAndReload(packetDataService.buildPacket(userModel.buildScapyModel(), userModel.getVmInstructionsModel()));
-                }
-            } catch(Exception e) {
+
+                UserProtocol protocol = userModel.getProtocolStack().peek();
+                fields.entrySet().forEach(entry -> protocol.addField(entry.getKey(), entry.getValue()));
+
+                setPktAndReload(packetDataService.buildPacket(userModel.buildScapyModel(), userModel.getVmInstructionsModel()));
+            } catch (Exception e) {
                 undo();
                 logger.error("Unable to add protocol due to: {}", e);
                 throw e;
             }
             logger.info("UserProtocol {} added.", meta.getName());
-        }
+        });
+    }
+    
+    public CompletableFuture<Void> addProtocol(ProtocolMetadata meta) {
+        return commandExecutor.execute(() -> {
+            if (meta != null) {
+                try {
+                    beforeContentReplace();
+                    userModel.addProtocol(meta);
+                    Stack<UserProtocol> protocols = userModel.getProtocolStack();
+                    protocols.forEach(p -> p.setCollapsed(p != protocols.peek())); // EXPAND_ONLY_LAST
+                    if (isBinaryMode()) {
+                        setPktAndReload(packetDataService.appendProtocol(packet, meta.getId()));
+                    } else {
+                        setPktAndReload(packetDataService.buildPacket(userModel.buildScapyModel(), userModel.getVmInstructionsModel()));
+                    }
+                } catch (Exception e) {
+                    undo();
+                    logger.error("Unable to add protocol due to: {}", e);
+                    throw e;
+                }
+                logger.info("UserProtocol {} added.", meta.getName());
+            }
+        });
     }
 
 
-    public List<ProtocolMetadata> getAvailableProtocolsToAdd(boolean getUnsupported) {
-        Map<String, ProtocolMetadata>  protocolsMetaMap = metadataService.getProtocols();
-
-        if (model.getProtocolStack().isEmpty()) {
-            return Collections.singletonList(metadataService.getProtocolMetadataById("Ether"));
-        }
+    /** protocols which can be appended to the packet. the stack is read on the writer thread, payloads are requested without blocking */
+    public CompletableFuture<List<ProtocolMetadata>> getAvailableProtocolsToAdd(boolean getUnsupported) {
+        return commandExecutor.submit(() -> model.getProtocolStack().isEmpty() ? null : model.getLastProtocolId())
+                .thenCompose(lastProtocolId -> {
+                    if (lastProtocolId == null) {
+                        return CompletableFuture.completedFuture(Collections.singletonList(metadataService.getProtocolMetadataById("Ether")));
+                    }
+                    return metadataService.getAllowedPayloadForProtocolAsync(lastProtocolId)
+                            .thenApply(payloads -> getAvailableProtocolsToAdd(new HashSet<>(payloads), getUnsupported));
+                });
+    }
 
-        Set<String> suggested_extensions = metadataService.getAllowedPayloadForProtocol(model.getLastProtocolId()).stream().collect(Collectors.toSet());
+    private List<ProtocolMetadata> getAvailableProtocolsToAdd(Set<String> suggested_extensions, boolean getUnsupported) {
+        Map<String, ProtocolMetadata>  protocolsMetaMap = metadataService.getProtocols();
         List<ProtocolMetadata> res = new ArrayList<>();
         if (getUnsupported) {
             Map<Boolean, List<ProtocolMetadata>> suggested_proto = protocolsMetaMap.values().stream()
@@ -323,28 +485,59 @@ public class PacketEditorModel {
         }
         return res;
     }
-    
-    public void removeLast() {
-        beforeContentReplace();
-        if (isBinaryMode()) {
-            setPktAndReload(packetDataService.removeLastProtocol(packet));
-        } else {
-            if (userModel.getProtocolStack().size() > 1) {
-                userModel.getProtocolStack().pop();
-                setPktAndReload(packetDataService.buildPacket(userModel.buildScapyModel(), userModel.getVmInstructionsModel()));
+
+    public CompletableFuture<Void> removeLast() {
+        return commandExecutor.execute(() -> {
+            beforeContentReplace();
+            if (isBinaryMode()) {
+                setPktAndReload(packetDataService.removeLastProtocol(packet));
+            } else {
+                if (userModel.getProtocolStack().size() > 1) {
+                    userModel.getProtocolStack().pop();
+                    setPktAndReload(packetDataService.buildPacket(userModel.buildScapyModel(), userModel.getVmInstructionsModel()));
+                }
             }
-        }
+        });
     }
 
+    /** builds UI model on the writer thread and publishes it with packet bytes to the FX thread */
     private void fireUpdateViewEvent() {
-        binary.setBytes(packet.getPacketBytes());
+        byte[] bytes = packet.getPacketBytes().clone(); // binary editor modifies bytes in place
+        CombinedProtocolModel newModel;
         if (isBinaryMode()) {
-            model = CombinedProtocolModel.fromScapyData(metadataService, userModel, packet.getProtocols());
+            newModel = CombinedProtocolModel.fromScapyData(metadataService, userModel, packet.getProtocols(), builtModel);
         } else {
-            model = CombinedProtocolModel.fromUserModel(metadataService, userModel, packet.getProtocols());
+            newModel = CombinedProtocolModel.fromUserModel(metadataService, userModel, packet.getProtocols(), builtModel);
         }
+        builtModel = newModel;
+        FieldOffsetIndex newFieldIndex = FieldOffsetIndex.of(newModel);
+        ViewDataInputs newViewDataInputs = new ViewDataInputs(newModel);
         logger.debug("Rebuilding UI model");
-        eventBus.post(new RebuildViewEvent());
+        ModelCommandExecutor.publish(() -> {
+            binary.setBytes(bytes);
+            model = newModel;
+            fieldIndex = newFieldIndex;
+            viewDataInputs = newViewDataInputs;
+            eventBus.post(new RebuildViewEvent());
+        });
+    }
+
+    /** scapy request arguments captured on the writer thread together with the model they belong to */
+    private class ViewDataInputs {
+        final List<ReconstructProtocol> pktStructure = userModel.buildScapyModel();
+        final JsonElement vmInstructionsModel = userModel.getVmInstructionsModel();
+        final List<String> enumParameterIds = getInstructionExpressions().stream()
+                .flatMap(instruction -> instruction.getParameters().stream())
+                .map(FEInstructionParameter2::getMeta)
+                .filter(FEInstructionParameterMeta::isEnum)
+                .map(FEInstructionParameterMeta::getId)
+                .distinct()
+                .collect(Collectors.toList());
+        final String lastProtocolId;
+
+        ViewDataInputs(CombinedProtocolModel builtModel) {
+            lastProtocolId = builtModel.getProtocolStack().isEmpty() ? null : builtModel.getLastProtocolId();
+        }
     }
 
     private void setPktAndReload(PacketData pkt) {
@@ -352,8 +545,8 @@ public class PacketEditorModel {
         fireUpdateViewEvent();
     }
 
-    public void saveDocumentToFile(File outFile) throws IOException {
-        DocumentFile.saveToFile(userModel, outFile);
+    public CompletableFuture<Void> saveDocumentToFile(File outFile) {
+        return commandExecutor.execute(() -> DocumentFile.saveToFile(userModel, outFile));
     }
 
     /** replace current new user model document with a different(from file/json/template) */
@@ -363,60 +556,122 @@ public class PacketEditorModel {
         setPktAndReload(packetDataService.buildPacket(userModel.buildScapyModel(), userModel.getVmInstructionsModel()));
     }
 
-    public void loadTemplate(DocumentFile outFile) {
-        setNewUserModel(DocumentFile.fromPOJO(outFile, metadataService));
+    public CompletableFuture<Void> loadTemplate(DocumentFile outFile) {
+        return commandExecutor.execute(() -> setNewUserModel(DocumentFile.fromPOJO(outFile, metadataService)));
+    }
+
+    public CompletableFuture<Void> loadDocumentFromPcapData(PacketData pkt) {
+        return commandExecutor.execute(() -> setPcapPacket(pkt));
     }
 
-    public void loadDocumentFromPcapData(PacketData pkt) {
+    private void setPcapPacket(PacketData pkt) {
         beforeContentReplace();
         this.packet = pkt;
         importUserModelFromScapy(packet);
         fireUpdateViewEvent();
     }
 
-    public void loadDocumentFromJSON(String jsonBase64) {
-        String userModelJSON = new String(Base64.getDecoder().decode(jsonBase64.getBytes()));
-        Document newUserModel = DocumentFile.loadFromJSON(userModelJSON, metadataService);
-        setNewUserModel(newUserModel);
+    /**
+     * opens the capture and reads its first packet on the writer thread.
+     * Packets are read locally and only their bytes are sent to scapy for dissection
+     */
+    public CompletableFuture<Void> loadDocumentFromPcapFile(File pcapFile) {
+        return commandExecutor.execute(() -> {
+            PcapReader reader = captureService.open(pcapFile);
+            PacketData pkt;
+            try {
+                if (reader.getPacketCount() == 0) {
+                    throw new IOException("No packets in " + pcapFile.getName());
+                }
+                pkt = ModelCommandExecutor.await(captureService.dissect(0));
+            } catch (Exception e) {
+                // the capture isn't shown if its first packet can't be loaded
+                captureService.close();
+                ModelCommandExecutor.publish(() -> eventBus.post(new CaptureChangedEvent()));
+                throw e;
+            }
+            setCurrentFile(pcapFile);
+            setPcapPacket(pkt);
+            ModelCommandExecutor.publish(() -> eventBus.post(new CaptureChangedEvent()));
+        });
     }
 
-    public void loadDocumentFromFile(File outFile) throws IOException {
-        Document newUserModel = DocumentFile.loadFromFile(outFile, metadataService);
-        newUserModel.setCurrentFile(outFile);
-        setNewUserModel(newUserModel);
+    /** replaces the document with a packet of the opened capture */
+    public CompletableFuture<Void> loadCapturePacket(int idx) {
+        // scrolling through the list selects every packet on the way. only the last selected one is loaded
+        return commandExecutor.coalesce(LOAD_CAPTURE_PACKET, superseded -> {
+            if (superseded.getAsBoolean()) {
+                return null;
+            }
+            PacketData pkt = ModelCommandExecutor.await(captureService.dissect(idx));
+            if (!superseded.getAsBoolean()) {
+                setPcapPacket(pkt);
+            }
+            return null;
+        });
     }
 
-    public void removeLayer(UserProtocol protocol) {
-        Stack<UserProtocol>  protocolStack = userModel.getProtocolStack();
-        int idx = protocolStack.indexOf(protocol);
-        if (idx > 0 && !isBinaryMode()) { // can't remove 1st layer
-            beforeContentReplace();
-            getUserModel().clearSplitByIfnecessary(protocol.getId());
-            protocolStack.remove(idx);
-            setPktAndReload(packetDataService.buildPacket(userModel.buildScapyModel(), userModel.getVmInstructionsModel()));
+    /** closes the opened capture, its packets list is hidden */
+    public void closeCapture() {
+        if (captureService.getReader() != null) {
+            captureService.close();
+            eventBus.post(new CaptureChangedEvent());
         }
     }
 
-    public void moveLayerUp(UserProtocol protocol) {
-        Stack<UserProtocol>  protocolStack = userModel.getProtocolStack();
-        int idx = protocolStack.indexOf(protocol);
-        if (idx > 1 && !isBinaryMode()) { // can't remove 1st layer
-            beforeContentReplace();
-            protocolStack.remove(idx);
-            protocolStack.insertElementAt(protocol, idx - 1);
-            setPktAndReload(packetDataService.buildPacket(userModel.buildScapyModel(), userModel.getVmInstructionsModel()));
-        }
+    public CompletableFuture<Void> loadDocumentFromJSON(String jsonBase64) {
+        return commandExecutor.execute(() -> {
+            String userModelJSON = new String(Base64.getDecoder().decode(jsonBase64.getBytes()));
+            Document newUserModel = DocumentFile.loadFromJSON(userModelJSON, metadataService);
+            setNewUserModel(newUserModel);
+        });
     }
 
-    public void moveLayerDown(UserProtocol protocol) {
-        Stack<UserProtocol>  protocolStack = userModel.getProtocolStack();
-        int idx = protocolStack.indexOf(protocol);
-        if (idx > 0 && !isBinaryMode() && idx + 1 < protocolStack.size()) { // can't remove 1st layer
-            beforeContentReplace();
-            protocolStack.remove(idx);
-            protocolStack.insertElementAt(protocol, idx + 1);
-            setPktAndReload(packetDataService.buildPacket(userModel.buildScapyModel(), userModel.getVmInstructionsModel()));
-        }
+    public CompletableFuture<Void> loadDocumentFromFile(File outFile) {
+        return commandExecutor.execute(() -> {
+            Document newUserModel = DocumentFile.loadFromFile(outFile, metadataService);
+            newUserModel.setCurrentFile(outFile);
+            setNewUserModel(newUserModel);
+        });
+    }
+
+    public CompletableFuture<Void> removeLayer(UserProtocol protocol) {
+        return commandExecutor.execute(() -> {
+            Stack<UserProtocol>  protocolStack = userModel.getProtocolStack();
+            int idx = protocolStack.indexOf(protocol);
+            if (idx > 0 && !isBinaryMode()) { // can't remove 1st layer
+                beforeContentReplace();
+                getUserModel().clearSplitByIfnecessary(protocol.getId());
+                protocolStack.remove(idx);
+                setPktAndReload(packetDataService.buildPacket(userModel.buildScapyModel(), userModel.getVmInstructionsModel()));
+            }
+        });
+    }
+
+    public CompletableFuture<Void> moveLayerUp(UserProtocol protocol) {
+        return commandExecutor.execute(() -> {
+            Stack<UserProtocol>  protocolStack = userModel.getProtocolStack();
+            int idx = protocolStack.indexOf(protocol);
+            if (idx > 1 && !isBinaryMode()) { // can't remove 1st layer
+                beforeContentReplace();
+                protocolStack.remove(idx);
+                protocolStack.insertElementAt(protocol, idx - 1);
+                setPktAndReload(packetDataService.buildPacket(userModel.buildScapyModel(), userModel.getVmInstructionsModel()));
+            }
+        });
+    }
+
+    public CompletableFuture<Void> moveLayerDown(UserProtocol protocol) {
+        return commandExecutor.execute(() -> {
+            Stack<UserProtocol>  protocolStack = userModel.getProtocolStack();
+            int idx = protocolStack.indexOf(protocol);
+            if (idx > 0 && !isBinaryMode() && idx + 1 < protocolStack.size()) { // can't remove 1st layer
+                beforeContentReplace();
+                protocolStack.remove(idx);
+                protocolStack.insertElementAt(protocol, idx + 1);
+                setPktAndReload(packetDataService.buildPacket(userModel.buildScapyModel(), userModel.getVmInstructionsModel()));
+            }
+        });
     }
 
     private void importUserModelFromScapy(PacketData packet) {
@@ -434,22 +689,33 @@ public class PacketEditorModel {
         });
     }
     
-    public void setVmInstructionParameter(FEInstructionParameter2 instructionParameter, String value) {
-        beforeContentReplace();
-        userModel.setFEInstructionParameter(instructionParameter, value);
-        
-        PacketData newPkt = packetDataService.buildPacket(userModel.buildScapyModel(), userModel.getVmInstructionsModel());
-        setPktAndReload(newPkt);
+    public CompletableFuture<Void> setVmInstructionParameter(FEInstructionParameter2 instructionParameter, String value) {
+        return commandExecutor.execute(() -> {
+            beforeContentReplace();
+            userModel.setFEInstructionParameter(instructionParameter, value);
+
+            PacketData newPkt = packetDataService.buildPacket(userModel.buildScapyModel(), userModel.getVmInstructionsModel());
+            setPktAndReload(newPkt);
+        });
     }
     
-    public void editField(CombinedField field, ReconstructField newValue) {
-        
+    public CompletableFuture<Void> editField(CombinedField field, ReconstructField newValue) {
         if (field.getProtocol().getId().equals("Ether")
             && !field.getId().equals("type")) {
             UpdateEtherLayerEvent.MacMode mode = newValue.isDeleted() ? TREX_CONFIG : PACKET; 
             eventBus.post(new UpdateEtherLayerEvent(field.getId(), mode));
         }
-        
+        List<Object> target = Arrays.asList(EDIT_FIELD, field.getProtocol().getPath(), field.getId());
+        return commandExecutor.coalesce(target, superseded -> {
+            // a newer value of the field is queued. user model and undo history get only the final one
+            if (!superseded.getAsBoolean()) {
+                applyFieldValue(field, newValue);
+            }
+            return null;
+        });
+    }
+
+    private void applyFieldValue(CombinedField field, ReconstructField newValue) {
         beforeContentReplace();
         assert(field.getMeta().getId() == newValue.id);
 
@@ -496,87 +762,108 @@ public class PacketEditorModel {
     }
 
     /** sets text value */
-    public void editField(CombinedField field, String newValue) {
+    public CompletableFuture<Void> editField(CombinedField field, String newValue) {
         if (field.getScapyFieldData() != null && field.getScapyFieldData().getValueExpr() != null) {
             // if original value was expression, which means there are no good representation for it,
             // new string value should be treated as an expression as well. not as a hvalue
             // at least until we do not improve support for h2i/i2h
-            editField(field, ReconstructField.setExpressionValue(field.getId(), newValue));
+            return editField(field, ReconstructField.setExpressionValue(field.getId(), newValue));
         } else if ("".equals(newValue)) {
-            editField(field, ReconstructField.resetValue(field.getId()));
+            return editField(field, ReconstructField.resetValue(field.getId()));
         } else {
-            editField(field, ReconstructField.setHumanValue(field.getId(), newValue));
+            return editField(field, ReconstructField.setHumanValue(field.getId(), newValue));
         }
     }
 
     /** packet bytes were changed with the binary editor */
-    public void editPacketBytes(byte[] newBytes) {
-        importUserModelFromScapy(packetDataService.reconstructPacketFromBinary(newBytes));
+    public CompletableFuture<Void> editPacketBytes(byte[] newBytes) {
+        // every typed nibble is an edit. only the last bytes are sent to scapy
+        return commandExecutor.coalesce(EDIT_PACKET_BYTES, superseded -> {
+            if (superseded.getAsBoolean()) {
+                return null;
+            }
+            PacketData pkt = packetDataService.reconstructPacketFromBinary(newBytes);
+            if (!superseded.getAsBoolean()) {
+                importUserModelFromScapy(pkt);
+            }
+            return null;
+        });
     }
 
     public void setSelected(CombinedField field) {
-        int absoluteOffset = 0;
-        int len = 0;
-        if (field != null && field.getScapyFieldData() != null) {
-            FieldData fd = field.getScapyFieldData();
-            if (fd.hasPosition()) {
-                int protoOffset = field.getProtocol().getScapyProtocol().offset.intValue();
-                absoluteOffset = protoOffset + fd.getOffset();
-                len = fd.getLength();
-            }
-        }
-        binary.setSelected(absoluteOffset, len);
+        int len = field != null ? FieldOffsetIndex.getLength(field) : 0;
+        binary.setSelected(len > 0 ? FieldOffsetIndex.getOffset(field) : 0, len);
+    }
+
+    /** returns the field which covers the packet byte or null */
+    public CombinedField getFieldAt(int byteOffset) {
+        return fieldIndex.getFieldAt(byteOffset);
     }
 
     public PacketData getPkt() {
         return packet;
     }
 
-    public void newPacket() {
-        userModel.clear();
-        packet = new PacketData();
-        addProtocol("Ether");
-        clearHistory();
+    public CompletableFuture<Void> newPacket() {
+        return commandExecutor.execute(() -> {
+            userModel.clear();
+            packet = new PacketData();
+            addProtocol("Ether");
+            clearHistory();
+        });
     }
 
     public File getCurrentFile() {
         return userModel.getCurrentFile();
     }
 
-    public void setCurrentFile(File currentFile) {
-        this.userModel.setCurrentFile(currentFile);
-        clearHistory();
+    public CompletableFuture<Void> setCurrentFile(File currentFile) {
+        return commandExecutor.execute(() -> {
+            this.userModel.setCurrentFile(currentFile);
+            clearHistory();
+        });
     }
 
     public void clearAutoFields() {
 
     }
 
-    public void undo() {
-        undoController.undo();
+    public CompletableFuture<Void> undo() {
+        return commandExecutor.execute(undoController::undo);
     }
 
-    public void redo() {
-        undoController.redo();
+    public CompletableFuture<Void> redo() {
+        return commandExecutor.execute(undoController::redo);
     }
 
     private void clearHistory() {
         undoController.clearHistory();
+        lastSnapshot = null;
     }
 
     /** should be called before changing data in this class. it writes UNDO records */
     private void beforeContentReplace() {
-        DocState ds = new DocState();
-        ds.packet = packet;
-        ds.userModel = toPOJO(userModel);
-        undoController.beforeContentReplace(ds);
+        lastSnapshot = DocumentSnapshot.of(userModel, lastSnapshot);
+        undoController.beforeContentReplace(new DocState(lastSnapshot, binaryMode ? packet.getPacketBytes() : null, packet));
     }
 
-    /** called by undoController to restore state from undo records */
+    /** called by undoController to restore state from undo records. packets of spilled records are rebuilt */
     private void loadUndoState(DocState docState) {
-        beforeContentReplace(); // save data for reverse undo/redo while processing undo/redo
-        packet = docState.packet;
-        userModel = DocumentFile.fromPOJO(docState.userModel, metadataService);
+        Document restored = DocumentFile.fromPOJO(docState.userModel.toPOJO(), metadataService);
+        PacketData restoredPacket;
+        if (docState.packet != null) {
+            restoredPacket = docState.packet;
+        } else if (docState.packetBytes != null) {
+            restoredPacket = packetDataService.reconstructPacketFromBinary(docState.packetBytes);
+        } else if (restored.getProtocolStack().isEmpty()) {
+            restoredPacket = new PacketData();
+        } else {
+            // the same structure was built before, so it is usually served by the build cache
+            restoredPacket = packetDataService.buildPacket(restored.buildScapyModel(), restored.getVmInstructionsModel());
+        }
+        beforeContentReplace(); // save data for reverse undo/redo once the state is restored
+        packet = restoredPacket;
+        userModel = restored;
         fireUpdateViewEvent();
     }
 
@@ -588,12 +875,14 @@ public class PacketEditorModel {
         return Base64.getEncoder().encodeToString(new Gson().toJson(toPOJO(userModel)).getBytes());
     }
 
-    public void setFeParameterValue(String feParameterId, String value) {
-        beforeContentReplace();
-        userModel.setFePrarameterValue(feParameterId, value);
-        
-        PacketData newPkt = packetDataService.buildPacket(userModel.buildScapyModel(), userModel.getVmInstructionsModel());
-        setPktAndReload(newPkt);
+    public CompletableFuture<Void> setFeParameterValue(String feParameterId, String value) {
+        return commandExecutor.execute(() -> {
+            beforeContentReplace();
+            userModel.setFePrarameterValue(feParameterId, value);
+
+            PacketData newPkt = packetDataService.buildPacket(userModel.buildScapyModel(), userModel.getVmInstructionsModel());
+            setPktAndReload(newPkt);
+        });
     }
 
     public String getFieldEngineError() {
@@ -603,6 +892,6 @@ public class PacketEditorModel {
 
     @Subscribe
     public void handlePacketUpdatedEvent(InitPacketEditorEvent event) {
-        fireUpdateViewEvent();
+        commandExecutor.execute(this::fireUpdateViewEvent);
     }
 }
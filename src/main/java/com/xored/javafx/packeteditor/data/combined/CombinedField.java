@@ -15,6 +15,10 @@ import static com.xored.javafx.packeteditor.metatdata.FieldMetadata.*;
 
 public class CombinedField {
     UserField userField;
+    /** revision of userField this field was built for */
+    int userRevision = -1;
+    /** field instruction this field was built for */
+    FEInstruction instruction;
 
     FieldData scapyField;
     FieldMetadata meta;
@@ -14,6 +14,8 @@ public class CombinedProtocol {
     List<CombinedField> fields = new ArrayList<>();
     UserProtocol userProtocol;
     ProtocolData scapyProtocol;
+    /** revision of userProtocol this protocol was built for */
+    int userRevision = -1;
 
     public List<CombinedField> getFields() { return fields; }
     public UserProtocol getUserProtocol() { return userProtocol; }
@@ -1,17 +1,22 @@
 package com.xored.javafx.packeteditor.data.combined;
 
 import com.xored.javafx.packeteditor.data.user.Document;
+import com.xored.javafx.packeteditor.data.user.FEInstruction;
+import com.xored.javafx.packeteditor.data.user.UserField;
 import com.xored.javafx.packeteditor.data.user.UserProtocol;
 import com.xored.javafx.packeteditor.metatdata.FieldMetadata;
+import com.xored.javafx.packeteditor.metatdata.ProtocolMetadata;
+import com.xored.javafx.packeteditor.scapy.FieldData;
 import com.xored.javafx.packeteditor.scapy.ProtocolData;
 import com.xored.javafx.packeteditor.service.IMetadataService;
 
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.List;
+import java.util.*;
 
 /**
- * used to show user and scapy models aside
+ * used to show user and scapy models aside.
+ * The model is rebuilt incrementally: protocols whose user revision and scapy data
+ * did not change keep their identity with their fields, so views can skip them.
+ * Objects of the previous model are never modified, it may still be shown on the FX thread
  */
 public class CombinedProtocolModel {
     List<CombinedProtocol> protocolStack = new ArrayList<>();
@@ -25,6 +30,11 @@ public class CombinedProtocolModel {
     }
 
     public static CombinedProtocolModel fromScapyData(IMetadataService metadataService, Document userModel, List<ProtocolData> scapyStack) {
+        return fromScapyData(metadataService, userModel, scapyStack, null);
+    }
+
+    /** builds the model reusing unchanged protocols and fields of the previous model */
+    public static CombinedProtocolModel fromScapyData(IMetadataService metadataService, Document userModel, List<ProtocolData> scapyStack, CombinedProtocolModel previous) {
         CombinedProtocolModel res = new CombinedProtocolModel();
 
         List<String> currentPath = new ArrayList<>();
@@ -32,19 +42,19 @@ public class CombinedProtocolModel {
             currentPath = new ArrayList<>(currentPath);
             currentPath.add(protocol.getId());
 
-            CombinedProtocol protocolObj = new CombinedProtocol();
-            protocolObj.meta = metadataService.getProtocolMetadataById(protocol.getId());
-            protocolObj.path = currentPath;
-            protocolObj.scapyProtocol = protocol;
-
-            createFields(protocolObj);
-
-            res.protocolStack.add(protocolObj);
+            ProtocolMetadata meta = metadataService.getProtocolMetadataById(protocol.getId());
+            CombinedProtocol old = previous != null ? previous.getAt(res.protocolStack.size()) : null;
+            res.protocolStack.add(createProtocol(meta, currentPath, null, protocol, old));
         }
         return res;
     }
 
     public static CombinedProtocolModel fromUserModel(IMetadataService metadataService, Document userModel, List<ProtocolData> scapyStack) {
+        return fromUserModel(metadataService, userModel, scapyStack, null);
+    }
+
+    /** builds the model reusing unchanged protocols and fields of the previous model */
+    public static CombinedProtocolModel fromUserModel(IMetadataService metadataService, Document userModel, List<ProtocolData> scapyStack, CombinedProtocolModel previous) {
         CombinedProtocolModel res = new CombinedProtocolModel();
 
         List<String> currentPath = new ArrayList<>();
@@ -52,33 +62,131 @@ public class CombinedProtocolModel {
             currentPath = new ArrayList<>(currentPath);
             currentPath.add(protocol.getId());
 
-            CombinedProtocol protocolObj = new CombinedProtocol();
-            protocolObj.meta = metadataService.getProtocolMetadataById(protocol.getId());
-            protocolObj.path = currentPath;
-            protocolObj.userProtocol = protocol;
-            protocolObj.scapyProtocol = getByPath(currentPath, scapyStack);
+            ProtocolMetadata meta = metadataService.getProtocolMetadataById(protocol.getId());
+            CombinedProtocol old = previous != null ? previous.getAt(res.protocolStack.size()) : null;
+            res.protocolStack.add(createProtocol(meta, currentPath, protocol, getByPath(currentPath, scapyStack), old));
+        }
+        return res;
+    }
 
-            createFields(protocolObj);
+    private CombinedProtocol getAt(int idx) {
+        return idx < protocolStack.size() ? protocolStack.get(idx) : null;
+    }
 
-            res.protocolStack.add(protocolObj);
+    /**
+     * returns the old protocol if neither its user revision nor its scapy data changed.
+     * Otherwise creates a new protocol with new fields: the old fields belong to the published model
+     * and are not modified
+     */
+    private static CombinedProtocol createProtocol(ProtocolMetadata meta, List<String> path, UserProtocol userProtocol, ProtocolData scapyProtocol, CombinedProtocol old) {
+        if (old != null && (old.meta != meta || old.userProtocol != userProtocol || !old.path.equals(path))) {
+            old = null;
         }
-        return res;
+        CombinedProtocol protocolObj = new CombinedProtocol();
+        protocolObj.meta = meta;
+        protocolObj.path = path;
+        protocolObj.userProtocol = userProtocol;
+        protocolObj.userRevision = userProtocol != null ? userProtocol.getRevision() : -1;
+        protocolObj.scapyProtocol = scapyProtocol;
+
+        boolean unchanged = old != null && old.userRevision == protocolObj.userRevision
+                && sameProtocolData(old.scapyProtocol, scapyProtocol);
+        if (unchanged) {
+            return old;
+        }
+        if (createFields(protocolObj, old)) {
+            return old;
+        }
+        return protocolObj;
     }
 
-    private static void createFields(CombinedProtocol protocolObj) {
-        for (FieldMetadata fieldMeta : protocolObj.getMeta().getFields()) {
+    /** returns true if all fields of the old protocol are unchanged, so the old protocol can be used instead */
+    private static boolean createFields(CombinedProtocol protocolObj, CombinedProtocol old) {
+        Map<String, FieldData> scapyFields = new HashMap<>();
+        if (protocolObj.scapyProtocol != null && protocolObj.scapyProtocol.fields != null) {
+            protocolObj.scapyProtocol.fields.forEach(field -> scapyFields.put(field.getId(), field));
+        }
+        boolean reused = old != null;
+        List<FieldMetadata> fieldsMeta = protocolObj.getMeta().getFields();
+        for (int i = 0; i < fieldsMeta.size(); i++) {
+            FieldMetadata fieldMeta = fieldsMeta.get(i);
+            FieldData scapyField = scapyFields.get(fieldMeta.getId());
+            UserField userField = protocolObj.userProtocol != null ? protocolObj.userProtocol.getField(fieldMeta.getId()) : null;
+            int userRevision = userField != null ? userField.getRevision() : -1;
+            FEInstruction instruction = protocolObj.userProtocol != null ? protocolObj.userProtocol.getFieldInstruction(fieldMeta.getId()) : null;
+
+            CombinedField oldField = old != null && i < old.fields.size() ? old.fields.get(i) : null;
+            if (oldField == null || oldField.meta != fieldMeta || oldField.userField != userField
+                    || oldField.userRevision != userRevision || oldField.instruction != instruction
+                    || !sameFieldData(oldField.scapyField, scapyField)) {
+                reused = false;
+            }
             CombinedField field = new CombinedField();
-            
             field.parent = protocolObj;
             field.meta = fieldMeta;
-            if (protocolObj.scapyProtocol != null) {
-                field.scapyField = protocolObj.scapyProtocol.getFieldById(fieldMeta.getId());
-            }
-            if (protocolObj.userProtocol != null) {
-                field.userField = protocolObj.userProtocol.getField(fieldMeta.getId());
-            }
+            field.scapyField = scapyField;
+            field.userField = userField;
+            field.userRevision = userRevision;
+            field.instruction = instruction;
             protocolObj.fields.add(field);
         }
+        return reused && old.fields.size() == fieldsMeta.size()
+                && sameProtocolHeader(old.scapyProtocol, protocolObj.scapyProtocol);
+    }
+
+    private static boolean sameProtocolData(ProtocolData a, ProtocolData b) {
+        if (a == b) {
+            return true;
+        }
+        if (a == null || b == null) {
+            return false;
+        }
+        return sameProtocolHeader(a, b) && sameFieldsData(a.fields, b.fields);
+    }
+
+    private static boolean sameProtocolHeader(ProtocolData a, ProtocolData b) {
+        if (a == b) {
+            return true;
+        }
+        if (a == null || b == null) {
+            return false;
+        }
+        return Objects.equals(a.id, b.id) && Objects.equals(a.real_id, b.real_id)
+                && Objects.equals(a.valid_structure, b.valid_structure) && Objects.equals(a.name, b.name)
+                && sameNumber(a.offset, b.offset);
+    }
+
+    private static boolean sameFieldsData(List<FieldData> a, List<FieldData> b) {
+        if (a == null || b == null) {
+            return a == b;
+        }
+        if (a.size() != b.size()) {
+            return false;
+        }
+        for (int i = 0; i < a.size(); i++) {
+            if (!sameFieldData(a.get(i), b.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean sameFieldData(FieldData a, FieldData b) {
+        if (a == b) {
+            return true;
+        }
+        if (a == null || b == null) {
+            return false;
+        }
+        return Objects.equals(a.id, b.id) && Objects.equals(a.value, b.value) && Objects.equals(a.hvalue, b.hvalue)
+                && sameNumber(a.offset, b.offset) && sameNumber(a.length, b.length) && Objects.equals(a.ignored, b.ignored);
+    }
+
+    private static boolean sameNumber(Number a, Number b) {
+        if (a == null || b == null) {
+            return a == b;
+        }
+        return a.longValue() == b.longValue();
     }
 
     static public ProtocolData getByPath(List<String> path, List<ProtocolData> stack) {
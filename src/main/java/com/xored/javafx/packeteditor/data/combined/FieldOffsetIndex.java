@@ -0,0 +1,92 @@
+package com.xored.javafx.packeteditor.data.combined;
+
+import com.xored.javafx.packeteditor.scapy.FieldData;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Maps packet bytes to fields which cover them.
+ * Field ranges are split into elementary segments between their bounds, each segment keeps the narrowest field covering it,
+ * so a lookup is a binary search over segment bounds
+ */
+public class FieldOffsetIndex {
+    public static final FieldOffsetIndex EMPTY = new FieldOffsetIndex(new int[0], new CombinedField[0]);
+
+    /** sorted segment bounds, segment i is [bounds[i], bounds[i+1]) */
+    private final int[] bounds;
+    /** narrowest field of the segment or null */
+    private final CombinedField[] fields;
+
+    private FieldOffsetIndex(int[] bounds, CombinedField[] fields) {
+        this.bounds = bounds;
+        this.fields = fields;
+    }
+
+    public static FieldOffsetIndex of(CombinedProtocolModel model) {
+        List<CombinedField> positioned = new ArrayList<>();
+        model.getProtocolStack().forEach(protocol -> protocol.getFields().forEach(field -> {
+            if (getLength(field) > 0) {
+                positioned.add(field);
+            }
+        }));
+        if (positioned.isEmpty()) {
+            return EMPTY;
+        }
+
+        int[] points = new int[positioned.size() * 2];
+        for (int i = 0; i < positioned.size(); i++) {
+            CombinedField field = positioned.get(i);
+            points[2 * i] = getOffset(field);
+            points[2 * i + 1] = getOffset(field) + getLength(field);
+        }
+        Arrays.sort(points);
+        int count = 0;
+        for (int i = 0; i < points.length; i++) {
+            if (i == 0 || points[i] != points[count - 1]) {
+                points[count++] = points[i];
+            }
+        }
+        int[] bounds = Arrays.copyOf(points, count);
+        CombinedField[] fields = new CombinedField[Math.max(0, count - 1)];
+
+        // narrower field wins, of equal ones the first
+        for (CombinedField field : positioned) {
+            int from = Arrays.binarySearch(bounds, getOffset(field));
+            int to = Arrays.binarySearch(bounds, getOffset(field) + getLength(field));
+            for (int segment = from; segment < to; segment++) {
+                CombinedField current = fields[segment];
+                if (current == null || getLength(current) > getLength(field)) {
+                    fields[segment] = field;
+                }
+            }
+        }
+        return new FieldOffsetIndex(bounds, fields);
+    }
+
+    /** returns the narrowest field which covers the byte or null */
+    public CombinedField getFieldAt(int byteOffset) {
+        int idx = Arrays.binarySearch(bounds, byteOffset);
+        int segment = idx >= 0 ? idx : -idx - 2;
+        return segment >= 0 && segment < fields.length ? fields[segment] : null;
+    }
+
+    /** absolute offset of the field in the packet */
+    public static int getOffset(CombinedField field) {
+        FieldData fd = field.getScapyFieldData();
+        if (fd == null || !fd.hasPosition() || field.getProtocol().getScapyProtocol() == null) {
+            return 0;
+        }
+        return field.getProtocol().getScapyProtocol().offset.intValue() + fd.getOffset();
+    }
+
+    /** length of the field in bytes, bit fields take the byte they start in. 0 for fields without position */
+    public static int getLength(CombinedField field) {
+        FieldData fd = field.getScapyFieldData();
+        if (fd == null || !fd.hasPosition() || fd.isIgnored() || field.getProtocol().getScapyProtocol() == null) {
+            return 0;
+        }
+        return Math.max(fd.getLength(), 1);
+    }
+}
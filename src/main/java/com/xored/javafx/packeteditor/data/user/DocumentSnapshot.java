@@ -0,0 +1,116 @@
+package com.xored.javafx.packeteditor.data.user;
+
+import com.google.gson.Gson;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable compact version of a Document for undo history.
+ * Document is kept as JSON: a header(metadata, field engine) and a blob per protocol.
+ * Blobs equal to the ones of the previous version are shared, so a field change retains a single protocol.
+ */
+public class DocumentSnapshot {
+    private static final Gson gson = new Gson();
+
+    private final byte[] header;
+    private final List<byte[]> protocols;
+
+    private DocumentSnapshot(byte[] header, List<byte[]> protocols) {
+        this.header = header;
+        this.protocols = Collections.unmodifiableList(protocols);
+    }
+
+    /** takes snapshot of the document, sharing unchanged parts with the previous snapshot if it is specified */
+    public static DocumentSnapshot of(Document doc, DocumentSnapshot previous) {
+        DocumentFile pojo = DocumentFile.toPOJO(doc);
+        List<DocumentFile.DocumentProtocol> packet = pojo.packet;
+        pojo.packet = Collections.emptyList();
+
+        byte[] header = toJson(pojo);
+        if (previous != null && Arrays.equals(header, previous.header)) {
+            header = previous.header;
+        }
+        List<byte[]> protocols = new ArrayList<>(packet.size());
+        for (int i = 0; i < packet.size(); i++) {
+            byte[] blob = toJson(packet.get(i));
+            protocols.add(previous != null ? previous.intern(blob, i) : blob);
+        }
+        return new DocumentSnapshot(header, protocols);
+    }
+
+    /** returns equal blob of this snapshot, the same position is checked first since layers are rarely moved */
+    private byte[] intern(byte[] blob, int idx) {
+        if (idx < protocols.size() && Arrays.equals(protocols.get(idx), blob)) {
+            return protocols.get(idx);
+        }
+        for (byte[] protocol : protocols) {
+            if (Arrays.equals(protocol, blob)) {
+                return protocol;
+            }
+        }
+        return blob;
+    }
+
+    public DocumentFile toPOJO() {
+        DocumentFile res = gson.fromJson(new String(header, StandardCharsets.UTF_8), DocumentFile.class);
+        res.packet = new ArrayList<>(protocols.size());
+        for (byte[] protocol : protocols) {
+            res.packet.add(gson.fromJson(new String(protocol, StandardCharsets.UTF_8), DocumentFile.DocumentProtocol.class));
+        }
+        return res;
+    }
+
+    /** bytes retained by this snapshot which are not shared with other snapshot */
+    public long getSizeExcluding(DocumentSnapshot other) {
+        Map<byte[], Boolean> shared = new IdentityHashMap<>();
+        if (other != null) {
+            shared.put(other.header, true);
+            other.protocols.forEach(protocol -> shared.put(protocol, true));
+        }
+        long res = 64;
+        if (!shared.containsKey(header)) {
+            res += header.length;
+        }
+        for (byte[] protocol : protocols) {
+            res += 16;
+            if (!shared.containsKey(protocol)) {
+                res += protocol.length;
+            }
+        }
+        return res;
+    }
+
+    public void write(DataOutput out) throws IOException {
+        out.writeInt(header.length);
+        out.write(header);
+        out.writeInt(protocols.size());
+        for (byte[] protocol : protocols) {
+            out.writeInt(protocol.length);
+            out.write(protocol);
+        }
+    }
+
+    public static DocumentSnapshot read(DataInput in) throws IOException {
+        byte[] header = new byte[in.readInt()];
+        in.readFully(header);
+        int count = in.readInt();
+        List<byte[]> protocols = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            byte[] protocol = new byte[in.readInt()];
+            in.readFully(protocol);
+            protocols.add(protocol);
+        }
+        return new DocumentSnapshot(header, protocols);
+    }
+
+    private static byte[] toJson(Object value) {
+        return gson.toJson(value).getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -8,6 +8,10 @@ public class UserField {
     private String id;
     private JsonElement value;
 
+    /** incremented on each value change */
+    private int revision = 0;
+    UserProtocol owner;
+
     public UserField(String id) {
         this.id = id;
     }
@@ -16,7 +20,17 @@ public class UserField {
         setValue(new JsonPrimitive(value));
     }
 
-    public void setValue(JsonElement value) { this.value = value; }
+    public void setValue(JsonElement value) {
+        this.value = value;
+        revision++;
+        if (owner != null) {
+            owner.markDirty();
+        }
+    }
+
+    public int getRevision() {
+        return revision;
+    }
 
     public String getId() {
         return id;
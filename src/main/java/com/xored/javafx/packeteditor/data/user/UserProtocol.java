@@ -16,6 +16,9 @@ public class UserProtocol {
     private Map<String, UserField> fieldMap = new LinkedHashMap<>();
     boolean collapsed = false;
 
+    /** incremented on each change of fields and field instructions. collapsed state is not tracked */
+    private int revision = 0;
+
     // TODO: delete
     private Map<String, FEInstruction> fieldInstructions = new HashMap<>();
     
@@ -24,13 +27,15 @@ public class UserProtocol {
         this.path.addAll(path);
     }
     public void addField(UserField field) {
+        field.owner = this;
         fieldMap.put(field.getId(), field);
+        markDirty();
     }
 
     public void addField(String fieldId, String value) {
         UserField field = new UserField(fieldId);
         field.setValue(value);
-        fieldMap.put(field.getId(), field);
+        addField(field);
     }
 
     public UserField getField(String fieldId) {
@@ -54,7 +59,7 @@ public class UserProtocol {
 
     public UserField createField(String fieldId) {
         UserField field = new UserField(fieldId);
-        fieldMap.put(fieldId, field);
+        addField(field);
         return field;
     }
 
@@ -63,6 +68,15 @@ public class UserProtocol {
         createField(fieldId);
     }
 
+    /** changes when field values, fields or field instructions of the protocol change */
+    public int getRevision() {
+        return revision;
+    }
+
+    void markDirty() {
+        revision++;
+    }
+
     public boolean isCollapsed() {
         return collapsed;
     }
@@ -81,11 +95,13 @@ public class UserProtocol {
         String instructionId = getId() + "." + fieldId;
         FEInstruction instruction = new FEInstruction(instructionId, parameters);
         fieldInstructions.put(fieldId, instruction);
+        markDirty();
         return instruction;
     }
     
     public void deleteFieldInstruction(String fieldId) {
         fieldInstructions.remove(fieldId);
+        markDirty();
     }
     
     public FEInstruction getFieldInstruction(String fieldId) {
@@ -0,0 +1,6 @@
+package com.xored.javafx.packeteditor.events;
+
+/**
+ * Capture file was opened or closed
+ */
+public class CaptureChangedEvent {}
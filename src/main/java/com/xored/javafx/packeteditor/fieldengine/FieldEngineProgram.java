@@ -0,0 +1,483 @@
+package com.xored.javafx.packeteditor.fieldengine;
+
+import com.google.common.base.Strings;
+import com.google.gson.JsonElement;
+import com.xored.javafx.packeteditor.data.FEInstructionParameter2;
+import com.xored.javafx.packeteditor.data.FeParameter;
+import com.xored.javafx.packeteditor.data.InstructionExpression;
+import com.xored.javafx.packeteditor.scapy.FieldData;
+import com.xored.javafx.packeteditor.scapy.PacketData;
+import com.xored.javafx.packeteditor.scapy.ProtocolData;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Field engine instructions compiled against a built packet.
+ * Flow variables, writes at resolved byte offsets and checksum fixes are executed in the instructions order.
+ *
+ * Supported instructions: STLVmFlowVar, STLVmFlowVarRepeatableRandom, STLVmWrFlowVar, STLVmFixIpv4, STLVmFixChecksumHw
+ */
+public class FieldEngineProgram {
+    public static final String FLOW_VAR = "STLVmFlowVar";
+    public static final String REPEATABLE_RANDOM_VAR = "STLVmFlowVarRepeatableRandom";
+    public static final String WRITE_FLOW_VAR = "STLVmWrFlowVar";
+    public static final String FIX_IPV4 = "STLVmFixIpv4";
+    public static final String FIX_CHECKSUM_HW = "STLVmFixChecksumHw";
+    public static final String CACHE_SIZE = "cache_size";
+
+    static final int IPV4_HEADER_LENGTH = 20;
+    static final int IPV6_HEADER_LENGTH = 40;
+    static final int UDP_HEADER_LENGTH = 8;
+    static final int IPV4_CHECKSUM_OFFSET = 10;
+    static final int TCP_CHECKSUM_OFFSET = 16;
+    static final int UDP_CHECKSUM_OFFSET = 6;
+    static final int PROTOCOL_TCP = 6;
+    static final int PROTOCOL_UDP = 17;
+
+    public enum Op { INC, DEC, RANDOM }
+
+    private final byte[] packet;
+    private final FlowVar[] vars;
+    private final Step[] steps;
+    private final long cacheSize;
+
+    FieldEngineProgram(byte[] packet, List<FlowVar> vars, List<Step> steps, long cacheSize) {
+        this.packet = packet;
+        this.vars = vars.toArray(new FlowVar[vars.size()]);
+        this.steps = steps.toArray(new Step[steps.size()]);
+        this.cacheSize = cacheSize;
+    }
+
+    /** compiles instructions of the packet, throws IllegalArgumentException for unsupported instructions and bad parameters */
+    public static FieldEngineProgram compile(PacketData pkt, List<InstructionExpression> instructions, List<FeParameter> parameters) {
+        byte[] packet = pkt.getPacketBytes();
+        List<FlowVar> vars = new ArrayList<>();
+        Map<String, Integer> varIdx = new HashMap<>();
+        List<Step> steps = new ArrayList<>();
+
+        for (InstructionExpression instruction : instructions) {
+            Map<String, String> params = new HashMap<>();
+            for (FEInstructionParameter2 parameter : instruction.getParameters()) {
+                JsonElement value = parameter.getValue();
+                params.put(parameter.getId(), value == null || value.isJsonNull() ? "" : value.getAsString().trim());
+            }
+            switch (instruction.getId()) {
+                case FLOW_VAR:
+                case REPEATABLE_RANDOM_VAR:
+                    FlowVar var = FlowVar.of(instruction.getId(), params);
+                    if (varIdx.put(var.name, vars.size()) != null) {
+                        throw new IllegalArgumentException("Flow variable " + var.name + " is defined twice");
+                    }
+                    vars.add(var);
+                    break;
+                case WRITE_FLOW_VAR:
+                    Integer idx = varIdx.get(params.get("fv_name"));
+                    if (idx == null) {
+                        throw new IllegalArgumentException("Unknown flow variable " + params.get("fv_name"));
+                    }
+                    int size = vars.get(idx).size;
+                    int offset = resolveOffset(pkt, params.get("pkt_offset")) + (int) parseNumber(params.get("offset_fixup"), 0);
+                    checkRange(packet, offset, size, params.get("pkt_offset"));
+                    steps.add(new Write(idx, offset, size, parseNumber(params.get("add_val"), 0),
+                            parseBoolean(params.get("is_big"), true), params.get("pkt_offset")));
+                    break;
+                case FIX_IPV4:
+                    int l3 = resolveOffset(pkt, params.get("offset"));
+                    checkRange(packet, l3, IPV4_HEADER_LENGTH, params.get("offset"));
+                    steps.add(new ChecksumFix(l3, -1, false));
+                    break;
+                case FIX_CHECKSUM_HW:
+                    l3 = resolveOffset(pkt, params.get("l3_offset"));
+                    checkRange(packet, l3, IPV4_HEADER_LENGTH, params.get("l3_offset"));
+                    if (!isIPv4(packet, l3)) {
+                        checkRange(packet, l3, IPV6_HEADER_LENGTH, params.get("l3_offset"));
+                    }
+                    String l4 = params.get("l4_offset");
+                    int l4Offset = -1;
+                    if (!Strings.isNullOrEmpty(l4)) {
+                        l4Offset = resolveOffset(pkt, l4);
+                        checkRange(packet, l4Offset, UDP_HEADER_LENGTH, l4);
+                    }
+                    steps.add(new ChecksumFix(l3, l4Offset, true));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Instruction " + instruction.getId() + " is not supported by the simulator");
+            }
+        }
+
+        long cacheSize = 0;
+        for (FeParameter parameter : parameters) {
+            if (CACHE_SIZE.equals(parameter.getId())) {
+                cacheSize = Math.max(0, parseNumber(parameter.getValue(), 0));
+            }
+        }
+        return new FieldEngineProgram(packet, vars, steps, cacheSize);
+    }
+
+    /** packet without instructions applied */
+    public byte[] getPacket() {
+        return packet;
+    }
+
+    public int getPacketLength() {
+        return packet.length;
+    }
+
+    /** packets repeat after this number of packets, 0 if they don't */
+    public long getCacheSize() {
+        return cacheSize;
+    }
+
+    /** write instructions, previewed packets show the written bytes */
+    public List<Write> getWrites() {
+        List<Write> res = new ArrayList<>();
+        for (Step step : steps) {
+            if (step instanceof Write) {
+                res.add((Write) step);
+            }
+        }
+        return res;
+    }
+
+    /** variable values of consecutive packets, reused for all packets of a generation task */
+    Cursor cursor(long idx) {
+        return new Cursor(idx);
+    }
+
+    /** applies instructions to the packet copy at buf[pos] */
+    void apply(long[] values, byte[] buf, int pos) {
+        for (Step step : steps) {
+            step.apply(values, buf, pos, packet.length);
+        }
+    }
+
+    class Cursor {
+        private long idx;
+        private final long[] states = new long[vars.length];
+        final long[] values = new long[vars.length];
+
+        Cursor(long idx) {
+            this.idx = idx;
+            seek(cacheSize > 0 ? idx % cacheSize : idx);
+        }
+
+        void next() {
+            idx++;
+            if (cacheSize > 0 && idx % cacheSize == 0) {
+                seek(0);
+                return;
+            }
+            for (int i = 0; i < vars.length; i++) {
+                states[i] = vars[i].next(states[i]);
+                values[i] = vars[i].value(states[i]);
+            }
+        }
+
+        private void seek(long k) {
+            for (int i = 0; i < vars.length; i++) {
+                states[i] = vars[i].start(k);
+                values[i] = vars[i].value(states[i]);
+            }
+        }
+    }
+
+    /**
+     * flow variable of the given byte size. inc and dec states are offsets from min, the first packet has the init value.
+     * random state is the packet number, it restarts after limit packets for repeatable random
+     */
+    static class FlowVar {
+        final String name;
+        final int size;
+        final Op op;
+        final long min;
+        /** max - min + 1, 0 for the whole 64 bit range */
+        final long range;
+        final long step;
+        final long initOffset;
+        final long seed;
+        final long limit;
+
+        FlowVar(String name, int size, Op op, long min, long max, long step, long init, long seed, long limit) {
+            if (size != 1 && size != 2 && size != 4 && size != 8) {
+                throw new IllegalArgumentException("Flow variable " + name + " size must be 1, 2, 4 or 8");
+            }
+            if (Long.compareUnsigned(min, max) > 0 || Long.compareUnsigned(init, min) < 0 || Long.compareUnsigned(init, max) > 0) {
+                throw new IllegalArgumentException("Flow variable " + name + " init value must be within min and max values");
+            }
+            this.name = name;
+            this.size = size;
+            this.op = op;
+            this.min = min;
+            this.range = max - min + 1;
+            this.step = range == 0 ? step : Long.remainderUnsigned(step, range);
+            this.initOffset = init - min;
+            this.seed = seed;
+            this.limit = limit;
+        }
+
+        static FlowVar of(String instruction, Map<String, String> params) {
+            String name = params.get("name");
+            if (Strings.isNullOrEmpty(name)) {
+                throw new IllegalArgumentException(instruction + " requires a name");
+            }
+            int size = (int) parseNumber(params.get("size"), 4);
+            long min = parseNumber(params.get("min_value"), 0);
+            long max = parseNumber(params.get("max_value"), size == 8 ? -1 : (1L << (size * 8)) - 1);
+            if (REPEATABLE_RANDOM_VAR.equals(instruction)) {
+                return new FlowVar(name, size, Op.RANDOM, min, max, 1, min,
+                        parseNumber(params.get("seed"), name.hashCode()), Math.max(0, parseNumber(params.get("limit"), 0)));
+            }
+            Op op;
+            try {
+                op = Op.valueOf(Strings.isNullOrEmpty(params.get("op")) ? "INC" : params.get("op").toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Flow variable " + name + " operation " + params.get("op") + " is not supported");
+            }
+            long init = parseNumber(params.get("init_value"), op == Op.DEC ? max : min);
+            return new FlowVar(name, size, op, min, max, parseNumber(params.get("step"), 1), init, name.hashCode(), 0);
+        }
+
+        long start(long k) {
+            switch (op) {
+                case INC:
+                    return range == 0 ? initOffset + k * step : addMod(initOffset, mulMod(Long.remainderUnsigned(k, range), step, range), range);
+                case DEC:
+                    return range == 0 ? initOffset - k * step : subMod(initOffset, mulMod(Long.remainderUnsigned(k, range), step, range), range);
+                default:
+                    return limit > 0 ? k % limit : k;
+            }
+        }
+
+        long next(long state) {
+            switch (op) {
+                case INC:
+                    return range == 0 ? state + step : addMod(state, step, range);
+                case DEC:
+                    return range == 0 ? state - step : subMod(state, step, range);
+                default:
+                    return limit > 0 && state + 1 == limit ? 0 : state + 1;
+            }
+        }
+
+        long value(long state) {
+            if (op != Op.RANDOM) {
+                return min + state;
+            }
+            long random = mix(seed + state * 0x9E3779B97F4A7C15L);
+            return min + (range == 0 ? random : Long.remainderUnsigned(random, range));
+        }
+    }
+
+    abstract static class Step {
+        abstract void apply(long[] values, byte[] buf, int pos, int length);
+    }
+
+    /** writes the variable value plus add value at the packet offset */
+    public static class Write extends Step {
+        final int var;
+        final int offset;
+        final int size;
+        final long add;
+        final boolean bigEndian;
+        final String label;
+
+        Write(int var, int offset, int size, long add, boolean bigEndian, String label) {
+            this.var = var;
+            this.offset = offset;
+            this.size = size;
+            this.add = add;
+            this.bigEndian = bigEndian;
+            this.label = label;
+        }
+
+        public int getOffset() { return offset; }
+
+        public int getSize() { return size; }
+
+        public String getLabel() { return label; }
+
+        @Override
+        void apply(long[] values, byte[] buf, int pos, int length) {
+            long value = values[var] + add;
+            int at = pos + offset;
+            for (int i = 0; i < size; i++) {
+                int shift = 8 * (bigEndian ? size - 1 - i : i);
+                buf[at + i] = (byte) (value >>> shift);
+            }
+        }
+    }
+
+    /** IPv4 header checksum and, for hardware fix, TCP or UDP checksum over IPv4 or IPv6 pseudo header */
+    static class ChecksumFix extends Step {
+        final int l3;
+        /** -1 if L4 header follows IP header */
+        final int l4;
+        final boolean fixL4;
+
+        ChecksumFix(int l3, int l4, boolean fixL4) {
+            this.l3 = l3;
+            this.l4 = l4;
+            this.fixL4 = fixL4;
+        }
+
+        @Override
+        void apply(long[] values, byte[] buf, int pos, int length) {
+            int ip = pos + l3;
+            int end = pos + length;
+            boolean v4 = isIPv4(buf, ip);
+            int headerLength = v4 ? (buf[ip] & 0x0F) * 4 : IPV6_HEADER_LENGTH;
+            // packets are generated back to back, a header cut by the packet end must not reach the next one
+            if (headerLength < IPV4_HEADER_LENGTH || ip + headerLength > end) {
+                return;
+            }
+            if (fixL4) {
+                int l4Start = l4 >= 0 ? pos + l4 : ip + headerLength;
+                int protocol = (v4 ? buf[ip + 9] : buf[ip + 6]) & 0xFF;
+                int checksumOffset = protocol == PROTOCOL_TCP ? TCP_CHECKSUM_OFFSET : protocol == PROTOCOL_UDP ? UDP_CHECKSUM_OFFSET : -1;
+                int l4End = v4 ? Math.min(end, ip + getShort(buf, ip + 2)) : Math.min(end, ip + IPV6_HEADER_LENGTH + getShort(buf, ip + 4));
+                if (checksumOffset >= 0 && l4Start + checksumOffset + 2 <= l4End) {
+                    int l4Length = l4End - l4Start;
+                    putShort(buf, l4Start + checksumOffset, 0);
+                    long sum = v4 ? sum(buf, ip + 12, ip + 20, 0) : sum(buf, ip + 8, ip + IPV6_HEADER_LENGTH, 0);
+                    sum += protocol + l4Length;
+                    int checksum = fold(sum(buf, l4Start, l4End, sum));
+                    putShort(buf, l4Start + checksumOffset, protocol == PROTOCOL_UDP && checksum == 0 ? 0xFFFF : checksum);
+                }
+            }
+            if (v4) {
+                putShort(buf, ip + IPV4_CHECKSUM_OFFSET, 0);
+                putShort(buf, ip + IPV4_CHECKSUM_OFFSET, fold(sum(buf, ip, ip + headerLength, 0)));
+            }
+        }
+    }
+
+    private static boolean isIPv4(byte[] buf, int ip) {
+        return (buf[ip] & 0xF0) == 0x40;
+    }
+
+    static long sum(byte[] buf, int from, int to, long sum) {
+        int i = from;
+        for (; i + 1 < to; i += 2) {
+            sum += ((buf[i] & 0xFF) << 8) | (buf[i + 1] & 0xFF);
+        }
+        if (i < to) {
+            sum += (buf[i] & 0xFF) << 8;
+        }
+        return sum;
+    }
+
+    static int fold(long sum) {
+        while ((sum >>> 16) != 0) {
+            sum = (sum & 0xFFFF) + (sum >>> 16);
+        }
+        return (int) ~sum & 0xFFFF;
+    }
+
+    private static int getShort(byte[] buf, int pos) {
+        return ((buf[pos] & 0xFF) << 8) | (buf[pos + 1] & 0xFF);
+    }
+
+    private static void putShort(byte[] buf, int pos, int value) {
+        buf[pos] = (byte) (value >>> 8);
+        buf[pos + 1] = (byte) value;
+    }
+
+    /** a + b mod m for unsigned a, b < m */
+    static long addMod(long a, long b, long m) {
+        long res = a + b;
+        return Long.compareUnsigned(res, a) < 0 || Long.compareUnsigned(res, m) >= 0 ? res - m : res;
+    }
+
+    /** a - b mod m for unsigned a, b < m */
+    static long subMod(long a, long b, long m) {
+        return Long.compareUnsigned(a, b) >= 0 ? a - b : a - b + m;
+    }
+
+    /** a * b mod m for unsigned a, b < m without overflow */
+    static long mulMod(long a, long b, long m) {
+        long res = 0;
+        while (b != 0) {
+            if ((b & 1) != 0) {
+                res = addMod(res, a, m);
+            }
+            a = addMod(a, a, m);
+            b >>>= 1;
+        }
+        return res;
+    }
+
+    /** splitmix64 finalizer */
+    static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /** byte offset of "Protocol[:idx][.field]" in the packet or a number */
+    static int resolveOffset(PacketData pkt, String path) {
+        if (Strings.isNullOrEmpty(path)) {
+            throw new IllegalArgumentException("Packet offset is not specified");
+        }
+        if (Character.isDigit(path.charAt(0))) {
+            return (int) parseNumber(path, 0);
+        }
+        int dot = path.indexOf('.');
+        String protocolId = dot < 0 ? path : path.substring(0, dot);
+        int occurrence = 0;
+        int colon = protocolId.indexOf(':');
+        if (colon >= 0) {
+            occurrence = Integer.parseInt(protocolId.substring(colon + 1));
+            protocolId = protocolId.substring(0, colon);
+        }
+        for (ProtocolData protocol : pkt.getProtocols()) {
+            if (protocol.getId().equals(protocolId) && occurrence-- == 0) {
+                if (dot < 0) {
+                    return protocol.offset.intValue();
+                }
+                FieldData field = protocol.getFieldById(path.substring(dot + 1));
+                if (field == null || !field.hasPosition()) {
+                    break;
+                }
+                return protocol.offset.intValue() + field.getOffset();
+            }
+        }
+        throw new IllegalArgumentException("Unknown packet offset " + path);
+    }
+
+    /** decimal, 0x hex, IPv4 address or colon separated hex bytes such as MAC address */
+    static long parseNumber(String value, long defaultValue) {
+        if (Strings.isNullOrEmpty(value) || "None".equals(value)) {
+            return defaultValue;
+        }
+        try {
+            if (value.indexOf(':') > 0 || value.indexOf('.') > 0) {
+                String[] parts = value.split(value.indexOf(':') > 0 ? ":" : "\\.");
+                int radix = value.indexOf(':') > 0 ? 16 : 10;
+                long res = 0;
+                for (String part : parts) {
+                    res = (res << 8) | (Integer.parseInt(part, radix) & 0xFF);
+                }
+                return res;
+            }
+            if (value.startsWith("0x") || value.startsWith("0X")) {
+                return Long.parseUnsignedLong(value.substring(2), 16);
+            }
+            return value.startsWith("-") ? Long.parseLong(value) : Long.parseUnsignedLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Bad number " + value);
+        }
+    }
+
+    static boolean parseBoolean(String value, boolean defaultValue) {
+        return Strings.isNullOrEmpty(value) ? defaultValue : "true".equalsIgnoreCase(value) || "1".equals(value);
+    }
+
+    private static void checkRange(byte[] packet, int offset, int size, String path) {
+        if (offset < 0 || offset + size > packet.length) {
+            throw new IllegalArgumentException("Offset " + path + " is out of the packet");
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.xored.javafx.packeteditor.fieldengine;
+
+import com.xored.javafx.packeteditor.pcap.PcapWriter;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.stream.IntStream;
+
+/**
+ * Generates packets of a compiled field engine program.
+ * Packets are produced in parallel tasks of {@link #TASK_PACKETS} packets, every task reuses its variable state,
+ * packets of a batch are written into a single array
+ */
+public class FieldEngineSimulator {
+    /** packets generated by a single task */
+    static final int TASK_PACKETS = 4096;
+    /** export batch limit, the batch buffer is reused */
+    static final int BATCH_BYTES = 16 * 1024 * 1024;
+
+    private final FieldEngineProgram program;
+
+    public FieldEngineSimulator(FieldEngineProgram program) {
+        this.program = program;
+    }
+
+    public FieldEngineProgram getProgram() {
+        return program;
+    }
+
+    /** packets with numbers from..from+count-1, packet i is at (i - from) * packet length */
+    public byte[] generate(long from, int count) {
+        byte[] out = new byte[count * program.getPacketLength()];
+        generate(from, count, out);
+        return out;
+    }
+
+    /** fills out with packets from..from+count-1 */
+    public void generate(long from, int count, byte[] out) {
+        int tasks = (count + TASK_PACKETS - 1) / TASK_PACKETS;
+        if (tasks <= 1) {
+            generateTask(from, count, out, 0);
+            return;
+        }
+        IntStream.range(0, tasks).parallel().forEach(task -> {
+            int first = task * TASK_PACKETS;
+            generateTask(from + first, Math.min(TASK_PACKETS, count - first), out, first);
+        });
+    }
+
+    /** writes first count packets to pcap or pcapng file */
+    public void export(File file, long count) throws IOException {
+        if (count <= 0) {
+            throw new IllegalArgumentException("Number of packets must be positive: " + count);
+        }
+        int length = program.getPacketLength();
+        int batch = (int) Math.min(count, Math.max(1, BATCH_BYTES / Math.max(1, length)));
+        byte[] out = new byte[batch * length];
+        ByteBuffer packet = ByteBuffer.wrap(out);
+        long timestamp = System.currentTimeMillis() * 1_000_000L;
+        try (PcapWriter writer = PcapWriter.create(file)) {
+            for (long from = 0; from < count; from += batch) {
+                int batchCount = (int) Math.min(batch, count - from);
+                generate(from, batchCount, out);
+                for (int i = 0; i < batchCount; i++) {
+                    packet.limit((i + 1) * length).position(i * length);
+                    writer.write(packet, timestamp + (from + i) * 1000);
+                }
+                packet.clear();
+            }
+        }
+    }
+
+    private void generateTask(long from, int count, byte[] out, int first) {
+        byte[] base = program.getPacket();
+        int length = base.length;
+        FieldEngineProgram.Cursor cursor = program.cursor(from);
+        int pos = first * length;
+        for (int i = 0; i < count; i++) {
+            System.arraycopy(base, 0, out, pos, length);
+            program.apply(cursor.values, out, pos);
+            cursor.next();
+            pos += length;
+        }
+    }
+}
@@ -8,10 +8,13 @@ import com.xored.javafx.packeteditor.TRexPacketCraftingTool;
 import com.xored.javafx.packeteditor.controllers.*;
 import com.xored.javafx.packeteditor.data.BinaryData;
 import com.xored.javafx.packeteditor.data.IBinaryData;
+import com.xored.javafx.packeteditor.data.ModelCommandExecutor;
 import com.xored.javafx.packeteditor.data.PacketEditorModel;
 import com.xored.javafx.packeteditor.guice.provider.FXMLLoaderProvider;
 import com.xored.javafx.packeteditor.scapy.ScapyServerClient;
+import com.xored.javafx.packeteditor.service.CaptureService;
 import com.xored.javafx.packeteditor.service.ConfigurationService;
+import com.xored.javafx.packeteditor.service.DefinitionsCache;
 import com.xored.javafx.packeteditor.service.IMetadataService;
 import com.xored.javafx.packeteditor.service.MetadataService;
 import com.xored.javafx.packeteditor.service.PacketDataService;
@@ -47,6 +50,7 @@ public class GuiceModule extends AbstractModule {
         bind(ScapyServerClient.class).in(Singleton.class);
         bind(PacketDataService.class).in(Singleton.class);
         bind(PacketEditorModel.class).in(Singleton.class);
+        bind(ModelCommandExecutor.class).in(Singleton.class);
         if (!embeddedMode) {
             bind(EventBus.class).in(Singleton.class);
         }
@@ -54,10 +58,13 @@ public class GuiceModule extends AbstractModule {
         bind(MenuControllerEngine.class).in(Singleton.class);
         bind(FieldEditorController.class).in(Singleton.class);
         bind(FieldEngineController.class).in(Singleton.class);
+        bind(CaptureListController.class).in(Singleton.class);
         bind(FieldEditorView.class).in(Singleton.class);
         bind(FieldEngineView.class).in(Singleton.class);
         bind(AppController.class).in(Singleton.class);
         bind(IMetadataService.class).to(MetadataService.class).in(Singleton.class);
+        bind(DefinitionsCache.class).in(Singleton.class);
+        bind(CaptureService.class).in(Singleton.class);
 
         bind(ResourceBundle.class)
                 .annotatedWith(Names.named("resources"))
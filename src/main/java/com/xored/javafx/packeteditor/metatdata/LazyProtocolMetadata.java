@@ -0,0 +1,95 @@
+package com.xored.javafx.packeteditor.metatdata;
+
+import com.xored.javafx.packeteditor.scapy.ScapyServerClient;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * Protocol index entry. id and name are known upfront,
+ * field metadata is loaded on first access and then delegated to the loaded metadata.
+ */
+public class LazyProtocolMetadata extends ProtocolMetadata {
+    /** max time to wait for the metadata, the loader is considered stuck after it */
+    static final long RESOLVE_TIMEOUT_MS = 60000;
+
+    private final Supplier<CompletableFuture<ProtocolMetadata>> loader;
+    private CompletableFuture<ProtocolMetadata> loaded;
+
+    public LazyProtocolMetadata(String id, String name, Supplier<CompletableFuture<ProtocolMetadata>> loader) {
+        super(id, name, Collections.<FieldMetadata>emptyList(), null, null);
+        this.loader = loader;
+    }
+
+    /**
+     * starts loading if it's not started yet. failed load is retried on the next call.
+     * A protocol scapy can't describe resolves to metadata without fields
+     */
+    public synchronized CompletableFuture<ProtocolMetadata> load() {
+        if (loaded == null || loaded.isCompletedExceptionally()) {
+            loaded = loader.get().thenApply(metadata -> metadata != null ? metadata
+                    : new ProtocolMetadata(getId(), getName(), Collections.<FieldMetadata>emptyList(), null, null));
+        }
+        return loaded;
+    }
+
+    public synchronized boolean isLoaded() {
+        return loaded != null && loaded.isDone() && !loaded.isCompletedExceptionally();
+    }
+
+    /** waits for the metadata. fails fast on scapy I/O thread, which completes the load and can't wait for it */
+    private ProtocolMetadata resolve() {
+        CompletableFuture<ProtocolMetadata> future = load();
+        if (!future.isDone() && ScapyServerClient.isIoThread()) {
+            throw new IllegalStateException("Metadata of " + getId() + " is not loaded yet and can't be awaited on scapy I/O thread");
+        }
+        try {
+            return future.get(RESOLVE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException("Unable to load metadata of " + getId(), e.getCause());
+        } catch (TimeoutException e) {
+            throw new IllegalStateException("Timed out loading metadata of " + getId());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while loading metadata of " + getId());
+        }
+    }
+
+    @Override
+    public List<FEInstructionParameterMeta> getInstructionParametersMeta(String fieldId) {
+        return resolve().getInstructionParametersMeta(fieldId);
+    }
+
+    @Override
+    public boolean fieldEnigineAllowed(String fieldId) {
+        return resolve().fieldEnigineAllowed(fieldId);
+    }
+
+    @Override
+    public FEInstructionParameterMeta getInstructionParameterMeta(String parameterId) {
+        return resolve().getInstructionParameterMeta(parameterId);
+    }
+
+    @Override
+    public List<FieldMetadata> getFields() {
+        return resolve().getFields();
+    }
+
+    @Override
+    public FieldMetadata getMetaForField(String fieldId) {
+        return resolve().getMetaForField(fieldId);
+    }
+
+    @Override
+    public FieldMetadata getMetaForFieldOrNull(String fieldId) {
+        return resolve().getMetaForFieldOrNull(fieldId);
+    }
+}
@@ -0,0 +1,173 @@
+package com.xored.javafx.packeteditor.pcap;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Offsets, lengths, timestamps and link types of capture packets.
+ *
+ * Saved index file layout: header(magic, format version, capture size, capture mtime, pcapng flag, count),
+ * then arrays of offsets, captured lengths, original lengths, timestamps and link types.
+ * Index is valid only for a capture of the same size and modification time
+ */
+public class PcapIndex {
+    static final int MAGIC = 0x50494458; // PIDX
+    static final int FORMAT_VERSION = 1;
+    static final int HEADER_LENGTH = 4 + 4 + 8 + 8 + 4 + 4;
+    static final int RECORD_LENGTH = 8 + 4 + 4 + 8 + 4;
+
+    private boolean pcapNg;
+    private int count;
+    private long[] offsets;
+    private int[] capturedLengths;
+    private int[] originalLengths;
+    private long[] timestamps;
+    private int[] linkTypes;
+
+    PcapIndex(boolean pcapNg, int capacity) {
+        this.pcapNg = pcapNg;
+        offsets = new long[capacity];
+        capturedLengths = new int[capacity];
+        originalLengths = new int[capacity];
+        timestamps = new long[capacity];
+        linkTypes = new int[capacity];
+    }
+
+    public boolean isPcapNg() { return pcapNg; }
+
+    void setPcapNg(boolean pcapNg) { this.pcapNg = pcapNg; }
+
+    public int size() { return count; }
+
+    public long getOffset(int idx) { return offsets[idx]; }
+
+    public int getCapturedLength(int idx) { return capturedLengths[idx]; }
+
+    public int getOriginalLength(int idx) { return originalLengths[idx]; }
+
+    public long getTimestampNanos(int idx) { return timestamps[idx]; }
+
+    public int getLinkType(int idx) { return linkTypes[idx]; }
+
+    void add(long offset, int capturedLength, int originalLength, long timestamp, int linkType) {
+        if (count == offsets.length) {
+            int capacity = Math.max(256, count * 2);
+            offsets = Arrays.copyOf(offsets, capacity);
+            capturedLengths = Arrays.copyOf(capturedLengths, capacity);
+            originalLengths = Arrays.copyOf(originalLengths, capacity);
+            timestamps = Arrays.copyOf(timestamps, capacity);
+            linkTypes = Arrays.copyOf(linkTypes, capacity);
+        }
+        offsets[count] = offset;
+        capturedLengths[count] = capturedLength;
+        originalLengths[count] = originalLength;
+        timestamps[count] = timestamp;
+        linkTypes[count] = linkType;
+        count++;
+    }
+
+    /** writes the index of the capture with the given size and modification time, replaces the file atomically */
+    public void write(File file, long captureSize, long captureModified) throws IOException {
+        Path target = file.toPath();
+        Files.createDirectories(target.getParent());
+        Path tmp = Files.createTempFile(target.getParent(), file.getName(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH).order(ByteOrder.BIG_ENDIAN);
+                header.putInt(MAGIC).putInt(FORMAT_VERSION).putLong(captureSize).putLong(captureModified)
+                        .putInt(pcapNg ? 1 : 0).putInt(count);
+                header.flip();
+                writeFully(channel, header);
+
+                ByteBuffer data = ByteBuffer.allocateDirect(RECORD_LENGTH * 4096).order(ByteOrder.BIG_ENDIAN);
+                writeArray(channel, data, 8, (buffer, from, to) -> buffer.asLongBuffer().put(offsets, from, to - from));
+                writeArray(channel, data, 4, (buffer, from, to) -> buffer.asIntBuffer().put(capturedLengths, from, to - from));
+                writeArray(channel, data, 4, (buffer, from, to) -> buffer.asIntBuffer().put(originalLengths, from, to - from));
+                writeArray(channel, data, 8, (buffer, from, to) -> buffer.asLongBuffer().put(timestamps, from, to - from));
+                writeArray(channel, data, 4, (buffer, from, to) -> buffer.asIntBuffer().put(linkTypes, from, to - from));
+            }
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /** returns index saved for the capture with the given size and modification time or null */
+    public static PcapIndex read(File file, long captureSize, long captureModified) throws IOException {
+        if (!file.isFile()) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH).order(ByteOrder.BIG_ENDIAN);
+            readFully(channel, header);
+            header.flip();
+            if (header.getInt() != MAGIC || header.getInt() != FORMAT_VERSION
+                    || header.getLong() != captureSize || header.getLong() != captureModified) {
+                return null;
+            }
+            boolean pcapNg = header.getInt() != 0;
+            int count = header.getInt();
+            if (count < 0 || channel.size() != HEADER_LENGTH + (long) count * RECORD_LENGTH) {
+                return null;
+            }
+            PcapIndex res = new PcapIndex(pcapNg, count);
+            ByteBuffer data = ByteBuffer.allocateDirect(RECORD_LENGTH * 4096).order(ByteOrder.BIG_ENDIAN);
+            readArray(channel, data, count, 8, (buffer, from, to) -> buffer.asLongBuffer().get(res.offsets, from, to - from));
+            readArray(channel, data, count, 4, (buffer, from, to) -> buffer.asIntBuffer().get(res.capturedLengths, from, to - from));
+            readArray(channel, data, count, 4, (buffer, from, to) -> buffer.asIntBuffer().get(res.originalLengths, from, to - from));
+            readArray(channel, data, count, 8, (buffer, from, to) -> buffer.asLongBuffer().get(res.timestamps, from, to - from));
+            readArray(channel, data, count, 4, (buffer, from, to) -> buffer.asIntBuffer().get(res.linkTypes, from, to - from));
+            res.count = count;
+            return res;
+        }
+    }
+
+    /** copies a range of an array to or from the buffer */
+    private interface ArrayChunk {
+        void copy(ByteBuffer buffer, int from, int to);
+    }
+
+    private void writeArray(FileChannel channel, ByteBuffer data, int elementSize, ArrayChunk chunk) throws IOException {
+        int perChunk = data.capacity() / elementSize;
+        for (int from = 0; from < count; from += perChunk) {
+            int to = Math.min(count, from + perChunk);
+            data.clear();
+            chunk.copy(data, from, to);
+            data.limit((to - from) * elementSize);
+            writeFully(channel, data);
+        }
+    }
+
+    private static void readArray(FileChannel channel, ByteBuffer data, int count, int elementSize, ArrayChunk chunk) throws IOException {
+        int perChunk = data.capacity() / elementSize;
+        for (int from = 0; from < count; from += perChunk) {
+            int to = Math.min(count, from + perChunk);
+            data.clear();
+            data.limit((to - from) * elementSize);
+            readFully(channel, data);
+            data.flip();
+            chunk.copy(data, from, to);
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("Truncated capture index");
+            }
+        }
+    }
+}
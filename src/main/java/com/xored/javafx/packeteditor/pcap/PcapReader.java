@@ -0,0 +1,376 @@
+package com.xored.javafx.packeteditor.pcap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads pcap and pcapng files over memory-mapped buffers.
+ * Opening a file scans record headers only or uses a saved {@link PcapIndex}, packet data is accessed as slices of the mapped file.
+ *
+ * Large files are mapped by segments. Every segment overlaps the next one by {@link #MAX_RECORD_LENGTH},
+ * so a record is always inside the segment it starts in
+ */
+public class PcapReader implements Closeable {
+    private static Logger logger = LoggerFactory.getLogger(PcapReader.class);
+
+    public static final int LINKTYPE_ETHERNET = 1;
+
+    /** longer records are treated as file corruption */
+    static final int MAX_RECORD_LENGTH = 16 * 1024 * 1024;
+    static final long SEGMENT_SIZE = 1L << 30;
+
+    static final int PCAP_MAGIC = 0xA1B2C3D4;
+    static final int PCAP_MAGIC_NANO = 0xA1B23C4D;
+    static final int PCAP_HEADER_LENGTH = 24;
+    static final int PCAP_RECORD_HEADER_LENGTH = 16;
+
+    static final int PCAPNG_SECTION_HEADER = 0x0A0D0D0A;
+    static final int PCAPNG_BYTE_ORDER_MAGIC = 0x1A2B3C4D;
+    static final int PCAPNG_INTERFACE_DESCRIPTION = 1;
+    static final int PCAPNG_PACKET = 2;
+    static final int PCAPNG_SIMPLE_PACKET = 3;
+    static final int PCAPNG_ENHANCED_PACKET = 6;
+    static final int PCAPNG_OPTION_END = 0;
+    static final int PCAPNG_OPTION_TSRESOL = 9;
+
+    private final File file;
+    private final FileChannel channel;
+    private final long size;
+    private final long segmentSize;
+    private final ByteBuffer[] segments;
+    private PcapIndex index;
+
+    private PcapReader(File file, FileChannel channel, long size, long segmentSize, ByteBuffer[] segments) {
+        this.file = file;
+        this.channel = channel;
+        this.size = size;
+        this.segmentSize = segmentSize;
+        this.segments = segments;
+    }
+
+    /** maps the file and scans its records. throws IOException if the file isn't a pcap or pcapng capture */
+    public static PcapReader open(File file) throws IOException {
+        return open(file, null);
+    }
+
+    /** maps the file, uses the saved index if it matches the file or scans records and saves the index */
+    public static PcapReader open(File file, File indexFile) throws IOException {
+        return open(file, indexFile, SEGMENT_SIZE);
+    }
+
+    static PcapReader open(File file, File indexFile, long segmentSize) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            int count = (int) Math.max(1, (size + segmentSize - 1) / segmentSize);
+            ByteBuffer[] segments = new ByteBuffer[count];
+            for (int i = 0; i < count; i++) {
+                long start = i * segmentSize;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(size - start, segmentSize + MAX_RECORD_LENGTH));
+            }
+            PcapReader reader = new PcapReader(file, channel, size, segmentSize, segments);
+            long modified = file.lastModified();
+            PcapIndex saved = indexFile != null ? readIndex(indexFile, size, modified) : null;
+            if (saved != null) {
+                reader.index = saved;
+            } else {
+                reader.scan();
+                if (indexFile != null) {
+                    writeIndex(reader.index, indexFile, size, modified);
+                }
+            }
+            return reader;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /** reads records of a capture in memory */
+    public static PcapReader wrap(byte[] capture) throws IOException {
+        PcapReader reader = new PcapReader(null, null, capture.length, Long.MAX_VALUE, new ByteBuffer[] {ByteBuffer.wrap(capture)});
+        reader.scan();
+        return reader;
+    }
+
+    private static PcapIndex readIndex(File indexFile, long size, long modified) {
+        try {
+            return PcapIndex.read(indexFile, size, modified);
+        } catch (IOException e) {
+            logger.warn("Unable to read capture index {}, capture is scanned: {}", indexFile, e.getMessage());
+            return null;
+        }
+    }
+
+    private static void writeIndex(PcapIndex index, File indexFile, long size, long modified) {
+        try {
+            index.write(indexFile, size, modified);
+        } catch (IOException e) {
+            logger.warn("Unable to save capture index {}: {}", indexFile, e.getMessage());
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public PcapIndex getIndex() {
+        return index;
+    }
+
+    public boolean isPcapNg() {
+        return index.isPcapNg();
+    }
+
+    public int getPacketCount() {
+        return index.size();
+    }
+
+    public PcapRecord getRecord(int idx) {
+        checkIndex(idx);
+        return new PcapRecord(idx, index.getOffset(idx), index.getCapturedLength(idx), index.getOriginalLength(idx),
+                index.getTimestampNanos(idx), index.getLinkType(idx));
+    }
+
+    /** read-only view of the packet data, doesn't copy it */
+    public ByteBuffer getPacket(int idx) {
+        checkIndex(idx);
+        long offset = index.getOffset(idx);
+        int segment = (int) (offset / segmentSize);
+        int start = (int) (offset - segment * segmentSize);
+        ByteBuffer res = segments[segment].asReadOnlyBuffer();
+        res.limit(start + index.getCapturedLength(idx));
+        res.position(start);
+        return res.slice();
+    }
+
+    /** copy of the packet data */
+    public byte[] getPacketBytes(int idx) {
+        byte[] res = new byte[getCapturedLength(idx)];
+        getPacket(idx).get(res);
+        return res;
+    }
+
+    public int getCapturedLength(int idx) {
+        checkIndex(idx);
+        return index.getCapturedLength(idx);
+    }
+
+    public long getTimestampNanos(int idx) {
+        checkIndex(idx);
+        return index.getTimestampNanos(idx);
+    }
+
+    public int getLinkType(int idx) {
+        checkIndex(idx);
+        return index.getLinkType(idx);
+    }
+
+    @Override
+    public void close() throws IOException {
+        // mapped buffers are released by GC, there is no portable way to unmap them
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    private void checkIndex(int idx) {
+        if (idx < 0 || idx >= index.size()) {
+            throw new IndexOutOfBoundsException("Packet " + idx + " of " + index.size());
+        }
+    }
+
+    /** buffer of the segment containing the position */
+    private ByteBuffer segment(long pos) {
+        return segments[(int) (pos / segmentSize)];
+    }
+
+    /** position in the segment buffer */
+    private int local(long pos) {
+        return (int) (pos % segmentSize);
+    }
+
+    private void setOrder(ByteOrder order) {
+        for (ByteBuffer segment : segments) {
+            segment.order(order);
+        }
+    }
+
+    private void scan() throws IOException {
+        if (size < 4) {
+            throw new IOException("Not a pcap or pcapng file");
+        }
+        setOrder(ByteOrder.BIG_ENDIAN);
+        int magic = segments[0].getInt(0);
+        if (magic == PCAPNG_SECTION_HEADER) {
+            index = new PcapIndex(true, 256);
+            scanPcapNg();
+        } else if (magic == PCAP_MAGIC || magic == PCAP_MAGIC_NANO) {
+            index = new PcapIndex(false, 256);
+            scanPcap(magic == PCAP_MAGIC_NANO);
+        } else if (Integer.reverseBytes(magic) == PCAP_MAGIC || Integer.reverseBytes(magic) == PCAP_MAGIC_NANO) {
+            index = new PcapIndex(false, 256);
+            setOrder(ByteOrder.LITTLE_ENDIAN);
+            scanPcap(Integer.reverseBytes(magic) == PCAP_MAGIC_NANO);
+        } else {
+            throw new IOException("Not a pcap or pcapng file");
+        }
+    }
+
+    private void scanPcap(boolean nanos) throws IOException {
+        if (size < PCAP_HEADER_LENGTH) {
+            throw new IOException("Truncated pcap header");
+        }
+        int linkType = segments[0].getInt(20) & 0xFFFF;
+        long pos = PCAP_HEADER_LENGTH;
+        while (pos + PCAP_RECORD_HEADER_LENGTH <= size) {
+            ByteBuffer b = segment(pos);
+            int p = local(pos);
+            long seconds = b.getInt(p) & 0xFFFFFFFFL;
+            long fraction = b.getInt(p + 4) & 0xFFFFFFFFL;
+            int capturedLength = b.getInt(p + 8);
+            int originalLength = b.getInt(p + 12);
+            long data = pos + PCAP_RECORD_HEADER_LENGTH;
+            if (capturedLength < 0 || capturedLength > size - data || capturedLength > MAX_RECORD_LENGTH - PCAP_RECORD_HEADER_LENGTH) {
+                logger.warn("Truncated pcap record {} at {}", index.size(), pos);
+                break;
+            }
+            index.add(data, capturedLength, originalLength, seconds * 1_000_000_000L + (nanos ? fraction : fraction * 1000), linkType);
+            pos = data + capturedLength;
+        }
+    }
+
+    /** interface of a pcapng section */
+    private static class Interface {
+        final int linkType;
+        final int snapLength;
+        /** units per second is 10^resolution or 2^resolution */
+        final int resolution;
+        final boolean binaryResolution;
+
+        Interface(int linkType, int snapLength, int resolution, boolean binaryResolution) {
+            this.linkType = linkType;
+            this.snapLength = snapLength;
+            this.resolution = resolution;
+            this.binaryResolution = binaryResolution;
+        }
+
+        long toNanos(long ts) {
+            if (binaryResolution) {
+                long seconds = ts >>> resolution;
+                long fraction = ts & ((1L << resolution) - 1);
+                return seconds * 1_000_000_000L + ((fraction * 1_000_000_000L) >>> resolution);
+            }
+            if (resolution <= 9) {
+                return ts * pow10(9 - resolution);
+            }
+            return ts / pow10(resolution - 9);
+        }
+
+        static long pow10(int n) {
+            long res = 1;
+            for (int i = 0; i < n; i++) {
+                res *= 10;
+            }
+            return res;
+        }
+    }
+
+    private void scanPcapNg() throws IOException {
+        List<Interface> interfaces = new ArrayList<>();
+        long pos = 0;
+        while (pos + 12 <= size) {
+            ByteBuffer b = segment(pos);
+            int p = local(pos);
+            // section header type is a palindrome, it's read correctly before the byte order is known
+            int type = b.getInt(p);
+            if (type == PCAPNG_SECTION_HEADER) {
+                // byte order is defined per section
+                int byteOrderMagic = b.getInt(p + 8);
+                if (byteOrderMagic == PCAPNG_BYTE_ORDER_MAGIC) {
+                    // already in this order
+                } else if (Integer.reverseBytes(byteOrderMagic) == PCAPNG_BYTE_ORDER_MAGIC) {
+                    setOrder(b.order() == ByteOrder.BIG_ENDIAN ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+                } else {
+                    throw new IOException("Bad pcapng section header at " + pos);
+                }
+                interfaces.clear();
+            }
+            int length = b.getInt(p + 4);
+            if (length < 12 || length % 4 != 0 || length > size - pos || length > MAX_RECORD_LENGTH) {
+                logger.warn("Truncated pcapng block at {}", pos);
+                break;
+            }
+            int body = p + 8;
+            int bodyEnd = p + length - 4;
+            switch (type) {
+                case PCAPNG_INTERFACE_DESCRIPTION:
+                    interfaces.add(readInterface(b, body, bodyEnd));
+                    break;
+                case PCAPNG_ENHANCED_PACKET:
+                    addPacket(interfaces, b.getInt(body), b.getInt(body + 4), b.getInt(body + 8),
+                            b.getInt(body + 12), b.getInt(body + 16), pos, body + 20 - p, bodyEnd - p);
+                    break;
+                case PCAPNG_PACKET:
+                    addPacket(interfaces, b.getShort(body) & 0xFFFF, b.getInt(body + 4), b.getInt(body + 8),
+                            b.getInt(body + 12), b.getInt(body + 16), pos, body + 20 - p, bodyEnd - p);
+                    break;
+                case PCAPNG_SIMPLE_PACKET:
+                    if (!interfaces.isEmpty()) {
+                        int originalLength = b.getInt(body);
+                        int snapLength = interfaces.get(0).snapLength;
+                        int capturedLength = Math.min(originalLength, snapLength > 0 ? snapLength : Integer.MAX_VALUE);
+                        addPacket(interfaces, 0, 0, 0, capturedLength, originalLength, pos, body + 4 - p, bodyEnd - p);
+                    }
+                    break;
+                default:
+                    // statistics, name resolution and custom blocks are skipped
+            }
+            pos += length;
+        }
+    }
+
+    private static Interface readInterface(ByteBuffer b, int body, int bodyEnd) {
+        int linkType = b.getShort(body) & 0xFFFF;
+        int snapLength = b.getInt(body + 4);
+        int resolution = 6;
+        boolean binaryResolution = false;
+        int pos = body + 8;
+        while (pos + 4 <= bodyEnd) {
+            int code = b.getShort(pos) & 0xFFFF;
+            int length = b.getShort(pos + 2) & 0xFFFF;
+            if (code == PCAPNG_OPTION_END) {
+                break;
+            }
+            if (code == PCAPNG_OPTION_TSRESOL && length == 1) {
+                int value = b.get(pos + 4) & 0xFF;
+                binaryResolution = (value & 0x80) != 0;
+                resolution = value & 0x7F;
+            }
+            pos += 4 + ((length + 3) & ~3);
+        }
+        return new Interface(linkType, snapLength, resolution, binaryResolution);
+    }
+
+    /** data and bodyEnd are relative to the block start */
+    private void addPacket(List<Interface> interfaces, int interfaceId, int tsHigh, int tsLow,
+                           int capturedLength, int originalLength, long block, int data, int bodyEnd) {
+        if (interfaceId < 0 || interfaceId >= interfaces.size() || capturedLength < 0 || capturedLength > bodyEnd - data) {
+            logger.warn("Skipped bad pcapng packet block at {}", block);
+            return;
+        }
+        Interface iface = interfaces.get(interfaceId);
+        long ts = ((tsHigh & 0xFFFFFFFFL) << 32) | (tsLow & 0xFFFFFFFFL);
+        index.add(block + data, capturedLength, originalLength, iface.toNanos(ts), iface.linkType);
+    }
+}
@@ -0,0 +1,42 @@
+package com.xored.javafx.packeteditor.pcap;
+
+/**
+ * Header of a captured packet: position of its data in the capture file, lengths and timestamp
+ */
+public class PcapRecord {
+    private final int index;
+    private final long dataOffset;
+    private final int capturedLength;
+    private final int originalLength;
+    private final long timestampNanos;
+    private final int linkType;
+
+    public PcapRecord(int index, long dataOffset, int capturedLength, int originalLength, long timestampNanos, int linkType) {
+        this.index = index;
+        this.dataOffset = dataOffset;
+        this.capturedLength = capturedLength;
+        this.originalLength = originalLength;
+        this.timestampNanos = timestampNanos;
+        this.linkType = linkType;
+    }
+
+    /** zero-based packet number in the capture */
+    public int getIndex() { return index; }
+
+    /** offset of packet data in the file */
+    public long getDataOffset() { return dataOffset; }
+
+    /** bytes stored in the file */
+    public int getCapturedLength() { return capturedLength; }
+
+    /** length of the packet on the wire */
+    public int getOriginalLength() { return originalLength; }
+
+    /** capture time in nanoseconds since the epoch */
+    public long getTimestampNanos() { return timestampNanos; }
+
+    /** LINKTYPE_* of the packet, see http://www.tcpdump.org/linktypes.html */
+    public int getLinkType() { return linkType; }
+
+    public boolean isTruncated() { return capturedLength < originalLength; }
+}
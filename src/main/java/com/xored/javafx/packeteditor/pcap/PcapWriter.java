@@ -0,0 +1,175 @@
+package com.xored.javafx.packeteditor.pcap;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+
+import static com.xored.javafx.packeteditor.pcap.PcapReader.*;
+
+/**
+ * Streams packets to a pcap or pcapng file through a buffered channel.
+ * pcap records have microsecond timestamps, pcapng interface declares nanosecond resolution
+ */
+public class PcapWriter implements Closeable, Flushable {
+    public enum Format { PCAP, PCAPNG }
+
+    public static final int DEFAULT_SNAPLEN = 262144;
+    static final int BUFFER_SIZE = 64 * 1024;
+    static final int PCAP_VERSION_MAJOR = 2;
+    static final int PCAP_VERSION_MINOR = 4;
+    static final int PCAPNG_EPB_OVERHEAD = 32;
+    static final int PCAPNG_NANOSECONDS = 9;
+
+    private final WritableByteChannel channel;
+    private final Format format;
+    private final int snapLength;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+    /** writes Ethernet packets, format is chosen by the file extension */
+    public static PcapWriter create(File file) throws IOException {
+        return create(file, formatOf(file), LINKTYPE_ETHERNET, DEFAULT_SNAPLEN);
+    }
+
+    public static PcapWriter create(File file, Format format, int linkType, int snapLength) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            return new PcapWriter(channel, format, linkType, snapLength);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /** pcapng for .pcapng files, pcap otherwise */
+    public static Format formatOf(File file) {
+        return file.getName().toLowerCase().endsWith(".pcapng") ? Format.PCAPNG : Format.PCAP;
+    }
+
+    /** single packet pcap file content */
+    public static byte[] toPcap(byte[] packet, long timestampNanos) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(PCAP_HEADER_LENGTH + PCAP_RECORD_HEADER_LENGTH + packet.length);
+        try (PcapWriter writer = new PcapWriter(Channels.newChannel(out), Format.PCAP, LINKTYPE_ETHERNET, DEFAULT_SNAPLEN)) {
+            writer.write(packet, timestampNanos);
+        }
+        return out.toByteArray();
+    }
+
+    public PcapWriter(WritableByteChannel channel, Format format, int linkType, int snapLength) throws IOException {
+        if (snapLength <= 0) {
+            throw new IllegalArgumentException("Snap length must be positive");
+        }
+        this.channel = channel;
+        this.format = format;
+        this.snapLength = snapLength;
+        if (format == Format.PCAP) {
+            buffer.putInt(PCAP_MAGIC)
+                    .putShort((short) PCAP_VERSION_MAJOR).putShort((short) PCAP_VERSION_MINOR)
+                    .putInt(0) // GMT offset
+                    .putInt(0) // timestamps accuracy
+                    .putInt(snapLength)
+                    .putInt(linkType);
+        } else {
+            // section header of unknown length
+            buffer.putInt(PCAPNG_SECTION_HEADER).putInt(28).putInt(PCAPNG_BYTE_ORDER_MAGIC)
+                    .putShort((short) 1).putShort((short) 0).putLong(-1).putInt(28);
+            // interface with nanosecond timestamps
+            buffer.putInt(PCAPNG_INTERFACE_DESCRIPTION).putInt(32)
+                    .putShort((short) linkType).putShort((short) 0).putInt(snapLength)
+                    .putShort((short) PCAPNG_OPTION_TSRESOL).putShort((short) 1).put((byte) PCAPNG_NANOSECONDS).put(new byte[3])
+                    .putShort((short) PCAPNG_OPTION_END).putShort((short) 0)
+                    .putInt(32);
+        }
+    }
+
+    public void write(byte[] packet, long timestampNanos) throws IOException {
+        write(ByteBuffer.wrap(packet), timestampNanos);
+    }
+
+    /** writes remaining bytes of the packet, packets longer than snap length are truncated */
+    public void write(ByteBuffer packet, long timestampNanos) throws IOException {
+        int originalLength = packet.remaining();
+        int capturedLength = Math.min(originalLength, snapLength);
+        int padding = format == Format.PCAPNG ? (4 - capturedLength % 4) % 4 : 0;
+        int headerLength = format == Format.PCAP ? PCAP_RECORD_HEADER_LENGTH : PCAPNG_EPB_OVERHEAD - 4;
+
+        if (buffer.remaining() < headerLength) {
+            flushBuffer();
+        }
+        if (format == Format.PCAP) {
+            buffer.putInt((int) (timestampNanos / 1_000_000_000L))
+                    .putInt((int) (timestampNanos % 1_000_000_000L / 1000))
+                    .putInt(capturedLength)
+                    .putInt(originalLength);
+        } else {
+            int blockLength = PCAPNG_EPB_OVERHEAD + capturedLength + padding;
+            buffer.putInt(PCAPNG_ENHANCED_PACKET).putInt(blockLength)
+                    .putInt(0) // interface
+                    .putInt((int) (timestampNanos >>> 32)).putInt((int) timestampNanos)
+                    .putInt(capturedLength).putInt(originalLength);
+        }
+
+        // the packet buffer is restored instead of duplicated, streams of small packets don't allocate
+        int position = packet.position();
+        int limit = packet.limit();
+        packet.limit(position + capturedLength);
+        try {
+            if (buffer.remaining() >= capturedLength) {
+                buffer.put(packet);
+            } else {
+                // large packets are written without copying
+                flushBuffer();
+                writeFully(packet);
+            }
+        } finally {
+            packet.limit(limit).position(position);
+        }
+
+        if (format == Format.PCAPNG) {
+            if (buffer.remaining() < padding + 4) {
+                flushBuffer();
+            }
+            for (int i = 0; i < padding; i++) {
+                buffer.put((byte) 0);
+            }
+            buffer.putInt(PCAPNG_EPB_OVERHEAD + capturedLength + padding);
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        flushBuffer();
+        if (channel instanceof FileChannel) {
+            ((FileChannel) channel).force(false);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flushBuffer();
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        buffer.flip();
+        writeFully(buffer);
+        buffer.clear();
+    }
+
+    private void writeFully(ByteBuffer data) throws IOException {
+        while (data.hasRemaining()) {
+            channel.write(data);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.xored.javafx.packeteditor.scapy;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+
+import static com.xored.javafx.packeteditor.scapy.JsonStreams.*;
+
+/** streaming (de)serializer of FieldData, binds fields without reflection */
+public class FieldDataTypeAdapter extends TypeAdapter<FieldData> {
+
+    @Override
+    public FieldData read(JsonReader in) throws IOException {
+        if (skipNull(in)) {
+            return null;
+        }
+        FieldData res = new FieldData();
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "id":      res.id = readString(in); break;
+                case "value":   res.value = readTree(in); break;
+                case "hvalue":  res.hvalue = readString(in); break;
+                case "offset":  res.offset = readNumber(in); break;
+                case "length":  res.length = readNumber(in); break;
+                case "ignored": res.ignored = readBoolean(in); break;
+                default:        in.skipValue();
+            }
+        }
+        in.endObject();
+        return res;
+    }
+
+    @Override
+    public void write(JsonWriter out, FieldData value) throws IOException {
+        if (value == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        out.name("id").value(value.id);
+        out.name("value");
+        writeTree(out, value.value);
+        out.name("hvalue").value(value.hvalue);
+        out.name("offset").value(value.offset);
+        out.name("length").value(value.length);
+        out.name("ignored").value(value.ignored);
+        out.endObject();
+    }
+}
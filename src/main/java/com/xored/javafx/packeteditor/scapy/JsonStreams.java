@@ -0,0 +1,107 @@
+package com.xored.javafx.packeteditor.scapy;
+
+import com.google.gson.JsonElement;
+import com.google.gson.internal.LazilyParsedNumber;
+import com.google.gson.internal.bind.TypeAdapters;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/** helpers for streaming type adapters of scapy server structures. JSON nulls are read as null */
+final class JsonStreams {
+    private JsonStreams() {}
+
+    static boolean skipNull(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return true;
+        }
+        return false;
+    }
+
+    static String readString(JsonReader in) throws IOException {
+        if (skipNull(in)) {
+            return null;
+        }
+        // numbers are read as text by nextString, same as Gson does for booleans
+        return in.peek() == JsonToken.BOOLEAN ? Boolean.toString(in.nextBoolean()) : in.nextString();
+    }
+
+    static Boolean readBoolean(JsonReader in) throws IOException {
+        return skipNull(in) ? null : in.nextBoolean();
+    }
+
+    static Integer readInteger(JsonReader in) throws IOException {
+        return skipNull(in) ? null : in.nextInt();
+    }
+
+    /** number is kept as text until used, same as Gson does for Number fields */
+    static Number readNumber(JsonReader in) throws IOException {
+        return skipNull(in) ? null : new LazilyParsedNumber(in.nextString());
+    }
+
+    static JsonElement readTree(JsonReader in) throws IOException {
+        return TypeAdapters.JSON_ELEMENT.read(in);
+    }
+
+    static List<String> readStringList(JsonReader in) throws IOException {
+        if (skipNull(in)) {
+            return null;
+        }
+        List<String> res = new ArrayList<>();
+        in.beginArray();
+        while (in.hasNext()) {
+            res.add(readString(in));
+        }
+        in.endArray();
+        return res;
+    }
+
+    static Map<String, String> readStringMap(JsonReader in) throws IOException {
+        if (skipNull(in)) {
+            return null;
+        }
+        Map<String, String> res = new LinkedHashMap<>();
+        in.beginObject();
+        while (in.hasNext()) {
+            String key = in.nextName();
+            res.put(key, readString(in));
+        }
+        in.endObject();
+        return res;
+    }
+
+    static void writeTree(JsonWriter out, JsonElement value) throws IOException {
+        TypeAdapters.JSON_ELEMENT.write(out, value);
+    }
+
+    static void writeStringList(JsonWriter out, List<String> values) throws IOException {
+        if (values == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginArray();
+        for (String value : values) {
+            out.value(value);
+        }
+        out.endArray();
+    }
+
+    static void writeStringMap(JsonWriter out, Map<String, String> values) throws IOException {
+        if (values == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            out.name(entry.getKey()).value(entry.getValue());
+        }
+        out.endObject();
+    }
+}
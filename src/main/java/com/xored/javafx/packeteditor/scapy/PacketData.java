@@ -17,11 +17,59 @@ public class PacketData {
     public List<InstructionExpressionData> vm_instructions_expressions = new ArrayList<>();
     
     public List<ProtocolData> data = new ArrayList<>();
-    public String binary = ""; // binary packet data in base64 encoding
+    private String binary = ""; // binary packet data in base64 encoding. null if received as a binary frame
+
+    /** reference to a binary frame with packet bytes, resolved by ScapyServerClient */
+    transient JsonObject binaryFrameRef;
+
+    /** decoded packet bytes and the base64 string they were decoded from */
+    private transient byte[] packetBytes;
+    private transient String packetBytesSource;
+
+    /** decodes packet once, callers must not modify the returned array */
+    public byte[] getPacketBytes() {
+        if (packetBytes == null || packetBytesSource != binary) {
+            packetBytes = binary == null ? new byte[0] : Base64.getDecoder().decode(binary);
+            packetBytesSource = binary;
+        }
+        return packetBytes;
+    }
+
+    /** sets packet received as a raw binary frame. base64 is produced only on demand */
+    public void setPacketBytes(byte[] bytes) {
+        binary = null;
+        packetBytes = bytes;
+        packetBytesSource = null;
+    }
+
+    /** packet in base64 encoding */
+    public String getBinary() {
+        if (binary == null) {
+            binary = Base64.getEncoder().encodeToString(getPacketBytes());
+            packetBytesSource = binary;
+        }
+        return binary;
+    }
+
+    /** base64 packet as received from scapy, null while the packet is a binary frame reference */
+    void setBinary(String binary) {
+        this.binary = binary;
+    }
 
-    public byte[] getPacketBytes() { return Base64.getDecoder().decode(binary); }
     public List<ProtocolData> getProtocols() { return data; }
 
+    /** copy which can be modified without affecting this packet. protocols and packet bytes are shared */
+    public PacketData copy() {
+        PacketData res = new PacketData();
+        res.field_engine = field_engine != null ? new JsonParser().parse(field_engine.toString()).getAsJsonObject() : null;
+        res.vm_instructions_expressions = new ArrayList<>(vm_instructions_expressions);
+        res.data = new ArrayList<>(data);
+        res.binary = binary;
+        res.packetBytes = packetBytes;
+        res.packetBytesSource = packetBytesSource;
+        return res;
+    }
+
     public String getFieldEngineError() {
         return field_engine != null && !(field_engine.get("error") instanceof JsonNull) ? field_engine.get("error").getAsString() : null;
     }
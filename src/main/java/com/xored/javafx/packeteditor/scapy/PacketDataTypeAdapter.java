@@ -0,0 +1,136 @@
+package com.xored.javafx.packeteditor.scapy;
+
+import com.google.gson.JsonElement;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Map;
+
+import static com.xored.javafx.packeteditor.scapy.JsonStreams.*;
+
+/**
+ * streaming (de)serializer of PacketData, binds fields without reflection.
+ * binary frame reference is kept in PacketData and resolved by the client
+ */
+public class PacketDataTypeAdapter extends TypeAdapter<PacketData> {
+    private final ProtocolDataTypeAdapter protocolAdapter = new ProtocolDataTypeAdapter();
+
+    @Override
+    public PacketData read(JsonReader in) throws IOException {
+        if (skipNull(in)) {
+            return null;
+        }
+        PacketData res = new PacketData();
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "field_engine":
+                    JsonElement fieldEngine = readTree(in);
+                    res.field_engine = fieldEngine.isJsonObject() ? fieldEngine.getAsJsonObject() : null;
+                    break;
+                case "vm_instructions_expressions":
+                    if (skipNull(in)) {
+                        res.vm_instructions_expressions = null;
+                        break;
+                    }
+                    res.vm_instructions_expressions = new ArrayList<>();
+                    in.beginArray();
+                    while (in.hasNext()) {
+                        res.vm_instructions_expressions.add(readInstruction(in));
+                    }
+                    in.endArray();
+                    break;
+                case "data":
+                    if (skipNull(in)) {
+                        res.data = null;
+                        break;
+                    }
+                    res.data = new ArrayList<>();
+                    in.beginArray();
+                    while (in.hasNext()) {
+                        res.data.add(protocolAdapter.read(in));
+                    }
+                    in.endArray();
+                    break;
+                case "binary":
+                    if (in.peek() == JsonToken.BEGIN_OBJECT) {
+                        res.setBinary(null);
+                        res.binaryFrameRef = readTree(in).getAsJsonObject();
+                    } else {
+                        res.setBinary(readString(in));
+                    }
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+        return res;
+    }
+
+    private static InstructionExpressionData readInstruction(JsonReader in) throws IOException {
+        if (skipNull(in)) {
+            return null;
+        }
+        String name = null;
+        String freeForm = null;
+        Map<String, String> parameters = null;
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "name":       name = readString(in); break;
+                case "free_form":  freeForm = readString(in); break;
+                case "parameters": parameters = readStringMap(in); break;
+                default:           in.skipValue();
+            }
+        }
+        in.endObject();
+        return new InstructionExpressionData(name, parameters, freeForm);
+    }
+
+    @Override
+    public void write(JsonWriter out, PacketData value) throws IOException {
+        if (value == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        out.name("field_engine");
+        writeTree(out, value.field_engine);
+        out.name("vm_instructions_expressions");
+        if (value.vm_instructions_expressions == null) {
+            out.nullValue();
+        } else {
+            out.beginArray();
+            for (InstructionExpressionData instruction : value.vm_instructions_expressions) {
+                if (instruction == null) {
+                    out.nullValue();
+                    continue;
+                }
+                out.beginObject();
+                out.name("name").value(instruction.name);
+                out.name("free_form").value(instruction.free_form);
+                out.name("parameters");
+                writeStringMap(out, instruction.parameters);
+                out.endObject();
+            }
+            out.endArray();
+        }
+        out.name("data");
+        if (value.data == null) {
+            out.nullValue();
+        } else {
+            out.beginArray();
+            for (ProtocolData protocol : value.data) {
+                protocolAdapter.write(out, protocol);
+            }
+            out.endArray();
+        }
+        out.name("binary").value(value.getBinary());
+        out.endObject();
+    }
+}
@@ -0,0 +1,74 @@
+package com.xored.javafx.packeteditor.scapy;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+import static com.xored.javafx.packeteditor.scapy.JsonStreams.*;
+
+/** streaming (de)serializer of ProtocolData, binds fields without reflection */
+public class ProtocolDataTypeAdapter extends TypeAdapter<ProtocolData> {
+    private final FieldDataTypeAdapter fieldAdapter = new FieldDataTypeAdapter();
+
+    @Override
+    public ProtocolData read(JsonReader in) throws IOException {
+        if (skipNull(in)) {
+            return null;
+        }
+        ProtocolData res = new ProtocolData();
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "id":              res.id = readString(in); break;
+                case "real_id":         res.real_id = readString(in); break;
+                case "valid_structure": res.valid_structure = readBoolean(in); break;
+                case "name":            res.name = readString(in); break;
+                case "offset":          res.offset = readNumber(in); break;
+                case "fields":
+                    if (skipNull(in)) {
+                        res.fields = null;
+                        break;
+                    }
+                    res.fields = new ArrayList<>();
+                    in.beginArray();
+                    while (in.hasNext()) {
+                        res.fields.add(fieldAdapter.read(in));
+                    }
+                    in.endArray();
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+        return res;
+    }
+
+    @Override
+    public void write(JsonWriter out, ProtocolData value) throws IOException {
+        if (value == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        out.name("id").value(value.id);
+        out.name("real_id").value(value.real_id);
+        out.name("valid_structure").value(value.valid_structure);
+        out.name("name").value(value.name);
+        out.name("offset").value(value.offset);
+        out.name("fields");
+        if (value.fields == null) {
+            out.nullValue();
+        } else {
+            out.beginArray();
+            for (FieldData field : value.fields) {
+                fieldAdapter.write(out, field);
+            }
+            out.endArray();
+        }
+        out.endObject();
+    }
+}
@@ -0,0 +1,84 @@
+package com.xored.javafx.packeteditor.scapy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.zeromq.ZMQ;
+
+/**
+ * Single DEALER socket to the scapy server with its health state.
+ * Owned by the dispatcher I/O thread, not thread-safe.
+ */
+class ScapyConnection {
+    static Logger logger = LoggerFactory.getLogger(ScapyConnection.class);
+
+    enum State {
+        HEALTHY,
+        /** request timed out on this socket. socket is reopened once it has no requests in flight */
+        FAILED,
+        CLOSED
+    }
+
+    private final ZMQ.Context zmqContext;
+    private final String connectionUrl;
+    private final int idx;
+
+    private ZMQ.Socket zmqSocket;
+    private State state = State.CLOSED;
+    private int inFlight = 0;
+    private int failures = 0;
+
+    ScapyConnection(ZMQ.Context zmqContext, String connectionUrl, int idx) {
+        this.zmqContext = zmqContext;
+        this.connectionUrl = connectionUrl;
+        this.idx = idx;
+    }
+
+    void open() {
+        zmqSocket = zmqContext.socket(ZMQ.DEALER);
+        zmqSocket.setLinger(0);
+        logger.info("connecting socket #{} to scapy_server at {}", idx, connectionUrl);
+        zmqSocket.connect(connectionUrl);
+        state = State.HEALTHY;
+        inFlight = 0;
+    }
+
+    void close() {
+        if (zmqSocket != null) {
+            zmqSocket.disconnect(connectionUrl);
+            zmqSocket.close();
+            zmqSocket = null;
+        }
+        state = State.CLOSED;
+    }
+
+    /** drops the socket with all late replies and connects again */
+    void reopen() {
+        logger.info("reopening socket #{} after {} failure(s)", idx, failures);
+        close();
+        open();
+    }
+
+    void requestSent() {
+        inFlight++;
+    }
+
+    void requestSucceeded() {
+        inFlight--;
+        failures = 0;
+        state = State.HEALTHY;
+    }
+
+    void requestFailed() {
+        inFlight--;
+        failures++;
+        state = State.FAILED;
+    }
+
+    ZMQ.Socket getSocket() { return zmqSocket; }
+    State getState() { return state; }
+    int getInFlight() { return inFlight; }
+    int getFailures() { return failures; }
+    int getIdx() { return idx; }
+
+    boolean isHealthy() { return state == State.HEALTHY; }
+}
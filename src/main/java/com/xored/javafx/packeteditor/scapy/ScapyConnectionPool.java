@@ -0,0 +1,93 @@
+package com.xored.javafx.packeteditor.scapy;
+
+import org.zeromq.ZMQ;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Bounded pool of scapy server sockets.
+ * A socket is checked out for every request sent and returned when the reply arrives or the request times out.
+ * Each socket can pipeline up to maxInFlight requests, healthy sockets are preferred over failed ones.
+ * Owned by the dispatcher I/O thread, not thread-safe.
+ */
+class ScapyConnectionPool {
+    private final List<ScapyConnection> connections = new ArrayList<>();
+    private final int maxInFlight;
+
+    /** set when sockets were reopened and poller has to be rebuilt */
+    private boolean changed = true;
+
+    ScapyConnectionPool(ZMQ.Context zmqContext, String connectionUrl, int size, int maxInFlight) {
+        this.maxInFlight = maxInFlight;
+        for (int i = 0; i < Math.max(1, size); i++) {
+            connections.add(new ScapyConnection(zmqContext, connectionUrl, i));
+        }
+    }
+
+    void open() {
+        connections.forEach(ScapyConnection::open);
+        changed = true;
+    }
+
+    void close() {
+        connections.forEach(ScapyConnection::close);
+        changed = true;
+    }
+
+    List<ScapyConnection> getConnections() {
+        return Collections.unmodifiableList(connections);
+    }
+
+    /** returns true once after the set of sockets has been changed */
+    boolean checkChanged() {
+        boolean res = changed;
+        changed = false;
+        return res;
+    }
+
+    /** returns least loaded socket or null if all sockets are busy */
+    ScapyConnection checkout() {
+        reopenIdleFailed();
+        ScapyConnection best = null;
+        for (ScapyConnection connection : connections) {
+            if (connection.getInFlight() >= maxInFlight) {
+                continue;
+            }
+            if (best == null || isBetter(connection, best)) {
+                best = connection;
+            }
+        }
+        if (best != null) {
+            best.requestSent();
+        }
+        return best;
+    }
+
+    /** returns socket after the reply was received or the request timed out */
+    void checkin(ScapyConnection connection, boolean succeeded) {
+        if (succeeded) {
+            connection.requestSucceeded();
+        } else {
+            connection.requestFailed();
+        }
+    }
+
+    private boolean isBetter(ScapyConnection candidate, ScapyConnection current) {
+        if (candidate.isHealthy() != current.isHealthy()) {
+            return candidate.isHealthy();
+        }
+        return candidate.getInFlight() < current.getInFlight();
+    }
+
+    /** failed socket may hold late replies for expired requests. reopen it once nothing is waiting there */
+    private void reopenIdleFailed() {
+        for (ScapyConnection connection : connections) {
+            if (connection.getState() == ScapyConnection.State.FAILED && connection.getInFlight() == 0) {
+                connection.reopen();
+                changed = true;
+            }
+        }
+    }
+}
@@ -0,0 +1,245 @@
+package com.xored.javafx.packeteditor.scapy;
+
+import com.google.gson.JsonElement;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.xored.javafx.packeteditor.scapy.JsonStreams.*;
+
+/** streaming (de)serializer of get_definitions result, binds fields without reflection */
+public class ScapyDefinitionsTypeAdapter extends TypeAdapter<ScapyDefinitions> {
+
+    private interface ItemReader<T> {
+        T read(JsonReader in) throws IOException;
+    }
+
+    private interface ItemWriter<T> {
+        void write(JsonWriter out, T value) throws IOException;
+    }
+
+    @Override
+    public ScapyDefinitions read(JsonReader in) throws IOException {
+        if (skipNull(in)) {
+            return null;
+        }
+        ScapyDefinitions res = new ScapyDefinitions();
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "protocols":               res.protocols = readList(in, r -> readProtocol(res, r)); break;
+                case "feInstructionParameters": res.feInstructionParameters = readList(in, r -> readFEParameter(res, r)); break;
+                case "feInstructions":          res.feInstructions = readList(in, r -> readFEInstruction(res, r)); break;
+                case "feTemplates":             res.feTemplates = readList(in, r -> readFETemplate(res, r)); break;
+                case "feParameters":            res.feParameters = readList(in, r -> readFEParameter(res, r)); break;
+                default:                        in.skipValue();
+            }
+        }
+        in.endObject();
+        return res;
+    }
+
+    private static <T> List<T> readList(JsonReader in, ItemReader<T> itemReader) throws IOException {
+        if (skipNull(in)) {
+            return null;
+        }
+        List<T> res = new ArrayList<>();
+        in.beginArray();
+        while (in.hasNext()) {
+            res.add(skipNull(in) ? null : itemReader.read(in));
+        }
+        in.endArray();
+        return res;
+    }
+
+    private static ScapyDefinitions.ScapyProtocol readProtocol(ScapyDefinitions defs, JsonReader in) throws IOException {
+        ScapyDefinitions.ScapyProtocol res = defs.new ScapyProtocol();
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "id":                     res.id = readString(in); break;
+                case "name":                   res.name = readString(in); break;
+                case "fields":                 res.fields = readList(in, r -> readField(defs, r)); break;
+                case "fieldEngineAwareFields": res.fieldEngineAwareFields = readStringList(in); break;
+                default:                       in.skipValue();
+            }
+        }
+        in.endObject();
+        return res;
+    }
+
+    private static ScapyDefinitions.ScapyField readField(ScapyDefinitions defs, JsonReader in) throws IOException {
+        ScapyDefinitions.ScapyField res = defs.new ScapyField();
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "id":    res.id = readString(in); break;
+                case "name":  res.name = readString(in); break;
+                case "type":  res.type = readString(in); break;
+                case "auto":  res.auto = readBoolean(in); break;
+                case "min":   res.min = readInteger(in); break;
+                case "max":   res.max = readInteger(in); break;
+                case "regex": res.regex = readString(in); break;
+                case "values_dict":
+                    JsonElement dict = readTree(in);
+                    res.values_dict = dict.isJsonObject() ? dict.getAsJsonObject() : null;
+                    break;
+                case "bits":
+                    JsonElement bits = readTree(in);
+                    res.bits = bits.isJsonArray() ? bits.getAsJsonArray() : null;
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+        return res;
+    }
+
+    private static ScapyDefinitions.ScapyFEParameter readFEParameter(ScapyDefinitions defs, JsonReader in) throws IOException {
+        ScapyDefinitions.ScapyFEParameter res = defs.new ScapyFEParameter();
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "type":         res.type = readString(in); break;
+                case "id":           res.id = readString(in); break;
+                case "name":         res.name = readString(in); break;
+                case "defaultValue": res.defaultValue = readString(in); break;
+                case "dict":         res.dict = readStringMap(in); break;
+                case "required":     res.required = readBoolean(in); break;
+                case "editable":     res.editable = readBoolean(in); break;
+                default:             in.skipValue();
+            }
+        }
+        in.endObject();
+        return res;
+    }
+
+    private static ScapyDefinitions.ScapyFEInstruction readFEInstruction(ScapyDefinitions defs, JsonReader in) throws IOException {
+        ScapyDefinitions.ScapyFEInstruction res = defs.new ScapyFEInstruction();
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "id":         res.id = readString(in); break;
+                case "help":       res.help = readString(in); break;
+                case "parameters": res.parameters = readStringList(in); break;
+                default:           in.skipValue();
+            }
+        }
+        in.endObject();
+        return res;
+    }
+
+    private static ScapyDefinitions.ScapyFETemplate readFETemplate(ScapyDefinitions defs, JsonReader in) throws IOException {
+        ScapyDefinitions.ScapyFETemplate res = defs.new ScapyFETemplate();
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "id":             res.id = readString(in); break;
+                case "name":           res.name = readString(in); break;
+                case "instructionIds": res.instructionIds = readStringList(in); break;
+                default:               in.skipValue();
+            }
+        }
+        in.endObject();
+        return res;
+    }
+
+    @Override
+    public void write(JsonWriter out, ScapyDefinitions value) throws IOException {
+        if (value == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        out.name("protocols");
+        writeList(out, value.protocols, ScapyDefinitionsTypeAdapter::writeProtocol);
+        out.name("feInstructionParameters");
+        writeList(out, value.feInstructionParameters, ScapyDefinitionsTypeAdapter::writeFEParameter);
+        out.name("feInstructions");
+        writeList(out, value.feInstructions, ScapyDefinitionsTypeAdapter::writeFEInstruction);
+        out.name("feTemplates");
+        writeList(out, value.feTemplates, ScapyDefinitionsTypeAdapter::writeFETemplate);
+        out.name("feParameters");
+        writeList(out, value.feParameters, ScapyDefinitionsTypeAdapter::writeFEParameter);
+        out.endObject();
+    }
+
+    private static <T> void writeList(JsonWriter out, List<T> values, ItemWriter<T> itemWriter) throws IOException {
+        if (values == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginArray();
+        for (T value : values) {
+            if (value == null) {
+                out.nullValue();
+            } else {
+                itemWriter.write(out, value);
+            }
+        }
+        out.endArray();
+    }
+
+    private static void writeProtocol(JsonWriter out, ScapyDefinitions.ScapyProtocol value) throws IOException {
+        out.beginObject();
+        out.name("id").value(value.id);
+        out.name("name").value(value.name);
+        out.name("fields");
+        writeList(out, value.fields, ScapyDefinitionsTypeAdapter::writeField);
+        out.name("fieldEngineAwareFields");
+        writeStringList(out, value.fieldEngineAwareFields);
+        out.endObject();
+    }
+
+    private static void writeField(JsonWriter out, ScapyDefinitions.ScapyField value) throws IOException {
+        out.beginObject();
+        out.name("id").value(value.id);
+        out.name("name").value(value.name);
+        out.name("type").value(value.type);
+        out.name("auto").value(value.auto);
+        out.name("min").value(value.min);
+        out.name("max").value(value.max);
+        out.name("regex").value(value.regex);
+        out.name("values_dict");
+        writeTree(out, value.values_dict);
+        out.name("bits");
+        writeTree(out, value.bits);
+        out.endObject();
+    }
+
+    private static void writeFEParameter(JsonWriter out, ScapyDefinitions.ScapyFEParameter value) throws IOException {
+        out.beginObject();
+        out.name("type").value(value.type);
+        out.name("id").value(value.id);
+        out.name("name").value(value.name);
+        out.name("defaultValue").value(value.defaultValue);
+        out.name("dict");
+        writeStringMap(out, value.dict);
+        out.name("required").value(value.required);
+        out.name("editable").value(value.editable);
+        out.endObject();
+    }
+
+    private static void writeFEInstruction(JsonWriter out, ScapyDefinitions.ScapyFEInstruction value) throws IOException {
+        out.beginObject();
+        out.name("id").value(value.id);
+        out.name("help").value(value.help);
+        out.name("parameters");
+        writeStringList(out, value.parameters);
+        out.endObject();
+    }
+
+    private static void writeFETemplate(JsonWriter out, ScapyDefinitions.ScapyFETemplate value) throws IOException {
+        out.beginObject();
+        out.name("id").value(value.id);
+        out.name("name").value(value.name);
+        out.name("instructionIds");
+        writeStringList(out, value.instructionIds);
+        out.endObject();
+    }
+}
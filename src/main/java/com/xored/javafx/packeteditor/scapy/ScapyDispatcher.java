@@ -0,0 +1,537 @@
+package com.xored.javafx.packeteditor.scapy;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.zeromq.ZMQ;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Multiplexes JSON-RPC requests over a pool of DEALER sockets.
+ *
+ * Sockets are owned by a dedicated I/O thread. Callers only enqueue requests and get a future,
+ * replies are matched to requests by JSON-RPC id, so many requests can be in flight at once.
+ * Several requests can be sent as a single JSON-RPC 2.0 batch message.
+ * Raw binary data travels as extra multipart frames after the JSON frame.
+ * Note: non-async future callbacks are executed on the I/O thread and should be short.
+ */
+class ScapyDispatcher {
+    static Logger logger = LoggerFactory.getLogger(ScapyDispatcher.class);
+
+    /** max time to block in poll, also a granularity of timeout checks */
+    static final long POLL_INTERVAL_MS = 50;
+    static final long SHUTDOWN_TIMEOUT_MS = 2000;
+
+    private static final byte[] EMPTY_FRAME = new byte[0];
+    /** set for I/O threads of all dispatchers */
+    private static final ThreadLocal<Boolean> IO_THREAD = ThreadLocal.withInitial(() -> false);
+
+    static class PendingRequest {
+        final String id;
+        final String method;
+        final byte[] payload;
+        /** raw binary frames sent after the JSON frame */
+        final List<byte[]> attachments;
+        /** decodes result while reading the response. result is kept as JSON tree if null */
+        final TypeAdapter<?> resultAdapter;
+        final CompletableFuture<ScapyReply> result = new CompletableFuture<>();
+        PendingFrame frame;
+
+        PendingRequest(String id, String method, byte[] payload) {
+            this(id, method, payload, Collections.emptyList());
+        }
+
+        PendingRequest(String id, String method, byte[] payload, List<byte[]> attachments) {
+            this(id, method, payload, attachments, null);
+        }
+
+        PendingRequest(String id, String method, byte[] payload, List<byte[]> attachments, TypeAdapter<?> resultAdapter) {
+            this.id = id;
+            this.method = method;
+            this.payload = payload;
+            this.attachments = attachments;
+            this.resultAdapter = resultAdapter;
+        }
+    }
+
+    /** JSON-RPC response as it is read from the stream */
+    private static class ParsedResponse {
+        String id;
+        PendingRequest request;
+        JsonElement result;
+        Object value;
+        boolean decoded;
+        JsonObject error;
+    }
+
+    /** single zmq message. carries one request or a JSON-RPC batch */
+    static class PendingFrame {
+        final List<PendingRequest> requests;
+        final boolean batch;
+        final byte[] payload;
+        final List<byte[]> attachments;
+        ScapyConnection connection;
+        long deadline;
+        long seq;
+        /** socket was returned to the pool */
+        boolean checkedIn;
+
+        PendingFrame(PendingRequest request) {
+            this.requests = Collections.singletonList(request);
+            this.batch = false;
+            this.payload = request.payload;
+            this.attachments = request.attachments;
+            request.frame = this;
+        }
+
+        PendingFrame(List<PendingRequest> requests) {
+            this.requests = requests;
+            this.batch = true;
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            out.write('[');
+            for (int i = 0; i < requests.size(); i++) {
+                if (i > 0) {
+                    out.write(',');
+                }
+                out.write(requests.get(i).payload, 0, requests.get(i).payload.length);
+                requests.get(i).frame = this;
+            }
+            out.write(']');
+            this.payload = out.toByteArray();
+            this.attachments = Collections.emptyList();
+        }
+
+        String describe() {
+            return batch ? "batch of " + requests.size() + " requests" : requests.get(0).method;
+        }
+    }
+
+    private final ZMQ.Context zmqContext;
+    private final int receiveTimeout;
+    private final ScapyConnectionPool pool;
+
+    private final Queue<PendingFrame> outgoing = new ConcurrentLinkedQueue<>();
+    /** accessed by I/O thread only */
+    private final Map<String, PendingRequest> inFlight = new HashMap<>();
+
+    private final Pipe wakeupPipe;
+    private final ByteBuffer wakeupSignal = ByteBuffer.allocate(1);
+    private final Thread ioThread;
+    private volatile boolean running = true;
+    /** cleared once the server rejects a batch. batched requests are sent one by one after that */
+    private volatile boolean batchSupported = true;
+    /** accessed by I/O thread only */
+    private long lastFrameSeq = 0;
+
+    ScapyDispatcher(ZMQ.Context zmqContext, String connectionUrl, int receiveTimeout, int poolSize, int maxInFlight) {
+        this.zmqContext = zmqContext;
+        this.receiveTimeout = receiveTimeout;
+        this.pool = new ScapyConnectionPool(zmqContext, connectionUrl, poolSize, maxInFlight);
+        try {
+            wakeupPipe = Pipe.open();
+            wakeupPipe.source().configureBlocking(false);
+            wakeupPipe.sink().configureBlocking(false);
+        } catch (IOException e) {
+            throw new ConnectionException("Unable to create dispatcher wakeup pipe: " + e.getMessage());
+        }
+        ioThread = new Thread(this::run, "scapy-io");
+        ioThread.setDaemon(true);
+        ioThread.start();
+    }
+
+    /** queues request for sending. result is completed by I/O thread */
+    CompletableFuture<ScapyReply> submit(String id, String method, String requestJson) {
+        PendingRequest request = new PendingRequest(id, method, requestJson.getBytes(StandardCharsets.UTF_8));
+        submit(request);
+        return request.result;
+    }
+
+    void submit(PendingRequest request) {
+        enqueue(new PendingFrame(request));
+    }
+
+    /**
+     * queues requests as a single JSON-RPC batch. results are completed by I/O thread in order of arrival.
+     * falls back to separate pipelined requests if the server does not support batches.
+     * requests with binary attachments are always sent separately
+     */
+    void submitBatch(List<PendingRequest> requests) {
+        List<PendingRequest> batched = new ArrayList<>();
+        for (PendingRequest request : requests) {
+            if (batchSupported && request.attachments.isEmpty()) {
+                batched.add(request);
+            } else {
+                enqueue(new PendingFrame(request));
+            }
+        }
+        if (batched.size() == 1) {
+            enqueue(new PendingFrame(batched.get(0)));
+        } else if (!batched.isEmpty()) {
+            enqueue(new PendingFrame(batched));
+        }
+    }
+
+    boolean isBatchSupported() {
+        return batchSupported;
+    }
+
+    private void enqueue(PendingFrame frame) {
+        outgoing.add(frame);
+        if (!running && outgoing.remove(frame)) {
+            // I/O thread is gone and won't pick it up
+            fail(frame, new ConnectionException("Connection to Scapy server is closed"));
+            return;
+        }
+        wakeup();
+    }
+
+    /** stops I/O thread, fails all pending requests */
+    void close() {
+        running = false;
+        wakeup();
+        try {
+            ioThread.join(SHUTDOWN_TIMEOUT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            wakeupPipe.sink().close();
+            wakeupPipe.source().close();
+        } catch (IOException e) {
+            logger.warn("Unable to close dispatcher wakeup pipe: {}", e.getMessage());
+        }
+    }
+
+    private void wakeup() {
+        synchronized (wakeupPipe) {
+            try {
+                wakeupSignal.clear();
+                // non-blocking. if the pipe is full, the I/O thread is going to wake up anyway
+                wakeupPipe.sink().write(wakeupSignal);
+            } catch (IOException e) {
+                logger.debug("Unable to wake up I/O thread: {}", e.getMessage());
+            }
+        }
+    }
+
+    private void drainWakeup() {
+        ByteBuffer buf = ByteBuffer.allocate(64);
+        try {
+            while (wakeupPipe.source().read(buf) > 0) {
+                buf.clear();
+            }
+        } catch (IOException e) {
+            logger.debug("Unable to drain wakeup pipe: {}", e.getMessage());
+        }
+    }
+
+    /** true on a dispatcher I/O thread, which must not wait for replies */
+    static boolean isIoThread() {
+        return IO_THREAD.get();
+    }
+
+    private void run() {
+        IO_THREAD.set(true);
+        pool.open();
+        ZMQ.Poller poller = null;
+        int wakeupIdx = -1;
+        try {
+            while (running) {
+                if (pool.checkChanged()) {
+                    poller = zmqContext.poller(pool.getConnections().size() + 1);
+                    for (ScapyConnection connection : pool.getConnections()) {
+                        poller.register(connection.getSocket(), ZMQ.Poller.POLLIN);
+                    }
+                    wakeupIdx = poller.register(wakeupPipe.source(), ZMQ.Poller.POLLIN);
+                }
+                poller.poll(POLL_INTERVAL_MS);
+                if (poller.pollin(wakeupIdx)) {
+                    drainWakeup();
+                }
+                sendQueued();
+                for (int i = 0; i < pool.getConnections().size(); i++) {
+                    if (poller.pollin(i)) {
+                        receiveAll(pool.getConnections().get(i));
+                    }
+                }
+                expireTimedOut();
+            }
+        } catch (Exception e) {
+            logger.error("Scapy I/O thread failed: {}", e);
+        } finally {
+            running = false;
+            pool.close();
+            failAll(new ConnectionException("Connection to Scapy server is closed"));
+        }
+    }
+
+    private void sendQueued() {
+        PendingFrame frame;
+        while ((frame = outgoing.peek()) != null) {
+            ScapyConnection connection = pool.checkout();
+            if (connection == null) {
+                // all sockets are busy. keep the rest queued until replies arrive
+                return;
+            }
+            outgoing.poll();
+            ZMQ.Socket zmqSocket = connection.getSocket();
+            if (!send(zmqSocket, frame)) {
+                pool.checkin(connection, false);
+                fail(frame, new ConnectionException("Unable to send request " + frame.describe()));
+                continue;
+            }
+            frame.connection = connection;
+            frame.deadline = System.currentTimeMillis() + receiveTimeout;
+            frame.seq = ++lastFrameSeq;
+            for (PendingRequest request : frame.requests) {
+                inFlight.put(request.id, request);
+            }
+        }
+    }
+
+    private static boolean send(ZMQ.Socket zmqSocket, PendingFrame frame) {
+        // REP peer expects an empty delimiter frame before the request
+        zmqSocket.sendMore(EMPTY_FRAME);
+        if (frame.attachments.isEmpty()) {
+            return zmqSocket.send(frame.payload, 0);
+        }
+        zmqSocket.sendMore(frame.payload);
+        for (int i = 0; i < frame.attachments.size(); i++) {
+            boolean last = i == frame.attachments.size() - 1;
+            if (!zmqSocket.send(frame.attachments.get(i), last ? 0 : ZMQ.SNDMORE)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void receiveAll(ScapyConnection connection) {
+        ZMQ.Socket zmqSocket = connection.getSocket();
+        byte[] frame;
+        while ((frame = zmqSocket.recv(ZMQ.DONTWAIT)) != null) {
+            List<byte[]> parts = new ArrayList<>();
+            parts.add(frame);
+            while (zmqSocket.hasReceiveMore()) {
+                parts.add(zmqSocket.recv(0));
+            }
+            // skip delimiter frame, then JSON body followed by binary frames
+            int bodyIdx = 0;
+            while (bodyIdx < parts.size() - 1 && parts.get(bodyIdx).length == 0) {
+                bodyIdx++;
+            }
+            dispatch(connection, parts.get(bodyIdx), parts.subList(bodyIdx + 1, parts.size()));
+        }
+    }
+
+    private void dispatch(ScapyConnection connection, byte[] responseBytes, List<byte[]> binaryFrames) {
+        if (logger.isDebugEnabled()) {
+            logger.debug("received: {}", new String(responseBytes, StandardCharsets.UTF_8));
+        }
+
+        // results are decoded straight from the received bytes, without intermediate String and JSON tree
+        JsonReader reader = new JsonReader(new InputStreamReader(new ByteArrayInputStream(responseBytes), StandardCharsets.UTF_8));
+        ParsedResponse resp = new ParsedResponse();
+        try {
+            if (reader.peek() == JsonToken.BEGIN_ARRAY) {
+                dispatchBatch(reader, binaryFrames);
+                return;
+            }
+            readResponse(reader, resp);
+        } catch (Exception e) {
+            logger.error("unable to parse response: {}", e.getMessage());
+            failUnparsed(resp, e);
+            return;
+        }
+
+        if (resp.id == null) {
+            dispatchAnonymousError(connection, resp);
+            return;
+        }
+
+        PendingRequest request = inFlight.remove(resp.id);
+        if (request == null) {
+            logger.warn("received response for unknown or expired request id: {}", resp.id);
+            return;
+        }
+        checkin(request.frame, true);
+        complete(request, resp, binaryFrames);
+    }
+
+    private void dispatchBatch(JsonReader reader, List<byte[]> binaryFrames) throws IOException {
+        Set<PendingFrame> frames = new HashSet<>();
+        try {
+            reader.beginArray();
+            while (reader.hasNext()) {
+                ParsedResponse resp = new ParsedResponse();
+                try {
+                    readResponse(reader, resp);
+                } catch (Exception e) {
+                    failUnparsed(resp, e);
+                    throw e;
+                }
+                PendingRequest request = resp.id != null ? inFlight.remove(resp.id) : null;
+                if (request == null) {
+                    logger.warn("received batch response for unknown or expired request id: {}", resp.id);
+                    continue;
+                }
+                frames.add(request.frame);
+                complete(request, resp, binaryFrames);
+            }
+            reader.endArray();
+        } finally {
+            for (PendingFrame frame : frames) {
+                checkin(frame, true);
+                // the whole batch is answered with a single message, nothing else is coming
+                for (PendingRequest request : frame.requests) {
+                    if (inFlight.remove(request.id) != null) {
+                        request.result.completeExceptionally(new ScapyException("No response in batch for " + request.method));
+                    }
+                }
+            }
+        }
+    }
+
+    /** reads single JSON-RPC response. result is decoded by the request's adapter if its id comes first */
+    private void readResponse(JsonReader reader, ParsedResponse resp) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "id":
+                    resp.id = JsonStreams.readString(reader);
+                    resp.request = resp.id != null ? inFlight.get(resp.id) : null;
+                    break;
+                case "result":
+                    if (resp.request != null && resp.request.resultAdapter != null) {
+                        resp.value = resp.request.resultAdapter.read(reader);
+                        resp.decoded = true;
+                    } else {
+                        resp.result = JsonStreams.readTree(reader);
+                    }
+                    break;
+                case "error":
+                    JsonElement error = JsonStreams.readTree(reader);
+                    resp.error = error.isJsonObject() ? error.getAsJsonObject() : new JsonObject();
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    /** request was identified before the response turned out to be broken, don't wait for timeout */
+    private void failUnparsed(ParsedResponse resp, Exception e) {
+        if (resp.request != null && inFlight.remove(resp.id) != null) {
+            checkin(resp.request.frame, true);
+            resp.request.result.completeExceptionally(new ScapyException("Unable to parse response for " + resp.request.method + ": " + e.getMessage()));
+        }
+    }
+
+    /**
+     * error without id. the server was unable to parse the message, as it happens to a batch sent to an old server.
+     * REP socket replies in order, so the reply belongs to the oldest frame in flight on this socket
+     */
+    private void dispatchAnonymousError(ScapyConnection connection, ParsedResponse resp) {
+        if (!connection.isHealthy()) {
+            // socket may hold late replies for expired frames, can't tell which one it is
+            logger.warn("received response without id on failed socket, skipped");
+            return;
+        }
+        PendingFrame frame = inFlight.values().stream()
+                .map(request -> request.frame)
+                .filter(f -> f.connection == connection)
+                .min(Comparator.comparingLong(f -> f.seq))
+                .orElse(null);
+        if (frame == null) {
+            logger.warn("received response without id: {}", resp.error);
+            return;
+        }
+        frame.requests.forEach(request -> inFlight.remove(request.id));
+        checkin(frame, true);
+
+        if (frame.batch) {
+            logger.info("Scapy server does not support batch requests, sending requests one by one");
+            batchSupported = false;
+            for (PendingRequest request : frame.requests) {
+                outgoing.add(new PendingFrame(request));
+            }
+            return;
+        }
+        complete(frame.requests.get(0), resp, Collections.emptyList());
+    }
+
+    private void complete(PendingRequest request, ParsedResponse resp, List<byte[]> binaryFrames) {
+        if (resp.error != null) {
+            String message = resp.error.has("message") ? resp.error.get("message").getAsString() : resp.error.toString();
+            if (message.equals("Method not found")) {
+                request.result.completeExceptionally(new MethodNotFoundException());
+                return;
+            }
+            logger.error("received error: {}", message);
+            request.result.completeExceptionally(new ScapyException(message));
+            return;
+        }
+        if (!resp.decoded && request.resultAdapter != null) {
+            // result came before id, decode the tree
+            try {
+                resp.value = request.resultAdapter.fromJsonTree(resp.result);
+            } catch (Exception e) {
+                request.result.completeExceptionally(new ScapyException("Unable to parse response for " + request.method + ": " + e.getMessage()));
+                return;
+            }
+            resp.result = null;
+        }
+        request.result.complete(new ScapyReply(resp.result, resp.value, binaryFrames));
+    }
+
+    private void checkin(PendingFrame frame, boolean succeeded) {
+        if (!frame.checkedIn) {
+            frame.checkedIn = true;
+            pool.checkin(frame.connection, succeeded);
+        }
+    }
+
+    private void expireTimedOut() {
+        if (inFlight.isEmpty()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        Iterator<PendingRequest> it = inFlight.values().iterator();
+        while (it.hasNext()) {
+            PendingRequest request = it.next();
+            if (request.frame.deadline <= now) {
+                it.remove();
+                checkin(request.frame, false);
+                logger.info("Received no response. Request method: '{}', id: '{}'", request.method, request.id);
+                request.result.completeExceptionally(new ConnectionException("Unable to receive response for " + request.method));
+            }
+        }
+    }
+
+    private static void fail(PendingFrame frame, RuntimeException e) {
+        frame.requests.forEach(request -> request.result.completeExceptionally(e));
+    }
+
+    private void failAll(RuntimeException e) {
+        inFlight.values().forEach(request -> request.result.completeExceptionally(e));
+        inFlight.clear();
+        PendingFrame frame;
+        while ((frame = outgoing.poll()) != null) {
+            fail(frame, e);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.xored.javafx.packeteditor.scapy;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Result of a scapy request with raw binary frames received after the JSON frame.
+ * Binary values are referenced from JSON as {"binary_frame": idx} or sent as base64 strings by old servers.
+ */
+class ScapyReply {
+    static final String FRAME_REF = "binary_frame";
+
+    /** JSON result, null if it was decoded by the request's type adapter */
+    final JsonElement result;
+    /** result decoded by the request's type adapter */
+    final Object value;
+    final List<byte[]> frames;
+
+    ScapyReply(JsonElement result, Object value, List<byte[]> frames) {
+        this.result = result;
+        this.value = value;
+        this.frames = frames != null ? frames : Collections.emptyList();
+    }
+
+    @SuppressWarnings("unchecked")
+    <T> T getValue() {
+        return (T) value;
+    }
+
+    static boolean isFrameRef(JsonElement value) {
+        return value != null && value.isJsonObject() && value.getAsJsonObject().has(FRAME_REF);
+    }
+
+    static JsonObject frameRef(int idx) {
+        JsonObject ref = new JsonObject();
+        ref.add(FRAME_REF, new JsonPrimitive(idx));
+        return ref;
+    }
+
+    /** returns bytes of a frame reference or decodes base64 string */
+    byte[] getBytes(JsonElement value) {
+        if (isFrameRef(value)) {
+            int idx = value.getAsJsonObject().get(FRAME_REF).getAsInt();
+            if (idx < 0 || idx >= frames.size()) {
+                throw new ScapyException("Invalid binary frame reference: " + idx);
+            }
+            return frames.get(idx);
+        }
+        return Base64.getDecoder().decode(value.getAsString());
+    }
+}
@@ -2,6 +2,7 @@ package com.xored.javafx.packeteditor.scapy;
 
 import com.google.common.eventbus.EventBus;
 import com.google.gson.*;
+import com.google.gson.reflect.TypeToken;
 import com.google.inject.Inject;
 import com.xored.javafx.packeteditor.events.ScapyClientConnectedEvent;
 import com.xored.javafx.packeteditor.service.ConfigurationService;
@@ -9,23 +10,33 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.zeromq.ZMQ;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Base64;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 
 /** binding to scapy server */
 public class ScapyServerClient {
     public static final int ZMQ_THREADS = 1;
+    /** max number of pipelined requests per pooled socket */
+    public static final int MAX_IN_FLIGHT_PER_CONNECTION = 32;
+    private static final TypeToken<List<PacketData>> PACKET_LIST_TYPE = new TypeToken<List<PacketData>>() {};
     static Logger logger = LoggerFactory.getLogger(ScapyServerClient.class);
 
     final Base64.Encoder base64Encoder = Base64.getEncoder();
     final Base64.Decoder base64Decoder = Base64.getDecoder();
-    final Gson gson = new Gson();
+    final Gson gson = createGson();
 
     ZMQ.Context zmqContext;
-    ZMQ.Socket zmqSocket;
+    ScapyDispatcher dispatcher;
     String version_handler;
-    int last_id = 0;
+    final AtomicInteger last_id = new AtomicInteger();
 
     @Inject
     ConfigurationService configurationService;
@@ -33,7 +44,13 @@ public class ScapyServerClient {
     @Inject
     EventBus eventBus;
     
-    private boolean lastRequestFailed = false;
+    private volatile boolean lastRequestFailed = false;
+
+    /** packet bytes are sent as raw multipart frames instead of base64 */
+    private volatile boolean binaryFrames = false;
+
+    /** requests collected by {@link #batch} on the current thread */
+    private final ThreadLocal<List<ScapyDispatcher.PendingRequest>> currentBatch = new ThreadLocal<>();
     
     private boolean isConnected;
     
@@ -46,11 +63,14 @@ public class ScapyServerClient {
         JsonElement params;
     }
 
-    static class Response {
-        String jsonrpc;
-        String id;
-        JsonElement result;
-        JsonObject error;
+    /** Gson with streaming adapters for scapy server structures */
+    public static Gson createGson() {
+        return new GsonBuilder()
+                .registerTypeAdapter(PacketData.class, new PacketDataTypeAdapter())
+                .registerTypeAdapter(ProtocolData.class, new ProtocolDataTypeAdapter())
+                .registerTypeAdapter(FieldData.class, new FieldDataTypeAdapter())
+                .registerTypeAdapter(ScapyDefinitions.class, new ScapyDefinitionsTypeAdapter())
+                .create();
     }
 
     public void connect() {
@@ -63,16 +83,13 @@ public class ScapyServerClient {
 
     public void connect(String scapyUrl, Integer timeout) {
         zmqContext = ZMQ.context(ZMQ_THREADS);
-        zmqSocket = createSocket();
-        zmqSocket.setReceiveTimeOut(timeout);
-        
         connectionUrl = scapyUrl;
-        
-        logger.info("connecting to scapy_server at {}", connectionUrl);
-        zmqSocket.connect(connectionUrl);
+        dispatcher = new ScapyDispatcher(zmqContext, connectionUrl, timeout,
+                configurationService.getConnectionPoolSize(), MAX_IN_FLIGHT_PER_CONNECTION);
 
         try {
-            version_handler = getVersionHandler();
+            version_handler = requestVersionHandler();
+            binaryFrames = negotiateBinaryFrames();
             isConnected = true;
             eventBus.post(new ScapyClientConnectedEvent());
         } catch (Exception e) {
@@ -101,7 +118,7 @@ public class ScapyServerClient {
         return version;
     }
     
-    private String getVersionHandler() {
+    private String requestVersionHandler() {
         JsonElement versionHandler = request("get_version_handler", getVersion());
         if (versionHandler == null) {
             logger.error("get_version returned null");
@@ -110,17 +127,48 @@ public class ScapyServerClient {
         return versionHandler.getAsString();
     }
 
+    /** asks server to send packet bytes as raw frames. old servers don't know the method and keep base64 */
+    private boolean negotiateBinaryFrames() {
+        if (!configurationService.isBinaryFrames()) {
+            return false;
+        }
+        try {
+            JsonObject options = new JsonObject();
+            options.add("binary_frames", new JsonPrimitive(true));
+            JsonArray payload = new JsonArray();
+            payload.add(version_handler);
+            payload.add(options);
+            JsonElement res = request("set_transport_options", payload);
+            boolean accepted = res != null && res.isJsonObject()
+                    && res.getAsJsonObject().has("binary_frames")
+                    && res.getAsJsonObject().get("binary_frames").getAsBoolean();
+            logger.info("Binary frames transport is {}", accepted ? "enabled" : "rejected by server");
+            return accepted;
+        } catch (MethodNotFoundException e) {
+            logger.info("Scapy server does not support binary frames, using base64");
+            return false;
+        }
+    }
+
+    /** identifies scapy server version. null if not connected */
+    public String getVersionHandler() {
+        return version_handler;
+    }
+
+    public boolean isBinaryFrames() {
+        return binaryFrames;
+    }
+
     private void reconnect() {
         closeConnection();
         connect();
     }
 
-    public void closeConnection() {
+    public synchronized void closeConnection() {
         logger.info("Closing ZMQ Socket. from thread: {}", Thread.currentThread().getName());
-        if (zmqSocket != null) {
-            zmqSocket.disconnect(connectionUrl);
-            zmqSocket.close();
-            zmqSocket = null;
+        if (dispatcher != null) {
+            dispatcher.close();
+            dispatcher = null;
         }
 
         logger.info("Terminating ZMQ Context.");
@@ -136,133 +184,243 @@ public class ScapyServerClient {
 
     /** makes request to Scapy server, returns Scapy server result */
     public JsonElement request(String method, JsonElement payload) {
-        if(lastRequestFailed) {
-            reconnect();
-            payload = rebuildPayload(payload);
+        // blocking request can't wait for the batch flush, so it is never deferred
+        return await(requestAsync(method, payload, Collections.emptyList(), null, false)).result;
+    }
+
+    /**
+     * sends request to Scapy server without waiting for the response.
+     * requests are pipelined, the result is completed with ScapyException/ConnectionException on failure.
+     * inside of {@link #batch} the request is deferred until the batch is flushed
+     */
+    public CompletableFuture<JsonElement> requestAsync(String method, JsonElement payload) {
+        return requestAsync(method, payload, Collections.emptyList(), null, true).thenApply(reply -> reply.result);
+    }
+
+    /**
+     * sends request with binary attachments referenced from payload by {@link #bytesParam}.
+     * result is decoded by resultAdapter right from the received bytes, if it is specified
+     */
+    private CompletableFuture<ScapyReply> requestAsync(String method, JsonElement payload, List<byte[]> attachments, TypeAdapter<?> resultAdapter, boolean deferrable) {
+        ScapyDispatcher currentDispatcher;
+        synchronized (this) {
+            if (lastRequestFailed) {
+                reconnect();
+                payload = rebuildPayload(payload);
+            }
+            currentDispatcher = dispatcher;
         }
         Request reqs = new Request();
-        reqs.id = Integer.toString(++last_id);
+        reqs.id = Integer.toString(last_id.incrementAndGet());
         reqs.method = method;
         reqs.params = payload;
 
         String request_json = gson.toJson(reqs);
         logger.debug(" sending: {}", request_json);
 
-        zmqSocket.send(request_json.getBytes(), 0);
+        ScapyDispatcher.PendingRequest request = new ScapyDispatcher.PendingRequest(reqs.id, method, request_json.getBytes(StandardCharsets.UTF_8), attachments, resultAdapter);
+        List<ScapyDispatcher.PendingRequest> batchRequests = deferrable ? currentBatch.get() : null;
+        if (batchRequests != null) {
+            batchRequests.add(request);
+        } else if (currentDispatcher == null) {
+            request.result.completeExceptionally(new ConnectionException("Not connected to Scapy server"));
+        } else {
+            currentDispatcher.submit(request);
+        }
+        return request.result.whenComplete((result, e) -> {
+            if (e instanceof ConnectionException) {
+                lastRequestFailed = true;
+            }
+        });
+    }
 
-        byte[] response_bytes = zmqSocket.recv(0);
-        if (response_bytes == null) {
-            lastRequestFailed = true;
-            logger.info("Received null response. Request method: '{}'. Errno: '{}'", zmqSocket.base().errno());
-            String message = "Unable to receive response for " + method;
-            throw new ConnectionException(message);
+    /**
+     * collects async requests issued by the operation on the calling thread and sends them as a single JSON-RPC batch.
+     * Nested calls join the outer batch. The operation must not wait for results of its own requests.
+     */
+    public <T> T batch(Supplier<T> operation) {
+        if (currentBatch.get() != null) {
+            return operation.get();
+        }
+        List<ScapyDispatcher.PendingRequest> requests = new ArrayList<>();
+        currentBatch.set(requests);
+        try {
+            return operation.get();
+        } finally {
+            currentBatch.remove();
+            flushBatch(requests);
         }
+    }
 
-        String response_json = new String(response_bytes, java.nio.charset.StandardCharsets.UTF_8);
-        logger.debug("received: {}", response_json);
+    private void flushBatch(List<ScapyDispatcher.PendingRequest> requests) {
+        ScapyDispatcher currentDispatcher;
+        synchronized (this) {
+            currentDispatcher = dispatcher;
+        }
+        if (currentDispatcher == null) {
+            requests.forEach(request -> request.result.completeExceptionally(new ConnectionException("Not connected to Scapy server")));
+            return;
+        }
+        logger.debug("sending batch of {} requests", requests.size());
+        currentDispatcher.submitBatch(requests);
+    }
 
-        Response resp = gson.fromJson(response_json, Response.class);
+    /** true if called from a callback executed on the scapy I/O thread. waiting for replies there deadlocks */
+    public static boolean isIoThread() {
+        return ScapyDispatcher.isIoThread();
+    }
 
-        if (resp.error != null) {
-            String message = resp.error.get("message").getAsString();
-            if(message.equals("Method not found")) {
-                throw new MethodNotFoundException();
+    /** waits for async result and rethrows original Scapy/Connection exception */
+    public static <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
             }
-            logger.error("received error: {}", message);
-            throw new ScapyException(message);
-        }
-
-        if (!resp.id.equals(reqs.id)) {
-            logger.error("received id:{}, expected:{}", resp.id, reqs.id);
-            throw new ScapyException("unexpected result id");
+            throw e;
         }
-
-        return resp.result;
     }
 
-    private JsonArray rebuildPayload(JsonElement payload) {
-        JsonArray parameters = ((JsonArray) payload).get(1).getAsJsonArray();
+    private JsonElement rebuildPayload(JsonElement payload) {
+        if (!(payload instanceof JsonArray) || ((JsonArray) payload).size() == 0) {
+            return payload;
+        }
+        // replace outdated version handler
         JsonArray newPayload = new JsonArray();
         newPayload.add(version_handler);
-        newPayload.add(parameters);
+        JsonArray oldPayload = (JsonArray) payload;
+        for (int i = 1; i < oldPayload.size(); i++) {
+            newPayload.add(oldPayload.get(i));
+        }
         return newPayload;
     }
 
-    private ZMQ.Socket createSocket() {
-        return zmqContext.socket(ZMQ.REQ);
-    }
-
     /** builds packet from JSON definition using scapy */
     public PacketData build_pkt(JsonElement params) {
+        return await(build_pkt_async(params));
+    }
+
+    public CompletableFuture<PacketData> build_pkt_async(JsonElement params) {
         JsonArray payload = new JsonArray();
         payload.add(version_handler);
         payload.add(params);
-        return packetFromJson(request("build_pkt", payload));
+        return requestAsync("build_pkt", payload, Collections.emptyList(), packetAdapter(), true).thenApply(this::packetFromReply);
     }
 
     public PacketData build_pkt(List<ReconstructProtocol> protocols) {
-        return build_pkt(gson.toJsonTree(protocols));
+        return await(build_pkt_async(protocols));
+    }
+
+    public CompletableFuture<PacketData> build_pkt_async(List<ReconstructProtocol> protocols) {
+        return build_pkt_async(gson.toJsonTree(protocols));
     }
 
     public PacketData build_pkt_ex(List<ReconstructProtocol> protocols, JsonElement extra_options) {
+        return await(build_pkt_ex_async(protocols, extra_options));
+    }
+
+    public CompletableFuture<PacketData> build_pkt_ex_async(List<ReconstructProtocol> protocols, JsonElement extra_options) {
         JsonArray payload = new JsonArray();
         payload.add(version_handler);
         payload.add(gson.toJsonTree(protocols));
         payload.add(extra_options);
-        return packetFromJson(request("build_pkt_ex", payload));
+        return requestAsync("build_pkt_ex", payload, Collections.emptyList(), packetAdapter(), true).thenApply(this::packetFromReply);
     }
 
     public ScapyData loadInstructionParameterValues(List<ReconstructProtocol> pktStructure, JsonElement vmInstructionsModel, String parameterId) {
+        return await(loadInstructionParameterValuesAsync(pktStructure, vmInstructionsModel, parameterId));
+    }
+
+    public CompletableFuture<ScapyData> loadInstructionParameterValuesAsync(List<ReconstructProtocol> pktStructure, JsonElement vmInstructionsModel, String parameterId) {
         JsonArray payload = new JsonArray();
         payload.add(version_handler);
         payload.add(gson.toJsonTree(pktStructure));
         payload.add(vmInstructionsModel);
         payload.add(new JsonPrimitive(parameterId));
-        JsonObject res = (JsonObject) request("load_instruction_parameter_values", payload);
-        return gson.fromJson(res, ScapyData.class);
+        return requestAsync("load_instruction_parameter_values", payload)
+                .thenApply(res -> gson.fromJson(res, ScapyData.class));
     }
-    
+
     public ScapyDefinitions get_definitions() {
+        return await(get_definitions_async());
+    }
+
+    public CompletableFuture<ScapyDefinitions> get_definitions_async() {
+        return get_definitions_async(null);
+    }
+
+    /** definitions of given protocols and field engine. all protocols if protocolIds is null */
+    public ScapyDefinitions get_definitions(List<String> protocolIds) {
+        return await(get_definitions_async(protocolIds));
+    }
+
+    public CompletableFuture<ScapyDefinitions> get_definitions_async(List<String> protocolIds) {
         JsonArray payload = new JsonArray();
         payload.add(version_handler);
-        payload.add(JsonNull.INSTANCE);
-        JsonObject res = (JsonObject) request("get_definitions", payload);
-        return gson.fromJson(res, ScapyDefinitions.class);
+        payload.add(protocolIds != null ? gson.toJsonTree(protocolIds) : JsonNull.INSTANCE);
+        return requestAsync("get_definitions", payload, Collections.emptyList(), gson.getAdapter(ScapyDefinitions.class), true)
+                .thenApply(ScapyReply::getValue);
     }
-    
+
+    /** protocol ids and names without fields. throws MethodNotFoundException on old servers */
+    public List<ScapyDefinitions.ScapyProtocol> get_protocols() {
+        JsonArray payload = new JsonArray();
+        payload.add(version_handler);
+        JsonElement res = request("get_protocols", payload);
+        return Arrays.asList(gson.fromJson(res, ScapyDefinitions.ScapyProtocol[].class));
+    }
+
     public List<String> get_payload_classes(List<ReconstructProtocol> protocols) {
+        return await(get_payload_classes_async(protocols));
+    }
+
+    public CompletableFuture<List<String>> get_payload_classes_async(List<ReconstructProtocol> protocols) {
         JsonArray payload = new JsonArray();
         payload.add(version_handler);
         payload.add(gson.toJsonTree(protocols));
-        JsonElement res = request("get_payload_classes", payload);
-        return Arrays.asList(gson.fromJson(res, String[].class));
+        return requestAsync("get_payload_classes", payload)
+                .thenApply(res -> Arrays.asList(gson.fromJson(res, String[].class)));
     }
 
     public List<String> get_payload_classes(String protocolId) {
-        return get_payload_classes(Arrays.asList(ReconstructProtocol.pass(protocolId)));
+        return await(get_payload_classes_async(protocolId));
+    }
+
+    public CompletableFuture<List<String>> get_payload_classes_async(String protocolId) {
+        return get_payload_classes_async(Arrays.asList(ReconstructProtocol.pass(protocolId)));
     }
 
     /** reads first packet from binary pcap file */
     public PacketData read_pcap_packet(byte[] pcap_binary) {
+        return await(read_pcap_packet_async(pcap_binary));
+    }
+
+    public CompletableFuture<PacketData> read_pcap_packet_async(byte[] pcap_binary) {
+        List<byte[]> attachments = new ArrayList<>();
         JsonArray payload = new JsonArray();
-        String payload_b64 = base64Encoder.encodeToString(pcap_binary);
         payload.add(version_handler);
-        payload.add(payload_b64);
-        JsonArray pcap_packets = (JsonArray)request("read_pcap", payload);
-        JsonElement first_packet = pcap_packets.get(0);
-        return packetFromJson(first_packet);
+        payload.add(bytesParam(pcap_binary, attachments));
+        return requestAsync("read_pcap", payload, attachments, gson.getAdapter(PACKET_LIST_TYPE), true).thenApply(reply -> {
+            List<PacketData> pcap_packets = reply.getValue();
+            return resolveBinaryFrame(reply, pcap_packets.get(0));
+        });
     }
 
     /** write single pcap packet to a file, returns result binary pcap file content */
     public byte[] write_pcap_packet(byte[] packet_binary) {
+        return await(write_pcap_packet_async(packet_binary));
+    }
+
+    public CompletableFuture<byte[]> write_pcap_packet_async(byte[] packet_binary) {
+        List<byte[]> attachments = new ArrayList<>();
         JsonArray packets = new JsonArray();
-        packets.add(base64Encoder.encodeToString(packet_binary));
+        packets.add(bytesParam(packet_binary, attachments));
 
         JsonArray payload = new JsonArray();
         payload.add(version_handler);
         payload.add(packets);
-        String pcap_base64 = request("write_pcap", payload).getAsString();
-        return base64Decoder.decode(pcap_base64);
+        return requestAsync("write_pcap", payload, attachments, null, true).thenApply(reply -> reply.getBytes(reply.result));
     }
 
     public JsonElement get_tree() {
@@ -273,28 +431,71 @@ public class ScapyServerClient {
 
     /** builds packet from bytes */
     public PacketData reconstruct_pkt(byte[] packet_binary) {
-        JsonObject result = reconstruct_pkt(packet_binary, new JsonArray());
-        return gson.fromJson(result, PacketData.class);
+        return await(reconstruct_pkt_async(packet_binary));
+    }
+
+    public CompletableFuture<PacketData> reconstruct_pkt_async(byte[] packet_binary) {
+        return reconstructAsync(packet_binary, new JsonArray(), packetAdapter()).thenApply(this::packetFromReply);
     }
 
     /** builds packet from bytes, modifies fields */
     public PacketData reconstruct_pkt(byte[] packet_binary, List<ReconstructProtocol> protocols) {
-        JsonObject result = reconstruct_pkt(packet_binary, gson.toJsonTree(protocols));
-        return gson.fromJson(result, PacketData.class);
+        return await(reconstruct_pkt_async(packet_binary, protocols));
+    }
+
+    public CompletableFuture<PacketData> reconstruct_pkt_async(byte[] packet_binary, List<ReconstructProtocol> protocols) {
+        return reconstructAsync(packet_binary, gson.toJsonTree(protocols), packetAdapter()).thenApply(this::packetFromReply);
     }
 
     /** builds packet from bytes, modifies fields */
     public JsonObject reconstruct_pkt (byte[] packet_binary, JsonElement modify) {
+        return await(reconstruct_pkt_async(packet_binary, modify));
+    }
+
+    public CompletableFuture<JsonObject> reconstruct_pkt_async(byte[] packet_binary, JsonElement modify) {
+        return reconstructAsync(packet_binary, modify, null).thenApply(reply -> {
+            JsonObject res = reply.result.getAsJsonObject();
+            if (ScapyReply.isFrameRef(res.get("binary"))) {
+                // raw JSON callers expect base64 packet, as sent by old servers
+                res.add("binary", new JsonPrimitive(base64Encoder.encodeToString(reply.getBytes(res.get("binary")))));
+            }
+            return res;
+        });
+    }
+
+    private CompletableFuture<ScapyReply> reconstructAsync(byte[] packet_binary, JsonElement modify, TypeAdapter<?> resultAdapter) {
+        List<byte[]> attachments = new ArrayList<>();
         JsonArray param = new JsonArray();
         param.add(version_handler);
-        param.add(Base64.getEncoder().encodeToString(packet_binary));
+        param.add(bytesParam(packet_binary, attachments));
         param.add(modify);
-        JsonElement result = request("reconstruct_pkt", param);
-        return result.getAsJsonObject();
+        return requestAsync("reconstruct_pkt", param, attachments, resultAdapter, true);
+    }
+
+    /** references bytes as an extra frame if the server supports it, base64 string otherwise */
+    private JsonElement bytesParam(byte[] bytes, List<byte[]> attachments) {
+        if (binaryFrames) {
+            attachments.add(bytes);
+            return ScapyReply.frameRef(attachments.size() - 1);
+        }
+        return new JsonPrimitive(base64Encoder.encodeToString(bytes));
+    }
+
+    private TypeAdapter<PacketData> packetAdapter() {
+        return gson.getAdapter(PacketData.class);
     }
 
-    private PacketData packetFromJson(JsonElement packet) {
-        return gson.fromJson(packet, PacketData.class);
+    private PacketData packetFromReply(ScapyReply reply) {
+        return resolveBinaryFrame(reply, reply.getValue());
+    }
+
+    /** sets packet bytes sent as a binary frame, so they are never base64 encoded */
+    private PacketData resolveBinaryFrame(ScapyReply reply, PacketData packet) {
+        if (packet != null && packet.binaryFrameRef != null) {
+            packet.setPacketBytes(reply.getBytes(packet.binaryFrameRef));
+            packet.binaryFrameRef = null;
+        }
+        return packet;
     }
 
     public List<JsonObject> getTemplates() {
@@ -324,4 +525,3 @@ public class ScapyServerClient {
     }
 
 }
-
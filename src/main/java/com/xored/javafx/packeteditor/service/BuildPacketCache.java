@@ -0,0 +1,233 @@
+package com.xored.javafx.packeteditor.service;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import com.xored.javafx.packeteditor.scapy.FieldData;
+import com.xored.javafx.packeteditor.scapy.FieldValue;
+import com.xored.javafx.packeteditor.scapy.PacketData;
+import com.xored.javafx.packeteditor.scapy.ProtocolData;
+import com.xored.javafx.packeteditor.scapy.ReconstructProtocol;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LRU cache of build_pkt results keyed by canonical hash of the packet structure and field engine instructions.
+ * Entries are evicted by the approximate size of the cached packets.
+ */
+public class BuildPacketCache {
+    private final Gson gson = new Gson();
+    private final long maxBytes;
+
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes = 0;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public BuildPacketCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /** returns null if the packet can't be cached: random values and python expressions are evaluated on each build */
+    public Key key(List<ReconstructProtocol> pktStructure, JsonElement extraOptions) {
+        JsonElement structure = gson.toJsonTree(pktStructure);
+        if (!isDeterministic(structure)) {
+            return null;
+        }
+        StringBuilder canonical = new StringBuilder();
+        writeCanonical(canonical, structure);
+        canonical.append('\n');
+        writeCanonical(canonical, extraOptions);
+        return new Key(sha256(canonical.toString()));
+    }
+
+    /**
+     * cached packet copy or null. callers may modify top-level lists and the field engine of the returned packet,
+     * protocols and fields are shared with the cache entry and must not be modified
+     */
+    public PacketData get(Key key) {
+        if (key == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        PacketData res;
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            res = entry != null ? entry.packet : null;
+        }
+        if (res == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return res.copy();
+    }
+
+    public void put(Key key, PacketData packet) {
+        if (key == null) {
+            return;
+        }
+        long size = estimateSize(packet);
+        if (size > maxBytes) {
+            return;
+        }
+        PacketData stored = packet.copy();
+        synchronized (this) {
+            Entry old = entries.put(key, new Entry(stored, size));
+            if (old != null) {
+                totalBytes -= old.size;
+            }
+            totalBytes += size;
+            Iterator<Entry> eldest = entries.values().iterator();
+            while (totalBytes > maxBytes && eldest.hasNext()) {
+                totalBytes -= eldest.next().size;
+                eldest.remove();
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        totalBytes = 0;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    /** approximate heap size: packet bytes with base64 copy, field values and field engine json */
+    static long estimateSize(PacketData packet) {
+        long res = 64 + packet.getPacketBytes().length * 3L;
+        for (ProtocolData protocol : packet.getProtocols()) {
+            res += 64;
+            if (protocol.fields != null) {
+                for (FieldData field : protocol.fields) {
+                    res += 96 + (field.value != null ? field.value.toString().length() * 2 : 0)
+                            + (field.hvalue != null ? field.hvalue.length() * 2 : 0);
+                }
+            }
+        }
+        if (packet.field_engine != null) {
+            res += packet.field_engine.toString().length() * 2;
+        }
+        return res;
+    }
+
+    private static boolean isDeterministic(JsonElement json) {
+        if (json.isJsonArray()) {
+            for (JsonElement item : json.getAsJsonArray()) {
+                if (!isDeterministic(item)) {
+                    return false;
+                }
+            }
+        } else if (json.isJsonObject()) {
+            FieldValue.ObjectType type = json.getAsJsonObject().has("vtype") ? FieldValue.getObjectValueType(json) : null;
+            if (type == FieldValue.ObjectType.RANDOM || type == FieldValue.ObjectType.EXPRESSION) {
+                return false;
+            }
+            for (Map.Entry<String, JsonElement> entry : json.getAsJsonObject().entrySet()) {
+                if ("generate".equals(entry.getKey()) && entry.getValue().isJsonPrimitive()
+                        && entry.getValue().getAsString().startsWith("random")) {
+                    return false;
+                }
+                if (!isDeterministic(entry.getValue())) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /** json with sorted object keys, so equal structures have equal hashes regardless of key order */
+    private static void writeCanonical(StringBuilder out, JsonElement json) {
+        if (json == null || json.isJsonNull()) {
+            out.append("null");
+        } else if (json.isJsonObject()) {
+            JsonObject obj = json.getAsJsonObject();
+            TreeMap<String, JsonElement> sorted = new TreeMap<>();
+            for (Map.Entry<String, JsonElement> entry : obj.entrySet()) {
+                sorted.put(entry.getKey(), entry.getValue());
+            }
+            out.append('{');
+            boolean first = true;
+            for (Map.Entry<String, JsonElement> entry : sorted.entrySet()) {
+                if (!first) {
+                    out.append(',');
+                }
+                first = false;
+                out.append(new JsonPrimitive(entry.getKey())).append(':');
+                writeCanonical(out, entry.getValue());
+            }
+            out.append('}');
+        } else if (json.isJsonArray()) {
+            JsonArray arr = json.getAsJsonArray();
+            out.append('[');
+            for (int i = 0; i < arr.size(); i++) {
+                if (i > 0) {
+                    out.append(',');
+                }
+                writeCanonical(out, arr.get(i));
+            }
+            out.append(']');
+        } else {
+            out.append(json.toString());
+        }
+    }
+
+    private static byte[] sha256(String value) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static class Key {
+        private final byte[] digest;
+        private final int hash;
+
+        Key(byte[] digest) {
+            this.digest = digest;
+            this.hash = Arrays.hashCode(digest);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && Arrays.equals(digest, ((Key) o).digest);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static class Entry {
+        final PacketData packet;
+        final long size;
+
+        Entry(PacketData packet, long size) {
+            this.packet = packet;
+            this.size = size;
+        }
+    }
+}
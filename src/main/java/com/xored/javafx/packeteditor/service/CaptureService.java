@@ -0,0 +1,174 @@
+package com.xored.javafx.packeteditor.service;
+
+import com.google.common.hash.Hashing;
+import com.google.inject.Inject;
+import com.xored.javafx.packeteditor.pcap.PcapReader;
+import com.xored.javafx.packeteditor.scapy.PacketData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Opened capture file. Packets are dissected by scapy on demand,
+ * results are kept in LRU cache and neighbours of the requested packet are prefetched
+ */
+public class CaptureService {
+    private static Logger logger = LoggerFactory.getLogger(CaptureService.class);
+
+    /** dissected packets kept in memory */
+    static final int CACHE_SIZE = 64;
+    /** packets before and after the requested one which are dissected in background */
+    static final int PREFETCH_DISTANCE = 2;
+    /** captures which scapy reads as a whole are limited by the size */
+    public static final int SCAPY_PCAP_MAX_FILESIZE = 1048576;
+    /** packet offsets of smaller captures are scanned on every open */
+    static final long INDEX_MIN_FILE_SIZE = 16 * 1024 * 1024;
+    static final String INDEX_DIR = "capture-index";
+
+    @Inject
+    PacketDataService packetDataService;
+
+    /** saved packet indexes location or null if indexes aren't saved */
+    private File indexDir;
+
+    private PcapReader reader;
+
+    /** dissection results and requests in progress, by packet index */
+    private final Map<Integer, CompletableFuture<PacketData>> cache = new LinkedHashMap<Integer, CompletableFuture<PacketData>>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, CompletableFuture<PacketData>> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    @Inject
+    void configureIndex(ConfigurationService configurationService) {
+        setIndexDir(new File(configurationService.getCacheLocation(), INDEX_DIR));
+    }
+
+    public void setIndexDir(File indexDir) {
+        this.indexDir = indexDir;
+    }
+
+    /** opens the capture instead of the current one. packet index of a large capture is saved and reused while the file is unchanged */
+    public PcapReader open(File file) throws IOException {
+        PcapReader opened = PcapReader.open(file, getIndexFile(file));
+        synchronized (this) {
+            closeReader();
+            reader = opened;
+        }
+        return opened;
+    }
+
+    public synchronized void close() {
+        closeReader();
+        reader = null;
+    }
+
+    /** opened capture or null */
+    public synchronized PcapReader getReader() {
+        return reader;
+    }
+
+    public synchronized int getPacketCount() {
+        return reader != null ? reader.getPacketCount() : 0;
+    }
+
+    /** saved index location for the capture or null if the capture is scanned on open */
+    File getIndexFile(File capture) {
+        if (indexDir == null || capture.length() < INDEX_MIN_FILE_SIZE) {
+            return null;
+        }
+        String key = Hashing.sha1().hashString(capture.getAbsolutePath(), StandardCharsets.UTF_8).toString();
+        return new File(indexDir, key + ".pidx");
+    }
+
+    /** dissected packet of the opened capture. callers may modify returned packet */
+    public CompletableFuture<PacketData> dissect(int idx) {
+        CompletableFuture<PacketData> res;
+        synchronized (this) {
+            if (reader == null) {
+                CompletableFuture<PacketData> failed = new CompletableFuture<>();
+                failed.completeExceptionally(new IOException("No capture is opened"));
+                return failed;
+            }
+            res = request(idx);
+            for (int distance = 1; distance <= PREFETCH_DISTANCE; distance++) {
+                prefetch(idx + distance);
+                prefetch(idx - distance);
+            }
+        }
+        return res.thenApply(PacketData::copy);
+    }
+
+    /** true if the packet is dissected or being dissected */
+    public synchronized boolean isCached(int idx) {
+        return cache.containsKey(idx);
+    }
+
+    private void prefetch(int idx) {
+        if (idx >= 0 && idx < reader.getPacketCount() && !cache.containsKey(idx)) {
+            request(idx);
+        }
+    }
+
+    private CompletableFuture<PacketData> request(int idx) {
+        CompletableFuture<PacketData> res = cache.get(idx);
+        if (res != null) {
+            return res;
+        }
+        res = startDissection(reader, idx);
+        cache.put(idx, res);
+        CompletableFuture<PacketData> requested = res;
+        PcapReader requestedReader = reader;
+        res.whenComplete((pkt, e) -> {
+            if (e != null) {
+                // failed requests are retried next time
+                synchronized (this) {
+                    if (reader == requestedReader) {
+                        cache.remove(idx, requested);
+                    }
+                }
+            }
+        });
+        return res;
+    }
+
+    private CompletableFuture<PacketData> startDissection(PcapReader reader, int idx) {
+        if (reader.getLinkType(idx) == PcapReader.LINKTYPE_ETHERNET) {
+            return packetDataService.reconstructPacketFromBinaryAsync(reader.getPacketBytes(idx));
+        }
+        // scapy picks the layer for other link types, this requires the whole capture and gives its first packet
+        CompletableFuture<PacketData> res = new CompletableFuture<>();
+        File file = reader.getFile();
+        if (idx != 0 || file == null || file.length() > SCAPY_PCAP_MAX_FILESIZE) {
+            res.completeExceptionally(new IOException("Only Ethernet packets of captures over "
+                    + SCAPY_PCAP_MAX_FILESIZE / 1024 + " KB can be opened, link type is " + reader.getLinkType(idx)));
+            return res;
+        }
+        try {
+            return packetDataService.read_pcap_packet_async(Files.readAllBytes(file.toPath()));
+        } catch (IOException e) {
+            res.completeExceptionally(e);
+            return res;
+        }
+    }
+
+    private void closeReader() {
+        cache.clear();
+        if (reader != null) {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                logger.warn("Failed to close capture", e);
+            }
+        }
+    }
+}
@@ -13,6 +13,16 @@ public class ConfigurationService {
     
     private Integer receiveTimeout;
 
+    private Integer connectionPoolSize;
+
+    private boolean binaryFrames;
+
+    private boolean lazyDefinitions;
+
+    private long undoMemoryBudget;
+
+    private boolean undoSpillToDisk;
+
     private String connectionPort;
     
     private ApplicationMode applicationMode = ApplicationMode.EMBEDDED;
@@ -23,6 +33,8 @@ public class ConfigurationService {
 
     private String templatesLocation = null;
 
+    private String cacheLocation = null;
+
     public boolean isStandaloneMode() {
         return ApplicationMode.STANDALONE.equals(applicationMode);
     }
@@ -34,6 +46,7 @@ public class ConfigurationService {
 
     private static final String  APP_DATA_PATH = File.separator + "TRex" + File.separator + "trex" + File.separator;
     private static final String  TEMPLATES_PATH = "templates" + File.separator;
+    private static final String  CACHE_PATH = "cache" + File.separator;
     private static final boolean OS_IS_WINDOWS = System.getProperty("os.name").toLowerCase().contains("win");
 
     public static boolean isNullOrEmpty(String data) {
@@ -44,8 +57,18 @@ public class ConfigurationService {
     public ConfigurationService(@Named("SCAPY_CONNECTION_HOST") String defaultConnectionHost,
                                 @Named("SCAPY_RECEIVE_TIMEOUT") String defaultRecieveTimeout,
                                 @Named("SCAPY_CONNECTION_PORT") String defaultConnectionPort,
-                                @Named("SCAPY_CONNECTION_PROTOCOL") String defaultConnectionProtocol) {
+                                @Named("SCAPY_CONNECTION_PROTOCOL") String defaultConnectionProtocol,
+                                @Named("SCAPY_CONNECTION_POOL_SIZE") String defaultConnectionPoolSize,
+                                @Named("SCAPY_BINARY_FRAMES") String defaultBinaryFrames,
+                                @Named("SCAPY_LAZY_DEFINITIONS") String defaultLazyDefinitions,
+                                @Named("UNDO_MEMORY_BUDGET") String defaultUndoMemoryBudget,
+                                @Named("UNDO_SPILL_TO_DISK") String defaultUndoSpillToDisk) {
         this.receiveTimeout = Integer.valueOf(defaultRecieveTimeout);
+        this.connectionPoolSize = Integer.valueOf(defaultConnectionPoolSize);
+        this.binaryFrames = Boolean.valueOf(defaultBinaryFrames);
+        this.lazyDefinitions = Boolean.valueOf(defaultLazyDefinitions);
+        this.undoMemoryBudget = Long.valueOf(defaultUndoMemoryBudget);
+        this.undoSpillToDisk = Boolean.valueOf(defaultUndoSpillToDisk);
         this.host = defaultConnectionHost;
         this.connectionPort = defaultConnectionPort;
         this.protocol = defaultConnectionProtocol;
@@ -84,6 +107,50 @@ public class ConfigurationService {
         return receiveTimeout;
     }
 
+    /** number of sockets used to talk to the scapy server concurrently */
+    public Integer getConnectionPoolSize() {
+        return connectionPoolSize;
+    }
+
+    public void setConnectionPoolSize(Integer connectionPoolSize) {
+        this.connectionPoolSize = connectionPoolSize;
+    }
+
+    /** request raw multipart frames for packet bytes instead of base64. used only if the server supports it */
+    public boolean isBinaryFrames() {
+        return binaryFrames;
+    }
+
+    public void setBinaryFrames(boolean binaryFrames) {
+        this.binaryFrames = binaryFrames;
+    }
+
+    public boolean isLazyDefinitions() {
+        return lazyDefinitions;
+    }
+
+    public void setLazyDefinitions(boolean lazyDefinitions) {
+        this.lazyDefinitions = lazyDefinitions;
+    }
+
+    /** bytes of undo history kept in memory */
+    public long getUndoMemoryBudget() {
+        return undoMemoryBudget;
+    }
+
+    public void setUndoMemoryBudget(long undoMemoryBudget) {
+        this.undoMemoryBudget = undoMemoryBudget;
+    }
+
+    /** if true, undo history over the memory budget is moved to a temporary file instead of being dropped */
+    public boolean isUndoSpillToDisk() {
+        return undoSpillToDisk;
+    }
+
+    public void setUndoSpillToDisk(boolean undoSpillToDisk) {
+        this.undoSpillToDisk = undoSpillToDisk;
+    }
+
     public ApplicationMode getApplicationMode() {
         return applicationMode;
     }
@@ -108,19 +175,35 @@ public class ConfigurationService {
         this.saveLocation = saveLocation;
     }
 
+    private String getAppDataLocation() {
+        String path = System.getProperty( "user.home" );
+        if (OS_IS_WINDOWS) {
+            if (isNullOrEmpty(System.getenv("LOCALAPPDATA"))) {
+                path = System.getenv("LOCALAPPDATA") ;
+            }
+        }
+        return path + APP_DATA_PATH;
+    }
+
     public String getTemplatesLocation() {
         if (isNullOrEmpty(templatesLocation)) {
-            String path = System.getProperty( "user.home" );
-            if (OS_IS_WINDOWS) {
-                if (isNullOrEmpty(System.getenv("LOCALAPPDATA"))) {
-                    path = System.getenv("LOCALAPPDATA") ;
-                }
-            }
-            templatesLocation = path + APP_DATA_PATH + TEMPLATES_PATH;
+            templatesLocation = getAppDataLocation() + TEMPLATES_PATH;
         }
         return templatesLocation;
     }
 
+    /** directory for data downloaded from scapy server, like protocol definitions */
+    public String getCacheLocation() {
+        if (isNullOrEmpty(cacheLocation)) {
+            cacheLocation = getAppDataLocation() + CACHE_PATH;
+        }
+        return cacheLocation;
+    }
+
+    public void setCacheLocation(String cacheLocation) {
+        this.cacheLocation = cacheLocation;
+    }
+
     public void setTemplatesLocation(String templatesLocation) {
         this.templatesLocation = templatesLocation;
     }
@@ -0,0 +1,279 @@
+package com.xored.javafx.packeteditor.service;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import com.google.inject.Inject;
+import com.xored.javafx.packeteditor.scapy.ScapyDefinitions;
+import com.xored.javafx.packeteditor.scapy.ScapyDefinitionsTypeAdapter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Local cache of scapy definitions, keyed by the scapy server version handler.
+ *
+ * File layout: header(magic, format version, key), section index(name, offset, length), sections.
+ * Common definitions, protocol index (ids and names) and every protocol are stored as separate JSON sections,
+ * so a protocol can be decoded from the memory-mapped file without reading others.
+ */
+public class DefinitionsCache {
+    private static Logger logger = LoggerFactory.getLogger(DefinitionsCache.class);
+
+    static final String FILE_NAME = "scapy_definitions.cache";
+    static final int MAGIC = 0x54504544; // TPED
+    static final int FORMAT_VERSION = 2;
+
+    private static final String COMMON_SECTION = "common";
+    private static final String INDEX_SECTION = "index";
+    private static final String PROTOCOL_SECTION_PREFIX = "protocol:";
+
+    @Inject
+    ConfigurationService configurationService;
+
+    private final TypeAdapter<ScapyDefinitions> adapter = new ScapyDefinitionsTypeAdapter();
+
+    /** mapped file content, null if cache is not opened */
+    private MappedByteBuffer buffer;
+    private String key;
+    /** section name -> [offset, length] */
+    private Map<String, int[]> sections = Collections.emptyMap();
+
+    /** maps cache file and validates its key. returns false if there is no valid cache for the key */
+    public synchronized boolean open(String key) {
+        close();
+        File file = getFile();
+        if (key == null || !file.isFile()) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            DataInputStream header = new DataInputStream(new ByteBufferInputStream(mapped.duplicate()));
+            if (header.readInt() != MAGIC || header.readInt() != FORMAT_VERSION) {
+                logger.info("Definitions cache has unknown format, ignored");
+                return false;
+            }
+            String cachedKey = header.readUTF();
+            if (!key.equals(cachedKey)) {
+                logger.info("Definitions cache is for another scapy version, ignored");
+                return false;
+            }
+            int count = header.readInt();
+            Map<String, int[]> index = new LinkedHashMap<>();
+            for (int i = 0; i < count; i++) {
+                String name = header.readUTF();
+                int offset = header.readInt();
+                int length = header.readInt();
+                if (offset < 0 || length < 0 || (long) offset + length > mapped.capacity()) {
+                    logger.warn("Definitions cache is corrupted, ignored");
+                    return false;
+                }
+                index.put(name, new int[]{offset, length});
+            }
+            if (!index.containsKey(COMMON_SECTION) || !index.containsKey(INDEX_SECTION)) {
+                logger.warn("Definitions cache is corrupted, ignored");
+                return false;
+            }
+            this.buffer = mapped;
+            this.key = key;
+            this.sections = index;
+            logger.info("Definitions cache opened, {} protocols", index.size() - 2);
+            return true;
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Unable to read definitions cache: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    public synchronized boolean isOpen() {
+        return buffer != null;
+    }
+
+    public synchronized String getKey() {
+        return key;
+    }
+
+    /** releases mapped file. the mapping itself is released by GC */
+    public synchronized void close() {
+        buffer = null;
+        key = null;
+        sections = Collections.emptyMap();
+    }
+
+    /** ids of cached protocols in the original order */
+    public synchronized List<String> getProtocolIds() {
+        List<String> res = new ArrayList<>();
+        for (String name : sections.keySet()) {
+            if (name.startsWith(PROTOCOL_SECTION_PREFIX)) {
+                res.add(name.substring(PROTOCOL_SECTION_PREFIX.length()));
+            }
+        }
+        return res;
+    }
+
+    /** definitions without protocols: field engine parameters, instructions and templates */
+    public synchronized ScapyDefinitions readCommon() throws IOException {
+        return readSection(COMMON_SECTION);
+    }
+
+    /** protocol ids and names without fields */
+    public synchronized ScapyDefinitions readIndex() throws IOException {
+        return readSection(INDEX_SECTION);
+    }
+
+    /** single protocol definition or null if it's not cached */
+    public synchronized ScapyDefinitions.ScapyProtocol readProtocol(String protocolId) throws IOException {
+        ScapyDefinitions defs = readSection(PROTOCOL_SECTION_PREFIX + protocolId);
+        return defs != null && defs.protocols != null && !defs.protocols.isEmpty() ? defs.protocols.get(0) : null;
+    }
+
+    /** reads all sections */
+    public synchronized ScapyDefinitions readAll() throws IOException {
+        ScapyDefinitions res = readCommon();
+        if (res == null) {
+            return null;
+        }
+        res.protocols = new ArrayList<>();
+        for (String protocolId : getProtocolIds()) {
+            res.protocols.add(readProtocol(protocolId));
+        }
+        return res;
+    }
+
+    private ScapyDefinitions readSection(String name) throws IOException {
+        int[] section = sections.get(name);
+        if (buffer == null || section == null) {
+            return null;
+        }
+        ByteBuffer slice = buffer.duplicate();
+        slice.position(section[0]);
+        slice.limit(section[0] + section[1]);
+        try (JsonReader reader = new JsonReader(new InputStreamReader(new ByteBufferInputStream(slice), StandardCharsets.UTF_8))) {
+            return adapter.read(reader);
+        }
+    }
+
+    /** stores definitions for the key. the file is replaced atomically, opened cache stays valid */
+    public void write(String key, ScapyDefinitions definitions) {
+        try {
+            Map<String, byte[]> content = new LinkedHashMap<>();
+            ScapyDefinitions common = new ScapyDefinitions();
+            common.feInstructionParameters = definitions.feInstructionParameters;
+            common.feInstructions = definitions.feInstructions;
+            common.feTemplates = definitions.feTemplates;
+            common.feParameters = definitions.feParameters;
+            content.put(COMMON_SECTION, toJson(common));
+            ScapyDefinitions index = new ScapyDefinitions();
+            index.protocols = new ArrayList<>();
+            if (definitions.protocols != null) {
+                for (ScapyDefinitions.ScapyProtocol protocol : definitions.protocols) {
+                    ScapyDefinitions.ScapyProtocol entry = index.new ScapyProtocol();
+                    entry.id = protocol.id;
+                    entry.name = protocol.name;
+                    index.protocols.add(entry);
+                }
+            }
+            content.put(INDEX_SECTION, toJson(index));
+            if (definitions.protocols != null) {
+                for (ScapyDefinitions.ScapyProtocol protocol : definitions.protocols) {
+                    ScapyDefinitions single = new ScapyDefinitions();
+                    single.protocols = Collections.singletonList(protocol);
+                    content.put(PROTOCOL_SECTION_PREFIX + protocol.id, toJson(single));
+                }
+            }
+            writeFile(key, content);
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Unable to write definitions cache: {}", e.getMessage());
+        }
+    }
+
+    private byte[] toJson(ScapyDefinitions definitions) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (JsonWriter writer = new JsonWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8))) {
+            adapter.write(writer, definitions);
+        }
+        return out.toByteArray();
+    }
+
+    private void writeFile(String key, Map<String, byte[]> content) throws IOException {
+        // sections follow the header, so its size is measured first
+        byte[] header = writeHeader(key, content, 0);
+        header = writeHeader(key, content, header.length);
+
+        Path file = getFile().toPath();
+        Files.createDirectories(file.getParent());
+        Path tmp = Files.createTempFile(file.getParent(), FILE_NAME, ".tmp");
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(tmp))) {
+            out.write(header);
+            for (byte[] section : content.values()) {
+                out.write(section);
+            }
+        }
+        try {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        logger.info("Definitions cache saved to {}", file);
+    }
+
+    private static byte[] writeHeader(String key, Map<String, byte[]> content, int sectionsOffset) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream header = new DataOutputStream(bytes);
+        header.writeInt(MAGIC);
+        header.writeInt(FORMAT_VERSION);
+        header.writeUTF(key);
+        header.writeInt(content.size());
+        int offset = sectionsOffset;
+        for (Map.Entry<String, byte[]> section : content.entrySet()) {
+            header.writeUTF(section.getKey());
+            header.writeInt(offset);
+            header.writeInt(section.getValue().length);
+            offset += section.getValue().length;
+        }
+        header.flush();
+        return bytes.toByteArray();
+    }
+
+    File getFile() {
+        return new File(configurationService.getCacheLocation(), FILE_NAME);
+    }
+
+    /** reads mapped buffer without copying it to the heap */
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
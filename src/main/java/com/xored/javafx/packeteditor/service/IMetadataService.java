@@ -9,6 +9,7 @@ import com.xored.javafx.packeteditor.scapy.ProtocolData;
 
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 public interface IMetadataService {
     Map<String, ProtocolMetadata> getProtocols();
@@ -19,8 +20,12 @@ public interface IMetadataService {
     ProtocolMetadata getProtocolMetadata(ProtocolData protocol);
     ProtocolMetadata getProtocolMetadataById(String protocolId);
 
+    CompletableFuture<ProtocolMetadata> getProtocolMetadataByIdAsync(String protocolId);
+
     List<String> getAllowedPayloadForProtocol(String protocolId);
 
+    CompletableFuture<List<String>> getAllowedPayloadForProtocolAsync(String protocolId);
+
     Map<String, FEInstructionParameterMeta> getFeInstructionParameters();
 
     List<InstructionsTemplate> getFeInstructionsTemplates();
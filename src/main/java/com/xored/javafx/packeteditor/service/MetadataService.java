@@ -1,6 +1,7 @@
 package com.xored.javafx.packeteditor.service;
 
 import com.google.common.eventbus.Subscribe;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
@@ -13,26 +14,51 @@ import com.xored.javafx.packeteditor.scapy.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 import java.util.stream.Collectors;
 
 /** provides protocol metadata based on hand-crafted protocol definition file or Scapy definitions */
 public class MetadataService implements IMetadataService {
+    private static final int PAYLOAD_GRAPH_BATCH_SIZE = 50;
+    /** full definitions for the cache are requested after this delay, startup requests go first */
+    static final long CACHE_DOWNLOAD_DELAY_MS = 5000;
     private static Logger logger = LoggerFactory.getLogger(IMetadataService.class);
 
     @Inject
     ScapyServerClient scapy;
 
-    Map<String, ProtocolMetadata> protocols = new HashMap<>();
-    Map<String, List<String>> payload_classes_cache = new HashMap<>();
+    @Inject
+    DefinitionsCache definitionsCache;
+
+    @Inject
+    ConfigurationService configurationService;
+
+    Map<String, ProtocolMetadata> protocols = new ConcurrentHashMap<>();
+    ConcurrentMap<String, CompletableFuture<List<String>>> payload_classes_cache = new ConcurrentHashMap<>();
+    /** complete payload graph, replaced as a whole once prefetched */
+    volatile PayloadGraph payloadGraph;
     Map<String, FeParameterMeta> feParametersMeta = new HashMap<>();
     Map<String, InstructionExpressionMeta> feInstructionMetas = new HashMap<>();
     Map<String, FEInstructionParameterMeta> feInstructionParameterMetas = new LinkedTreeMap<>();
     List<InstructionsTemplate> feTemplates = new ArrayList<>();
+
+    private final Executor cacheDownloadExecutor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+            .setNameFormat("definitions-cache").setDaemon(true).setPriority(Thread.MIN_PRIORITY).build());
     
     @Subscribe
     public void handleScapyConnectedEvent(ScapyClientConnectedEvent event) {
+        payloadGraph = null;
+        payload_classes_cache.clear();
         loadDefinitions();
+        prefetchPayloadGraph();
     }
 
     public Map<String, ProtocolMetadata> getProtocols() {
@@ -61,52 +87,169 @@ public class MetadataService implements IMetadataService {
 
     private void loadDefinitions() {
         try {
+            if (scapy.isConnected() && configurationService.isLazyDefinitions() && loadProtocolIndex()) {
+                return;
+            }
             ScapyDefinitions definitions = null;
             if (scapy.isConnected()) {
-                definitions = scapy.get_definitions();
+                definitions = getDefinitions();
             }
+            applyDefinitions(definitions);
+        } catch (Exception e) {
+            logger.error("failed to load protocol defs from scapy: {}", e);
+        }
+    }
+
+    private void applyDefinitions(ScapyDefinitions definitions) {
+        if (definitions.feInstructionParameters != null) {
+            definitions.feInstructionParameters.stream()
+                    .filter(param -> param.id != null)
+                    .forEach(param -> feInstructionParameterMetas.put(param.id, new FEInstructionParameterMeta(param.type, param.id, param.name, param.defaultValue, param.dict, param.required, param.editable)));
+        }
+
+        if (definitions.feParameters != null) {
+            feParametersMeta.putAll(definitions.feParameters.stream()
+                    .map(scapyFEParameter -> new FeParameterMeta(scapyFEParameter.id, scapyFEParameter.name, scapyFEParameter.type, scapyFEParameter.defaultValue))
+                    .collect(Collectors.toMap(FeParameterMeta::getId, meta -> meta)));
+        }
+
+        if (definitions.protocols != null) {
+            // merge definitions with the hand-crafted file. json has priority over metadata from scapy
+            definitions.protocols.forEach(proto -> protocols.put(proto.id, buildProtocolMetadata(proto)));
+        }
+
+        if (definitions.feInstructions != null) {
+            definitions.feInstructions.stream().forEach(instructionData -> {
+                List<FEInstructionParameterMeta> parameterMetas = instructionData.parameters.stream()
+                        .map(feInstructionParameterMetas::get).collect(Collectors.toList());
+                String help = new String(Base64.getDecoder().decode(instructionData.help.getBytes()));
+                InstructionExpressionMeta meta = new InstructionExpressionMeta(instructionData.id, help, parameterMetas);
+                feInstructionMetas.put(instructionData.id, meta);
+            });
+        }
 
-            if (definitions.feInstructionParameters != null) {
-                definitions.feInstructionParameters.stream()
-                        .filter(param -> param.id != null)
-                        .forEach(param -> feInstructionParameterMetas.put(param.id, new FEInstructionParameterMeta(param.type, param.id, param.name, param.defaultValue, param.dict, param.required, param.editable)));
+        if (definitions.feTemplates != null) {
+            feTemplates = definitions.feTemplates.stream()
+                    .map(this::buildInstructionsTemplate)
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private ProtocolMetadata buildProtocolMetadata(ScapyDefinitions.ScapyProtocol proto) {
+        return new ProtocolMetadata(
+                proto.id,
+                proto.name,
+                proto.fields.stream().map(this::buildFieldMetadata).collect(Collectors.toList()),
+                feInstructionParameterMetas,
+                proto.fieldEngineAwareFields
+        );
+    }
+
+    /**
+     * lazy mode. loads protocol ids and names only, fields are loaded on first access from the cache or scapy server.
+     * returns false if the server is unable to provide protocol index
+     */
+    private boolean loadProtocolIndex() throws IOException {
+        String versionHandler = scapy.getVersionHandler();
+        if (definitionsCache.open(versionHandler)) {
+            applyDefinitions(definitionsCache.readCommon());
+            for (ScapyDefinitions.ScapyProtocol proto : definitionsCache.readIndex().protocols) {
+                protocols.put(proto.id, new LazyProtocolMetadata(proto.id, proto.name, () -> loadProtocolFromCache(proto.id)));
             }
+            logger.info("Loaded protocol index from cache, {} protocols", protocols.size());
+            return true;
+        }
 
-            if (definitions.feParameters != null) {
-                feParametersMeta.putAll(definitions.feParameters.stream()
-                        .map(scapyFEParameter -> new FeParameterMeta(scapyFEParameter.id, scapyFEParameter.name, scapyFEParameter.type, scapyFEParameter.defaultValue))
-                        .collect(Collectors.toMap(FeParameterMeta::getId, meta -> meta)));
+        List<ScapyDefinitions.ScapyProtocol> index;
+        try {
+            index = scapy.get_protocols();
+        } catch (MethodNotFoundException e) {
+            logger.info("Scapy server does not support protocol index, loading all definitions");
+            return false;
+        }
+        // Ether is always needed first. also brings field engine definitions
+        applyDefinitions(scapy.get_definitions(Collections.singletonList("Ether")));
+        for (ScapyDefinitions.ScapyProtocol proto : index) {
+            if (!protocols.containsKey(proto.id)) {
+                protocols.put(proto.id, new LazyProtocolMetadata(proto.id, proto.name, () -> loadProtocolFromScapy(proto.id)));
             }
+        }
+        logger.info("Loaded protocol index from scapy, {} protocols", protocols.size());
 
-            definitions.protocols.forEach(proto -> {
-                // merge definitions with the hand-crafted file. json has priority over metadata from scapy
-                protocols.put(proto.id, new ProtocolMetadata(
-                        proto.id,
-                        proto.name,
-                        proto.fields.stream().map(this::buildFieldMetadata).collect(Collectors.toList()),
-                        feInstructionParameterMetas,
-                        proto.fieldEngineAwareFields
-                ));
-            });
+        // the next start will use the cache
+        if (!definitionsCache.isOpen()) {
+            downloadDefinitionsCache(versionHandler);
+        }
+        return true;
+    }
 
-            if (definitions.feInstructions != null) {
-                definitions.feInstructions.stream().forEach(instructionData -> {
-                    List<FEInstructionParameterMeta> parameterMetas = instructionData.parameters.stream()
-                            .map(feInstructionParameterMetas::get).collect(Collectors.toList());
-                    String help = new String(Base64.getDecoder().decode(instructionData.help.getBytes()));
-                    InstructionExpressionMeta meta = new InstructionExpressionMeta(instructionData.id, help, parameterMetas);
-                    feInstructionMetas.put(instructionData.id, meta);
+    /**
+     * downloads all definitions into the cache on a low priority thread once startup requests are done.
+     * the cache is written off the scapy I/O thread
+     */
+    private void downloadDefinitionsCache(String versionHandler) {
+        CompletableFuture.runAsync(() -> {
+            try {
+                Thread.sleep(CACHE_DOWNLOAD_DELAY_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, cacheDownloadExecutor)
+                .thenCompose(ignored -> scapy.get_definitions_async())
+                .thenAcceptAsync(definitions -> definitionsCache.write(versionHandler, definitions), cacheDownloadExecutor)
+                .exceptionally(e -> {
+                    logger.warn("Unable to download definitions cache: {}", e.getMessage());
+                    return null;
                 });
+    }
+
+    private CompletableFuture<ProtocolMetadata> loadProtocolFromCache(String protocolId) {
+        CompletableFuture<ProtocolMetadata> res = new CompletableFuture<>();
+        try {
+            ScapyDefinitions.ScapyProtocol proto = definitionsCache.readProtocol(protocolId);
+            if (proto == null) {
+                return loadProtocolFromScapy(protocolId);
+            }
+            res.complete(buildProtocolMetadata(proto));
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Unable to load {} from definitions cache: {}", protocolId, e.getMessage());
+            return loadProtocolFromScapy(protocolId);
+        }
+        return res;
+    }
+
+    /** parametrized get_definitions. falls back to the metadata generated from a built packet */
+    private CompletableFuture<ProtocolMetadata> loadProtocolFromScapy(String protocolId) {
+        // completes on scapy I/O thread, so the fallback must not block on another request
+        return scapy.get_definitions_async(Collections.singletonList(protocolId)).thenCompose(definitions -> {
+            ScapyDefinitions.ScapyProtocol proto = definitions.protocols == null ? null : definitions.protocols.stream()
+                    .filter(p -> protocolId.equals(p.id))
+                    .findFirst().orElse(null);
+            if (proto == null) {
+                logger.warn("Generating definition for {} protocol", protocolId);
+                return buildProtocolMetaFromScapyAsync(protocolId);
             }
+            return CompletableFuture.completedFuture(buildProtocolMetadata(proto));
+        });
+    }
 
-            if (definitions.feTemplates != null) {
-                feTemplates = definitions.feTemplates.stream()
-                        .map(this::buildInstructionsTemplate)
-                        .collect(Collectors.toList());
+    /** reads definitions from the local cache if it's valid for the scapy server version, downloads them otherwise */
+    private ScapyDefinitions getDefinitions() {
+        String versionHandler = scapy.getVersionHandler();
+        if (definitionsCache.open(versionHandler)) {
+            try {
+                ScapyDefinitions definitions = definitionsCache.readAll();
+                if (definitions != null) {
+                    logger.info("Loaded definitions from cache");
+                    return definitions;
+                }
+            } catch (IOException | RuntimeException e) {
+                logger.warn("Unable to load definitions from cache: {}", e.getMessage());
             }
-        } catch (Exception e) {
-            logger.error("failed to load protocol defs from scapy: {}", e);
         }
+        ScapyDefinitions definitions = scapy.get_definitions();
+        definitionsCache.write(versionHandler, definitions);
+        return definitions;
     }
 
     private InstructionsTemplate buildInstructionsTemplate(ScapyDefinitions.ScapyFETemplate templateData) {
@@ -157,11 +300,12 @@ public class MetadataService implements IMetadataService {
     }
 
     /** normally should not be used, since we should have get_definitions */
-    private ProtocolMetadata buildProtocolMetaFromScapy(String protocolId) {
-        PacketData pkt = scapy.build_pkt(Arrays.asList(ReconstructProtocol.pass(protocolId)));
-        if (pkt.getProtocols().isEmpty())
-            return null;
-        return buildMetadataFromScapyModel(pkt.getProtocols().get(0));
+    private CompletableFuture<ProtocolMetadata> buildProtocolMetaFromScapyAsync(String protocolId) {
+        return scapy.build_pkt_async(Arrays.asList(ReconstructProtocol.pass(protocolId))).thenApply(pkt -> {
+            if (pkt.getProtocols().isEmpty())
+                return null;
+            return buildMetadataFromScapyModel(pkt.getProtocols().get(0));
+        });
     }
 
     /** normally should not be used, since we should have get_definitions */
@@ -183,22 +327,123 @@ public class MetadataService implements IMetadataService {
     public ProtocolMetadata getProtocolMetadataById(String protocolId) {
         ProtocolMetadata res = protocols.getOrDefault(protocolId, null);
         if (res == null) {
-            logger.warn("Generating definition for {} protocol", protocolId);
-            // TODO: parametrized get_definitions?
-            res = buildProtocolMetaFromScapy(protocolId);
+            res = ScapyServerClient.await(getProtocolMetadataByIdAsync(protocolId));
         }
         return res;
     }
 
+    /** non-blocking getProtocolMetadataById. completes when fields of the protocol are loaded */
+    @Override
+    public CompletableFuture<ProtocolMetadata> getProtocolMetadataByIdAsync(String protocolId) {
+        ProtocolMetadata res = protocols.getOrDefault(protocolId, null);
+        if (res instanceof LazyProtocolMetadata) {
+            LazyProtocolMetadata lazy = (LazyProtocolMetadata) res;
+            return lazy.load().thenApply(loaded -> lazy);
+        }
+        if (res != null) {
+            return CompletableFuture.completedFuture(res);
+        }
+        return loadProtocolFromScapy(protocolId).thenApply(loaded -> {
+            if (loaded != null) {
+                protocols.put(protocolId, loaded);
+            }
+            return loaded;
+        });
+    }
+
     @Override
     public List<String> getAllowedPayloadForProtocol(String protocolId) {
-        List<String> res = payload_classes_cache.getOrDefault(protocolId, null);
+        // Too slow, so getting lazily with cache. waits for the request if it was already issued
+        return ScapyServerClient.await(getAllowedPayloadForProtocolAsync(protocolId));
+    }
+
+    /** non-blocking getAllowedPayloadForProtocol. fills the cache, can be issued concurrently with other requests */
+    @Override
+    public CompletableFuture<List<String>> getAllowedPayloadForProtocolAsync(String protocolId) {
+        PayloadGraph graph = payloadGraph;
+        if (graph != null && graph.contains(protocolId)) {
+            return CompletableFuture.completedFuture(graph.getPayloads(protocolId));
+        }
+        CompletableFuture<List<String>> res = payload_classes_cache.get(protocolId);
         if (res == null) {
-            // Too slow, so getting lazily with cache
-            res = scapy.get_payload_classes(protocolId);
-            payload_classes_cache.put(protocolId, res);
+            CompletableFuture<List<String>> request = new CompletableFuture<>();
+            res = payload_classes_cache.putIfAbsent(protocolId, request);
+            if (res == null) {
+                res = request;
+                scapy.get_payload_classes_async(protocolId).whenComplete((classes, e) -> {
+                    if (e != null) {
+                        // don't cache failures
+                        payload_classes_cache.remove(protocolId, request);
+                        request.completeExceptionally(e instanceof CompletionException ? e.getCause() : e);
+                    } else {
+                        request.complete(classes);
+                    }
+                });
+            }
         }
         return res;
     }
-}
 
+    /**
+     * computes payload graph for all known protocols in background, so the append protocol pane never waits for scapy.
+     * the graph is read from the cache file if it was stored for the same scapy version
+     */
+    private void prefetchPayloadGraph() {
+        if (!scapy.isConnected()) {
+            return;
+        }
+        String versionHandler = scapy.getVersionHandler();
+        List<String> protocolIds = new ArrayList<>(protocols.keySet());
+        CompletableFuture.runAsync(() -> {
+            try {
+                PayloadGraph cached = PayloadGraph.read(getPayloadGraphFile(), versionHandler);
+                if (cached != null) {
+                    payloadGraph = cached;
+                    logger.info("Payload graph loaded from cache, {} protocols", cached.size());
+                    return;
+                }
+            } catch (IOException | RuntimeException e) {
+                logger.warn("Unable to read payload graph cache: {}", e.getMessage());
+            }
+
+            Map<String, CompletableFuture<List<String>>> requests = new LinkedHashMap<>();
+            for (int from = 0; from < protocolIds.size(); from += PAYLOAD_GRAPH_BATCH_SIZE) {
+                List<String> chunk = protocolIds.subList(from, Math.min(from + PAYLOAD_GRAPH_BATCH_SIZE, protocolIds.size()));
+                // small batches leave room for interactive requests on the pooled sockets
+                scapy.batch(() -> {
+                    chunk.forEach(protocolId -> requests.put(protocolId, getAllowedPayloadForProtocolAsync(protocolId)));
+                    return null;
+                });
+            }
+            CompletableFuture.allOf(requests.values().toArray(new CompletableFuture<?>[0])).whenCompleteAsync((ignored, error) -> {
+                Map<String, List<String>> payloads = new LinkedHashMap<>();
+                requests.forEach((protocolId, request) -> {
+                    if (!request.isCompletedExceptionally()) {
+                        payloads.put(protocolId, request.join());
+                    }
+                });
+                if (!versionHandler.equals(scapy.getVersionHandler())) {
+                    return;
+                }
+                PayloadGraph graph = new PayloadGraph(versionHandler, payloads);
+                payloadGraph = graph;
+                logger.info("Payload graph computed, {} protocols", graph.size());
+                if (error == null) {
+                    try {
+                        graph.write(getPayloadGraphFile());
+                    } catch (IOException e) {
+                        logger.warn("Unable to write payload graph cache: {}", e.getMessage());
+                    }
+                }
+            });
+        }).exceptionally(e -> {
+            logger.warn("Payload graph prefetch failed: {}", e.getMessage());
+            return null;
+        });
+    }
+
+    /** stored next to the definitions cache */
+    private File getPayloadGraphFile() {
+        return new File(definitionsCache.getFile().getParentFile(), PayloadGraph.FILE_NAME);
+    }
+}
@@ -12,6 +12,9 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 import static com.xored.javafx.packeteditor.scapy.ScapyUtils.createReconstructPktPayload;
@@ -19,13 +22,20 @@ import static com.xored.javafx.packeteditor.scapy.ScapyUtils.createReconstructPk
 public class PacketDataService {
     static Logger logger = LoggerFactory.getLogger(PacketDataService.class);
     
+    /** size of memoized build_pkt results */
+    static final long BUILD_CACHE_MAX_BYTES = 16 * 1024 * 1024;
+
     @Inject
     ScapyServerClient scapy;
     
     private boolean initialized = false;
 
+    final BuildPacketCache buildCache = new BuildPacketCache(BUILD_CACHE_MAX_BYTES);
+
     @Subscribe
     public void handleScapyConnectedEvent(ScapyClientConnectedEvent event) {
+        // another server may build packets differently
+        buildCache.clear();
         initialized = true;
     }
     
@@ -33,18 +43,67 @@ public class PacketDataService {
         return scapy.build_pkt(pktStructure);
     }
     
+    /** memoized: repeated packet states are served from the cache */
     public PacketData buildPacket(List<ReconstructProtocol> pktStructure, JsonElement extra_options) {
+        BuildPacketCache.Key key = buildCache.key(pktStructure, extra_options);
+        PacketData res = buildCache.get(key);
+        if (res != null) {
+            return res;
+        }
         try {
-            return scapy.build_pkt_ex(pktStructure, extra_options);
+            res = scapy.build_pkt_ex(pktStructure, extra_options);
         } catch (MethodNotFoundException e) {
-            return buildPacket(pktStructure);
+            res = buildPacket(pktStructure);
+        }
+        buildCache.put(key, res);
+        return res;
+    }
+
+    /** non-blocking buildPacket. can be issued concurrently with other requests */
+    public CompletableFuture<PacketData> buildPacketAsync(List<ReconstructProtocol> pktStructure, JsonElement extra_options) {
+        BuildPacketCache.Key key = buildCache.key(pktStructure, extra_options);
+        PacketData cached = buildCache.get(key);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
         }
+        CompletableFuture<PacketData> res = new CompletableFuture<>();
+        scapy.build_pkt_ex_async(pktStructure, extra_options).whenComplete((pkt, e) -> {
+            if (e == null) {
+                buildCache.put(key, pkt);
+                res.complete(pkt);
+            } else if (unwrap(e) instanceof MethodNotFoundException) {
+                scapy.build_pkt_async(pktStructure).whenComplete((fallbackPkt, fallbackError) -> {
+                    if (fallbackError == null) {
+                        buildCache.put(key, fallbackPkt);
+                        res.complete(fallbackPkt);
+                    } else {
+                        res.completeExceptionally(unwrap(fallbackError));
+                    }
+                });
+            } else {
+                res.completeExceptionally(unwrap(e));
+            }
+        });
+        return res;
     }
     
     public PacketData reconstructPacket(PacketData currentPkt, List<ReconstructProtocol> modify) {
         return scapy.reconstruct_pkt(currentPkt.getPacketBytes(), modify);
     }
 
+    /** non-blocking reconstructPacket. can be issued concurrently with other requests */
+    public CompletableFuture<PacketData> reconstructPacketAsync(PacketData currentPkt, List<ReconstructProtocol> modify) {
+        return scapy.reconstruct_pkt_async(currentPkt.getPacketBytes(), modify);
+    }
+
+    public CompletableFuture<PacketData> reconstructPacketFromBinaryAsync(byte[] bytes) {
+        return scapy.reconstruct_pkt_async(bytes);
+    }
+
+    private static Throwable unwrap(Throwable e) {
+        return e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+    }
+
     public PacketData reconstructPacketField(PacketData currentPkt, List<String> path, ReconstructField newValue) {
         return reconstructPacket(currentPkt, createReconstructPktPayload(path, newValue));
     }
@@ -100,6 +159,10 @@ public class PacketDataService {
         return scapy.read_pcap_packet(binaryData);
     }
 
+    public CompletableFuture<PacketData> read_pcap_packet_async(byte[] binaryData) {
+        return scapy.read_pcap_packet_async(binaryData);
+    }
+
     public void closeConnection() {
         scapy.closeConnection();
     }
@@ -108,8 +171,22 @@ public class PacketDataService {
         return initialized;
     }
 
+    public BuildPacketCache getBuildCache() {
+        return buildCache;
+    }
+
     public Map<String, String> loadInstructionParameterValues(List<ReconstructProtocol> pktStructure, JsonElement vmInstructionsModel, String parameterId) {
-        ScapyData values =  scapy.loadInstructionParameterValues(pktStructure, vmInstructionsModel, parameterId);
-        return values.map == null ? Collections.emptyMap() : values.map;
+        return ScapyServerClient.await(loadInstructionParameterValuesAsync(pktStructure, vmInstructionsModel, parameterId));
+    }
+
+    /** non-blocking loadInstructionParameterValues. can be collected into a batch */
+    public CompletableFuture<Map<String, String>> loadInstructionParameterValuesAsync(List<ReconstructProtocol> pktStructure, JsonElement vmInstructionsModel, String parameterId) {
+        return scapy.loadInstructionParameterValuesAsync(pktStructure, vmInstructionsModel, parameterId)
+                .thenApply(values -> values.map == null ? Collections.<String, String>emptyMap() : values.map);
+    }
+
+    /** sends async requests issued by the operation as a single batch */
+    public <T> T batch(Supplier<T> operation) {
+        return scapy.batch(operation);
     }
 }
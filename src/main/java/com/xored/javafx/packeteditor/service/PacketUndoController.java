@@ -3,37 +3,113 @@ package com.xored.javafx.packeteditor.service;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Stack;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
 import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
- * Manages application undo records
+ * Manages application undo records.
+ * Records are kept within the memory budget, the oldest ones are spilled to a temporary file or dropped.
  */
 public class PacketUndoController<T> {
     private Logger logger = LoggerFactory.getLogger(PacketUndoController.class);
 
-    Stack<T> undoRecords = new Stack<>();
-    Stack<T> redoRecords = new Stack<>();
-    Stack<T> undoingFrom = null;
-    Stack<T> undoingTo = null;
+    /** dead bytes of the spill file which trigger compaction if they also exceed the live bytes */
+    static final long SPILL_COMPACT_THRESHOLD = 16 * 1024 * 1024;
+
+    /** measures records and serializes records spilled to disk */
+    public interface RecordCodec<T> {
+        /** approximate bytes retained by the record which are not shared with the previous record */
+        long sizeOf(T record, T previous);
+        byte[] encode(T record) throws IOException;
+        T decode(byte[] data) throws IOException;
+    }
+
+    /** top of the stack is the first element */
+    Deque<Record<T>> undoRecords = new ArrayDeque<>();
+    Deque<Record<T>> redoRecords = new ArrayDeque<>();
+    Deque<Record<T>> undoingFrom = null;
+    Deque<Record<T>> undoingTo = null;
     Consumer<T> undoLoad;
 
+    private final RecordCodec<T> codec;
+    private long memoryBudget = Long.MAX_VALUE;
+    private boolean spillToDisk = false;
+    private long memoryUsed = 0;
+    private RandomAccessFile spillFile;
+    private File spillPath;
+    private long spillCompactThreshold = SPILL_COMPACT_THRESHOLD;
+
     public PacketUndoController(Consumer<T> undoLoad) {
-        this.undoLoad = undoLoad;
+        this(undoLoad, null);
+    }
 
+    public PacketUndoController(Consumer<T> undoLoad, RecordCodec<T> codec) {
+        this.undoLoad = undoLoad;
+        this.codec = codec;
     }
+
     /** sets a callback to reload undo data */
     public void setUndoLoad(Consumer<T> undoLoad) { this.undoLoad = undoLoad; }
 
-    private void doUndo(Stack<T> from, Stack<T> to) {
-        if (from.empty()) {
+    /** bytes of records kept in memory. requires codec */
+    public void setMemoryBudget(long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+        enforceBudget();
+    }
+
+    /** if false, records over the budget are dropped */
+    public void setSpillToDisk(boolean spillToDisk) {
+        this.spillToDisk = spillToDisk;
+    }
+
+    void setSpillCompactThreshold(long spillCompactThreshold) {
+        this.spillCompactThreshold = spillCompactThreshold;
+    }
+
+    /** bytes of the spill file, including records which are no longer reachable */
+    long getSpillFileLength() {
+        try {
+            return spillFile != null ? spillFile.length() : 0;
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    public long getMemoryUsed() {
+        return memoryUsed;
+    }
+
+    public int getUndoCount() {
+        return undoRecords.size();
+    }
+
+    public int getRedoCount() {
+        return redoRecords.size();
+    }
+
+    private void doUndo(Deque<Record<T>> from, Deque<Record<T>> to) {
+        if (from.isEmpty()) {
             logger.debug("Nothing to undo/redo");
             return;
         }
         try {
             undoingFrom = from;
             undoingTo = to;
-            undoLoad.accept(from.pop());
+            // the record stays on the stack if it can't be loaded
+            Record<T> record = from.peek();
+            undoLoad.accept(load(record));
+            from.remove(record);
+            if (record.value != null) {
+                memoryUsed -= record.size;
+            }
         } catch (Exception e) {
             logger.error("undo/redo failed", e);
         } finally {
@@ -42,16 +118,18 @@ public class PacketUndoController<T> {
         }
     }
 
-    /** should be called when modification is done */
+    /** should be called when modification is done. while undoing it must be called once the state is loaded successfully */
     public void beforeContentReplace(T currentState) {
         if (undoingFrom == null) {
             // new user change
-            undoRecords.push(currentState);
+            push(undoRecords, currentState);
             redoRecords.clear();
+            recountMemory();
         } else if (undoingFrom != null) {
             // undoing or redoing
-            undoingTo.push(currentState);
+            push(undoingTo, currentState);
         }
+        enforceBudget();
     }
 
     public void undo() {
@@ -65,6 +143,138 @@ public class PacketUndoController<T> {
     public void clearHistory() {
         undoRecords.clear();
         redoRecords.clear();
+        memoryUsed = 0;
+        if (spillFile != null) {
+            try {
+                spillFile.setLength(0);
+            } catch (IOException e) {
+                logger.warn("Unable to truncate undo spill file: {}", e.getMessage());
+            }
+        }
+    }
+
+    private void push(Deque<Record<T>> stack, T value) {
+        Record<T> top = stack.peek();
+        T previous = top != null ? top.value : null;
+        long size = codec != null ? codec.sizeOf(value, previous) : 0;
+        stack.push(new Record<>(value, size));
+        memoryUsed += size;
     }
-}
 
+    private T load(Record<T> record) throws IOException {
+        if (record.value != null) {
+            return record.value;
+        }
+        byte[] data = new byte[record.length];
+        spillFile.seek(record.offset);
+        spillFile.readFully(data);
+        return codec.decode(data);
+    }
+
+    private void recountMemory() {
+        memoryUsed = 0;
+        undoRecords.forEach(record -> memoryUsed += record.value != null ? record.size : 0);
+    }
+
+    /** spills or drops the oldest records until the memory budget is met. the latest record always stays */
+    private void enforceBudget() {
+        if (codec == null) {
+            return;
+        }
+        evictOldest(undoRecords);
+        evictOldest(redoRecords);
+    }
+
+    private void evictOldest(Deque<Record<T>> stack) {
+        Iterator<Record<T>> oldest = stack.descendingIterator();
+        while (memoryUsed > memoryBudget && oldest.hasNext()) {
+            Record<T> record = oldest.next();
+            if (record == stack.peek()) {
+                return;
+            }
+            if (record.value == null) {
+                continue;
+            }
+            memoryUsed -= record.size;
+            if (!spillToDisk || !spill(record)) {
+                oldest.remove();
+            }
+        }
+    }
+
+    private boolean spill(Record<T> record) {
+        try {
+            if (spillFile == null) {
+                spillPath = File.createTempFile("packet-editor-undo", ".spill");
+                spillPath.deleteOnExit();
+                spillFile = new RandomAccessFile(spillPath, "rw");
+            }
+            compactSpillFile();
+            byte[] data = codec.encode(record.value);
+            record.offset = spillFile.length();
+            record.length = data.length;
+            spillFile.seek(record.offset);
+            spillFile.write(data);
+            record.value = null;
+            return true;
+        } catch (IOException e) {
+            logger.warn("Unable to spill undo record, dropped: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * records loaded or cleared from the stacks leave dead data in the spill file.
+     * once it outweighs both the threshold and the live records, live records are copied to a new file
+     */
+    private void compactSpillFile() throws IOException {
+        List<Record<T>> spilled = Stream.concat(undoRecords.stream(), redoRecords.stream())
+                .filter(record -> record.value == null)
+                .collect(Collectors.toList());
+        long live = spilled.stream().mapToLong(record -> record.length).sum();
+        long dead = spillFile.length() - live;
+        if (dead <= spillCompactThreshold || dead <= live) {
+            return;
+        }
+        File compactedPath = File.createTempFile("packet-editor-undo", ".spill");
+        compactedPath.deleteOnExit();
+        RandomAccessFile compacted = new RandomAccessFile(compactedPath, "rw");
+        // offsets are updated only when all records are copied, the old file stays valid on failure
+        long[] offsets = new long[spilled.size()];
+        try {
+            for (int i = 0; i < offsets.length; i++) {
+                Record<T> record = spilled.get(i);
+                byte[] data = new byte[record.length];
+                spillFile.seek(record.offset);
+                spillFile.readFully(data);
+                offsets[i] = compacted.getFilePointer();
+                compacted.write(data);
+            }
+        } catch (IOException e) {
+            compacted.close();
+            compactedPath.delete();
+            throw e;
+        }
+        for (int i = 0; i < offsets.length; i++) {
+            spilled.get(i).offset = offsets[i];
+        }
+        spillFile.close();
+        spillPath.delete();
+        spillFile = compacted;
+        spillPath = compactedPath;
+        logger.debug("Undo spill file compacted, {} dead bytes released", dead);
+    }
+
+    /** undo record. value is null if the record is spilled to disk */
+    static class Record<T> {
+        T value;
+        final long size;
+        long offset = -1;
+        int length;
+
+        Record(T value, long size) {
+            this.value = value;
+            this.size = size;
+        }
+    }
+}
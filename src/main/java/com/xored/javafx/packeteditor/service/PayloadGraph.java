@@ -0,0 +1,100 @@
+package com.xored.javafx.packeteditor.service;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable protocol -> allowed payload classes adjacency, computed for a scapy server version.
+ * Safe to share between threads, the instance is replaced as a whole.
+ */
+public class PayloadGraph {
+    static final String FILE_NAME = "payload_graph.cache";
+    static final int MAGIC = 0x54504547; // TPEG
+    static final int FORMAT_VERSION = 1;
+
+    private final String key;
+    private final ImmutableMap<String, ImmutableList<String>> payloads;
+
+    public PayloadGraph(String key, Map<String, ? extends List<String>> payloads) {
+        this.key = key;
+        ImmutableMap.Builder<String, ImmutableList<String>> builder = ImmutableMap.builder();
+        payloads.forEach((protocolId, classes) -> builder.put(protocolId, ImmutableList.copyOf(classes)));
+        this.payloads = builder.build();
+    }
+
+    /** scapy server version handler the graph was built for */
+    public String getKey() {
+        return key;
+    }
+
+    /** allowed payload classes or null if the protocol is unknown */
+    public List<String> getPayloads(String protocolId) {
+        return payloads.get(protocolId);
+    }
+
+    public boolean contains(String protocolId) {
+        return payloads.containsKey(protocolId);
+    }
+
+    public int size() {
+        return payloads.size();
+    }
+
+    /** reads the graph stored for the key. returns null if there is no valid file */
+    public static PayloadGraph read(File file, String key) throws IOException {
+        if (key == null || !file.isFile()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION || !key.equals(in.readUTF())) {
+                return null;
+            }
+            int count = in.readInt();
+            ImmutableMap.Builder<String, ImmutableList<String>> builder = ImmutableMap.builder();
+            for (int i = 0; i < count; i++) {
+                String protocolId = in.readUTF();
+                int payloadsCount = in.readInt();
+                ImmutableList.Builder<String> classes = ImmutableList.builder();
+                for (int j = 0; j < payloadsCount; j++) {
+                    classes.add(in.readUTF());
+                }
+                builder.put(protocolId, classes.build());
+            }
+            return new PayloadGraph(key, builder.build());
+        }
+    }
+
+    /** stores the graph, the file is replaced atomically */
+    public void write(File file) throws IOException {
+        Path target = file.toPath();
+        Files.createDirectories(target.getParent());
+        Path tmp = Files.createTempFile(target.getParent(), FILE_NAME, ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeUTF(key);
+                out.writeInt(payloads.size());
+                for (Map.Entry<String, ImmutableList<String>> entry : payloads.entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    out.writeInt(entry.getValue().size());
+                    for (String payload : entry.getValue()) {
+                        out.writeUTF(payload);
+                    }
+                }
+            }
+            try {
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+}
@@ -6,6 +6,7 @@ import com.google.inject.Injector;
 import com.google.inject.name.Named;
 import com.xored.javafx.packeteditor.controllers.FieldEditorController;
 import com.xored.javafx.packeteditor.controls.ProtocolField;
+import com.xored.javafx.packeteditor.data.ModelCommandExecutor;
 import com.xored.javafx.packeteditor.data.PacketEditorModel;
 import com.xored.javafx.packeteditor.data.combined.CombinedField;
 import com.xored.javafx.packeteditor.data.combined.CombinedProtocol;
@@ -32,10 +33,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.ResourceBundle;
-import java.util.Set;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
@@ -69,6 +68,19 @@ public class FieldEditorView {
 
     private List<TitledPane> protocolTitledPanes = new ArrayList<>();
 
+    /** layers with more rows are virtualized */
+    static final int VIRTUAL_ROWS_THRESHOLD = 100;
+    static final int VIRTUAL_VISIBLE_ROWS = 30;
+    static final double VIRTUAL_ROW_HEIGHT = 27;
+
+    /** rendered layers by layer id */
+    private Map<String, LayerNodes> layerNodes = new HashMap<>();
+
+    private final VBox protocolsPaneVbox = new VBox();
+
+    /** last protocol the append protocol pane was built for */
+    private String appendPaneProtocolId;
+
     // For even/odd background, this is NOT any real field index
     static protected int oddIndex = 0;
 
@@ -164,17 +176,35 @@ public class FieldEditorView {
     }
     
     protected List<Node> buildLayerRows(CombinedProtocol protocol) {
+        return buildLayerRows(protocol, null);
+    }
+
+    /** rows of the unchanged fields are taken from the rendered layer */
+    private List<Node> buildLayerRows(CombinedProtocol protocol, LayerNodes layer) {
         List<Node> rows = new ArrayList<>();
+        Map<String, FieldRows> fieldRows = new HashMap<>();
         protocol.getFields().stream().forEach(field -> {
-            rows.add(buildFieldRow(field));
-            FieldType type = field.getType();
-            if(BITMASK.equals(type)) {
-                rows.addAll(createBitFlagRows(field));
-            }
-            if(TCP_OPTIONS.equals(type) && field.getScapyFieldData() != null) {
-                rows.addAll(createTCPOptionRows(field));
+            String fieldKey = getUniqueIdFor(field);
+            FieldRows rendered = layer != null ? layer.fieldRows.get(fieldKey) : null;
+            if (rendered == null || rendered.field != field || rendered.oddIndexBefore != oddIndex) {
+                rendered = new FieldRows(field, oddIndex);
+                rendered.nodes.add(buildFieldRow(field));
+                FieldType type = field.getType();
+                if(BITMASK.equals(type)) {
+                    rendered.nodes.addAll(createBitFlagRows(field));
+                }
+                if(TCP_OPTIONS.equals(type) && field.getScapyFieldData() != null) {
+                    rendered.nodes.addAll(createTCPOptionRows(field));
+                }
+                rendered.oddIndexAfter = oddIndex;
             }
+            oddIndex = rendered.oddIndexAfter;
+            fieldRows.put(fieldKey, rendered);
+            rows.addAll(rendered.nodes);
         });
+        if (layer != null) {
+            layer.fieldRows = fieldRows;
+        }
         return rows;
     }
     
@@ -192,7 +222,9 @@ public class FieldEditorView {
         UserProtocol userProtocol = protocol.getUserProtocol();    
         PacketEditorModel model = getModel();
         ContextMenu layerCtxMenu = null;
-        if (!model.isBinaryMode() && model.getUserModel().getProtocolStack().indexOf(userProtocol) > 0) {
+        // the published model is read, the document belongs to the writer thread
+        if (!model.isBinaryMode() && userProtocol != null
+                && model.getCombinedProtocolModel().getProtocolStack().indexOf(protocol) > 0) {
             layerCtxMenu = new ContextMenu();
             addMenuItem(layerCtxMenu, "Move Layer Up", e -> model.moveLayerUp(userProtocol));
             addMenuItem(layerCtxMenu, "Move Layer Down", e -> model.moveLayerDown(userProtocol));
@@ -301,28 +333,179 @@ public class FieldEditorView {
         rebuild(true);
     }
 
+    /**
+     * Reconciles rendered layers with the protocol model.
+     * Layers are keyed by their path and field rows by {@link #getUniqueIdFor}, only changed protocols and fields are rebuilt
+     */
     public void rebuild(boolean rebuld_breadcrumb) {
         try {
-            protocolTitledPanes = getModel().getCombinedProtocolModel().getProtocolStack().stream()
-                    .map(this::buildLayer)
-                    .collect(Collectors.toList());
+            List<CombinedProtocol> protocols = getModel().getCombinedProtocolModel().getProtocolStack();
+            Map<String, LayerNodes> renderedLayers = new HashMap<>();
+            List<TitledPane> panes = new ArrayList<>();
+            for (CombinedProtocol protocol : protocols) {
+                String layerId = getLayerId(protocol);
+                LayerNodes layer = reconcileLayer(layerNodes.get(layerId), protocol);
+                renderedLayers.put(layerId, layer);
+                panes.add(layer.pane);
+            }
+            layerNodes = renderedLayers;
+            protocolTitledPanes = panes;
 
             if (rebuld_breadcrumb) {
                 buildProtocolStructureLayer();
                 if (!controller.isViewOnly()) {
-                    bottomPane.getChildren().clear();
-                    bottomPane.getChildren().add(buildAppendProtocolPane());
+                    // available protocols depend on the last layer only
+                    String lastProtocolId = protocols.isEmpty() ? null : protocols.get(protocols.size() - 1).getId();
+                    if (bottomPane.getChildren().isEmpty() || !Objects.equals(lastProtocolId, appendPaneProtocolId)) {
+                        bottomPane.getChildren().setAll(buildAppendProtocolPane());
+                        appendPaneProtocolId = lastProtocolId;
+                    }
                 }
             }
             //protocolTitledPanes.add(buildAppendProtocolPane());
-            VBox protocolsPaneVbox = new VBox();
-            protocolsPaneVbox.getChildren().setAll(protocolTitledPanes);
-            rootPane.getChildren().setAll(protocolsPaneVbox);
+            if (!protocolsPaneVbox.getChildren().equals(protocolTitledPanes)) {
+                protocolsPaneVbox.getChildren().setAll(protocolTitledPanes);
+            }
+            if (rootPane.getChildren().size() != 1 || rootPane.getChildren().get(0) != protocolsPaneVbox) {
+                rootPane.getChildren().setAll(protocolsPaneVbox);
+            }
         } catch(Exception e) {
             logger.error("Error occurred during rebuilding view. Error {}", e);
+            clearRenderedLayers();
+        }
+    }
+
+    /**
+     * returns the rendered layer updated in place, or a new layer if it shows a different user protocol.
+     * Rows of a collapsed layer are built when it is expanded
+     */
+    private LayerNodes reconcileLayer(LayerNodes layer, CombinedProtocol protocol) {
+        if (layer == null || layer.protocol.getMeta() != protocol.getMeta()
+                || layer.protocol.getUserProtocol() != protocol.getUserProtocol()) {
+            LayerNodes created = new LayerNodes(protocol);
+            created.pane = buildLayer(protocol);
+            created.grid = (GridPane) created.pane.getContent();
+            created.styleClass = getLayerStyleClass(protocol);
+            created.pane.expandedProperty().addListener((observable, wasExpanded, expanded) -> {
+                if (expanded) {
+                    updateLayerRows(created);
+                }
+            });
+            layer = created;
+        } else if (layer.protocol != protocol) {
+            layer.pane.setText(getLayerTitle(protocol));
+            String styleClass = getLayerStyleClass(protocol);
+            if (!styleClass.equals(layer.styleClass)) {
+                layer.pane.getStyleClass().remove(layer.styleClass);
+                layer.pane.getStyleClass().add(styleClass);
+                layer.styleClass = styleClass;
+            }
+            if (!controller.isViewOnly()) {
+                layer.pane.setContextMenu(getLayerContextMenu(protocol));
+            }
+            layer.protocol = protocol;
+            layer.rowsDirty = true;
+        }
+        UserProtocol userProtocol = protocol.getUserProtocol();
+        if (userProtocol != null) {
+            layer.pane.setExpanded(controller.isViewOnly() || !userProtocol.isCollapsed());
+        }
+        if (layer.pane.isExpanded()) {
+            updateLayerRows(layer);
+        }
+        return layer;
+    }
+
+    /**
+     * builds rows of the changed fields if the layer protocol was changed since the last time.
+     * Layers with many rows are shown with a virtualized list, only visible rows are realized
+     */
+    private void updateLayerRows(LayerNodes layer) {
+        if (!layer.rowsDirty) {
+            return;
+        }
+        List<LayerRow> virtualRows = buildVirtualRows(layer.protocol);
+        if (virtualRows.size() > VIRTUAL_ROWS_THRESHOLD) {
+            if (layer.rowsList == null) {
+                layer.rowsList = new ListView<>();
+                layer.rowsList.getStyleClass().add("protocolgrid");
+                layer.rowsList.setCellFactory(list -> new LayerRowCell());
+            }
+            layer.rowsList.getItems().setAll(virtualRows);
+            layer.rowsList.setPrefHeight(Math.min(virtualRows.size(), VIRTUAL_VISIBLE_ROWS) * VIRTUAL_ROW_HEIGHT);
+            layer.fieldRows = new HashMap<>();
+            layer.grid.getChildren().clear();
+            layer.pane.setContent(layer.rowsList);
+            layer.rowsDirty = false;
+            return;
+        }
+        if (layer.rowsList != null) {
+            layer.rowsList = null;
+            layer.pane.setContent(layer.grid);
+        }
+        oddIndex = 0;
+        List<Node> rows = buildLayerRows(layer.protocol, layer);
+        GridPane layerContent = layer.grid;
+        if (!layerContent.getChildren().equals(rows)) {
+            layerContent.getChildren().clear();
+            int layerRowIdx = 0;
+            for (Node row : rows) {
+                layerContent.add(row, 0, layerRowIdx++);
+            }
+        }
+        layer.rowsDirty = false;
+    }
+
+    /** describes rows of the layer without creating them. even/odd styles are computed as by {@link #buildLayerRows} */
+    private List<LayerRow> buildVirtualRows(CombinedProtocol protocol) {
+        List<LayerRow> rows = new ArrayList<>();
+        int odd = 0;
+        for (CombinedField field : protocol.getFields()) {
+            int fieldRowIdx = 0;
+            rows.add(new LayerRow(field, null, fieldRowIdx++, odd++));
+            FieldType type = field.getType();
+            if (BITMASK.equals(type)) {
+                for (BitFlagMetadata bitFlag : field.getMeta().getBits()) {
+                    rows.add(new LayerRow(field, bitFlag, fieldRowIdx++, odd));
+                    if (odd % 2 == 0) odd++;
+                }
+            }
+            if (TCP_OPTIONS.equals(type) && field.getScapyFieldData() != null) {
+                for (TCPOptionsData option : TCPOptionsData.fromFieldData(field.getScapyFieldData())) {
+                    rows.add(new LayerRow(field, option, fieldRowIdx++, odd));
+                }
+            }
+        }
+        return rows;
+    }
+
+    private Node buildVirtualRow(LayerRow row) {
+        oddIndex = row.oddIndex;
+        if (row.detail instanceof BitFlagMetadata) {
+            return createBitFlagRow(row.field, (BitFlagMetadata) row.detail);
+        } else if (row.detail instanceof TCPOptionsData) {
+            return createTCPOptionRow(row.field, (TCPOptionsData) row.detail);
+        }
+        return buildFieldRow(row.field);
+    }
+
+    /** recycled cell of a virtualized layer. the row node is realized when the cell gets a different row */
+    private class LayerRowCell extends ListCell<LayerRow> {
+        @Override
+        protected void updateItem(LayerRow row, boolean empty) {
+            super.updateItem(row, empty);
+            setText(null);
+            setGraphic(empty || row == null ? null : buildVirtualRow(row));
         }
     }
 
+    private void clearRenderedLayers() {
+        layerNodes = new HashMap<>();
+        appendPaneProtocolId = null;
+        protocolsPaneVbox.getChildren().clear();
+    }
+
+    /** builds the layer without rows, they are added by {@link #updateLayerRows} */
     private TitledPane buildLayer(CombinedProtocol protocol) {
         LayerContext layerContext = new LayerContext() {
             @Override
@@ -339,7 +522,7 @@ public class FieldEditorView {
             }
             @Override
             public List<Node> getRows() {
-                return buildLayerRows(protocol);
+                return Collections.emptyList();
             }
             @Override
             public ContextMenu getContextMenu() {
@@ -363,12 +546,18 @@ public class FieldEditorView {
     }
 
     public TitledPane buildAppendProtocolPane() {
-        List<ProtocolMetadata> protocols = controller.getModel().getAvailableProtocolsToAdd(false);
         ComboBox<ProtocolMetadata> cb = new ComboBox<>();
         cb.setId("append-protocol-combobox");
         cb.getStyleClass().add("protocol-type-selector");
         cb.setEditable(true);
-        cb.getItems().addAll(protocols);
+        // allowed payloads are requested from scapy, the combo is filled when they arrive
+        ModelCommandExecutor.onFxThread(controller.getModel().getAvailableProtocolsToAdd(false), (protocols, e) -> {
+            if (e != null) {
+                logger.error("Unable to load protocols to append: {}", e.getMessage());
+                return;
+            }
+            cb.getItems().setAll(protocols);
+        });
 
         // Display only available protocols, but let user choose any
         List<String> protoIds = controller.getMetadataService().getProtocols().values().stream()
@@ -396,30 +585,37 @@ public class FieldEditorView {
 
         Consumer<Object> onAppendLayer = (o) -> {
             Object sel = cb.getSelectionModel().getSelectedItem();
-            try {
-                if (sel==null) {
-                    sel = cb.getEditor().getText();
-                }
-                if (sel instanceof ProtocolMetadata) {
-                    controller.getModel().addProtocol((ProtocolMetadata)sel);
+            if (sel==null) {
+                sel = cb.getEditor().getText();
+            }
+            CompletableFuture<Void> appended = null;
+            if (sel instanceof ProtocolMetadata) {
+                appended = controller.getModel().addProtocol((ProtocolMetadata)sel);
+            }
+            else if (sel instanceof String) {
+                String selText = (String)sel;
+                ProtocolMetadata meta = cb.getItems().stream().filter(
+                        m -> m.getId().equals(selText) || m.getName().equals(selText)
+                ).findFirst().orElse(null);
+                if (meta != null) {
+                    appended = controller.getModel().addProtocol(meta);
+                } else {
+                    appended = controller.getModel().addProtocol(selText);
                 }
-                else if (sel instanceof String) {
-                    String selText = (String)sel;
-                    ProtocolMetadata meta = protocols.stream().filter(
-                            m -> m.getId().equals(selText) || m.getName().equals(selText)
-                    ).findFirst().orElse(null);
-                    if (meta != null) {
-                        controller.getModel().addProtocol(meta);
-                    } else {
-                        controller.getModel().addProtocol(selText);
-                    }
+            }
+            if (appended == null) {
+                return;
+            }
+            Object selected = sel;
+            ModelCommandExecutor.onFxThread(appended, (ignored, e) -> {
+                if (e == null) {
+                    return;
                 }
-            } catch(Exception e) {
                 String selectedProtocolName = "unknown";
-                if (sel instanceof ProtocolMetadata) {
-                    selectedProtocolName = ((ProtocolMetadata)sel).getName();
-                } else if (sel instanceof String) {
-                    selectedProtocolName = (String) sel;
+                if (selected instanceof ProtocolMetadata) {
+                    selectedProtocolName = ((ProtocolMetadata)selected).getName();
+                } else if (selected instanceof String) {
+                    selectedProtocolName = (String) selected;
                 }
                 Alert alert = new Alert(Alert.AlertType.ERROR);
                 alert.setHeaderText("Unable to add \""+ selectedProtocolName +"\" protocol."
@@ -431,7 +627,7 @@ public class FieldEditorView {
                 alert.initOwner(rootPane.getScene().getWindow());
 
                 alert.showAndWait();
-            }
+            });
         };
 
         cb.setOnKeyReleased( e -> {
@@ -562,27 +758,31 @@ public class FieldEditorView {
     }
 
     private List<Node> createTCPOptionRows(CombinedField field) {
-        return TCPOptionsData.fromFieldData(field.getScapyFieldData()).stream().map(fd -> {
-            BorderPane titlePane = new BorderPane();
-            titlePane.setLeft(buildIndentedFieldLabel("", fd.getName()));
-            titlePane.getStyleClass().add("title-pane");
-            titlePane.setOnMouseClicked(e -> controller.selectField(field));
+        return TCPOptionsData.fromFieldData(field.getScapyFieldData()).stream()
+                .map(fd -> createTCPOptionRow(field, fd))
+                .collect(Collectors.toList());
+    }
+
+    private Node createTCPOptionRow(CombinedField field, TCPOptionsData fd) {
+        BorderPane titlePane = new BorderPane();
+        titlePane.setLeft(buildIndentedFieldLabel("", fd.getName()));
+        titlePane.getStyleClass().add("title-pane");
+        titlePane.setOnMouseClicked(e -> controller.selectField(field));
 
-            HBox row = new HBox();
-            row.setOnMouseClicked(e -> setSelectedRow(row));
-            row.getStyleClass().addAll("field-row");
+        HBox row = new HBox();
+        row.setOnMouseClicked(e -> setSelectedRow(row));
+        row.getStyleClass().addAll("field-row");
 
-            BorderPane valuePane = new BorderPane();
-            Text valueCtrl = new Text();
-            if (fd.hasValue()) {
-                valueCtrl.setText(fd.getDisplayValue());
-            } else {
-                valueCtrl.setText("-");
-            }
-            valuePane.setLeft(valueCtrl);
-            row.getChildren().addAll(titlePane, valuePane);
-            return row;
-        }).collect(Collectors.toList());
+        BorderPane valuePane = new BorderPane();
+        Text valueCtrl = new Text();
+        if (fd.hasValue()) {
+            valueCtrl.setText(fd.getDisplayValue());
+        } else {
+            valueCtrl.setText("-");
+        }
+        valuePane.setLeft(valueCtrl);
+        row.getChildren().addAll(titlePane, valuePane);
+        return row;
     }
 
     private String maskToString(int mask) {
@@ -590,13 +790,17 @@ public class FieldEditorView {
     }
 
     private List<Node> createBitFlagRows(CombinedField field) {
-        return field.getMeta().getBits().stream().map(bitFlagMetadata -> {
-            String flagName = bitFlagMetadata.getName();
-            int flagMask = bitFlagMetadata.getMask();
-            Node label = buildIndentedFieldLabel(maskToString(flagMask), flagName, true);
-            ComboBox<ComboBoxItem> combo = createBitFlagComboBox(field, bitFlagMetadata, flagName, flagMask);
-            return createRow(label, combo, field);
-        }).collect(Collectors.toList());
+        return field.getMeta().getBits().stream()
+                .map(bitFlagMetadata -> createBitFlagRow(field, bitFlagMetadata))
+                .collect(Collectors.toList());
+    }
+
+    private Node createBitFlagRow(CombinedField field, BitFlagMetadata bitFlagMetadata) {
+        String flagName = bitFlagMetadata.getName();
+        int flagMask = bitFlagMetadata.getMask();
+        Node label = buildIndentedFieldLabel(maskToString(flagMask), flagName, true);
+        ComboBox<ComboBoxItem> combo = createBitFlagComboBox(field, bitFlagMetadata, flagName, flagMask);
+        return createRow(label, combo, field);
     }
 
     private Node createRow(Node label, Node control, CombinedField field) {
@@ -650,7 +854,7 @@ public class FieldEditorView {
             int selected = val.getValue().getAsInt();
             int current = field.getValue().getAsInt();
             String newVal = String.valueOf(current & ~(bitFlagMask) | selected);
-            getModel().editField(field, newVal);
+            controller.showErrorOnFailure(getModel().editField(field, newVal), "Unable to set " + field.getId());
         });
         return combo;
     }
@@ -679,6 +883,7 @@ public class FieldEditorView {
     }
 
     public void reset(boolean connected) {
+        clearRenderedLayers();
         rootPane.getChildren().clear();
         if (connected) {
             showEmptyPacketContent();
@@ -687,4 +892,65 @@ public class FieldEditorView {
             showNoConnectionContent();
         }
     }
+
+    /** nodes of a rendered protocol layer */
+    private static class LayerNodes {
+        CombinedProtocol protocol;
+        TitledPane pane;
+        GridPane grid;
+        /** content of layers with many rows, replaces the grid */
+        ListView<LayerRow> rowsList;
+        String styleClass;
+        /** rows don't match the protocol, they are rebuilt when the layer is shown expanded */
+        boolean rowsDirty = true;
+        Map<String, FieldRows> fieldRows = new HashMap<>();
+
+        LayerNodes(CombinedProtocol protocol) {
+            this.protocol = protocol;
+        }
+    }
+
+    /** row of a virtualized layer. rows of the same field object are equal, so their cells are not updated */
+    private static class LayerRow {
+        final CombinedField field;
+        /** BitFlagMetadata or TCPOptionsData of the nested row, null for the field row */
+        final Object detail;
+        final int index;
+        final int oddIndex;
+
+        LayerRow(CombinedField field, Object detail, int index, int oddIndex) {
+            this.field = field;
+            this.detail = detail;
+            this.index = index;
+            this.oddIndex = oddIndex;
+        }
+
+        /** stripe and detail are compared too, a recycled cell must be rebuilt when the row moves to the other stripe */
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof LayerRow)) {
+                return false;
+            }
+            LayerRow row = (LayerRow) o;
+            return row.field == field && row.index == index && row.oddIndex == oddIndex && Objects.equals(row.detail, detail);
+        }
+
+        @Override
+        public int hashCode() {
+            return (System.identityHashCode(field) * 31 + index) * 31 + oddIndex;
+        }
+    }
+
+    /** rows of a rendered field: the field row followed by bit flag or TCP option rows */
+    private static class FieldRows {
+        final CombinedField field;
+        final List<Node> nodes = new ArrayList<>();
+        final int oddIndexBefore;
+        int oddIndexAfter;
+
+        FieldRows(CombinedField field, int oddIndexBefore) {
+            this.field = field;
+            this.oddIndexBefore = oddIndexBefore;
+        }
+    }
 }
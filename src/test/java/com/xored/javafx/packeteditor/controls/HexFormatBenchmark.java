@@ -0,0 +1,65 @@
+package com.xored.javafx.packeteditor.controls;
+
+import com.xored.javafx.packeteditor.scapy.ScapyUtils;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Compares table-based dump of a 64 KB buffer with String.format and per-row copies formatting.
+ * Run with main(), arguments: [iterations]
+ */
+public class HexFormatBenchmark {
+    static final int SIZE = 64 * 1024;
+
+    public static void main(String[] args) {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        byte[] bytes = new byte[SIZE];
+        new Random(1).nextBytes(bytes);
+
+        long blackhole = 0;
+        // warm up both paths before measuring
+        for (int i = 0; i < iterations; i++) {
+            blackhole += formatLegacy(bytes).length() + HexFormat.dump(HexFormat.of(bytes), 0, SIZE).length();
+        }
+        long legacy = measure(() -> formatLegacy(bytes).length(), iterations);
+        long table = measure(() -> HexFormat.dump(HexFormat.of(bytes), 0, SIZE).length(), iterations);
+
+        System.out.printf("64 KB dump: String.format %.3f ms, HexFormat %.3f ms, speedup %.1fx (%d)%n",
+                legacy / 1e6, table / 1e6, (double) legacy / table, blackhole);
+    }
+
+    interface Job {
+        int run();
+    }
+
+    /** median time of a job run in ns */
+    static long measure(Job job, int iterations) {
+        long[] times = new long[iterations];
+        for (int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            job.run();
+            times[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(times);
+        return times[iterations / 2];
+    }
+
+    /** formatting as the binary editor did before HexFormat */
+    static String formatLegacy(byte[] bytes) {
+        StringBuilder sb = new StringBuilder();
+        for (int offset = 0; offset < bytes.length; offset += HexFormat.BYTES_PER_ROW) {
+            byte[] row = Arrays.copyOfRange(bytes, offset, Math.min(bytes.length, offset + HexFormat.BYTES_PER_ROW));
+            sb.append(String.format("%04x  ", offset));
+            for (byte b : row) {
+                sb.append(String.format("%02X ", b));
+            }
+            StringBuilder ascii = new StringBuilder();
+            for (byte b : row) {
+                ascii.append(ScapyUtils.isPrintableChar(b) ? (char) b : '.');
+            }
+            sb.append(' ').append(ascii).append('\n');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,41 @@
+package com.xored.javafx.packeteditor.controls;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class HexFormatTest {
+
+    @Test
+    public void should_format_like_string_format() {
+        char[] out = new char[8];
+        for (int b = -128; b < 128; b++) {
+            HexFormat.hex((byte) b, out, 0);
+            assertEquals(String.format("%02X", b & 0xFF), new String(out, 0, 2));
+            assertEquals(String.format("%02X", b & 0xFF), HexFormat.hex((byte) b));
+        }
+        HexFormat.address(0x1a2b, 4, out, 0);
+        assertEquals("1a2b", new String(out, 0, 4));
+        HexFormat.address(0x12345, 8, out, 0);
+        assertEquals(String.format("%08x", 0x12345), new String(out, 0, 8));
+    }
+
+    @Test
+    public void should_dump_rows_with_aligned_ascii() {
+        byte[] bytes = new byte[20];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) ('A' + i);
+        }
+        bytes[1] = 0;
+        String[] lines = HexFormat.dump(HexFormat.of(bytes), 0, bytes.length).split("\n");
+
+        assertEquals(2, lines.length);
+        assertEquals("0000  41 00 43 44  45 46 47 48  49 4A 4B 4C  4D 4E 4F 50  A.CDEFGHIJKLMNOP", lines[0]);
+        assertEquals("0010  51 52 53 54" + repeat(' ', 41) + "QRST", lines[1]);
+        assertEquals(lines[0].length(), HexFormat.rowLength(4));
+    }
+
+    private static String repeat(char c, int count) {
+        return new String(new char[count]).replace('\0', c);
+    }
+}
@@ -0,0 +1,53 @@
+package com.xored.javafx.packeteditor.data;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.xored.javafx.packeteditor.data.BinaryDataChange.Type.*;
+import static org.junit.Assert.*;
+
+public class BinaryDataTest {
+
+    @Test
+    public void should_notify_changed_ranges_only() {
+        BinaryData data = new BinaryData();
+        data.setBytes(new byte[100]);
+        List<BinaryDataChange> changes = new ArrayList<>();
+        data.addChangeListener(changes::add);
+
+        byte[] modified = new byte[100];
+        modified[10] = 1;
+        modified[12] = 1;
+        modified[50] = 1;
+        modified[51] = 1;
+        data.setBytes(modified);
+
+        assertEquals(2, changes.size());
+        assertEquals(BYTES, changes.get(0).getType());
+        assertEquals(10, changes.get(0).getOffset());
+        assertEquals(3, changes.get(0).getLength());
+        assertEquals(50, changes.get(1).getOffset());
+        assertEquals(2, changes.get(1).getLength());
+
+        changes.clear();
+        data.setBytes(modified.clone());
+        assertTrue(changes.isEmpty());
+    }
+
+    @Test
+    public void should_notify_resize_from_first_difference() {
+        BinaryData data = new BinaryData();
+        data.setBytes(new byte[20]);
+        List<BinaryDataChange> changes = new ArrayList<>();
+        data.addChangeListener(changes::add);
+
+        data.setBytes(new byte[30]);
+
+        assertEquals(1, changes.size());
+        assertEquals(RESIZE, changes.get(0).getType());
+        assertEquals(20, changes.get(0).getOffset());
+        assertEquals(10, changes.get(0).getLength());
+    }
+}
@@ -0,0 +1,63 @@
+package com.xored.javafx.packeteditor.data;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ModelCommandExecutorTest {
+    ModelCommandExecutor executor = new ModelCommandExecutor();
+    List<String> applied = Collections.synchronizedList(new ArrayList<>());
+
+    @After
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    @Test
+    public void should_apply_only_last_edit_of_burst() throws Exception {
+        List<CompletableFuture<Void>> edits = new ArrayList<>();
+        for (int i = 0; i < 12; i++) {
+            String value = "v" + i;
+            edits.add(executor.coalesce("bytes", superseded -> {
+                applied.add(value);
+                return null;
+            }));
+        }
+        CompletableFuture.allOf(edits.toArray(new CompletableFuture<?>[0])).get(5, TimeUnit.SECONDS);
+
+        assertEquals(Collections.singletonList("v11"), applied);
+    }
+
+    @Test
+    public void should_flush_pending_edits_before_next_command() throws Exception {
+        executor.coalesce("field", superseded -> applied.add("edit"));
+        executor.execute(() -> applied.add("command")).get(5, TimeUnit.SECONDS);
+
+        assertEquals(Arrays.asList("edit", "command"), applied);
+    }
+
+    @Test
+    public void should_report_running_edit_as_superseded() throws Exception {
+        CompletableFuture<Void> started = new CompletableFuture<>();
+        CompletableFuture<Void> release = new CompletableFuture<>();
+        CompletableFuture<Boolean> first = executor.coalesce("bytes", superseded -> {
+            started.complete(null);
+            release.get(5, TimeUnit.SECONDS);
+            return superseded.getAsBoolean();
+        });
+        started.get(5, TimeUnit.SECONDS);
+        CompletableFuture<Boolean> second = executor.coalesce("bytes", superseded -> superseded.getAsBoolean());
+        release.complete(null);
+
+        assertTrue(first.get(5, TimeUnit.SECONDS));
+        assertFalse(second.get(5, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,114 @@
+package com.xored.javafx.packeteditor.data.combined;
+
+import com.google.gson.JsonPrimitive;
+import com.xored.javafx.packeteditor.data.user.Document;
+import com.xored.javafx.packeteditor.metatdata.*;
+import com.xored.javafx.packeteditor.scapy.FieldData;
+import com.xored.javafx.packeteditor.scapy.ProtocolData;
+import com.xored.javafx.packeteditor.service.IMetadataService;
+import com.xored.javafx.packeteditor.service.InstructionsTemplate;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.*;
+
+public class CombinedProtocolModelTest {
+
+    static ProtocolMetadata protocol(String id, String... fields) {
+        List<FieldMetadata> fieldsMeta = new ArrayList<>();
+        for (String field : fields) {
+            fieldsMeta.add(new FieldMetadata(field, field, FieldMetadata.FieldType.NUMBER, null, null, false));
+        }
+        return new ProtocolMetadata(id, id, fieldsMeta, Collections.emptyMap(), Collections.emptyList());
+    }
+
+    static final Map<String, ProtocolMetadata> protocols = new HashMap<>();
+    static {
+        protocols.put("Ether", protocol("Ether", "dst", "src", "type"));
+        protocols.put("IP", protocol("IP", "ttl", "chksum"));
+    }
+
+    static final IMetadataService metadataService = new IMetadataService() {
+        public Map<String, ProtocolMetadata> getProtocols() { return protocols; }
+        public Map<String, FeParameterMeta> getFeParameters() { return Collections.emptyMap(); }
+        public Map<String, InstructionExpressionMeta> getFeInstructions() { return Collections.emptyMap(); }
+        public ProtocolMetadata getProtocolMetadata(ProtocolData protocol) { return protocols.get(protocol.getId()); }
+        public ProtocolMetadata getProtocolMetadataById(String protocolId) { return protocols.get(protocolId); }
+        public CompletableFuture<ProtocolMetadata> getProtocolMetadataByIdAsync(String protocolId) {
+            return CompletableFuture.completedFuture(protocols.get(protocolId));
+        }
+        public List<String> getAllowedPayloadForProtocol(String protocolId) { return Collections.emptyList(); }
+        public CompletableFuture<List<String>> getAllowedPayloadForProtocolAsync(String protocolId) {
+            return CompletableFuture.completedFuture(Collections.emptyList());
+        }
+        public Map<String, FEInstructionParameterMeta> getFeInstructionParameters() { return Collections.emptyMap(); }
+        public List<InstructionsTemplate> getFeInstructionsTemplates() { return Collections.emptyList(); }
+    };
+
+    static FieldData field(String id, int value, int offset) {
+        FieldData res = new FieldData();
+        res.id = id;
+        res.value = new JsonPrimitive(value);
+        res.hvalue = String.valueOf(value);
+        res.offset = offset;
+        res.length = 1;
+        return res;
+    }
+
+    static ProtocolData scapyProtocol(String id, int offset, FieldData... fields) {
+        ProtocolData res = new ProtocolData();
+        res.id = id;
+        res.offset = offset;
+        res.fields = Arrays.asList(fields);
+        return res;
+    }
+
+    static List<ProtocolData> packet(int ttl, int chksum) {
+        return Arrays.asList(
+                scapyProtocol("Ether", 0, field("dst", 1, 0), field("src", 2, 6), field("type", 2048, 12)),
+                scapyProtocol("IP", 14, field("ttl", ttl, 8), field("chksum", chksum, 10)));
+    }
+
+    static Document document() {
+        Document doc = new Document();
+        doc.addProtocol(protocols.get("Ether"));
+        doc.addProtocol(protocols.get("IP"));
+        return doc;
+    }
+
+    @Test
+    public void should_reuse_unchanged_protocols_and_fields() {
+        Document doc = document();
+        CombinedProtocolModel first = CombinedProtocolModel.fromUserModel(metadataService, doc, packet(64, 100));
+
+        doc.setFieldValue(Arrays.asList("Ether", "IP"), "ttl", new JsonPrimitive(32));
+        CombinedProtocolModel second = CombinedProtocolModel.fromUserModel(metadataService, doc, packet(32, 200), first);
+
+        CombinedProtocol ether = second.getProtocolStack().get(0);
+        CombinedProtocol ip = second.getProtocolStack().get(1);
+        assertSame(first.getProtocolStack().get(0), ether);
+        assertNotSame(first.getProtocolStack().get(1), ip);
+        assertNotSame(first.getProtocolStack().get(1).getFields().get(0), ip.getFields().get(0));
+        assertNotSame(first.getProtocolStack().get(1).getFields().get(1), ip.getFields().get(1));
+        assertEquals("32", ip.getFields().get(0).getUserStringValue());
+        assertSame(ip, ip.getFields().get(0).getProtocol());
+    }
+
+    @Test
+    public void should_not_modify_fields_of_previous_model() {
+        Document doc = document();
+        CombinedProtocolModel first = CombinedProtocolModel.fromUserModel(metadataService, doc, packet(64, 100));
+        CombinedProtocol firstIp = first.getProtocolStack().get(1);
+        CombinedProtocolModel second = CombinedProtocolModel.fromUserModel(metadataService, doc, packet(64, 200), first);
+
+        CombinedProtocol ip = second.getProtocolStack().get(1);
+        CombinedField ttl = ip.getFields().get(0);
+        assertNotSame(firstIp, ip);
+        assertNotSame(firstIp.getFields().get(0), ttl);
+        assertSame(firstIp, firstIp.getFields().get(0).getProtocol());
+        assertSame(ip, ttl.getProtocol());
+        assertEquals("200", ip.getFields().get(1).getScapyDisplayValue());
+    }
+}
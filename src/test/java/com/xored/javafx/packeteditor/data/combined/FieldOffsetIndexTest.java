@@ -0,0 +1,62 @@
+package com.xored.javafx.packeteditor.data.combined;
+
+import com.xored.javafx.packeteditor.scapy.FieldData;
+import com.xored.javafx.packeteditor.scapy.ProtocolData;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static com.xored.javafx.packeteditor.data.combined.CombinedProtocolModelTest.*;
+import static org.junit.Assert.*;
+
+public class FieldOffsetIndexTest {
+
+    static FieldData field(String id, int offset, int length) {
+        FieldData res = CombinedProtocolModelTest.field(id, 0, offset);
+        res.length = length;
+        return res;
+    }
+
+    static CombinedProtocolModel model() {
+        List<ProtocolData> stack = Arrays.asList(
+                scapyProtocol("Ether", 0, field("dst", 0, 6), field("src", 6, 6), field("type", 12, 2)),
+                scapyProtocol("IP", 14, field("ttl", 8, 1), field("chksum", 10, 2)));
+        return CombinedProtocolModel.fromUserModel(metadataService, document(), stack);
+    }
+
+    @Test
+    public void should_find_field_by_byte() {
+        CombinedProtocolModel model = model();
+        FieldOffsetIndex index = FieldOffsetIndex.of(model);
+        List<CombinedField> ether = model.getProtocolStack().get(0).getFields();
+        List<CombinedField> ip = model.getProtocolStack().get(1).getFields();
+
+        assertSame(ether.get(0), index.getFieldAt(0));
+        assertSame(ether.get(0), index.getFieldAt(5));
+        assertSame(ether.get(1), index.getFieldAt(6));
+        assertSame(ether.get(2), index.getFieldAt(13));
+        assertNull(index.getFieldAt(14));
+        assertSame(ip.get(0), index.getFieldAt(22));
+        assertNull(index.getFieldAt(23));
+        assertSame(ip.get(1), index.getFieldAt(25));
+        assertNull(index.getFieldAt(26));
+        assertNull(index.getFieldAt(-1));
+    }
+
+    @Test
+    public void should_prefer_narrowest_field() {
+        List<ProtocolData> stack = Arrays.asList(
+                scapyProtocol("Ether", 0, field("dst", 0, 14), field("src", 4, 0), field("type", 4, 2)));
+        CombinedProtocolModel model = CombinedProtocolModel.fromUserModel(metadataService, document(), stack);
+        FieldOffsetIndex index = FieldOffsetIndex.of(model);
+        List<CombinedField> ether = model.getProtocolStack().get(0).getFields();
+
+        assertSame(ether.get(0), index.getFieldAt(3));
+        assertSame(ether.get(1), index.getFieldAt(4)); // bit field takes its byte
+        assertSame(ether.get(2), index.getFieldAt(5));
+        assertSame(ether.get(0), index.getFieldAt(6));
+        assertEquals(4, FieldOffsetIndex.getOffset(ether.get(2)));
+        assertEquals(1, FieldOffsetIndex.getLength(ether.get(1)));
+    }
+}
@@ -0,0 +1,199 @@
+package com.xored.javafx.packeteditor.fieldengine;
+
+import com.google.gson.JsonPrimitive;
+import com.xored.javafx.packeteditor.data.FEInstructionParameter2;
+import com.xored.javafx.packeteditor.data.FeParameter;
+import com.xored.javafx.packeteditor.data.InstructionExpression;
+import com.xored.javafx.packeteditor.metatdata.FEInstructionParameterMeta;
+import com.xored.javafx.packeteditor.metatdata.FeParameterMeta;
+import com.xored.javafx.packeteditor.metatdata.InstructionExpressionMeta;
+import com.xored.javafx.packeteditor.pcap.PcapReader;
+import com.xored.javafx.packeteditor.scapy.FieldData;
+import com.xored.javafx.packeteditor.scapy.PacketData;
+import com.xored.javafx.packeteditor.scapy.ProtocolData;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class FieldEngineSimulatorTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    static final int IP = 14;
+    static final int UDP = 34;
+    static final int LENGTH = 46;
+
+    /** Ether / IP / UDP / 4 bytes of payload */
+    static PacketData udpPacket() {
+        byte[] bytes = new byte[LENGTH];
+        bytes[12] = 0x08;
+        bytes[IP] = 0x45;
+        bytes[IP + 3] = 32; // total length
+        bytes[IP + 8] = 64;
+        bytes[IP + 9] = 17;
+        bytes[IP + 12] = 10;
+        bytes[IP + 16] = 16;
+        bytes[UDP + 5] = 12; // length
+        bytes[LENGTH - 1] = 0x55;
+
+        PacketData pkt = new PacketData();
+        pkt.setPacketBytes(bytes);
+        pkt.data.add(protocol("Ether", 0, field("dst", 0, 6)));
+        pkt.data.add(protocol("IP", IP, field("src", 12, 4), field("dst", 16, 4)));
+        pkt.data.add(protocol("UDP", UDP, field("sport", 0, 2)));
+        return pkt;
+    }
+
+    static ProtocolData protocol(String id, int offset, FieldData... fields) {
+        ProtocolData res = new ProtocolData();
+        res.id = id;
+        res.offset = offset;
+        res.fields = Arrays.asList(fields);
+        return res;
+    }
+
+    static FieldData field(String id, int offset, int length) {
+        FieldData res = new FieldData();
+        res.id = id;
+        res.offset = offset;
+        res.length = length;
+        return res;
+    }
+
+    static InstructionExpression instruction(String id, String... params) {
+        List<FEInstructionParameter2> parameters = new ArrayList<>();
+        for (int i = 0; i < params.length; i += 2) {
+            FEInstructionParameterMeta meta = new FEInstructionParameterMeta("STRING", params[i], params[i], "", null, false, true);
+            parameters.add(new FEInstructionParameter2(meta, new JsonPrimitive(params[i + 1])));
+        }
+        return new InstructionExpression(new InstructionExpressionMeta(id, "", Collections.emptyList()), parameters);
+    }
+
+    static long getLong(byte[] buf, int pos, int size) {
+        long res = 0;
+        for (int i = 0; i < size; i++) {
+            res = (res << 8) | (buf[pos + i] & 0xFF);
+        }
+        return res;
+    }
+
+    @Test
+    public void should_generate_flow_var_values_with_valid_checksums() {
+        FieldEngineProgram program = FieldEngineProgram.compile(udpPacket(), Arrays.asList(
+                instruction("STLVmFlowVar", "name", "src", "min_value", "10.0.0.1", "max_value", "10.0.0.10",
+                        "size", "4", "op", "inc", "step", "3", "init_value", "10.0.0.5"),
+                instruction("STLVmWrFlowVar", "fv_name", "src", "pkt_offset", "IP.src"),
+                instruction("STLVmFlowVar", "name", "port", "min_value", "100", "max_value", "200",
+                        "size", "2", "op", "dec", "step", "1", "init_value", "101"),
+                instruction("STLVmWrFlowVar", "fv_name", "port", "pkt_offset", "UDP.sport", "add_val", "1000"),
+                instruction("STLVmFixChecksumHw", "l3_offset", "IP", "l4_offset", "UDP", "l4_type", "11")),
+                Collections.emptyList());
+
+        // more packets than a single task generates, tasks run in parallel
+        int count = FieldEngineSimulator.TASK_PACKETS * 3 + 17;
+        byte[] packets = new FieldEngineSimulator(program).generate(0, count);
+
+        assertEquals(count * LENGTH, packets.length);
+        for (int k = 0; k < count; k++) {
+            int pos = k * LENGTH;
+            assertEquals(0x0A000001L + (4 + 3L * k) % 10, getLong(packets, pos + IP + 12, 4));
+            assertEquals(1000 + 100 + Math.floorMod(1 - k, 101), getLong(packets, pos + UDP, 2));
+            assertEquals(0, FieldEngineProgram.fold(FieldEngineProgram.sum(packets, pos + IP, pos + UDP, 0)));
+            long pseudo = FieldEngineProgram.sum(packets, pos + IP + 12, pos + IP + 20, 17 + 12);
+            assertEquals(0, FieldEngineProgram.fold(FieldEngineProgram.sum(packets, pos + UDP, pos + LENGTH, pseudo)));
+        }
+        assertEquals(0x55, packets[count * LENGTH - 1]);
+    }
+
+    @Test
+    public void should_export_cached_random_packets() throws Exception {
+        FeParameter cacheSize = new FeParameter(new FeParameterMeta("cache_size", "Cache size", "NUMBER", ""), "50");
+        FieldEngineProgram program = FieldEngineProgram.compile(udpPacket(), Arrays.asList(
+                instruction("STLVmFlowVar", "name", "dst", "min_value", "5", "max_value", "9", "size", "1", "op", "random"),
+                instruction("STLVmWrFlowVar", "fv_name", "dst", "pkt_offset", "IP:0.dst", "offset_fixup", "3"),
+                instruction("STLVmFixIpv4", "offset", "IP")),
+                Collections.singletonList(cacheSize));
+        File file = folder.newFile("stream.pcap");
+        new FieldEngineSimulator(program).export(file, 120);
+
+        try (PcapReader reader = PcapReader.open(file)) {
+            assertEquals(120, reader.getPacketCount());
+            for (int k = 0; k < 120; k++) {
+                byte[] packet = reader.getPacketBytes(k);
+                assertTrue(packet[IP + 19] >= 5 && packet[IP + 19] <= 9);
+                assertArrayEquals(reader.getPacketBytes(k % 50), packet);
+            }
+        }
+
+        try {
+            new FieldEngineSimulator(program).export(file, 0);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("positive"));
+        }
+    }
+
+    @Test
+    public void should_reject_unsupported_instructions() {
+        try {
+            FieldEngineProgram.compile(udpPacket(), Collections.singletonList(
+                    instruction("STLVmTrimPktSize", "fv_name", "size")), Collections.emptyList());
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("STLVmTrimPktSize"));
+        }
+        try {
+            FieldEngineProgram.compile(udpPacket(), Arrays.asList(
+                    instruction("STLVmFlowVar", "name", "v", "size", "1"),
+                    instruction("STLVmWrFlowVar", "fv_name", "v", "pkt_offset", "TCP.sport")), Collections.emptyList());
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("TCP.sport"));
+        }
+    }
+
+    @Test
+    public void should_not_checksum_past_truncated_ipv6_header() {
+        // Ether / IP header only, the version is rewritten to 6 and the 40 bytes IPv6 header is cut by the packet end
+        byte[] bytes = new byte[IP + 20];
+        bytes[12] = (byte) 0x86;
+        bytes[13] = (byte) 0xDD;
+        bytes[IP] = 0x45;
+        bytes[IP + 4] = 0x7F; // IPv6 payload length
+        bytes[IP + 6] = 17; // IPv6 next header is UDP
+        PacketData pkt = new PacketData();
+        pkt.setPacketBytes(bytes);
+        pkt.data.add(protocol("Ether", 0, field("dst", 0, 6)));
+        pkt.data.add(protocol("IPv6", IP));
+
+        FieldEngineProgram program = FieldEngineProgram.compile(pkt, Arrays.asList(
+                instruction("STLVmFlowVar", "name", "version", "min_value", "96", "max_value", "96", "size", "1", "op", "inc"),
+                instruction("STLVmWrFlowVar", "fv_name", "version", "pkt_offset", "IPv6"),
+                instruction("STLVmFixChecksumHw", "l3_offset", "IPv6", "l4_type", "11")),
+                Collections.emptyList());
+        byte[] packets = new FieldEngineSimulator(program).generate(0, 3);
+
+        byte[] expected = bytes.clone();
+        expected[IP] = 0x60;
+        for (int k = 0; k < 3; k++) {
+            assertArrayEquals(expected, Arrays.copyOfRange(packets, k * bytes.length, (k + 1) * bytes.length));
+        }
+
+        bytes[IP] = 0x60;
+        try {
+            FieldEngineProgram.compile(pkt, Collections.singletonList(
+                    instruction("STLVmFixChecksumHw", "l3_offset", "IPv6", "l4_type", "11")), Collections.emptyList());
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("IPv6"));
+        }
+    }
+}
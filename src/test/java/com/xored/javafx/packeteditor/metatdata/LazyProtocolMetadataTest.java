@@ -0,0 +1,41 @@
+package com.xored.javafx.packeteditor.metatdata;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.*;
+
+public class LazyProtocolMetadataTest {
+
+    @Test
+    public void should_resolve_unknown_protocol_to_empty_metadata() {
+        LazyProtocolMetadata meta = new LazyProtocolMetadata("Unknown", "Unknown protocol",
+                () -> CompletableFuture.completedFuture(null));
+
+        assertTrue(meta.getFields().isEmpty());
+        assertNull(meta.getMetaForFieldOrNull("type"));
+        assertTrue(meta.getInstructionParametersMeta("type").isEmpty());
+        assertTrue(meta.isLoaded());
+    }
+
+    @Test
+    public void should_retry_failed_load() {
+        FieldMetadata field = new FieldMetadata("type", "Type", FieldMetadata.FieldType.STRING, null, null, false);
+        CompletableFuture<ProtocolMetadata> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new IllegalStateException("server is down"));
+        int[] calls = {0};
+        LazyProtocolMetadata meta = new LazyProtocolMetadata("Ether", "Ethernet", () -> calls[0]++ == 0 ? failed
+                : CompletableFuture.completedFuture(new ProtocolMetadata("Ether", "Ethernet", Collections.singletonList(field), null, null)));
+
+        try {
+            meta.getFields();
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("server is down", e.getMessage());
+        }
+        assertEquals("type", meta.getMetaForField("type").getId());
+        assertEquals(2, calls[0]);
+    }
+}
@@ -0,0 +1,101 @@
+package com.xored.javafx.packeteditor.pcap;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class PcapReaderTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    static File resource(String name) throws Exception {
+        return new File(PcapReaderTest.class.getResource("/" + name).toURI());
+    }
+
+    @Test
+    public void should_read_pcap_records() throws Exception {
+        try (PcapReader reader = PcapReader.open(resource("http.pcap"))) {
+            assertFalse(reader.isPcapNg());
+            assertEquals(43, reader.getPacketCount());
+
+            PcapRecord first = reader.getRecord(0);
+            assertEquals(62, first.getCapturedLength());
+            assertEquals(62, first.getOriginalLength());
+            assertEquals(40, first.getDataOffset());
+            assertEquals(1084443427L * 1_000_000_000L + 311224000L, first.getTimestampNanos());
+            assertEquals(PcapReader.LINKTYPE_ETHERNET, first.getLinkType());
+
+            ByteBuffer packet = reader.getPacket(0);
+            assertEquals(62, packet.remaining());
+            assertTrue(packet.isReadOnly());
+            assertEquals((byte) 0xFE, packet.get(0));
+            assertArrayEquals(new byte[] {(byte) 0xFE, (byte) 0xFF, 0x20, 0x00}, Arrays.copyOf(reader.getPacketBytes(0), 4));
+        }
+    }
+
+    @Test
+    public void should_read_pcapng_blocks() throws IOException {
+        ByteBuffer b = ByteBuffer.allocate(100).order(ByteOrder.LITTLE_ENDIAN);
+        // section header
+        b.putInt(0x0A0D0D0A).putInt(28).putInt(0x1A2B3C4D).putShort((short) 1).putShort((short) 0).putLong(-1).putInt(28);
+        // interface with nanosecond resolution
+        b.putInt(1).putInt(32).putShort((short) 1).putShort((short) 0).putInt(0)
+                .putShort((short) 9).putShort((short) 1).put((byte) 9).put(new byte[3]).putInt(0).putInt(32);
+        // enhanced packet of 5 bytes
+        long ts = 1_500_000_000_123_456_789L;
+        b.putInt(6).putInt(40).putInt(0).putInt((int) (ts >>> 32)).putInt((int) ts).putInt(5).putInt(60)
+                .put(new byte[] {1, 2, 3, 4, 5}).put(new byte[3]).putInt(40);
+
+        PcapReader reader = PcapReader.wrap(b.array());
+
+        assertTrue(reader.isPcapNg());
+        assertEquals(1, reader.getPacketCount());
+        PcapRecord record = reader.getRecord(0);
+        assertEquals(ts, record.getTimestampNanos());
+        assertEquals(5, record.getCapturedLength());
+        assertEquals(60, record.getOriginalLength());
+        assertTrue(record.isTruncated());
+        assertArrayEquals(new byte[] {1, 2, 3, 4, 5}, reader.getPacketBytes(0));
+    }
+
+    @Test
+    public void should_reuse_saved_index_of_unchanged_file() throws Exception {
+        File capture = resource("http.pcap");
+        File indexFile = new File(folder.getRoot(), "http.pidx");
+        try (PcapReader scanned = PcapReader.open(capture, indexFile)) {
+            assertTrue(indexFile.isFile());
+
+            PcapIndex saved = PcapIndex.read(indexFile, capture.length(), capture.lastModified());
+            assertNotNull(saved);
+            assertEquals(scanned.getPacketCount(), saved.size());
+            assertEquals(scanned.getRecord(42).getDataOffset(), saved.getOffset(42));
+            assertEquals(scanned.getTimestampNanos(42), saved.getTimestampNanos(42));
+            assertNull(PcapIndex.read(indexFile, capture.length(), capture.lastModified() + 1000));
+        }
+        // small segments map the file by parts, records at segment bounds are read from the overlap
+        try (PcapReader reader = PcapReader.open(capture, indexFile, 1000);
+             PcapReader whole = PcapReader.open(capture)) {
+            assertEquals(whole.getPacketCount(), reader.getPacketCount());
+            for (int i = 0; i < whole.getPacketCount(); i++) {
+                assertArrayEquals(whole.getPacketBytes(i), reader.getPacketBytes(i));
+            }
+        }
+        try (PcapReader rescanned = PcapReader.open(capture, null, 1000)) {
+            assertEquals(43, rescanned.getPacketCount());
+            assertEquals(62, rescanned.getCapturedLength(0));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void should_reject_unknown_format() throws IOException {
+        PcapReader.wrap("not a capture".getBytes());
+    }
+}
@@ -0,0 +1,59 @@
+package com.xored.javafx.packeteditor.pcap;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class PcapWriterTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void should_stream_packets_readable_by_reader() throws Exception {
+        for (String name : new String[] {"out.pcap", "out.pcapng"}) {
+            File file = folder.newFile(name);
+            // more data than the write buffer holds
+            byte[] large = new byte[PcapWriter.BUFFER_SIZE + 7];
+            Arrays.fill(large, (byte) 0x5A);
+            long ts = 1_500_000_000_123_456_000L;
+            try (PcapWriter writer = PcapWriter.create(file)) {
+                for (int i = 0; i < 1000; i++) {
+                    writer.write(new byte[] {1, 2, 3, (byte) i, 5}, ts + i * 1000L);
+                }
+                writer.write(large, ts);
+            }
+
+            try (PcapReader reader = PcapReader.open(file)) {
+                assertEquals(name.endsWith(".pcapng"), reader.isPcapNg());
+                assertEquals(1001, reader.getPacketCount());
+                assertArrayEquals(new byte[] {1, 2, 3, (byte) 999, 5}, reader.getPacketBytes(999));
+                assertEquals(ts + 999_000L, reader.getTimestampNanos(999));
+                assertEquals(PcapReader.LINKTYPE_ETHERNET, reader.getLinkType(0));
+                assertArrayEquals(large, reader.getPacketBytes(1000));
+            }
+        }
+    }
+
+    @Test
+    public void should_truncate_to_snap_length() throws Exception {
+        File file = folder.newFile("snap.pcapng");
+        try (PcapWriter writer = PcapWriter.create(file, PcapWriter.Format.PCAPNG, 101, 4)) {
+            writer.write(new byte[] {1, 2, 3, 4, 5, 6}, 0);
+        }
+        try (PcapReader reader = PcapReader.open(file)) {
+            PcapRecord record = reader.getRecord(0);
+            assertEquals(4, record.getCapturedLength());
+            assertEquals(6, record.getOriginalLength());
+            assertTrue(record.isTruncated());
+            assertEquals(101, record.getLinkType());
+        }
+
+        byte[] single = PcapWriter.toPcap(new byte[] {9, 8, 7}, 0);
+        assertArrayEquals(new byte[] {9, 8, 7}, PcapReader.wrap(single).getPacketBytes(0));
+    }
+}
@@ -0,0 +1,169 @@
+package com.xored.javafx.packeteditor.scapy;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.zeromq.ZMQ;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static com.xored.javafx.packeteditor.scapy.ScapyServerStub.batch;
+import static com.xored.javafx.packeteditor.scapy.ScapyServerStub.error;
+import static com.xored.javafx.packeteditor.scapy.ScapyServerStub.result;
+import static org.junit.Assert.*;
+
+public class ScapyDispatcherTest {
+    static final long WAIT_MS = 5000;
+
+    ScapyServerStub server;
+    ZMQ.Context context;
+    ScapyDispatcher dispatcher;
+
+    @Before
+    public void setUp() {
+        server = new ScapyServerStub();
+        context = ZMQ.context(1);
+    }
+
+    @After
+    public void tearDown() {
+        if (dispatcher != null) {
+            dispatcher.close();
+        }
+        context.term();
+        server.close();
+    }
+
+    CompletableFuture<ScapyReply> request(String id) {
+        return dispatcher.submit(id, "method" + id, "{\"jsonrpc\":\"2.0\",\"id\":\"" + id + "\",\"method\":\"method" + id + "\"}");
+    }
+
+    static ScapyDispatcher.PendingRequest pending(String id) {
+        String json = "{\"jsonrpc\":\"2.0\",\"id\":\"" + id + "\",\"method\":\"method" + id + "\"}";
+        return new ScapyDispatcher.PendingRequest(id, "method" + id, json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static String resultOf(CompletableFuture<ScapyReply> reply) throws Exception {
+        return reply.get(WAIT_MS, TimeUnit.MILLISECONDS).result.getAsString();
+    }
+
+    @Test
+    public void should_match_pipelined_replies_by_id() throws Exception {
+        dispatcher = new ScapyDispatcher(context, server.getUrl(), 10000, 1, 4);
+        List<CompletableFuture<ScapyReply>> replies = new ArrayList<>();
+        for (int i = 1; i <= 3; i++) {
+            replies.add(request(Integer.toString(i)));
+        }
+        List<ScapyServerStub.Message> requests = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            requests.add(server.take());
+        }
+        // all requests are pipelined over the single socket
+        assertArrayEquals(requests.get(0).identity, requests.get(2).identity);
+
+        for (int i = 2; i >= 0; i--) {
+            server.reply(requests.get(i), result(requests.get(i).getId(), "\"res" + requests.get(i).getId() + "\""));
+        }
+        for (int i = 0; i < 3; i++) {
+            assertEquals("res" + (i + 1), resultOf(replies.get(i)));
+        }
+    }
+
+    @Test
+    public void should_expire_request_and_reopen_socket() throws Exception {
+        dispatcher = new ScapyDispatcher(context, server.getUrl(), 200, 1, 4);
+        CompletableFuture<ScapyReply> lost = request("1");
+        ScapyServerStub.Message unanswered = server.take();
+        try {
+            lost.get(WAIT_MS, TimeUnit.MILLISECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof ConnectionException);
+        }
+
+        // the failed socket may hold the late reply, it is replaced before the next request
+        CompletableFuture<ScapyReply> next = request("2");
+        ScapyServerStub.Message received = server.take();
+        assertFalse(Arrays.equals(unanswered.identity, received.identity));
+        server.reply(unanswered, result("1", "\"late\""));
+        server.reply(received, result("2", "\"res2\""));
+        assertEquals("res2", resultOf(next));
+    }
+
+    @Test
+    public void should_hold_requests_over_max_in_flight() throws Exception {
+        dispatcher = new ScapyDispatcher(context, server.getUrl(), 10000, 1, 2);
+        CompletableFuture<ScapyReply> first = request("1");
+        CompletableFuture<ScapyReply> second = request("2");
+        CompletableFuture<ScapyReply> third = request("3");
+        ScapyServerStub.Message firstRequest = server.take();
+        server.take();
+        assertNull(server.poll(300));
+
+        server.reply(firstRequest, result("1", "\"res1\""));
+        assertEquals("res1", resultOf(first));
+        ScapyServerStub.Message thirdRequest = server.take();
+        assertEquals("3", thirdRequest.getId());
+        server.reply(thirdRequest, result("3", "\"res3\""));
+        assertEquals("res3", resultOf(third));
+        assertFalse(second.isDone());
+    }
+
+    @Test
+    public void should_demultiplex_batch_replies() throws Exception {
+        dispatcher = new ScapyDispatcher(context, server.getUrl(), 10000, 1, 4);
+        List<ScapyDispatcher.PendingRequest> requests = Arrays.asList(pending("1"), pending("2"), pending("3"));
+        dispatcher.submitBatch(requests);
+
+        ScapyServerStub.Message message = server.take();
+        assertTrue(message.isBatch());
+        assertEquals(3, message.getRequests().size());
+        // entries come in any order, a missing entry fails its request
+        server.reply(message, batch(result("3", "\"res3\""), error("1", "bad request")));
+
+        assertEquals("res3", resultOf(requests.get(2).result));
+        for (int i = 0; i < 2; i++) {
+            try {
+                requests.get(i).result.get(WAIT_MS, TimeUnit.MILLISECONDS);
+                fail();
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof ScapyException);
+            }
+        }
+        assertTrue(dispatcher.isBatchSupported());
+    }
+
+    @Test
+    public void should_fall_back_to_single_requests_when_batch_is_rejected() throws Exception {
+        dispatcher = new ScapyDispatcher(context, server.getUrl(), 10000, 1, 4);
+        List<ScapyDispatcher.PendingRequest> requests = Arrays.asList(pending("1"), pending("2"));
+        dispatcher.submitBatch(requests);
+
+        // old server can't parse the batch and answers with an error without id
+        server.reply(server.take(), error(null, "Invalid Request"));
+        for (int i = 0; i < 2; i++) {
+            ScapyServerStub.Message single = server.take();
+            assertFalse(single.isBatch());
+            server.reply(single, result(single.getId(), "\"res" + single.getId() + "\""));
+        }
+        assertEquals("res1", resultOf(requests.get(0).result));
+        assertEquals("res2", resultOf(requests.get(1).result));
+        assertFalse(dispatcher.isBatchSupported());
+
+        List<ScapyDispatcher.PendingRequest> later = Arrays.asList(pending("3"), pending("4"));
+        dispatcher.submitBatch(later);
+        for (int i = 0; i < 2; i++) {
+            ScapyServerStub.Message single = server.take();
+            assertFalse(single.isBatch());
+            server.reply(single, result(single.getId(), "\"res" + single.getId() + "\""));
+        }
+        assertEquals("res3", resultOf(later.get(0).result));
+        assertEquals("res4", resultOf(later.get(1).result));
+    }
+}
@@ -0,0 +1,115 @@
+package com.xored.javafx.packeteditor.scapy;
+
+import com.google.common.eventbus.EventBus;
+import com.google.gson.JsonElement;
+import com.xored.javafx.packeteditor.service.ConfigurationService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static com.xored.javafx.packeteditor.scapy.ScapyServerStub.result;
+import static org.junit.Assert.*;
+
+public class ScapyServerClientTest {
+    static final long WAIT_MS = 5000;
+
+    ScapyServerStub server;
+    ScapyServerClient client;
+
+    @Before
+    public void setUp() {
+        server = new ScapyServerStub();
+    }
+
+    @After
+    public void tearDown() {
+        if (client != null) {
+            client.closeConnection();
+        }
+        server.close();
+    }
+
+    /** connects to the stub, which answers the handshake */
+    void connect(boolean binaryFrames) {
+        client = new ScapyServerClient();
+        client.configurationService = new ConfigurationService("localhost", "10000", "4507", "tcp", "1",
+                Boolean.toString(binaryFrames), "true", "8388608", "false");
+        client.eventBus = new EventBus();
+        client.connect(server.getUrl(), 10000);
+        assertTrue(client.isConnected());
+    }
+
+    static String handshake(ScapyServerStub.Message message) {
+        switch (message.getMethod()) {
+            case "get_version":
+                return result(message.getId(), "{\"version\":\"1.0\"}");
+            case "get_version_handler":
+                return result(message.getId(), "\"vh\"");
+            default:
+                return null;
+        }
+    }
+
+    @Test
+    public void should_complete_pipelined_async_requests() throws Exception {
+        server.setHandler(ScapyServerClientTest::handshake);
+        connect(false);
+        assertEquals("vh", client.getVersionHandler());
+
+        CompletableFuture<JsonElement> first = client.requestAsync("first", null);
+        CompletableFuture<JsonElement> second = client.requestAsync("second", null);
+        ScapyServerStub.Message firstRequest = server.take();
+        ScapyServerStub.Message secondRequest = server.take();
+        assertEquals("first", firstRequest.getMethod());
+
+        server.reply(secondRequest, result(secondRequest.getId(), "2"));
+        assertEquals(2, second.get(WAIT_MS, TimeUnit.MILLISECONDS).getAsInt());
+        assertFalse(first.isDone());
+        server.reply(firstRequest, ScapyServerStub.error(firstRequest.getId(), "bad request"));
+        try {
+            ScapyServerClient.await(first);
+            fail();
+        } catch (ScapyException e) {
+            assertEquals("bad request", e.getMessage());
+        }
+    }
+
+    @Test
+    public void should_exchange_packets_as_binary_frames() throws Exception {
+        server.setHandler(message -> message.getMethod().equals("set_transport_options")
+                ? result(message.getId(), "{\"binary_frames\":true}") : handshake(message));
+        connect(true);
+        assertTrue(client.isBinaryFrames());
+
+        CompletableFuture<PacketData> reconstructed = client.reconstruct_pkt_async(new byte[] {1, 2, 3});
+        ScapyServerStub.Message request = server.take();
+        assertEquals("reconstruct_pkt", request.getMethod());
+        assertTrue(ScapyReply.isFrameRef(request.getRequest().getAsJsonArray("params").get(1)));
+        assertEquals(1, request.frames.size());
+        assertArrayEquals(new byte[] {1, 2, 3}, request.frames.get(0));
+
+        server.reply(request, result(request.getId(), "{\"data\":[],\"binary\":{\"binary_frame\":0}}"), new byte[] {9, 8, 7});
+        PacketData pkt = reconstructed.get(WAIT_MS, TimeUnit.MILLISECONDS);
+        assertArrayEquals(new byte[] {9, 8, 7}, pkt.getPacketBytes());
+        assertEquals("CQgH", pkt.getBinary());
+    }
+
+    @Test
+    public void should_keep_base64_when_server_rejects_binary_frames() throws Exception {
+        server.setHandler(message -> message.getMethod().equals("set_transport_options")
+                ? ScapyServerStub.error(message.getId(), "Method not found") : handshake(message));
+        connect(true);
+        assertFalse(client.isBinaryFrames());
+
+        CompletableFuture<PacketData> reconstructed = client.reconstruct_pkt_async(new byte[] {1, 2, 3});
+        ScapyServerStub.Message request = server.take();
+        assertTrue(request.frames.isEmpty());
+        assertEquals("AQID", request.getRequest().getAsJsonArray("params").get(1).getAsString());
+
+        server.reply(request, result(request.getId(), "{\"data\":[],\"binary\":\"CQgH\"}"));
+        assertArrayEquals(new byte[] {9, 8, 7}, reconstructed.get(WAIT_MS, TimeUnit.MILLISECONDS).getPacketBytes());
+    }
+}
@@ -0,0 +1,179 @@
+package com.xored.javafx.packeteditor.scapy;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.zeromq.ZMQ;
+
+import java.io.Closeable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Scapy server replaced by a ROUTER socket on a loopback port.
+ * Requests are answered by the handler or taken by the test, which replies in any order.
+ */
+class ScapyServerStub implements Closeable {
+    static final long TAKE_TIMEOUT_MS = 5000;
+
+    /** message received from a client socket */
+    static class Message {
+        final byte[] identity;
+        final JsonElement json;
+        final List<byte[]> frames;
+
+        Message(byte[] identity, JsonElement json, List<byte[]> frames) {
+            this.identity = identity;
+            this.json = json;
+            this.frames = frames;
+        }
+
+        boolean isBatch() {
+            return json.isJsonArray();
+        }
+
+        /** requests of a batch or the single request */
+        List<JsonObject> getRequests() {
+            List<JsonObject> res = new ArrayList<>();
+            if (isBatch()) {
+                json.getAsJsonArray().forEach(request -> res.add(request.getAsJsonObject()));
+            } else {
+                res.add(json.getAsJsonObject());
+            }
+            return res;
+        }
+
+        JsonObject getRequest() {
+            return json.getAsJsonObject();
+        }
+
+        String getId() {
+            return getRequest().get("id").getAsString();
+        }
+
+        String getMethod() {
+            return getRequest().get("method").getAsString();
+        }
+    }
+
+    private final ZMQ.Context context = ZMQ.context(1);
+    private final ZMQ.Socket socket = context.socket(ZMQ.ROUTER);
+    private final String url;
+    private final BlockingQueue<Message> received = new LinkedBlockingQueue<>();
+    private final Queue<List<byte[]>> replies = new ConcurrentLinkedQueue<>();
+    private final Thread thread;
+    private volatile boolean running = true;
+    /** answers requests right away, requests it returns null for are taken by the test */
+    private volatile Function<Message, String> handler = message -> null;
+
+    ScapyServerStub() {
+        socket.setLinger(0);
+        socket.setReceiveTimeOut(10);
+        int port = socket.bindToRandomPort("tcp://127.0.0.1");
+        url = "tcp://127.0.0.1:" + port;
+        thread = new Thread(this::run, "scapy-server-stub");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    String getUrl() {
+        return url;
+    }
+
+    void setHandler(Function<Message, String> handler) {
+        this.handler = handler;
+    }
+
+    /** next request which was not answered by the handler */
+    Message take() throws InterruptedException {
+        Message message = poll(TAKE_TIMEOUT_MS);
+        if (message == null) {
+            throw new AssertionError("No request received");
+        }
+        return message;
+    }
+
+    /** next request or null if nothing arrives in time */
+    Message poll(long timeoutMs) throws InterruptedException {
+        return received.poll(timeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+    void reply(Message message, String json, byte[]... frames) {
+        List<byte[]> parts = new ArrayList<>();
+        parts.add(message.identity);
+        parts.add(new byte[0]);
+        parts.add(json.getBytes(StandardCharsets.UTF_8));
+        parts.addAll(Arrays.asList(frames));
+        replies.add(parts);
+    }
+
+    static String result(String id, String result) {
+        return "{\"jsonrpc\":\"2.0\",\"id\":\"" + id + "\",\"result\":" + result + "}";
+    }
+
+    static String error(String id, String message) {
+        return "{\"jsonrpc\":\"2.0\",\"id\":" + (id != null ? "\"" + id + "\"" : "null")
+                + ",\"error\":{\"code\":-32601,\"message\":\"" + message + "\"}}";
+    }
+
+    static String batch(String... responses) {
+        JsonArray res = new JsonArray();
+        for (String response : responses) {
+            res.add(new JsonParser().parse(response));
+        }
+        return res.toString();
+    }
+
+    private void run() {
+        try {
+            while (running) {
+                List<byte[]> parts;
+                while ((parts = replies.poll()) != null) {
+                    for (int i = 0; i < parts.size(); i++) {
+                        socket.send(parts.get(i), i < parts.size() - 1 ? ZMQ.SNDMORE : 0);
+                    }
+                }
+                byte[] identity = socket.recv(0);
+                if (identity == null) {
+                    continue;
+                }
+                List<byte[]> frames = new ArrayList<>();
+                while (socket.hasReceiveMore()) {
+                    frames.add(socket.recv(0));
+                }
+                // identity, empty delimiter, JSON and binary frames
+                JsonElement json = new JsonParser().parse(new String(frames.get(1), StandardCharsets.UTF_8));
+                Message message = new Message(identity, json, frames.size() > 2 ? frames.subList(2, frames.size()) : Collections.emptyList());
+                String response = handler.apply(message);
+                if (response != null) {
+                    reply(message, response);
+                } else {
+                    received.add(message);
+                }
+            }
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        try {
+            thread.join(TAKE_TIMEOUT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        context.term();
+    }
+}
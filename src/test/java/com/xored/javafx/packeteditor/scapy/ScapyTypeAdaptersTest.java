@@ -0,0 +1,56 @@
+package com.xored.javafx.packeteditor.scapy;
+
+import com.google.gson.Gson;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ScapyTypeAdaptersTest {
+    Gson gson = ScapyServerClient.createGson();
+    Gson reflectiveGson = new Gson();
+
+    static final String PACKET_JSON = "{" +
+            "\"field_engine\":{\"instructions\":{},\"error\":null}," +
+            "\"vm_instructions_expressions\":[{\"name\":\"inc\",\"parameters\":{\"size\":2}}]," +
+            "\"data\":[{\"id\":\"Ether\",\"name\":\"Ethernet\",\"offset\":0,\"unknown\":[1,{\"a\":2}],\"fields\":[" +
+            "{\"id\":\"dst\",\"value\":\"00:00:00:00:00:01\",\"hvalue\":\"00:00:00:00:00:01\",\"offset\":0,\"length\":6}," +
+            "{\"id\":\"type\",\"value\":2048,\"hvalue\":\"IPv4\",\"offset\":12,\"length\":2,\"ignored\":false}]}]," +
+            "\"binary\":\"AAECAw==\"}";
+
+    @Test
+    public void should_read_packet_same_as_reflective_gson() {
+        PacketData expected = reflectiveGson.fromJson(PACKET_JSON, PacketData.class);
+        PacketData pkt = gson.fromJson(PACKET_JSON, PacketData.class);
+
+        assertEquals(reflectiveGson.toJson(expected.data), reflectiveGson.toJson(pkt.data));
+        assertEquals(expected.field_engine, pkt.field_engine);
+        assertEquals(expected.vm_instructions_expressions.get(0).toString(), pkt.vm_instructions_expressions.get(0).toString());
+        assertArrayEquals(new byte[]{0, 1, 2, 3}, pkt.getPacketBytes());
+        assertEquals(12, pkt.getProtocols().get(0).getFieldById("type").getOffset());
+        assertFalse(pkt.getProtocols().get(0).getFieldById("type").isIgnored());
+    }
+
+    @Test
+    public void should_keep_binary_frame_reference() {
+        PacketData pkt = gson.fromJson("{\"data\":[],\"binary\":{\"binary_frame\":0}}", PacketData.class);
+        assertEquals(0, pkt.getPacketBytes().length);
+        assertTrue(ScapyReply.isFrameRef(pkt.binaryFrameRef));
+    }
+
+    @Test
+    public void should_write_and_read_definitions() {
+        String json = "{\"protocols\":[{\"id\":\"IP\",\"name\":\"IP\",\"fields\":[" +
+                "{\"id\":\"flags\",\"name\":\"flags\",\"type\":\"BitField\",\"min\":0,\"max\":7,\"values_dict\":{\"DF\":2}}]," +
+                "\"fieldEngineAwareFields\":[\"src\"]}]," +
+                "\"feParameters\":[{\"id\":\"cache_size\",\"type\":\"NUMBER\",\"defaultValue\":0,\"required\":true}]}";
+        ScapyDefinitions definitions = gson.fromJson(json, ScapyDefinitions.class);
+
+        assertEquals(7, (int) definitions.protocols.get(0).fields.get(0).max);
+        assertEquals(2, definitions.protocols.get(0).fields.get(0).values_dict.get("DF").getAsInt());
+        assertEquals("0", definitions.feParameters.get(0).defaultValue);
+        assertNull(definitions.feInstructions);
+
+        ScapyDefinitions copy = gson.fromJson(gson.toJson(definitions), ScapyDefinitions.class);
+        assertEquals(gson.toJson(definitions), gson.toJson(copy));
+    }
+}
@@ -0,0 +1,70 @@
+package com.xored.javafx.packeteditor.service;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import com.xored.javafx.packeteditor.scapy.PacketData;
+import com.xored.javafx.packeteditor.scapy.ReconstructField;
+import com.xored.javafx.packeteditor.scapy.ReconstructProtocol;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class BuildPacketCacheTest {
+
+    static List<ReconstructProtocol> ipWithTtl(int ttl) {
+        return Arrays.asList(ReconstructProtocol.pass("Ether"),
+                ReconstructProtocol.modify("IP", Collections.singletonList(ReconstructField.setValue("ttl", ttl))));
+    }
+
+    static PacketData packet(int size) {
+        PacketData pkt = new PacketData();
+        pkt.setPacketBytes(new byte[size]);
+        return pkt;
+    }
+
+    @Test
+    public void should_hit_equal_structure_regardless_of_key_order() {
+        BuildPacketCache cache = new BuildPacketCache(1024 * 1024);
+        JsonObject vm1 = new JsonObject();
+        vm1.add("a", new JsonPrimitive(1));
+        vm1.add("b", new JsonPrimitive(2));
+        JsonObject vm2 = new JsonObject();
+        vm2.add("b", new JsonPrimitive(2));
+        vm2.add("a", new JsonPrimitive(1));
+
+        assertNull(cache.get(cache.key(ipWithTtl(64), vm1)));
+        cache.put(cache.key(ipWithTtl(64), vm1), packet(60));
+
+        assertNotNull(cache.get(cache.key(ipWithTtl(64), vm2)));
+        assertNull(cache.get(cache.key(ipWithTtl(65), vm2)));
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    public void should_evict_least_recently_used_by_size() {
+        long entrySize = BuildPacketCache.estimateSize(packet(1000));
+        BuildPacketCache cache = new BuildPacketCache(entrySize * 2);
+        cache.put(cache.key(ipWithTtl(1), null), packet(1000));
+        cache.put(cache.key(ipWithTtl(2), null), packet(1000));
+        cache.get(cache.key(ipWithTtl(1), null));
+        cache.put(cache.key(ipWithTtl(3), null), packet(1000));
+
+        assertEquals(2, cache.size());
+        assertNotNull(cache.get(cache.key(ipWithTtl(1), null)));
+        assertNull(cache.get(cache.key(ipWithTtl(2), null)));
+        assertTrue(cache.getTotalBytes() <= entrySize * 2);
+    }
+
+    @Test
+    public void should_not_cache_random_values() {
+        BuildPacketCache cache = new BuildPacketCache(1024 * 1024);
+        List<ReconstructProtocol> random = Collections.singletonList(
+                ReconstructProtocol.modify("IP", Collections.singletonList(ReconstructField.randomizeValue("id"))));
+        assertNull(cache.key(random, null));
+    }
+}
@@ -0,0 +1,73 @@
+package com.xored.javafx.packeteditor.service;
+
+import com.xored.javafx.packeteditor.scapy.PacketData;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.*;
+
+public class CaptureServiceTest {
+
+    static class StubPacketDataService extends PacketDataService {
+        final List<Integer> requested = new ArrayList<>();
+        boolean fail = false;
+
+        @Override
+        public CompletableFuture<PacketData> reconstructPacketFromBinaryAsync(byte[] bytes) {
+            requested.add(bytes.length);
+            CompletableFuture<PacketData> res = new CompletableFuture<>();
+            if (fail) {
+                res.completeExceptionally(new RuntimeException("scapy error"));
+            } else {
+                PacketData pkt = new PacketData();
+                pkt.setPacketBytes(bytes);
+                res.complete(pkt);
+            }
+            return res;
+        }
+    }
+
+    static CaptureService open(StubPacketDataService packetDataService) throws Exception {
+        CaptureService service = new CaptureService();
+        service.packetDataService = packetDataService;
+        service.open(new File(CaptureServiceTest.class.getResource("/http.pcap").toURI()));
+        return service;
+    }
+
+    @Test
+    public void should_prefetch_neighbours_once() throws Exception {
+        StubPacketDataService packetDataService = new StubPacketDataService();
+        CaptureService service = open(packetDataService);
+
+        PacketData pkt = service.dissect(5).get();
+        assertEquals(service.getReader().getCapturedLength(5), pkt.getPacketBytes().length);
+        assertEquals(1 + 2 * CaptureService.PREFETCH_DISTANCE, packetDataService.requested.size());
+        assertTrue(service.isCached(5 + CaptureService.PREFETCH_DISTANCE));
+        assertTrue(service.isCached(5 - CaptureService.PREFETCH_DISTANCE));
+
+        service.dissect(6).get();
+        assertEquals(2 + 2 * CaptureService.PREFETCH_DISTANCE, packetDataService.requested.size());
+
+        service.dissect(0).get();
+        assertTrue(service.isCached(0));
+        assertFalse(service.isCached(-1));
+    }
+
+    @Test
+    public void should_retry_failed_dissection() throws Exception {
+        StubPacketDataService packetDataService = new StubPacketDataService();
+        packetDataService.fail = true;
+        CaptureService service = open(packetDataService);
+
+        assertTrue(service.dissect(10).isCompletedExceptionally());
+        assertFalse(service.isCached(10));
+
+        packetDataService.fail = false;
+        assertNotNull(service.dissect(10).get());
+        assertTrue(service.isCached(10));
+    }
+}
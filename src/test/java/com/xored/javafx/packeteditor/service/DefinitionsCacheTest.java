@@ -0,0 +1,52 @@
+package com.xored.javafx.packeteditor.service;
+
+import com.google.gson.Gson;
+import com.xored.javafx.packeteditor.scapy.ScapyDefinitions;
+import com.xored.javafx.packeteditor.scapy.ScapyServerClient;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class DefinitionsCacheTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    Gson gson = ScapyServerClient.createGson();
+    DefinitionsCache cache = new DefinitionsCache();
+
+    static final String DEFINITIONS_JSON = "{\"protocols\":[" +
+            "{\"id\":\"Ether\",\"name\":\"Ethernet\",\"fields\":[{\"id\":\"dst\",\"name\":\"dst\",\"type\":\"MAC_ADDRESS\"}]}," +
+            "{\"id\":\"IP\",\"name\":\"IP\",\"fields\":[{\"id\":\"ttl\",\"name\":\"ttl\",\"type\":\"NUMBER\",\"min\":0,\"max\":255}]}]," +
+            "\"feInstructions\":[{\"id\":\"inc\",\"help\":\"\",\"parameters\":[\"size\"]}]}";
+
+    @Before
+    public void setUp() {
+        cache.configurationService = new ConfigurationService("localhost", "5000", "4507", "tcp", "2", "true", "true", "8388608", "true");
+        cache.configurationService.setCacheLocation(folder.getRoot().getAbsolutePath());
+    }
+
+    @Test
+    public void should_read_written_definitions() throws Exception {
+        ScapyDefinitions definitions = gson.fromJson(DEFINITIONS_JSON, ScapyDefinitions.class);
+        cache.write("v1", definitions);
+
+        assertTrue(cache.open("v1"));
+        assertEquals(Arrays.asList("Ether", "IP"), cache.getProtocolIds());
+        assertEquals(255, (int) cache.readProtocol("IP").fields.get(0).max);
+        assertNull(cache.readProtocol("TCP"));
+        assertEquals(gson.toJson(definitions), gson.toJson(cache.readAll()));
+    }
+
+    @Test
+    public void should_ignore_cache_of_other_version() {
+        cache.write("v1", gson.fromJson(DEFINITIONS_JSON, ScapyDefinitions.class));
+
+        assertFalse(cache.open("v2"));
+        assertFalse(cache.isOpen());
+    }
+}
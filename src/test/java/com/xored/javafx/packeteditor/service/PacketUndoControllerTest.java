@@ -0,0 +1,123 @@
+package com.xored.javafx.packeteditor.service;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class PacketUndoControllerTest {
+
+    static final PacketUndoController.RecordCodec<String> STRING_CODEC = new PacketUndoController.RecordCodec<String>() {
+        @Override
+        public long sizeOf(String record, String previous) {
+            return record.length();
+        }
+
+        @Override
+        public byte[] encode(String record) {
+            return record.getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public String decode(byte[] data) {
+            return new String(data, StandardCharsets.UTF_8);
+        }
+    };
+
+    @Test
+    public void should_restore_spilled_records() {
+        List<String> loaded = new ArrayList<>();
+        PacketUndoController<String> undo = new PacketUndoController<>(loaded::add, STRING_CODEC);
+        undo.setMemoryBudget(10);
+        undo.setSpillToDisk(true);
+
+        undo.beforeContentReplace("aaaaa");
+        undo.beforeContentReplace("bbbbb");
+        undo.beforeContentReplace("ccccc");
+        assertEquals(3, undo.getUndoCount());
+        assertTrue(undo.getMemoryUsed() <= 10);
+
+        undo.undo();
+        undo.undo();
+        undo.undo();
+        assertEquals("ccccc", loaded.get(0));
+        assertEquals("bbbbb", loaded.get(1));
+        assertEquals("aaaaa", loaded.get(2));
+    }
+
+    @Test
+    public void should_drop_oldest_records_without_spilling() {
+        List<String> loaded = new ArrayList<>();
+        PacketUndoController<String> undo = new PacketUndoController<>(loaded::add, STRING_CODEC);
+        undo.setMemoryBudget(10);
+
+        undo.beforeContentReplace("aaaaa");
+        undo.beforeContentReplace("bbbbb");
+        undo.beforeContentReplace("ccccc");
+        assertEquals(2, undo.getUndoCount());
+
+        undo.undo();
+        undo.undo();
+        undo.undo();
+        assertEquals(2, loaded.size());
+        assertEquals("bbbbb", loaded.get(1));
+    }
+
+    @Test
+    public void should_keep_record_when_load_fails() {
+        List<String> loaded = new ArrayList<>();
+        boolean[] fail = {true};
+        PacketUndoController<String> undo = new PacketUndoController<>(null, STRING_CODEC);
+        undo.setUndoLoad(state -> {
+            if (fail[0]) {
+                throw new IllegalStateException("server is down");
+            }
+            undo.beforeContentReplace("current");
+            loaded.add(state);
+        });
+
+        undo.beforeContentReplace("aaaaa");
+        undo.undo();
+        assertEquals(1, undo.getUndoCount());
+        assertEquals(0, undo.getRedoCount());
+
+        fail[0] = false;
+        undo.undo();
+        assertEquals("aaaaa", loaded.get(0));
+        assertEquals(0, undo.getUndoCount());
+        assertEquals(1, undo.getRedoCount());
+    }
+
+    @Test
+    public void should_compact_spill_file() {
+        List<String> loaded = new ArrayList<>();
+        PacketUndoController<String> undo = new PacketUndoController<>(null, STRING_CODEC);
+        undo.setUndoLoad(state -> {
+            undo.beforeContentReplace("xxxxx");
+            loaded.add(state);
+        });
+        undo.setMemoryBudget(5);
+        undo.setSpillToDisk(true);
+        undo.setSpillCompactThreshold(20);
+
+        for (int i = 0; i < 100; i++) {
+            // records spilled and loaded again become dead data of the spill file
+            undo.beforeContentReplace("rec" + (i % 10) + "_");
+            undo.beforeContentReplace("new" + (i % 10) + "_");
+            undo.undo();
+            undo.undo();
+        }
+        assertTrue(undo.getSpillFileLength() <= 100);
+        assertEquals("new9_", loaded.get(loaded.size() - 2));
+        assertEquals("rec9_", loaded.get(loaded.size() - 1));
+
+        // redo records are read from the compacted file
+        undo.redo();
+        undo.redo();
+        assertEquals("xxxxx", loaded.get(loaded.size() - 1));
+        assertEquals(0, undo.getRedoCount());
+    }
+}
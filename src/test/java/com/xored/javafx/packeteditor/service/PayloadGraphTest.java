@@ -0,0 +1,36 @@
+package com.xored.javafx.packeteditor.service;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class PayloadGraphTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void should_read_written_graph_for_same_version() throws Exception {
+        Map<String, List<String>> payloads = new LinkedHashMap<>();
+        payloads.put("Ether", Arrays.asList("IP", "IPv6", "ARP"));
+        payloads.put("Raw", Collections.emptyList());
+        File file = new File(folder.getRoot(), PayloadGraph.FILE_NAME);
+        new PayloadGraph("v1", payloads).write(file);
+
+        PayloadGraph graph = PayloadGraph.read(file, "v1");
+        assertEquals(2, graph.size());
+        assertEquals(Arrays.asList("IP", "IPv6", "ARP"), graph.getPayloads("Ether"));
+        assertTrue(graph.getPayloads("Raw").isEmpty());
+        assertNull(graph.getPayloads("IP"));
+
+        assertNull(PayloadGraph.read(file, "v2"));
+    }
+}